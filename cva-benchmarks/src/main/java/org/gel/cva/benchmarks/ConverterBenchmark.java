@@ -0,0 +1,129 @@
+package org.gel.cva.benchmarks;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.mongodb.knownvariant.codecs.KnownVariantCodec;
+import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToKnownVariantConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the DocumentToKnownVariantConverter converting a known variant holding a curation and an evidence for
+ * each of N phenotypes to a Document and back, next to the KnownVariantCodec doing the same to a BsonDocument.
+ * The *Bson benchmarks also include the serialization to and from the BSON bytes, for the converter through the
+ * Document codec of the driver, as that is how documents reach the converter.
+ * Run the main method to get the latency and, through the GC profiler, the allocation per operation
+ * (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+
+    @Param({"0", "10", "100"})
+    public int entries;
+
+    private DocumentToKnownVariantConverter knownVariantConverter;
+    private KnownVariantCodec knownVariantCodec;
+    private KnownVariantWrapper knownVariantWrapper;
+    private Document document;
+    private BsonDocument bsonDocument;
+    private Codec<Document> documentCodec;
+    private byte[] bson;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.knownVariantConverter = new DocumentToKnownVariantConverter();
+        this.knownVariantCodec = new KnownVariantCodec(MongoClient.getDefaultCodecRegistry(), false);
+        this.knownVariantWrapper = KnownVariantFixtures.knownVariant("1", 12345, this.entries);
+        this.document = this.knownVariantConverter.convertToStorageType(this.knownVariantWrapper);
+        this.bsonDocument = this.codecEncode();
+        this.documentCodec = MongoClient.getDefaultCodecRegistry().get(Document.class);
+        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+        this.knownVariantCodec.encode(new BsonBinaryWriter(outputBuffer), this.knownVariantWrapper,
+                EncoderContext.builder().build());
+        this.bson = outputBuffer.toByteArray();
+    }
+
+    @Benchmark
+    public Document converterEncode() {
+        return this.knownVariantConverter.convertToStorageType(this.knownVariantWrapper);
+    }
+
+    @Benchmark
+    public KnownVariantWrapper converterDecode() {
+        return this.knownVariantConverter.convertToDataModelType(this.document);
+    }
+
+    @Benchmark
+    public BsonDocument codecEncode() {
+        BsonDocument encoded = new BsonDocument();
+        this.knownVariantCodec.encode(new BsonDocumentWriter(encoded), this.knownVariantWrapper,
+                EncoderContext.builder().build());
+        return encoded;
+    }
+
+    @Benchmark
+    public KnownVariantWrapper codecDecode() {
+        return this.knownVariantCodec.decode(new BsonDocumentReader(this.bsonDocument),
+                DecoderContext.builder().build());
+    }
+
+    @Benchmark
+    public int converterEncodeBson() {
+        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+        this.documentCodec.encode(new BsonBinaryWriter(outputBuffer),
+                this.knownVariantConverter.convertToStorageType(this.knownVariantWrapper),
+                EncoderContext.builder().build());
+        return outputBuffer.getPosition();
+    }
+
+    @Benchmark
+    public KnownVariantWrapper converterDecodeBson() {
+        Document decoded = this.documentCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(this.bson)),
+                DecoderContext.builder().build());
+        return this.knownVariantConverter.convertToDataModelType(decoded);
+    }
+
+    @Benchmark
+    public int codecEncodeBson() {
+        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+        this.knownVariantCodec.encode(new BsonBinaryWriter(outputBuffer), this.knownVariantWrapper,
+                EncoderContext.builder().build());
+        return outputBuffer.getPosition();
+    }
+
+    @Benchmark
+    public KnownVariantWrapper codecDecodeBson() {
+        return this.knownVariantCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(this.bson)),
+                DecoderContext.builder().build());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ConverterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
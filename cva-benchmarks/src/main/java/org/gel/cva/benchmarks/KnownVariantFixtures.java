@@ -0,0 +1,103 @@
+package org.gel.cva.benchmarks;
+
+import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.*;
+import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Builds the known variants used by the benchmarks. Variants are not normalized nor annotated, so building them
+ * never touches CellBase.
+ */
+public final class KnownVariantFixtures {
+
+    public static final String SUBMITTER = "benchmark";
+    public static final String CURATOR = "curator";
+    public static final String REFERENCE = "A";
+    public static final String ALTERNATE = "T";
+
+    private KnownVariantFixtures() {
+    }
+
+    /**
+     * @param index     the index of the phenotype
+     * @return          a distinct phenotype identifier for every index
+     */
+    public static String phenotype(int index) {
+        return String.format("HP:%07d", index);
+    }
+
+    /**
+     * Builds a known variant holding one curation and one evidence for each of the given number of phenotypes
+     * @param chromosome    the chromosome
+     * @param position      the position
+     * @param entries       the number of phenotypes with a curation and an evidence
+     * @return              the known variant
+     * @throws IllegalCvaArgumentException
+     */
+    public static KnownVariantWrapper knownVariant(String chromosome, int position, int entries)
+            throws IllegalCvaArgumentException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper(new KnownVariant(SUBMITTER,
+                new Variant(chromosome, position, REFERENCE, ALTERNATE).getImpl(),
+                new LinkedList<>(), new LinkedList<>(), new LinkedList<>()));
+        for (int i = 0; i < entries; i++) {
+            addEvidence(knownVariantWrapper, i);
+            addCuration(knownVariantWrapper, i);
+        }
+        return knownVariantWrapper;
+    }
+
+    /**
+     * Adds a curation for a phenotype, the consistency status is computed from the existing evidences
+     * @param knownVariantWrapper   the known variant
+     * @param phenotypeIndex        the index of the phenotype
+     * @throws IllegalCvaArgumentException
+     */
+    public static void addCuration(KnownVariantWrapper knownVariantWrapper, int phenotypeIndex)
+            throws IllegalCvaArgumentException {
+        knownVariantWrapper.addCuration(
+                CURATOR,
+                phenotype(phenotypeIndex),
+                ReportedModeOfInheritance.monoallelic,
+                null,
+                CurationClassification.likely_pathogenic_variant,
+                ManualCurationConfidence.high_confidence,
+                null,
+                0.9f,
+                false);
+    }
+
+    /**
+     * Adds a pathogenic evidence for a phenotype, the consistency status of its curations is updated
+     * @param knownVariantWrapper   the known variant
+     * @param phenotypeIndex        the index of the phenotype
+     * @throws IllegalCvaArgumentException
+     */
+    public static void addEvidence(KnownVariantWrapper knownVariantWrapper, int phenotypeIndex)
+            throws IllegalCvaArgumentException {
+        List<HeritablePhenotype> heritablePhenotypes = new LinkedList<>();
+        heritablePhenotypes.add(new HeritablePhenotype(phenotype(phenotypeIndex),
+                ReportedModeOfInheritance.monoallelic));
+        knownVariantWrapper.addEvidence(
+                SUBMITTER,
+                "RiskDB",
+                SourceType.literature_manual_curation,
+                null,
+                null,
+                null,
+                AlleleOrigin.germline,
+                heritablePhenotypes,
+                null,
+                EvidencePathogenicity.strong,
+                null,
+                null,
+                null,
+                4,
+                null,
+                "A benchmark evidence");
+    }
+}
@@ -0,0 +1,127 @@
+package org.gel.cva.benchmarks;
+
+import com.github.fakemongo.Fongo;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.mongodb.knownvariant.adaptors.KnownVariantMongoDBAdaptor;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.Variant;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the find and insert paths of the KnownVariantMongoDBAdaptor against an in-memory MongoDB (Fongo), so
+ * the normalization, the codec and the driver are measured without network nor server latencies. The collection is
+ * loaded with storedVariants known variants holding a curation and an evidence for each of N phenotypes.
+ * The Bloom filter is disabled so every lookup reaches the database, findMissing measures lookups of variants
+ * that are not registered. Inserted variants share the evidences and curations of a stored one.
+ * Fongo does not behave as a MongoDB server regarding indexes nor concurrency, these numbers are only meaningful
+ * compared to each other.
+ * Run the main method to get the latency and, through the GC profiler, the allocation per operation
+ * (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MongoDBAdaptorBenchmark {
+
+    private static final String STORED_CHROMOSOME = "1";
+    private static final String INSERTED_CHROMOSOME = "2";
+    private static final String MISSING_CHROMOSOME = "3";
+    private static final int FIRST_POSITION = 100000;
+    private static final int FIND_ALL_SIZE = 100;
+
+    @Param({"1000"})
+    public int storedVariants;
+
+    @Param({"0", "10"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean lazyDecoding;
+
+    private Fongo fongo;
+    private KnownVariantMongoDBAdaptor knownVariantMongoDBAdaptor;
+    private KnownVariant template;
+    private List<Variant> findAllVariants;
+    private int nextFound = 0;
+    private int nextInserted = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        CvaConfiguration cvaConfiguration = CvaConfiguration.getInstance();
+        Map<String, String> options = CvaConfiguration.getDefaultStorageEngine().getOptions();
+        options.put("bloomFilter.enable", "false");
+        options.put("decode.lazy", Boolean.toString(this.lazyDecoding));
+        this.fongo = new Fongo("cva-benchmarks");
+        this.knownVariantMongoDBAdaptor = new KnownVariantMongoDBAdaptor(cvaConfiguration, this.fongo.getMongo());
+        List<KnownVariantWrapper> knownVariants = new ArrayList<>(this.storedVariants);
+        for (int i = 0; i < this.storedVariants; i++) {
+            knownVariants.add(KnownVariantFixtures.knownVariant(STORED_CHROMOSOME, FIRST_POSITION + i, this.entries));
+        }
+        this.knownVariantMongoDBAdaptor.insert(knownVariants, null);
+        this.template = knownVariants.get(0).getImpl();
+        this.findAllVariants = new ArrayList<>(FIND_ALL_SIZE);
+        for (int i = 0; i < FIND_ALL_SIZE; i++) {
+            // half of them are registered
+            this.findAllVariants.add(new Variant(i % 2 == 0 ? STORED_CHROMOSOME : MISSING_CHROMOSOME,
+                    FIRST_POSITION + i % this.storedVariants, KnownVariantFixtures.REFERENCE,
+                    KnownVariantFixtures.ALTERNATE));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.knownVariantMongoDBAdaptor.close();
+        KnownVariantAnnotationService.shutdown();
+    }
+
+    @Benchmark
+    public KnownVariantWrapper find() throws Exception {
+        this.nextFound = (this.nextFound + 1) % this.storedVariants;
+        return this.knownVariantMongoDBAdaptor.find(STORED_CHROMOSOME, FIRST_POSITION + this.nextFound,
+                KnownVariantFixtures.REFERENCE, KnownVariantFixtures.ALTERNATE);
+    }
+
+    @Benchmark
+    public KnownVariantWrapper findMissing() throws Exception {
+        return this.knownVariantMongoDBAdaptor.find(MISSING_CHROMOSOME, FIRST_POSITION,
+                KnownVariantFixtures.REFERENCE, KnownVariantFixtures.ALTERNATE);
+    }
+
+    @Benchmark
+    public List<KnownVariantWrapper> findAll() {
+        return this.knownVariantMongoDBAdaptor.findAll(this.findAllVariants, null);
+    }
+
+    @Benchmark
+    public String insert() {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper(new KnownVariant(
+                KnownVariantFixtures.SUBMITTER,
+                new Variant(INSERTED_CHROMOSOME, FIRST_POSITION + this.nextInserted++,
+                        KnownVariantFixtures.REFERENCE, KnownVariantFixtures.ALTERNATE).getImpl(),
+                this.template.getCurations(), this.template.getEvidences(), this.template.getComments()));
+        return this.knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MongoDBAdaptorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
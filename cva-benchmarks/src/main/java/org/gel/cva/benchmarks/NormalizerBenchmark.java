@@ -0,0 +1,86 @@
+package org.gel.cva.benchmarks;
+
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantNormalizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the normalization of a SNV, a deletion and an insertion, the last two with a shared base to trim.
+ * The normalizer benchmark calls a VariantNormalizer directly, while annotationService goes through the
+ * KnownVariantAnnotationService as every KnownVariantWrapper and every lookup by coordinates do. Both include the
+ * construction of the input variant, as the normalizer may modify it.
+ * Run the main method to get the latency and, through the GC profiler, the allocation per operation
+ * (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NormalizerBenchmark {
+
+    @Param({"snv", "deletion", "insertion"})
+    public String variantType;
+
+    private String reference;
+    private String alternate;
+    private VariantNormalizer variantNormalizer;
+    private KnownVariantAnnotationService annotationService;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (this.variantType) {
+            case "deletion":
+                this.reference = "CAG";
+                this.alternate = "C";
+                break;
+            case "insertion":
+                this.reference = "C";
+                this.alternate = "CTT";
+                break;
+            case "snv":
+            default:
+                this.reference = "A";
+                this.alternate = "T";
+        }
+        CvaConfiguration.getInstance();
+        this.variantNormalizer = new VariantNormalizer(true, true, true);
+        this.annotationService = KnownVariantAnnotationService.getInstance();
+    }
+
+    @TearDown
+    public void tearDown() {
+        KnownVariantAnnotationService.shutdown();
+    }
+
+    @Benchmark
+    public List<Variant> normalizer() {
+        return this.variantNormalizer.apply(
+                Collections.singletonList(new Variant("1", 12345, this.reference, this.alternate)));
+    }
+
+    @Benchmark
+    public List<Variant> annotationService() {
+        return this.annotationService.normalize(new Variant("1", 12345, this.reference, this.alternate));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(NormalizerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,109 @@
+package org.gel.cva.benchmarks;
+
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantNormalizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the KnownVariantWrapper: construction from the Avro model as done when reading from the database,
+ * construction normalizing a variant without annotation through the shared annotation service and, for comparison,
+ * building a CellBase annotator and a VariantNormalizer per construction as wrappers used to do, and adding a
+ * curation or an evidence to a known variant that already holds a curation and an evidence for each of N
+ * phenotypes. The additions go to the phenotype of the last existing entry, so the whole record is scanned. A fresh
+ * known variant is built before every addition, outside of the measurement.
+ * Run the main method to get the latency and, through the GC profiler, the allocation per operation
+ * (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WrapperBenchmark {
+
+    private KnownVariantAnnotationService annotationService;
+    private KnownVariant knownVariant;
+
+    @State(Scope.Thread)
+    public static class KnownVariantWithEntries {
+
+        @Param({"0", "10", "100"})
+        public int entries;
+
+        private KnownVariantWrapper knownVariantWrapper;
+        private int phenotypeIndex;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Exception {
+            this.knownVariantWrapper = KnownVariantFixtures.knownVariant("1", 12345, this.entries);
+            this.phenotypeIndex = Math.max(0, this.entries - 1);
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        CvaConfiguration.getInstance();
+        this.annotationService = KnownVariantAnnotationService.getInstance();
+        this.knownVariant = KnownVariantFixtures.knownVariant("1", 12345, 10).getImpl();
+    }
+
+    @TearDown
+    public void tearDown() {
+        KnownVariantAnnotationService.shutdown();
+    }
+
+    @Benchmark
+    public KnownVariantWrapper constructFromAvro() {
+        return new KnownVariantWrapper(this.knownVariant);
+    }
+
+    @Benchmark
+    public KnownVariantWrapper constructNormalizing() throws Exception {
+        return new KnownVariantWrapper(KnownVariantFixtures.SUBMITTER,
+                new Variant("1", 12345, KnownVariantFixtures.REFERENCE, KnownVariantFixtures.ALTERNATE), false,
+                this.annotationService);
+    }
+
+    @Benchmark
+    public KnownVariantWrapper constructNormalizingPerConstructionSetup(Blackhole blackhole) throws Exception {
+        // what the former instance initializer of the wrapper did on every construction
+        blackhole.consume(CvaConfiguration.getCellBaseDirectVariantAnnotator());
+        blackhole.consume(new VariantNormalizer(true, true, true));
+        return new KnownVariantWrapper(KnownVariantFixtures.SUBMITTER,
+                new Variant("1", 12345, KnownVariantFixtures.REFERENCE, KnownVariantFixtures.ALTERNATE), false,
+                new KnownVariantAnnotationService());
+    }
+
+    @Benchmark
+    public KnownVariantWrapper addCuration(KnownVariantWithEntries state) throws Exception {
+        KnownVariantFixtures.addCuration(state.knownVariantWrapper, state.phenotypeIndex);
+        return state.knownVariantWrapper;
+    }
+
+    @Benchmark
+    public KnownVariantWrapper addEvidence(KnownVariantWithEntries state) throws Exception {
+        KnownVariantFixtures.addEvidence(state.knownVariantWrapper, state.phenotypeIndex);
+        return state.knownVariantWrapper;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(WrapperBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,89 @@
+package org.gel.cva.server.rest;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the fixed cost of a request to the REST resources without any storage call: building the
+ * KnownVariantWSServer as Jersey does for every request, then parsing its query parameters and building an empty
+ * response. The UriInfo and the HttpServletRequest are stubbed and the server initialization is skipped, so nothing
+ * else is measured. Run it on two commits to compare the overhead per call, the main method reports the latency and,
+ * through the GC profiler, the allocation per operation (gc.alloc.rate.norm).
+ *
+ * It stays in the package of the REST resources, unlike the other benchmarks, as it uses their protected members.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CvaWSServerBenchmark {
+
+    private UriInfo uriInfo;
+    private HttpServletRequest httpServletRequest;
+
+    @Setup
+    public void setUp() {
+        // the configuration and the storage are not needed by the no-op path
+        CvaWSServer.initialized.set(true);
+        MultivaluedMap<String, String> pathParameters = new MultivaluedHashMap<>();
+        pathParameters.putSingle("version", "v1");
+        MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<>();
+        queryParameters.putSingle("region", "19:44905000-44910000");
+        queryParameters.putSingle("include", "curations.curation,variant");
+        queryParameters.putSingle("limit", "100");
+        queryParameters.putSingle("sid", "session");
+        URI absolutePath = URI.create("http://localhost:8080/cva-0.1/webservices/rest/v1/variants/search");
+        this.uriInfo = (UriInfo) Proxy.newProxyInstance(UriInfo.class.getClassLoader(),
+                new Class<?>[]{UriInfo.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getPathParameters":
+                            return pathParameters;
+                        case "getQueryParameters":
+                            // Jersey decodes the query parameters into a new map on every call
+                            return new MultivaluedHashMap<>(queryParameters);
+                        case "getAbsolutePath":
+                            return absolutePath;
+                        default:
+                            return null;
+                    }
+                });
+        this.httpServletRequest = (HttpServletRequest) Proxy.newProxyInstance(
+                HttpServletRequest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> null);
+    }
+
+    @Benchmark
+    public CvaWSServer newResource() throws Exception {
+        return new KnownVariantWSServer(this.uriInfo, this.httpServletRequest);
+    }
+
+    @Benchmark
+    public Response noOpRequest() throws Exception {
+        KnownVariantWSServer knownVariantWSServer = new KnownVariantWSServer(this.uriInfo, this.httpServletRequest);
+        return knownVariantWSServer.createOkResponse(Collections.emptyList());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CvaWSServerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -17,9 +17,15 @@
 package org.gel.cva.server;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.gel.cva.server.rest.CvaWSServer;
 import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.config.RestServerConfiguration;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.servlet.ServletContainer;
@@ -62,18 +68,34 @@ public class RestServer extends AbstractStorageServer {
 
         ServletContainer sc = new ServletContainer(resourceConfig);
         ServletHolder sh = new ServletHolder("cva", sc);
-
-        server = new Server(port);
+        // The resources hand the storage calls to the StorageExecutor and release the request thread
+        sh.setAsyncSupported(true);
+
+        RestServerConfiguration restConfiguration = configuration != null && configuration.getServer() != null &&
+                configuration.getServer().getRest() != null ?
+                configuration.getServer().getRest() : new RestServerConfiguration();
+        QueuedThreadPool threadPool = new QueuedThreadPool(restConfiguration.getMaxThreads(),
+                restConfiguration.getMinThreads(), restConfiguration.getIdleTimeout());
+        threadPool.setName("cva-rest");
+        server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server, restConfiguration.getAcceptors(),
+                restConfiguration.getSelectors());
+        connector.setPort(port);
+        server.addConnector(connector);
 
         ServletContextHandler context = new ServletContextHandler(server, null, ServletContextHandler.SESSIONS);
         context.addServlet(sh, "/cva-0.1/webservices/rest/*");
         context.setInitParameter("config-dir", configDir.toFile().toString());
 
         // To add CORS Java filtert class to Jetty
-        context.addFilter(CORSFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ERROR));
+        FilterHolder corsFilter = context.addFilter(CORSFilter.class, "/*",
+                EnumSet.of(DispatcherType.REQUEST, DispatcherType.ERROR));
+        corsFilter.setAsyncSupported(true);
 
         server.start();
-        logger.info("REST server started, listening on {}", port);
+        logger.info("REST server started, listening on {} with {} to {} threads, {} storage threads", port,
+                restConfiguration.getMinThreads(), restConfiguration.getMaxThreads(),
+                restConfiguration.getStorageThreads());
 
         // A hook is added in case the JVM is shutting down
         Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -123,6 +145,10 @@ public class RestServer extends AbstractStorageServer {
         // By setting exit to true the monitor thread will close the Jetty server
         logger.info("Shutting down Jetty server");
         server.stop();
+        StorageExecutor.shutdown();
+        CvaWSServer.shutdown();
+        KnownVariantAnnotationService.shutdown();
+        CvaConfiguration.closeMongoClient();
         logger.info("REST server shut down");
     }
 
@@ -0,0 +1,125 @@
+package org.gel.cva.server;
+
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.config.RestServerConfiguration;
+import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the calls to the database and CellBase of the REST resources, so the Jetty threads are released while they
+ * wait. The number of threads and the queue of pending calls are bounded, a request arriving when the queue is full
+ * is rejected instead of piling up.
+ */
+public class StorageExecutor {
+
+    protected static Logger logger = LoggerFactory.getLogger(StorageExecutor.class);
+
+    private static StorageExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final long asyncTimeout;
+
+    /**
+     * Constructor for StorageExecutor
+     * @param restServerConfiguration   the number of threads, the queue size and the async timeout
+     */
+    public StorageExecutor(RestServerConfiguration restServerConfiguration) {
+        int threads = Math.max(1, restServerConfiguration.getStorageThreads());
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, restServerConfiguration.getStorageQueueSize())),
+                new NamedThreadFactory("cva-storage"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.asyncTimeout = Math.max(0, restServerConfiguration.getAsyncTimeout());
+    }
+
+    private static RestServerConfiguration loadRestServerConfiguration() {
+        RestServerConfiguration restServerConfiguration = null;
+        try {
+            CvaConfiguration cvaConfiguration = CvaConfiguration.getInstance();
+            if (cvaConfiguration.getServer() != null) {
+                restServerConfiguration = cvaConfiguration.getServer().getRest();
+            }
+        }
+        catch (IllegalCvaConfigurationException e) {
+            logger.warn("Cannot read the REST server settings, using defaults: {}", e.getMessage());
+        }
+        return restServerConfiguration != null ? restServerConfiguration : new RestServerConfiguration();
+    }
+
+    /**
+     * Returns the process wide storage executor, it is created on first use
+     * @return  the shared storage executor
+     */
+    public static synchronized StorageExecutor getInstance() {
+        if (instance == null) {
+            instance = new StorageExecutor(loadRestServerConfiguration());
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the process wide storage executor if it was created, waiting for the running calls to finish
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.executor.shutdown();
+            try {
+                if (!instance.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Storage calls still running at shutdown: {}", instance.executor.getActiveCount());
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Runs a task in the storage threads
+     * @param task      the task
+     * @throws RejectedExecutionException   when the queue of pending tasks is full
+     */
+    public void execute(Runnable task) {
+        this.executor.execute(task);
+    }
+
+    /**
+     * @return  the milliseconds a request waits for the storage before it is answered with a 503, 0 waits forever
+     */
+    public long getAsyncTimeout() {
+        return this.asyncTimeout;
+    }
+
+    /**
+     * @return  the number of tasks waiting for a storage thread
+     */
+    public int getQueuedTasks() {
+        return this.executor.getQueue().size();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.prefix + "-" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.gel.cva.server.rest;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -30,6 +31,7 @@ import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.PatternLayout;
 import org.apache.log4j.RollingFileAppender;
+import org.gel.cva.server.StorageExecutor;
 import org.gel.cva.storage.core.config.CvaConfiguration;
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
@@ -40,20 +42,24 @@ import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.variant.io.json.mixin.GenericRecordAvroJsonMixin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.Marker;
-import org.slf4j.MarkerFactory;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.*;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @ApplicationPath("/")
 @Path("/{version}")
@@ -87,6 +93,10 @@ public class CvaWSServer {
 
     protected boolean count;
     protected boolean lazy;
+    // null when the response is built in memory, otherwise json or ndjson
+    protected String stream;
+    // null when not paging with continuation tokens, empty for the first page
+    protected String pageToken;
 
     @DefaultValue("")
     @QueryParam("sid")
@@ -101,13 +111,15 @@ public class CvaWSServer {
 
     protected long startTime;
 
+    // built from the query parameters on first use, see getQuery and getQueryOptions
     protected Query query;
     protected QueryOptions queryOptions;
+    private String accept;
 
     protected static ObjectWriter jsonObjectWriter;
     protected static ObjectMapper jsonObjectMapper;
 
-    protected static Logger logger; // = LoggerFactory.getLogger(this.getClass());
+    protected static Logger logger = LoggerFactory.getLogger(CvaWSServer.class);
 
 //    @DefaultValue("true")
 //    @QueryParam("metadata")
@@ -122,6 +134,9 @@ public class CvaWSServer {
 
     private static final int DEFAULT_LIMIT = 2000;
     private static final int MAX_LIMIT = 5000;
+    protected static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    protected static final String STREAM_JSON = "json";
+    protected static final String STREAM_NDJSON = "ndjson";
 
     static {
         initialized = new AtomicBoolean(false);
@@ -149,23 +164,21 @@ public class CvaWSServer {
         this.httpServletRequest = httpServletRequest;
 
         this.params = uriInfo.getQueryParameters();
+        // read on the request thread, the resources may parse the parameters in a storage thread
+        this.accept = httpServletRequest != null ? httpServletRequest.getHeader(HttpHeaders.ACCEPT) : null;
 
         // This is only executed the first time to initialize configuration and some variables
         if (initialized.compareAndSet(false, true)) {
             init();
         }
 
-        query = new Query();
-        queryOptions = new QueryOptions();
-
-        parseParams();
+        parseVersion();
 
         // take the time for calculating the whole duration of the call
         startTime = System.currentTimeMillis();
     }
 
     private void init() {
-        logger = LoggerFactory.getLogger("org.gel.cva.server.rest.CvaWSServer");
         logger.info("========================================================================");
         logger.info("| Starting CVA REST server, initializing CvaWSServer");
         logger.info("| This message must appear only once.");
@@ -210,6 +223,18 @@ public class CvaWSServer {
         logger.info("========================================================================\n");
     }
 
+    /**
+     * Closes the known variant manager shared by the resources, stopping its background threads. A later request
+     * initializes a new one.
+     */
+    public static synchronized void shutdown() {
+        if (knownVariantManager != null) {
+            knownVariantManager.close();
+            knownVariantManager = null;
+        }
+        initialized.set(false);
+    }
+
     /**
      * This method loads OpenCGA configuration files and initialize CatalogManager and StorageManagerFactory.
      * This must be only executed once.
@@ -307,7 +332,7 @@ public class CvaWSServer {
 //        logger.debug("parseQueryParams: Query {}, queryOptions {}", query.safeToString(), queryOptions.safeToString());
 //    }
 
-    private void parseParams()  {
+    private void parseVersion() {
         // If by any reason 'version' is null we try to read it from the URI path, if not present an Exception is thrown
         if (version == null) {
             if (uriInfo.getPathParameters().containsKey("version")) {
@@ -323,8 +348,33 @@ public class CvaWSServer {
             logger.info("Version 'latest' detected, setting 'version' parameter to 'v1'");
             version = "v1";
         }
+    }
 
-        MultivaluedMap<String, String> multivaluedMap = uriInfo.getQueryParameters();
+    /**
+     * @return  the query filters of the request, parsed from the query parameters on first use
+     */
+    protected Query getQuery() {
+        if (query == null) {
+            parseParams();
+        }
+        return query;
+    }
+
+    /**
+     * @return  the query modifiers of the request, parsed from the query parameters on first use
+     */
+    protected QueryOptions getQueryOptions() {
+        if (queryOptions == null) {
+            parseParams();
+        }
+        return queryOptions;
+    }
+
+    private void parseParams() {
+        query = new Query();
+        queryOptions = new QueryOptions();
+
+        MultivaluedMap<String, String> multivaluedMap = params;
         queryOptions.put("metadata", multivaluedMap.get("metadata") == null || multivaluedMap.get("metadata").get(0).equals("true"));
 
         // Add all the others QueryParams from the URL
@@ -351,6 +401,13 @@ public class CvaWSServer {
                     boolean booleanValue = Boolean.parseBoolean(value);
                     queryOptions.put(entry.getKey(), booleanValue);
                     break;
+                case "stream":
+                    stream = STREAM_NDJSON.equalsIgnoreCase(value) ? STREAM_NDJSON :
+                            (STREAM_JSON.equalsIgnoreCase(value) || Boolean.parseBoolean(value) ? STREAM_JSON : null);
+                    break;
+                case "pageToken":
+                    pageToken = value;
+                    break;
                 default:
                     // Query
                     query.put(entry.getKey(), value);
@@ -361,18 +418,20 @@ public class CvaWSServer {
         queryOptions.put(QueryOptions.LIMIT, (limit > 0) ? Math.min(limit, MAX_LIMIT) : DEFAULT_LIMIT);
         query.remove("sid");
 
+        // Asking for NDJSON implies streaming
+        if (stream == null && accept != null && accept.contains(NDJSON_MEDIA_TYPE)) {
+            stream = STREAM_NDJSON;
+        }
+
 //      Exceptions
         if (query.containsKey("status")) {
             query.put("status.name", query.get("status"));
             query.remove("status");
         }
 
-        try {
-            Marker marker = MarkerFactory.getMarker("URL: {}, query = {}, queryOptions = {}");
-            logger.info(marker, uriInfo.getAbsolutePath().toString(),
-                    jsonObjectWriter.writeValueAsString(query), jsonObjectWriter.writeValueAsString(queryOptions));
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+        // rendered only when enabled, the maps are printed by their toString
+        if (logger.isDebugEnabled()) {
+            logger.debug("URL: {}, query = {}, queryOptions = {}", uriInfo.getAbsolutePath(), query, queryOptions);
         }
     }
 
@@ -415,7 +474,7 @@ public class CvaWSServer {
         QueryResponse<ObjectMap> queryResponse = new QueryResponse<>();
         queryResponse.setTime(new Long(System.currentTimeMillis() - startTime).intValue());
         queryResponse.setApiVersion(version);
-        queryResponse.setQueryOptions(queryOptions);
+        queryResponse.setQueryOptions(getQueryOptions());
         if (StringUtils.isEmpty(e.getMessage())) {
             queryResponse.setError(e.toString());
         } else {
@@ -438,6 +497,72 @@ public class CvaWSServer {
 //        return createOkResponse(result);
 //    }
 
+    /**
+     * Answers that the server is too busy to serve the request, so clients may retry later
+     * @param errorMessage  the reason
+     * @return              the 503 response
+     */
+    protected Response createUnavailableResponse(String errorMessage) {
+        QueryResponse<ObjectMap> queryResponse = new QueryResponse<>();
+        queryResponse.setTime(new Long(System.currentTimeMillis() - startTime).intValue());
+        queryResponse.setApiVersion(version);
+        queryResponse.setQueryOptions(getQueryOptions());
+        queryResponse.setError(errorMessage);
+        return Response.fromResponse(createJsonResponse(queryResponse))
+                .status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+
+    /**
+     * Builds the response in the StorageExecutor and resumes the suspended request with it, so the request thread is
+     * released while waiting for the database or CellBase. When the executor queue is full or the response is not
+     * ready within the async timeout the request is answered with a 503. Streamed responses are also written by the
+     * storage thread, a streamed response built after the request timed out is never written so its cursor is
+     * closed here.
+     * @param asyncResponse     the suspended request
+     * @param task              builds the response, errors must be returned as error responses
+     */
+    protected void runAsync(AsyncResponse asyncResponse, Supplier<Response> task) {
+        StorageExecutor storageExecutor = StorageExecutor.getInstance();
+        if (storageExecutor.getAsyncTimeout() > 0) {
+            asyncResponse.setTimeoutHandler(timedOut -> timedOut.resume(
+                    createUnavailableResponse("Timed out waiting for the storage, try again later")));
+            asyncResponse.setTimeout(storageExecutor.getAsyncTimeout(), TimeUnit.MILLISECONDS);
+        }
+        try {
+            storageExecutor.execute(() -> {
+                Response response;
+                try {
+                    response = task.get();
+                } catch (RuntimeException e) {
+                    response = createErrorResponse(e);
+                }
+                if (!asyncResponse.resume(response)) {
+                    logger.debug("Request {} already answered, discarding the response", uriInfo.getAbsolutePath());
+                    discardResponse(response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Storage queue full, rejecting {}", uriInfo.getAbsolutePath());
+            asyncResponse.resume(createUnavailableResponse("Too many requests waiting for the storage, " +
+                    "try again later"));
+        }
+    }
+
+    /**
+     * Releases the resources held by a response that is never written, e.g. the database cursor of a streamed response
+     * @param response  the response discarded
+     */
+    private static void discardResponse(Response response) {
+        Object entity = response.getEntity();
+        if (entity instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) entity).close();
+            } catch (Exception e) {
+                logger.warn("Error closing discarded response: {}", e.getMessage());
+            }
+        }
+    }
+
     protected Response createErrorResponse(String method, String errorMessage) {
         try {
             return buildResponse(Response.ok(jsonObjectWriter.writeValueAsString(new ObjectMap("error", errorMessage)), MediaType.APPLICATION_JSON_TYPE));
@@ -454,7 +579,7 @@ public class CvaWSServer {
         QueryResponse queryResponse = new QueryResponse();
         queryResponse.setTime(new Long(System.currentTimeMillis() - startTime).intValue());
         queryResponse.setApiVersion(version);
-        queryResponse.setQueryOptions(queryOptions);
+        queryResponse.setQueryOptions(getQueryOptions());
 
         // Guarantee that the QueryResponse object contains a list of results
         List list;
@@ -483,13 +608,180 @@ public class CvaWSServer {
     }
 
 
+    /**
+     * Serializes the response straight to the socket instead of building the whole JSON in memory first
+     * @param queryResponse     the response
+     * @return                  the JSON response
+     */
     protected Response createJsonResponse(QueryResponse queryResponse) {
-        try {
-            return buildResponse(Response.ok(jsonObjectWriter.writeValueAsString(queryResponse), MediaType.APPLICATION_JSON_TYPE));
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-            logger.error("Error parsing queryResponse object");
-            return createErrorResponse("", "Error parsing QueryResponse object:\n" + Arrays.toString(e.getStackTrace()));
+        StreamingOutput json = outputStream -> jsonObjectWriter.writeValue(outputStream, queryResponse);
+        return buildResponse(Response.ok(json, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    /**
+     * @return  true when the results must be streamed from the database cursor, see createStreamingOkResponse
+     */
+    protected boolean isStreaming() {
+        getQueryOptions();
+        return stream != null;
+    }
+
+    /**
+     * Streams the results read from a database cursor to the socket as they are read, so memory usage does not depend
+     * on the number of results. The results are written either inside a QueryResponse with a single QueryResult, with
+     * the number of results written after them, or as NDJSON with one result per line. The response status is sent
+     * before the results are read, so an error while reading the cursor is reported in the errorMsg of the
+     * QueryResult or, for NDJSON, as a last line with an error field. The cursor is always closed, either when written
+     * or when the response is discarded.
+     * @param id        the id of the QueryResult
+     * @param cursor    the results, it is closed when it is AutoCloseable
+     * @param mapper    converts every result into the object serialized
+     * @return          the streamed response
+     */
+    protected <T> Response createStreamingOkResponse(String id, Iterator<T> cursor, Function<? super T, ?> mapper) {
+        return createStreamingOkResponse(id, cursor, mapper, null);
+    }
+
+    /**
+     * Streams the results read from a database cursor as createStreamingOkResponse and, when a whole page is written,
+     * the token to continue after the last result. The token is written as the nextPageToken of the QueryResult
+     * or, for NDJSON, as a last line with a nextPageToken field.
+     * @param id                the id of the QueryResult
+     * @param cursor            the results, it is closed when it is AutoCloseable
+     * @param mapper            converts every result into the object serialized
+     * @param pageTokenMapper   builds the token continuing after a result, null when not paging
+     * @return                  the streamed response
+     */
+    protected <T> Response createStreamingOkResponse(String id, Iterator<T> cursor, Function<? super T, ?> mapper,
+                                                     Function<? super T, String> pageTokenMapper) {
+        QueryOptions queryOptions = getQueryOptions();
+        boolean ndjson = STREAM_NDJSON.equals(stream);
+        int pageSize = queryOptions.getInt(QueryOptions.LIMIT, 0);
+        StreamingOutput streamingOutput = outputStream -> {
+            long dbStart = System.currentTimeMillis();
+            int numResults = 0;
+            T last = null;
+            String errorMessage = null;
+            try (JsonGenerator generator = jsonObjectMapper.getFactory().createGenerator(outputStream)) {
+                if (!ndjson) {
+                    generator.writeStartObject();
+                    generator.writeStringField("apiVersion", version);
+                    generator.writeObjectField("queryOptions", queryOptions);
+                    generator.writeArrayFieldStart("response");
+                    generator.writeStartObject();
+                    generator.writeStringField("id", id);
+                    generator.writeArrayFieldStart("result");
+                }
+                try {
+                    while (cursor.hasNext()) {
+                        last = cursor.next();
+                        generator.writeObject(mapper.apply(last));
+                        if (ndjson) {
+                            generator.writeRaw('\n');
+                        }
+                        numResults++;
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Error streaming results for " + uriInfo.getAbsolutePath(), e);
+                    errorMessage = StringUtils.isEmpty(e.getMessage()) ? e.toString() : e.getMessage();
+                } finally {
+                    closeCursor(cursor);
+                }
+                String nextPageToken = pageTokenMapper != null && errorMessage == null && pageSize > 0 &&
+                        numResults == pageSize ? pageTokenMapper.apply(last) : null;
+                if (ndjson) {
+                    if (errorMessage != null) {
+                        generator.writeObject(new ObjectMap("error", errorMessage));
+                        generator.writeRaw('\n');
+                    }
+                    if (nextPageToken != null) {
+                        generator.writeObject(new ObjectMap("nextPageToken", nextPageToken));
+                        generator.writeRaw('\n');
+                    }
+                } else {
+                    generator.writeEndArray();
+                    generator.writeNumberField("dbTime", System.currentTimeMillis() - dbStart);
+                    generator.writeNumberField("numResults", numResults);
+                    generator.writeNumberField("numTotalResults", numResults);
+                    if (nextPageToken != null) {
+                        generator.writeStringField("nextPageToken", nextPageToken);
+                    }
+                    if (errorMessage != null) {
+                        generator.writeStringField("errorMsg", errorMessage);
+                    }
+                    generator.writeEndObject();
+                    generator.writeEndArray();
+                    generator.writeNumberField("time", System.currentTimeMillis() - startTime);
+                    if (errorMessage != null) {
+                        generator.writeStringField("error", errorMessage);
+                    }
+                    generator.writeEndObject();
+                }
+            }
+        };
+        return buildResponse(Response.ok(new CursorStreamingOutput(streamingOutput, cursor),
+                ndjson ? NDJSON_MEDIA_TYPE : MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * A streamed response reading from a database cursor, closing it releases the cursor if it was never written
+     */
+    private static class CursorStreamingOutput implements StreamingOutput, AutoCloseable {
+
+        private final StreamingOutput streamingOutput;
+        private final Iterator<?> cursor;
+
+        CursorStreamingOutput(StreamingOutput streamingOutput, Iterator<?> cursor) {
+            this.streamingOutput = streamingOutput;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+            this.streamingOutput.write(outputStream);
+        }
+
+        @Override
+        public void close() {
+            closeCursor(this.cursor);
+        }
+    }
+
+    /**
+     * @return  true when the results are paged with continuation tokens instead of skip
+     */
+    protected boolean isPaging() {
+        getQueryOptions();
+        return pageToken != null;
+    }
+
+    /**
+     * A QueryResult holding the token to request the next page, null on the last page
+     */
+    protected static class PagedQueryResult<T> extends QueryResult<T> {
+
+        private String nextPageToken;
+
+        public PagedQueryResult(String id, int dbTime, int numResults, long numTotalResults, List<T> result) {
+            super(id, dbTime, numResults, numTotalResults, "", "", result);
+        }
+
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+
+        public void setNextPageToken(String nextPageToken) {
+            this.nextPageToken = nextPageToken;
+        }
+    }
+
+    private static void closeCursor(Iterator<?> cursor) {
+        if (cursor instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) cursor).close();
+            } catch (Exception e) {
+                logger.warn("Error closing cursor: {}", e.getMessage());
+            }
         }
     }
 
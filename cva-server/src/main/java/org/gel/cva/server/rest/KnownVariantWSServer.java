@@ -16,23 +16,43 @@
 
 package org.gel.cva.server.rest;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import io.swagger.annotations.*;
+import org.gel.cva.server.StorageExecutor;
+import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
+import org.gel.cva.storage.core.knownvariant.tools.VcfAnnotationPipeline;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
 import org.gel.models.cva.avro.*;
 import org.gel.models.report.avro.EthnicCategory;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.core.exception.VersionException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @Path("/{version}/variants")
 @Produces(MediaType.APPLICATION_JSON)
@@ -43,6 +63,18 @@ public class KnownVariantWSServer extends CvaWSServer {
         super(uriInfo, httpServletRequest);
     }
 
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final String VCF_MEDIA_TYPE = "text/x-vcf";
+    private static final String INCLUDE_EXCLUDE_NOTES = "The fields returned are restricted with the query " +
+            "parameters include or exclude as comma separated lists of paths (e.g.: include=curations.curation " +
+            "returns the current curations without their history nor the evidences), only the fields returned are " +
+            "read from the database.";
+    private static final String PAGE_TOKEN_NOTES = "Pages are requested with pageToken instead of skip, empty for " +
+            "the first page and then the nextPageToken of the previous page, which is only returned for full pages. " +
+            "Every page resumes from the index after the last known variant of the previous one, so all pages are " +
+            "equally fast.";
+    private static final String PAGE_TOKEN_API_PARAM = "Continuation token: empty for the first page, then the " +
+            "nextPageToken of the previous page. skip is ignored";
     private static final String CHROMOSOME_API_PARAM = "Chromosome where the genomic variation occurred (e.g.: 1 or " +
             "chr1 or chrom1 supported)";
     private static final String POSITION_API_PARAM = "Variant's position (1-based)";
@@ -81,7 +113,7 @@ public class KnownVariantWSServer extends CvaWSServer {
                     + "Chromosome name normalization, left alignment and trimming is applied before storing the variant."
                     + "<br> Multi-allelic variants are not supported. <br>",
             response = KnownVariantWrapper.class)
-    public Response insertKnownVariant(
+    public void insertKnownVariant(
             @ApiParam(value = SUBMITTER_API_PARAM, required = true)
             @QueryParam("submitter") String submitter,
             @ApiParam(value = CHROMOSOME_API_PARAM,
@@ -92,31 +124,34 @@ public class KnownVariantWSServer extends CvaWSServer {
             @ApiParam(value = REFERENCE_API_PARAM, required = true)
             @QueryParam("reference") String reference,
             @ApiParam(value = ALTERNATE_API_PARAM, required = true)
-            @QueryParam("alternate") String alternate) {
+            @QueryParam("alternate") String alternate,
+            @Suspended AsyncResponse asyncResponse) {
 
-        try {
-            KnownVariantWrapper result = knownVariantManager.createKnownVariant(
-                    submitter,
-                    chromosome,
-                    position,
-                    reference,
-                    alternate
-            );
-            List<KnownVariant> results = new LinkedList<>();
-            results.add(result.getImpl());
-            QueryResult queryResult = new QueryResult<KnownVariant>(
-                    "id",
-                    0,
-                    1,
-                    1l,
-                    "",
-                    "",
-                    results
-            );
-            return createOkResponse(queryResult);
-        } catch (Exception e) {
-            return createErrorResponse(e);
-        }
+        runAsync(asyncResponse, () -> {
+            try {
+                KnownVariantWrapper result = knownVariantManager.createKnownVariant(
+                        submitter,
+                        chromosome,
+                        position,
+                        reference,
+                        alternate
+                );
+                List<KnownVariant> results = new LinkedList<>();
+                results.add(result.getImpl());
+                QueryResult queryResult = new QueryResult<KnownVariant>(
+                        "id",
+                        0,
+                        1,
+                        1l,
+                        "",
+                        "",
+                        results
+                );
+                return createOkResponse(queryResult);
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
     }
 
     @POST
@@ -128,7 +163,7 @@ public class KnownVariantWSServer extends CvaWSServer {
                     "Chromosome name normalization, left alignment and trimming is applied before searching for the " +
                     "variant. <br>",
             response = KnownVariantWrapper.class)
-    public Response addCuration(
+    public void addCuration(
             @ApiParam(value = "The variant's curator (should be gone once user management works)", required = true)
             @QueryParam("curator") String curator,
             @ApiParam(value = CHROMOSOME_API_PARAM,
@@ -190,41 +225,44 @@ public class KnownVariantWSServer extends CvaWSServer {
             @ApiParam(value = "The penetrance of the phenotype for this genotype. Value in the range [0, 1]")
             @QueryParam("penetrance") Float penetrance,
             @ApiParam(value = "Variable expressivity of a given phenotype for the same genotype")
-            @QueryParam("variableExpressivity") Boolean variableExpressivity
+            @QueryParam("variableExpressivity") Boolean variableExpressivity,
+            @Suspended AsyncResponse asyncResponse
             )
     {
 
-        try {
-            KnownVariantWrapper result = knownVariantManager.addCuration(
-                    chromosome,
-                    position,
-                    reference,
-                    alternate,
-                    curator,
-                    phenotype,
-                    modeOfInheritance,
-                    transcript,
-                    curationClassification,
-                    manualCurationConfidence,
-                    consistencyStatus,
-                    penetrance,
-                    variableExpressivity
-            );
-            List<KnownVariant> results = new LinkedList<>();
-            results.add(result.getImpl());
-            QueryResult queryResult = new QueryResult<KnownVariant>(
-                    "id",
-                    0,
-                    1,
-                    1l,
-                    "",
-                    "",
-                    results
-            );
-            return createOkResponse(queryResult);
-        } catch (Exception e) {
-            return createErrorResponse(e);
-        }
+        runAsync(asyncResponse, () -> {
+            try {
+                KnownVariantWrapper result = knownVariantManager.addCuration(
+                        chromosome,
+                        position,
+                        reference,
+                        alternate,
+                        curator,
+                        phenotype,
+                        modeOfInheritance,
+                        transcript,
+                        curationClassification,
+                        manualCurationConfidence,
+                        consistencyStatus,
+                        penetrance,
+                        variableExpressivity
+                );
+                List<KnownVariant> results = new LinkedList<>();
+                results.add(result.getImpl());
+                QueryResult queryResult = new QueryResult<KnownVariant>(
+                        "id",
+                        0,
+                        1,
+                        1l,
+                        "",
+                        "",
+                        results
+                );
+                return createOkResponse(queryResult);
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
     }
 
     @POST
@@ -235,7 +273,7 @@ public class KnownVariantWSServer extends CvaWSServer {
                     "Chromosome name normalization, left alignment and trimming is applied before searching for " +
                     "the variant. <br>",
             response = KnownVariantWrapper.class)
-    public Response addEvidence(
+    public void addEvidence(
             @ApiParam(value = SUBMITTER_API_PARAM, required = true)
             @QueryParam("submitter") String submitter,
             @ApiParam(value = CHROMOSOME_API_PARAM,
@@ -384,93 +422,395 @@ public class KnownVariantWSServer extends CvaWSServer {
                     "`Z`:  Not stated")
             @QueryParam("ethnicCategory") EthnicCategory ethnicCategory,
             @ApiParam(value = "Description")
-            @QueryParam("description") String description
+            @QueryParam("description") String description,
+            @Suspended AsyncResponse asyncResponse
             )
     {
 
-        HeritablePhenotype heritablePhenotype = new HeritablePhenotype(phenotype, modeOfInheritance);
-        List<HeritablePhenotype> heritablePhenotypes = new LinkedList<>();
-        heritablePhenotypes.add(heritablePhenotype);
-        try {
-            KnownVariantWrapper result = knownVariantManager.addEvidence(
-                    chromosome,
-                    position,
-                    reference,
-                    alternate,
-                    submitter,
-                    sourceName,
-                    sourceType,
-                    sourceVersion,
-                    sourceUrl,
-                    sourceId,
-                    alleleOrigin,
-                    heritablePhenotypes,
-                    transcript,
-                    evidencePathogenicity,
-                    evidenceBenignity,
-                    pubmedId,
-                    study,
-                    numberOfIndividuals,
-                    ethnicCategory,
-                    description
-            );
-            List<KnownVariant> results = new LinkedList<>();
-            results.add(result.getImpl());
-            QueryResult queryResult = new QueryResult<KnownVariant>(
-                    "id",
-                    0,
-                    1,
-                    1l,
-                    "",
-                    "",
-                    results
-            );
-            return createOkResponse(queryResult);
-        } catch (Exception e) {
-            return createErrorResponse(e);
-        }
+        runAsync(asyncResponse, () -> {
+            HeritablePhenotype heritablePhenotype = new HeritablePhenotype(phenotype, modeOfInheritance);
+            List<HeritablePhenotype> heritablePhenotypes = new LinkedList<>();
+            heritablePhenotypes.add(heritablePhenotype);
+            try {
+                KnownVariantWrapper result = knownVariantManager.addEvidence(
+                        chromosome,
+                        position,
+                        reference,
+                        alternate,
+                        submitter,
+                        sourceName,
+                        sourceType,
+                        sourceVersion,
+                        sourceUrl,
+                        sourceId,
+                        alleleOrigin,
+                        heritablePhenotypes,
+                        transcript,
+                        evidencePathogenicity,
+                        evidenceBenignity,
+                        pubmedId,
+                        study,
+                        numberOfIndividuals,
+                        ethnicCategory,
+                        description
+                );
+                List<KnownVariant> results = new LinkedList<>();
+                results.add(result.getImpl());
+                QueryResult queryResult = new QueryResult<KnownVariant>(
+                        "id",
+                        0,
+                        1,
+                        1l,
+                        "",
+                        "",
+                        results
+                );
+                return createOkResponse(queryResult);
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
     }
 
     @GET
     @Path("/search")
-    @ApiOperation(value = "Search for a known variant", position = 1,
-            notes = "Search a known variant. <br>"
-                    + "Required values: [chromosome, position, reference, alternate] <br>" +
+    @Produces({MediaType.APPLICATION_JSON, NDJSON_MEDIA_TYPE})
+    @ApiOperation(value = "Search for known variants", position = 1,
+            notes = "Search known variants. <br>"
+                    + "Either [chromosome, position, reference, alternate] to search for a single variant or any " +
+                    "combination of [region, gene, transcript, chromosome, submitter]. Several values of the same " +
+                    "parameter are given as a comma separated list and any of them matches, while different " +
+                    "parameters must all match. <br>" +
                     "Chromosome name normalization, left alignment and trimming is applied before search. <br>" +
-                    "TODO: search by position",
+                    "Gene and transcript searches rely on the variant annotation. <br>" +
+                    "Large results are streamed from the database with stream=json or as one known variant per line " +
+                    "with stream=ndjson or the Accept header application/x-ndjson, count is then ignored. <br>" +
+                    PAGE_TOKEN_NOTES + " The total count does not depend on the page. <br>" +
+                    INCLUDE_EXCLUDE_NOTES,
             response = KnownVariantWrapper.class)
-    public Response searchKnownVariant(
+    public void searchKnownVariant(
 
-            @ApiParam(value = CHROMOSOME_API_PARAM, required = true)
+            @ApiParam(value = CHROMOSOME_API_PARAM)
             @QueryParam("chromosome") String chromosome,
-            @ApiParam(value = POSITION_API_PARAM, required = true)
+            @ApiParam(value = POSITION_API_PARAM)
             @QueryParam("position") Integer position,
-            @ApiParam(value = REFERENCE_API_PARAM, required = true)
+            @ApiParam(value = REFERENCE_API_PARAM)
             @QueryParam("reference") String reference,
-            @ApiParam(value = ALTERNATE_API_PARAM, required = true)
-            @QueryParam("alternate") String alternate) {
+            @ApiParam(value = ALTERNATE_API_PARAM)
+            @QueryParam("alternate") String alternate,
+            @ApiParam(value = "Comma separated list of regions (e.g.: 19:44905000-44910000,chr2:1000-2000)")
+            @QueryParam("region") String region,
+            @ApiParam(value = "Comma separated list of genes as HGNC symbols or Ensembl gene ids (e.g.: APOE)")
+            @QueryParam("gene") String gene,
+            @ApiParam(value = "Comma separated list of Ensembl transcript ids")
+            @QueryParam("transcript") String transcript,
+            @ApiParam(value = "Comma separated list of submitters")
+            @QueryParam("submitter") String submitter,
+            @ApiParam(value = "Maximum number of variants to be returned")
+            @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Number of variants to be skipped")
+            @QueryParam("skip") Integer skip,
+            @ApiParam(value = "Count the total number of variants matching the query")
+            @QueryParam("count") Boolean count,
+            @ApiParam(value = "Stream the results as they are read from the database: json or ndjson")
+            @QueryParam("stream") String stream,
+            @ApiParam(value = PAGE_TOKEN_API_PARAM)
+            @QueryParam("pageToken") String pageToken,
+            @Suspended AsyncResponse asyncResponse) {
+
+        runAsync(asyncResponse, () -> {
+            try {
+                if (position != null || reference != null || alternate != null) {
+                    KnownVariantWrapper result = knownVariantManager.findKnownVariant(
+                            chromosome,
+                            position,
+                            reference,
+                            alternate,
+                            getQueryOptions()
+                    );
+                    // empty when the variant is not registered
+                    List<KnownVariant> results = new LinkedList<>();
+                    if (result != null) {
+                        results.add(result.getImpl());
+                    }
+                    QueryResult queryResult = new QueryResult<KnownVariant>(
+                            "id",
+                            0,
+                            results.size(),
+                            results.size(),
+                            "",
+                            "",
+                            results
+                    );
+                    return createOkResponse(queryResult);
+                }
+                Query variantsQuery = new Query();
+                variantsQuery.putIfNotEmpty(KnownVariantQueryParams.CHROMOSOME.key(), chromosome);
+                variantsQuery.putIfNotEmpty(KnownVariantQueryParams.REGION.key(), region);
+                variantsQuery.putIfNotEmpty(KnownVariantQueryParams.GENE.key(), gene);
+                variantsQuery.putIfNotEmpty(KnownVariantQueryParams.TRANSCRIPT.key(), transcript);
+                variantsQuery.putIfNotEmpty(KnownVariantQueryParams.SUBMITTER.key(), submitter);
+                if (variantsQuery.isEmpty()) {
+                    throw new IllegalCvaArgumentException("Either a variant or a region, gene, transcript, " +
+                            "chromosome or submitter must be provided");
+                }
+                return createSearchResponse("search", variantsQuery);
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
+    }
+
+    @GET
+    @Path("/list")
+    @Produces({MediaType.APPLICATION_JSON, NDJSON_MEDIA_TYPE})
+    @ApiOperation(value = "List all known variants", position = 2,
+            notes = "Lists all the known variants in the order of chromosome, position, reference and alternate. <br>" +
+                    PAGE_TOKEN_NOTES + "<br>" +
+                    "Large pages are streamed from the database with stream=json or as one known variant per line " +
+                    "with stream=ndjson or the Accept header application/x-ndjson. <br>" +
+                    INCLUDE_EXCLUDE_NOTES,
+            response = KnownVariantWrapper.class)
+    public void listKnownVariants(
+            @ApiParam(value = PAGE_TOKEN_API_PARAM)
+            @QueryParam("pageToken") String pageToken,
+            @ApiParam(value = "Maximum number of variants to be returned")
+            @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Stream the results as they are read from the database: json or ndjson")
+            @QueryParam("stream") String stream,
+            @Suspended AsyncResponse asyncResponse) {
+
+        runAsync(asyncResponse, () -> {
+            try {
+                if (!isPaging()) {
+                    this.pageToken = "";
+                }
+                return createSearchResponse("list", new Query());
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
+    }
+
+    /**
+     * Searches the known variants, streaming them when requested and continuing after the page token if any
+     * @param id                the id of the QueryResult
+     * @param variantsQuery     the query filters
+     * @return                  the response with the known variants found
+     * @throws IllegalCvaArgumentException  when the page token is malformed
+     */
+    private Response createSearchResponse(String id, Query variantsQuery) throws IllegalCvaArgumentException {
+        QueryOptions queryOptions = getQueryOptions();
+        if (isPaging()) {
+            queryOptions.put(KnownVariantDBAdaptor.AFTER, decodePageToken(pageToken));
+            queryOptions.remove(QueryOptions.SKIP);
+        }
+        if (isStreaming()) {
+            return createStreamingOkResponse(id,
+                    knownVariantManager.iterateKnownVariants(variantsQuery, queryOptions),
+                    KnownVariantWrapper::getImpl,
+                    isPaging() ? KnownVariantWSServer::encodePageToken : null);
+        }
+        QueryResult<KnownVariantWrapper> wrappers =
+                knownVariantManager.searchKnownVariants(variantsQuery, queryOptions);
+        List<KnownVariant> results = new ArrayList<>(wrappers.getResult().size());
+        for (KnownVariantWrapper knownVariantWrapper : wrappers.getResult()) {
+            results.add(knownVariantWrapper.getImpl());
+        }
+        PagedQueryResult<KnownVariant> queryResult = new PagedQueryResult<>(
+                id,
+                wrappers.getDbTime(),
+                wrappers.getNumResults(),
+                wrappers.getNumTotalResults(),
+                results
+        );
+        if (isPaging() && !wrappers.getResult().isEmpty() &&
+                wrappers.getNumResults() == queryOptions.getInt(QueryOptions.LIMIT, 0)) {
+            queryResult.setNextPageToken(encodePageToken(wrappers.getResult().get(results.size() - 1)));
+        }
+        return createOkResponse(queryResult);
+    }
 
+    /**
+     * The page token is the key of the last known variant returned, encoded so clients take it as opaque
+     * @param knownVariantWrapper   the last known variant of a page
+     * @return                      the token to request the next page
+     */
+    private static String encodePageToken(KnownVariantWrapper knownVariantWrapper) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                KnownVariantKey.of(knownVariantWrapper.getVariant()).toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param pageToken     the token of a page, empty for the first page
+     * @return              the key the page continues after, empty for the first page
+     * @throws IllegalCvaArgumentException  when the token is malformed
+     */
+    private static String decodePageToken(String pageToken) throws IllegalCvaArgumentException {
+        if (pageToken.isEmpty()) {
+            return "";
+        }
         try {
-            KnownVariantWrapper result = knownVariantManager.findKnownVariant(
-                    chromosome,
-                    position,
-                    reference,
-                    alternate
-            );
-            List<KnownVariant> results = new LinkedList<>();
-            results.add(result.getImpl());
-            QueryResult queryResult = new QueryResult<KnownVariant>(
-                    "id",
-                    0,
-                    1,
-                    1l,
-                    "",
-                    "",
-                    results
-            );
-            return createOkResponse(queryResult);
-        } catch (Exception e) {
-            return createErrorResponse(e);
+            String after = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+            return KnownVariantKey.valueOf(after).toString();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalCvaArgumentException("Malformed page token '" + pageToken + "'");
+        }
+    }
+
+    @POST
+    @Path("/search/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Search for a batch of known variants", position = 2,
+            notes = "Search known variants by their coordinates in one request. <br>" +
+                    "The body is a JSON array of variants as 'chromosome:position:reference:alternate' " +
+                    "(e.g.: [\"19:44908684:T:C\", \"chr2:1000:A:G\"]). One result is returned for every variant " +
+                    "in the same order as the request, empty when the variant is not registered. <br>" +
+                    "Chromosome name normalization, left alignment and trimming is applied before search. <br>" +
+                    INCLUDE_EXCLUDE_NOTES,
+            response = KnownVariantWrapper.class)
+    public void searchKnownVariantsBatch(
+            @ApiParam(value = "JSON array of variants as 'chromosome:position:reference:alternate'", required = true)
+            String variantsJson,
+            @Suspended AsyncResponse asyncResponse) {
+
+        runAsync(asyncResponse, () -> {
+            try {
+                List<String> variantIds =
+                        jsonObjectMapper.readValue(variantsJson, new TypeReference<List<String>>() {});
+                if (variantIds == null || variantIds.isEmpty()) {
+                    throw new IllegalCvaArgumentException("At least one variant must be provided");
+                }
+                if (variantIds.size() > MAX_BATCH_SIZE) {
+                    throw new IllegalCvaArgumentException("Too many variants, the maximum is " + MAX_BATCH_SIZE);
+                }
+                List<Variant> variants = new ArrayList<>(variantIds.size());
+                for (String variantId : variantIds) {
+                    variants.add(parseVariant(variantId));
+                }
+                List<KnownVariantWrapper> wrappers =
+                        knownVariantManager.findKnownVariants(variants, getQueryOptions());
+                List<QueryResult<KnownVariant>> queryResults = new ArrayList<>(variantIds.size());
+                for (int i = 0; i < variantIds.size(); i++) {
+                    KnownVariantWrapper knownVariantWrapper = wrappers.get(i);
+                    List<KnownVariant> results = knownVariantWrapper != null ?
+                            Collections.singletonList(knownVariantWrapper.getImpl()) : Collections.emptyList();
+                    queryResults.add(new QueryResult<>(
+                            variantIds.get(i),
+                            0,
+                            results.size(),
+                            results.size(),
+                            "",
+                            "",
+                            results
+                    ));
+                }
+                return createOkResponse(queryResults);
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
+    }
+
+    @POST
+    @Path("/annotateVcf")
+    @Consumes({MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+    @Produces({VCF_MEDIA_TYPE, NDJSON_MEDIA_TYPE, MediaType.APPLICATION_JSON})
+    @ApiOperation(value = "Annotate a VCF with the known variants", position = 3,
+            notes = "The body is a VCF, it may be gzipped. The VCF is streamed back with the INFO fields " +
+                    "CVA_ID, CVA_CLASSIFICATION, CVA_CONSISTENCY and CVA_EVIDENCES for every alternate allele " +
+                    "registered in CVA, or as one JSON object per record and line when format is ndjson. <br>" +
+                    "The body is uploaded completely before the annotation starts. <br>" +
+                    "Chromosome name normalization, left alignment and trimming is applied before search.")
+    public void annotateVcf(
+            @ApiParam(value = "The VCF to annotate", required = true)
+            InputStream vcf,
+            @ApiParam(value = "Output format: vcf or ndjson", defaultValue = "vcf")
+            @QueryParam("format") @DefaultValue("vcf") String format,
+            @Suspended AsyncResponse asyncResponse) {
+
+        runAsync(asyncResponse, () -> {
+            try {
+                VcfAnnotationPipeline.OutputFormat outputFormat;
+                try {
+                    outputFormat = VcfAnnotationPipeline.OutputFormat.valueOf(format.toUpperCase());
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IllegalCvaArgumentException("Unsupported output format '" + format + "'");
+                }
+                // the request body is only readable until the request is resumed
+                java.nio.file.Path spooledVcf = Files.createTempFile("cva-annotate-", ".vcf");
+                PipedStreamingOutput annotatedVcf = new PipedStreamingOutput();
+                try {
+                    Files.copy(vcf, spooledVcf, StandardCopyOption.REPLACE_EXISTING);
+                    // the annotation runs in a storage thread, the container thread only copies its output
+                    StorageExecutor.getInstance().execute(() -> annotateSpooledVcf(spooledVcf, annotatedVcf,
+                            outputFormat));
+                }
+                catch (RejectedExecutionException e) {
+                    Files.deleteIfExists(spooledVcf);
+                    return createUnavailableResponse("Too many requests waiting for the storage, try again later");
+                }
+                catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(spooledVcf);
+                    throw e;
+                }
+                String mediaType = outputFormat == VcfAnnotationPipeline.OutputFormat.NDJSON ?
+                        NDJSON_MEDIA_TYPE : VCF_MEDIA_TYPE;
+                return buildResponse(Response.ok(annotatedVcf, mediaType));
+            } catch (Exception e) {
+                return createErrorResponse(e);
+            }
+        });
+    }
+
+    /**
+     * Annotates an uploaded VCF into a streamed response, the uploaded VCF is deleted when finished
+     * @param spooledVcf        the uploaded VCF
+     * @param annotatedVcf      the response the annotated VCF is written to
+     * @param outputFormat      the output format
+     */
+    private void annotateSpooledVcf(java.nio.file.Path spooledVcf, PipedStreamingOutput annotatedVcf,
+                                    VcfAnnotationPipeline.OutputFormat outputFormat) {
+        try (InputStream vcf = Files.newInputStream(spooledVcf)) {
+            // the output is closed by the annotation when it succeeds
+            knownVariantManager.annotateVcf(vcf, annotatedVcf.getOutputStream(), outputFormat);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            annotatedVcf.fail(e);
+        }
+        catch (Exception e) {
+            logger.error("Error annotating the VCF uploaded to " + uriInfo.getAbsolutePath(), e);
+            annotatedVcf.fail(e);
+        }
+        finally {
+            try {
+                Files.deleteIfExists(spooledVcf);
+            }
+            catch (IOException e) {
+                logger.warn("Error deleting the uploaded VCF {}: {}", spooledVcf, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Parses a variant given as chromosome:position:reference:alternate, empty alleles are allowed for indels
+     * @param variantId     the variant
+     * @return              the variant
+     * @throws IllegalCvaArgumentException  when the variant is malformed
+     */
+    private static Variant parseVariant(String variantId) throws IllegalCvaArgumentException {
+        String[] fields = variantId != null ? variantId.split(":", -1) : new String[0];
+        if (fields.length != 4) {
+            throw new IllegalCvaArgumentException("Malformed variant '" + variantId +
+                    "', expected chromosome:position:reference:alternate");
+        }
+        try {
+            return new Variant(fields[0], Integer.parseInt(fields[1]), fields[2], fields[3]);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalCvaArgumentException("Malformed variant '" + variantId + "': " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package org.gel.cva.server.rest;
+
+import org.gel.cva.storage.core.metrics.LatencyHistogram;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the latency of every REST method in the cva_rest_request_seconds histogram, labelled by resource method
+ * and status class. For the asynchronous resources the time waiting for a storage thread is included, for the
+ * streamed responses the time writing the body is not, as the response filters run before it is written.
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    public static final String METRIC = "cva_rest_request_seconds";
+    private static final String START_PROPERTY = MetricsFilter.class.getName() + ".start";
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    // histograms by resource method and status class, looked up in the registry only once
+    private static final ConcurrentMap<Method, LatencyHistogram[]> histograms = new ConcurrentHashMap<>();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object start = requestContext.getProperty(START_PROPERTY);
+        Method method = this.resourceInfo.getResourceMethod();
+        if (start == null || method == null) {
+            // not matched to a resource method, e.g. 404
+            return;
+        }
+        int statusClass = Math.min(Math.max(responseContext.getStatus() / 100, 1), 5) - 1;
+        histograms.computeIfAbsent(method, MetricsFilter::buildHistograms)[statusClass]
+                .recordSince((Long) start);
+    }
+
+    private static LatencyHistogram[] buildHistograms(Method method) {
+        String name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        LatencyHistogram[] methodHistograms = new LatencyHistogram[STATUS_CLASSES.length];
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            methodHistograms[i] = MetricsRegistry.getInstance().histogram(METRIC,
+                    "Latency of the REST methods", "method", name, "status", STATUS_CLASSES[i]);
+        }
+        return methodHistograms;
+    }
+}
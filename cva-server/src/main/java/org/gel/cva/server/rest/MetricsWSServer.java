@@ -0,0 +1,40 @@
+package org.gel.cva.server.rest;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exposes the latency histograms of the REST methods, the storage adaptor, CellBase, normalization and the BSON
+ * codec, and the gauges of the Bloom filter, in the Prometheus text format. It does not touch the storage, so it is
+ * answered in the Jetty thread and stays available when the storage threads are saturated.
+ */
+@Path("/metrics")
+@Api(value = "Metrics", position = 2, description = "Latency histograms and gauges in the Prometheus text format")
+public class MetricsWSServer {
+
+    public static final String PROMETHEUS_MEDIA_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @Produces(PROMETHEUS_MEDIA_TYPE)
+    @ApiOperation(value = "Latency histograms of the storage and REST operations and gauges", position = 1,
+            notes = "Histograms have cumulative buckets from 1 microsecond to 100 seconds, the _count series gives " +
+                    "the rate of every operation.")
+    public Response metrics() {
+        StreamingOutput output = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            MetricsRegistry.getInstance().writePrometheus(writer);
+        };
+        return Response.ok(output, PROMETHEUS_MEDIA_TYPE).build();
+    }
+}
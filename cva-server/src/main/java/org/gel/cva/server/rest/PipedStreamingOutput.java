@@ -0,0 +1,129 @@
+package org.gel.cva.server.rest;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A streamed response whose body is produced in another thread, e.g. a storage thread, while the container thread
+ * writes it to the socket. The producer writes into getOutputStream() from any number of threads in turn and closes
+ * it when finished, or calls fail() so the response is not completed as if it was whole. The chunks in between are
+ * bounded, so a slow client slows the producer down instead of buffering the whole body in memory.
+ *
+ * Closing the response, when it is discarded or the client goes away, makes the producer fail on its next write.
+ * Unlike java.io.PipedInputStream, the producer threads may end before the body is read.
+ */
+class PipedStreamingOutput implements StreamingOutput, AutoCloseable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNKS = 16;
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+    private final OutputStream outputStream = new BufferedOutputStream(new ChunkOutputStream(), CHUNK_SIZE);
+    private volatile boolean closed = false;
+    private volatile Throwable failure = null;
+
+    /**
+     * Receives the chunks written by the producer through the buffer
+     */
+    private class ChunkOutputStream extends OutputStream {
+
+        private boolean ended = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (this.ended) {
+                throw new IOException("Response body already closed");
+            }
+            if (len > 0) {
+                put(Arrays.copyOfRange(b, off, off + len));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.ended) {
+                this.ended = true;
+                put(END);
+            }
+        }
+    }
+
+    /**
+     * @return  the stream the producer writes the body to, it must be closed when the body is complete
+     */
+    public OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    /**
+     * Ends the body after a failure of the producer, the container aborts the response
+     * @param failure   the cause
+     */
+    public void fail(Throwable failure) {
+        this.failure = failure;
+        try {
+            put(END);
+        }
+        catch (IOException e) {
+            // the response is already closed
+        }
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            while (!this.chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+                if (this.closed) {
+                    throw new IOException("Response closed before its body was written");
+                }
+            }
+            if (this.closed) {
+                this.chunks.clear();
+                throw new IOException("Response closed before its body was written");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the response body");
+        }
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+            byte[] chunk;
+            while ((chunk = this.chunks.take()) != END) {
+                output.write(chunk);
+            }
+            if (this.failure != null) {
+                throw new IOException("Error producing the response body", this.failure);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the response body");
+        }
+        finally {
+            this.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.chunks.clear();
+    }
+}
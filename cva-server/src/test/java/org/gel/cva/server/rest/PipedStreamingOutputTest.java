@@ -0,0 +1,78 @@
+package org.gel.cva.server.rest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PipedStreamingOutputTest {
+
+    @Test
+    public void testWrite() throws Exception {
+        PipedStreamingOutput pipedStreamingOutput = new PipedStreamingOutput();
+        // the producer thread ends long before the body is read
+        Thread producer = new Thread(() -> {
+            try (OutputStream outputStream = pipedStreamingOutput.getOutputStream()) {
+                for (int i = 0; i < 1000; i++) {
+                    outputStream.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+        producer.join();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        pipedStreamingOutput.write(body);
+        String[] lines = body.toString("UTF-8").split("\n");
+        assertEquals(1000, lines.length);
+        assertEquals("line 999", lines[999]);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        PipedStreamingOutput pipedStreamingOutput = new PipedStreamingOutput();
+        pipedStreamingOutput.getOutputStream().write(new byte[10]);
+        pipedStreamingOutput.getOutputStream().flush();
+        pipedStreamingOutput.fail(new IOException("lookup failed"));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            pipedStreamingOutput.write(body);
+            fail();
+        }
+        catch (IOException e) {
+            assertEquals("lookup failed", e.getCause().getMessage());
+        }
+        assertEquals(10, body.size());
+    }
+
+    @Test
+    public void testClosedBeforeWritten() throws Exception {
+        PipedStreamingOutput pipedStreamingOutput = new PipedStreamingOutput();
+        AtomicReference<IOException> error = new AtomicReference<>();
+        // more than the buffered chunks, so the producer blocks until the response is closed
+        Thread producer = new Thread(() -> {
+            try (OutputStream outputStream = pipedStreamingOutput.getOutputStream()) {
+                byte[] chunk = new byte[1024 * 1024];
+                for (int i = 0; i < 100; i++) {
+                    outputStream.write(chunk);
+                }
+            }
+            catch (IOException e) {
+                error.set(e);
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+        pipedStreamingOutput.close();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertNotNull(error.get());
+    }
+}
@@ -0,0 +1,76 @@
+package org.gel.cva.storage.core.config;
+
+/**
+ * Settings of the KnownVariantAnnotationService: how annotation requests are coalesced into CellBase calls, how
+ * annotations are cached and how often the failed annotations are retried.
+ */
+public class AnnotationConfiguration {
+
+    private int batchSize = 200;
+    private long maxWaitMillis = 50;
+    private long cacheMaxSize = 100000;
+    private long cacheTtlMinutes = 60;
+    private int retryQueueCapacity = 10000;
+    private long timeoutMillis = 60000;
+    private long retryIntervalSeconds = 300;
+
+    /////////////////////////////////////////////////////////////
+    //  Getters and setters                                   ///
+    /////////////////////////////////////////////////////////////
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public long getCacheTtlMinutes() {
+        return cacheTtlMinutes;
+    }
+
+    public void setCacheTtlMinutes(long cacheTtlMinutes) {
+        this.cacheTtlMinutes = cacheTtlMinutes;
+    }
+
+    public int getRetryQueueCapacity() {
+        return retryQueueCapacity;
+    }
+
+    public void setRetryQueueCapacity(int retryQueueCapacity) {
+        this.retryQueueCapacity = retryQueueCapacity;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getRetryIntervalSeconds() {
+        return retryIntervalSeconds;
+    }
+
+    public void setRetryIntervalSeconds(long retryIntervalSeconds) {
+        this.retryIntervalSeconds = retryIntervalSeconds;
+    }
+}
@@ -0,0 +1,45 @@
+package org.gel.cva.storage.core.config;
+
+public class BulkTransferConfiguration {
+
+    private int batchSize = 1000;
+    private int queueCapacity = 10;
+    private int writerThreads = 4;
+    private String codec = "snappy";
+
+    /////////////////////////////////////////////////////////////
+    //  Getters and setters                                   ///
+    /////////////////////////////////////////////////////////////
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+}
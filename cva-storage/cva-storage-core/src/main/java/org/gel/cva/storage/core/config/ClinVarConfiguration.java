@@ -9,7 +9,11 @@ public class ClinVarConfiguration {
     private String user;
     private String password;
     private String assemblyFolder;
-
+    private int readBatchSize = 1000;
+    private int queueCapacity = 10;
+    private int normalizerThreads = 2;
+    private int annotatorThreads = 4;
+    private int writerThreads = 2;
 
     /////////////////////////////////////////////////////////////
     //  Getters and setters                                   ///
@@ -46,4 +50,44 @@ public class ClinVarConfiguration {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    public int getReadBatchSize() {
+        return readBatchSize;
+    }
+
+    public void setReadBatchSize(int readBatchSize) {
+        this.readBatchSize = readBatchSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getNormalizerThreads() {
+        return normalizerThreads;
+    }
+
+    public void setNormalizerThreads(int normalizerThreads) {
+        this.normalizerThreads = normalizerThreads;
+    }
+
+    public int getAnnotatorThreads() {
+        return annotatorThreads;
+    }
+
+    public void setAnnotatorThreads(int annotatorThreads) {
+        this.annotatorThreads = annotatorThreads;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
 }
@@ -3,10 +3,16 @@ package org.gel.cva.storage.core.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.mongodb.MongoClient;
-import com.mongodb.MongoClientURI;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import org.apache.commons.lang.StringUtils;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaCredentialsException;
 import org.gel.cva.storage.core.helpers.CvaDateFormatter;
+import org.gel.cva.storage.core.helpers.MongoConnectionPoolStatistics;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.opencga.core.auth.IllegalOpenCGACredentialsException;
 import org.opencb.opencga.storage.core.config.CellBaseConfiguration;
@@ -15,10 +21,15 @@ import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.opencb.opencga.storage.core.variant.annotation.annotators.CellBaseDirectVariantAnnotator;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -31,14 +42,20 @@ public class CvaConfiguration {
     private String logFile;
     private String tempFolder;
     private CellBaseConfiguration cellbase;
+    private AnnotationConfiguration annotation;
     private List<StorageEngineConfiguration> storageEngines;
     private OrganismConfiguration organism;
     private ClinVarConfiguration clinVar;
+    private VcfAnnotationConfiguration vcfAnnotation;
+    private BulkTransferConfiguration bulkTransfer;
+    private KnownVariantCacheConfiguration knownVariantCache;
     private ServerConfiguration server;
 
     private static CvaConfiguration instance = null;
+    private static MongoClient mongoClient = null;
     private static final String CONFIG_FILE = "/cva.yml";
     private static final String CONFIG_FORMAT = "yaml";
+    protected static Logger logger = LoggerFactory.getLogger(CvaConfiguration.class);
 
     // TODO: setup logging
     // TODO: print confguration overwriting toString()
@@ -92,6 +109,8 @@ public class CvaConfiguration {
             throw new IllegalCvaConfigurationException("Something is very wrong in the CVA config file:" + ex.getMessage());
         }
         cvaConfiguration.sanityChecks();
+        // a client created with the previous configuration may point to other hosts
+        CvaConfiguration.closeMongoClient();
         CvaConfiguration.instance = cvaConfiguration;
         return cvaConfiguration;
     }
@@ -117,16 +136,14 @@ public class CvaConfiguration {
     // TODO: avoid using MongoCredentials in opencga.storage, use instead MongoDBConfiguration
     public static MongoCredentials getMongoCredentials() throws IllegalCvaConfigurationException, IllegalCvaCredentialsException {
         DatabaseCredentials databaseCredentials = CvaConfiguration.getDefaultStorageEngine().getDatabase();
-        //TODO: make this somehow more secure to misconfiguration
-        String host = databaseCredentials.getHosts().get(0).split(":")[0];
-        String port = databaseCredentials.getHosts().get(0).split(":")[1];
+        ServerAddress serverAddress = CvaConfiguration.parseServerAddress(databaseCredentials.getHosts().get(0));
         MongoCredentials mongoCredentials = null;
         // TODO: com.mongodb.MongoSocketOpenException is not controlled when server not reachable
         // TODO: com.mongodb.MongoSocketOpenException is not controlled when credentials are incorrect
         try {
             mongoCredentials = new MongoCredentials(
-                    host,
-                    Integer.parseInt(port),
+                    serverAddress.getHost(),
+                    serverAddress.getPort(),
                     CvaConfiguration.getDefaultStorageEngine().getOptions().get("database.name"),
                     databaseCredentials.getUser(),
                     databaseCredentials.getPassword(),
@@ -140,18 +157,130 @@ public class CvaConfiguration {
     }
 
     /**
-     *
-     * @return
+     * Parses a configured host as host[:port], the port defaults to 27017
+     * @param host  the configured host
+     * @return      the server address
+     * @throws IllegalCvaConfigurationException     when the port is not a number
+     */
+    private static ServerAddress parseServerAddress(String host) throws IllegalCvaConfigurationException {
+        try {
+            return new ServerAddress(host);
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IllegalCvaConfigurationException("Malformed database host '" + host + "': " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the MongoClient shared by the whole process, it is created on first use. The client connects to all
+     * the configured hosts and keeps a connection pool configured from the storage engine database options:
+     * connectionsPerHost, minConnectionsPerHost, threadsAllowedToBlockForConnectionMultiplier, maxWaitTime,
+     * connectTimeout, socketTimeout, serverSelectionTimeout, maxConnectionIdleTime, readPreference, writeConcern
+     * and authenticationDatabase. Callers must not close it, use closeMongoClient() instead.
+     * @return      the shared MongoClient
      * @throws IllegalCvaConfigurationException
      * @throws IllegalCvaCredentialsException
      */
-    public static MongoClient getMongoClient()
+    public static synchronized MongoClient getMongoClient()
             throws IllegalCvaConfigurationException, IllegalCvaCredentialsException {
 
-        DatabaseCredentials databaseCredentials = CvaConfiguration.getDefaultStorageEngine().getDatabase();
-        databaseCredentials.getHosts().get(0);
-        MongoClientURI connectionString = new MongoClientURI("mongodb://" + databaseCredentials.getHosts().get(0));
-        return new MongoClient(connectionString);
+        if (CvaConfiguration.mongoClient == null) {
+            StorageEngineConfiguration storageEngine = CvaConfiguration.getDefaultStorageEngine();
+            DatabaseCredentials databaseCredentials = storageEngine.getDatabase();
+            List<ServerAddress> serverAddresses = new LinkedList<>();
+            for (String host : databaseCredentials.getHosts()) {
+                serverAddresses.add(CvaConfiguration.parseServerAddress(host));
+            }
+            Map<String, String> options = databaseCredentials.getOptions() != null
+                    ? databaseCredentials.getOptions() : Collections.emptyMap();
+            List<MongoCredential> mongoCredentials = new LinkedList<>();
+            if (StringUtils.isNotEmpty(databaseCredentials.getUser())) {
+                String authenticationDatabase = StringUtils.isNotEmpty(options.get("authenticationDatabase"))
+                        ? options.get("authenticationDatabase")
+                        : storageEngine.getOptions().get("database.name");
+                String password = databaseCredentials.getPassword() != null ? databaseCredentials.getPassword() : "";
+                mongoCredentials.add(MongoCredential.createCredential(databaseCredentials.getUser(),
+                        authenticationDatabase, password.toCharArray()));
+            }
+            MongoClientOptions mongoClientOptions = CvaConfiguration.getMongoClientOptions(options);
+            logger.info("Connecting to MongoDB at {} with a pool of {} connections per host",
+                    serverAddresses, mongoClientOptions.getConnectionsPerHost());
+            CvaConfiguration.mongoClient = new MongoClient(serverAddresses, mongoCredentials, mongoClientOptions);
+        }
+        return CvaConfiguration.mongoClient;
+    }
+
+    /**
+     * Builds the MongoClientOptions from the storage engine database options, missing options keep the driver
+     * defaults
+     * @param options   the database options
+     * @return          the client options
+     * @throws IllegalCvaConfigurationException     if an option has a wrong value
+     */
+    private static MongoClientOptions getMongoClientOptions(Map<String, String> options)
+            throws IllegalCvaConfigurationException {
+        MongoClientOptions.Builder builder = MongoClientOptions.builder();
+        try {
+            if (StringUtils.isNotEmpty(options.get("connectionsPerHost"))) {
+                builder.connectionsPerHost(Integer.parseInt(options.get("connectionsPerHost")));
+            }
+            if (StringUtils.isNotEmpty(options.get("minConnectionsPerHost"))) {
+                builder.minConnectionsPerHost(Integer.parseInt(options.get("minConnectionsPerHost")));
+            }
+            if (StringUtils.isNotEmpty(options.get("threadsAllowedToBlockForConnectionMultiplier"))) {
+                builder.threadsAllowedToBlockForConnectionMultiplier(
+                        Integer.parseInt(options.get("threadsAllowedToBlockForConnectionMultiplier")));
+            }
+            if (StringUtils.isNotEmpty(options.get("maxWaitTime"))) {
+                builder.maxWaitTime(Integer.parseInt(options.get("maxWaitTime")));
+            }
+            if (StringUtils.isNotEmpty(options.get("connectTimeout"))) {
+                builder.connectTimeout(Integer.parseInt(options.get("connectTimeout")));
+            }
+            if (StringUtils.isNotEmpty(options.get("socketTimeout"))) {
+                builder.socketTimeout(Integer.parseInt(options.get("socketTimeout")));
+            }
+            if (StringUtils.isNotEmpty(options.get("serverSelectionTimeout"))) {
+                builder.serverSelectionTimeout(Integer.parseInt(options.get("serverSelectionTimeout")));
+            }
+            if (StringUtils.isNotEmpty(options.get("maxConnectionIdleTime"))) {
+                builder.maxConnectionIdleTime(Integer.parseInt(options.get("maxConnectionIdleTime")));
+            }
+            if (StringUtils.isNotEmpty(options.get("readPreference"))) {
+                builder.readPreference(ReadPreference.valueOf(options.get("readPreference")));
+            }
+            if (StringUtils.isNotEmpty(options.get("writeConcern"))) {
+                WriteConcern writeConcern = WriteConcern.valueOf(options.get("writeConcern"));
+                if (writeConcern == null) {
+                    throw new IllegalArgumentException("unknown write concern " + options.get("writeConcern"));
+                }
+                builder.writeConcern(writeConcern);
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IllegalCvaConfigurationException("Wrong MongoDB database options: " + ex.getMessage());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Closes the shared MongoClient, if it was created, releasing all pooled connections. A later call to
+     * getMongoClient() creates a new one.
+     */
+    public static synchronized void closeMongoClient() {
+        if (CvaConfiguration.mongoClient != null) {
+            logger.info("Closing MongoDB client");
+            CvaConfiguration.mongoClient.close();
+            CvaConfiguration.mongoClient = null;
+        }
+    }
+
+    /**
+     * Returns the statistics of the MongoDB connection pools
+     * @return      a map per pool with the pool size, connections in use and threads waiting for a connection
+     */
+    public static List<Map<String, Object>> getMongoConnectionPoolStatistics() {
+        return MongoConnectionPoolStatistics.getStatistics();
     }
 
     /**
@@ -266,6 +395,30 @@ public class CvaConfiguration {
         this.clinVar = clinVar;
     }
 
+    public VcfAnnotationConfiguration getVcfAnnotation() {
+        return vcfAnnotation;
+    }
+
+    public void setVcfAnnotation(VcfAnnotationConfiguration vcfAnnotation) {
+        this.vcfAnnotation = vcfAnnotation;
+    }
+
+    public BulkTransferConfiguration getBulkTransfer() {
+        return bulkTransfer;
+    }
+
+    public void setBulkTransfer(BulkTransferConfiguration bulkTransfer) {
+        this.bulkTransfer = bulkTransfer;
+    }
+
+    public KnownVariantCacheConfiguration getKnownVariantCache() {
+        return knownVariantCache;
+    }
+
+    public void setKnownVariantCache(KnownVariantCacheConfiguration knownVariantCache) {
+        this.knownVariantCache = knownVariantCache;
+    }
+
     public String getTempFolder() {
         return tempFolder;
     }
@@ -281,4 +434,12 @@ public class CvaConfiguration {
     public void setServer(ServerConfiguration server) {
         this.server = server;
     }
+
+    public AnnotationConfiguration getAnnotation() {
+        return annotation;
+    }
+
+    public void setAnnotation(AnnotationConfiguration annotation) {
+        this.annotation = annotation;
+    }
 }
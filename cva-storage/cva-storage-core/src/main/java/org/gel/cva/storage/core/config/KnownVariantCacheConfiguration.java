@@ -0,0 +1,40 @@
+package org.gel.cva.storage.core.config;
+
+/**
+ * Settings of the read-through cache of known variants in the KnownVariantManager: its size, the time to live of
+ * the entries and how often the cached versions are checked against the database to catch writes from other nodes.
+ */
+public class KnownVariantCacheConfiguration {
+
+    private long maxSize = 10000;
+    private long ttlMinutes = 10;
+    private long pollSeconds = 30;
+
+    /////////////////////////////////////////////////////////////
+    //  Getters and setters                                   ///
+    /////////////////////////////////////////////////////////////
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getTtlMinutes() {
+        return ttlMinutes;
+    }
+
+    public void setTtlMinutes(long ttlMinutes) {
+        this.ttlMinutes = ttlMinutes;
+    }
+
+    public long getPollSeconds() {
+        return pollSeconds;
+    }
+
+    public void setPollSeconds(long pollSeconds) {
+        this.pollSeconds = pollSeconds;
+    }
+}
@@ -9,6 +9,16 @@ public class RestServerConfiguration {
     private String logFile;
     private Integer defaultLimit;
     private Integer maxLimit;
+    // Jetty request threads, acceptors and selectors, -1 lets Jetty size them from the number of cores
+    private Integer minThreads = 8;
+    private Integer maxThreads = 200;
+    private Integer idleTimeout = 60000;
+    private Integer acceptors = -1;
+    private Integer selectors = -1;
+    // the storage executor runs the calls to the database and CellBase, freeing the Jetty threads
+    private Integer storageThreads = 32;
+    private Integer storageQueueSize = 1000;
+    private Long asyncTimeout = 300000L;
 
     /////////////////////////////////////////////////////////////
     //  Getters and setters                                   ///
@@ -44,4 +54,68 @@ public class RestServerConfiguration {
     public void setMaxLimit(Integer maxLimit) {
         this.maxLimit = maxLimit;
     }
+
+    public Integer getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(Integer minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public Integer getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(Integer maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public Integer getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Integer idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Integer getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(Integer acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public Integer getSelectors() {
+        return selectors;
+    }
+
+    public void setSelectors(Integer selectors) {
+        this.selectors = selectors;
+    }
+
+    public Integer getStorageThreads() {
+        return storageThreads;
+    }
+
+    public void setStorageThreads(Integer storageThreads) {
+        this.storageThreads = storageThreads;
+    }
+
+    public Integer getStorageQueueSize() {
+        return storageQueueSize;
+    }
+
+    public void setStorageQueueSize(Integer storageQueueSize) {
+        this.storageQueueSize = storageQueueSize;
+    }
+
+    public Long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    public void setAsyncTimeout(Long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
 }
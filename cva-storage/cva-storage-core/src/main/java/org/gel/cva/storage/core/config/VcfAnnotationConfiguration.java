@@ -0,0 +1,46 @@
+package org.gel.cva.storage.core.config;
+
+public class VcfAnnotationConfiguration {
+
+    private int readBatchSize = 1000;
+    private int queueCapacity = 10;
+    private int matcherThreads = 4;
+    // writes the records of a batch whose lookup failed without annotation instead of failing the annotation
+    private boolean allowPartialOutput = false;
+
+    /////////////////////////////////////////////////////////////
+    //  Getters and setters                                   ///
+    /////////////////////////////////////////////////////////////
+
+    public int getReadBatchSize() {
+        return readBatchSize;
+    }
+
+    public void setReadBatchSize(int readBatchSize) {
+        this.readBatchSize = readBatchSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getMatcherThreads() {
+        return matcherThreads;
+    }
+
+    public void setMatcherThreads(int matcherThreads) {
+        this.matcherThreads = matcherThreads;
+    }
+
+    public boolean isAllowPartialOutput() {
+        return allowPartialOutput;
+    }
+
+    public void setAllowPartialOutput(boolean allowPartialOutput) {
+        this.allowPartialOutput = allowPartialOutput;
+    }
+}
@@ -0,0 +1,9 @@
+package org.gel.cva.storage.core.exceptions;
+
+/**
+ * Thrown when a known variant was modified by someone else since it was read.
+ */
+public class ConcurrentCvaModificationException extends CvaException {
+
+    public ConcurrentCvaModificationException(String msg) { super(msg); }
+}
@@ -0,0 +1,48 @@
+package org.gel.cva.storage.core.helpers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the connection pool statistics that the MongoDB driver publishes as JMX MBeans, one per pool and server.
+ */
+public class MongoConnectionPoolStatistics {
+
+    private static final String POOL_MBEANS = "org.mongodb.driver:type=ConnectionPool,*";
+    private static final String[] ATTRIBUTES = {"Host", "Port", "MinSize", "MaxSize", "Size", "CheckedOutCount",
+            "WaitQueueSize"};
+
+    protected static Logger logger = LoggerFactory.getLogger(MongoConnectionPoolStatistics.class);
+
+    /**
+     * Returns the statistics of every connection pool in this process
+     * @return      a map per pool with host, port, minSize, maxSize, size, checkedOutCount and waitQueueSize
+     */
+    public static List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = new LinkedList<>();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName objectName : mBeanServer.queryNames(new ObjectName(POOL_MBEANS), null)) {
+                Map<String, Object> poolStatistics = new LinkedHashMap<>();
+                poolStatistics.put("clusterId", objectName.getKeyProperty("clusterId"));
+                for (String attribute : ATTRIBUTES) {
+                    poolStatistics.put(Character.toLowerCase(attribute.charAt(0)) + attribute.substring(1),
+                            mBeanServer.getAttribute(objectName, attribute));
+                }
+                statistics.add(poolStatistics);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("Cannot read the MongoDB connection pool statistics: {}", e.getMessage());
+        }
+        return statistics;
+    }
+}
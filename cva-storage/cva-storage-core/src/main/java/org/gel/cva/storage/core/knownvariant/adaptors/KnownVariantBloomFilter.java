@@ -0,0 +1,347 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In memory membership filter over the ids of the stored known variants. A negative answer means the known variant
+ * is certainly not stored, so lookups can skip the database, while a positive answer may be a false positive.
+ * The filter is built from a streaming scan of the ids, kept current on every insert and periodically rebuilt, as
+ * known variants inserted by other processes are only seen on rebuild. Until then they are answered as certainly
+ * not stored, so the filter assumes a single writer: it must not be used when other processes, such as the ClinVar
+ * loader or other nodes, write to the same collection. After every rebuild and when closed the
+ * filter is snapshotted to disk, on start the snapshot is reused if the number of stored known variants did not
+ * change since it was written.
+ */
+public class KnownVariantBloomFilter implements Closeable {
+
+    /**
+     * The ids of the stored known variants
+     */
+    public interface IdSource {
+
+        /**
+         * @return  the number of stored known variants
+         */
+        long count();
+
+        /**
+         * Streams the ids of all the stored known variants
+         * @param consumer  receives every id
+         */
+        void scan(Consumer<String> consumer);
+    }
+
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long MIN_EXPECTED_INSERTIONS = 100000;
+    private static final int GROWTH_FACTOR = 2;
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.UTF_8);
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantBloomFilter.class);
+
+    private final IdSource idSource;
+    private final double fpp;
+    private final Path snapshot;
+    private final long rebuildPeriodMinutes;
+    private final ScheduledExecutorService rebuilder;
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    private volatile BloomFilter<CharSequence> filter = null;
+    private volatile long expectedInsertions = 0;
+    // ids inserted while a rebuild is scanning the collection, guarded by this
+    private Set<String> insertedWhileRebuilding = null;
+    private long elements = 0;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong negatives = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Constructor for KnownVariantBloomFilter, the filter answers positively until started
+     * @param idSource              the ids of the stored known variants
+     * @param fpp                   the desired false positive probability
+     * @param snapshot              the path of the snapshot, null disables snapshots
+     * @param rebuildPeriodMinutes  the time between rebuilds, 0 disables the periodic rebuild
+     */
+    public KnownVariantBloomFilter(IdSource idSource, double fpp, String snapshot, long rebuildPeriodMinutes) {
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("False positive probability must be in (0, 1): " + fpp);
+        }
+        this.idSource = idSource;
+        this.fpp = fpp;
+        this.snapshot = snapshot != null && !snapshot.isEmpty() ? Paths.get(snapshot) : null;
+        this.rebuildPeriodMinutes = rebuildPeriodMinutes;
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "known-variant-bloom-filter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the snapshot when it is up to date, otherwise builds the filter scanning the ids, and schedules the
+     * periodic rebuilds
+     */
+    public void start() {
+        if (!this.loadSnapshot()) {
+            this.rebuild();
+        }
+        if (this.rebuildPeriodMinutes > 0) {
+            this.rebuilder.scheduleWithFixedDelay(this::rebuildQuietly, this.rebuildPeriodMinutes,
+                    this.rebuildPeriodMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Checks whether a known variant may be stored
+     * @param id    the known variant id
+     * @return      false if the known variant is certainly not stored
+     */
+    public boolean mightContain(String id) {
+        BloomFilter<CharSequence> currentFilter = this.filter;
+        if (currentFilter == null) {
+            return true;
+        }
+        this.lookups.incrementAndGet();
+        boolean mightContain = currentFilter.mightContain(id);
+        if (!mightContain) {
+            this.negatives.incrementAndGet();
+        }
+        return mightContain;
+    }
+
+    /**
+     * Records a known variant just inserted. It must only be called for ids actually inserted, not for duplicates,
+     * as the number of elements is compared with the number of stored known variants to validate the snapshot.
+     * When the filter holds more elements than it was sized for a rebuild with a bigger filter is triggered in the
+     * background.
+     * @param id    the id of the inserted known variant
+     */
+    public void put(String id) {
+        boolean grow;
+        synchronized (this) {
+            if (this.filter == null) {
+                return;
+            }
+            this.filter.put(id);
+            this.elements++;
+            if (this.insertedWhileRebuilding != null) {
+                this.insertedWhileRebuilding.add(id);
+            }
+            grow = this.elements > this.expectedInsertions;
+        }
+        if (grow && !this.rebuilding.get()) {
+            this.rebuilder.submit(this::rebuildQuietly);
+        }
+    }
+
+    /**
+     * Records a positive answer for a known variant that was not stored
+     */
+    public void reportFalsePositive() {
+        this.falsePositives.incrementAndGet();
+    }
+
+    /**
+     * Builds a new filter scanning the ids and replaces the current one. Ids inserted during the scan are added
+     * to the new filter before the replacement. The new filter is snapshotted.
+     */
+    public void rebuild() {
+        if (!this.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            synchronized (this) {
+                this.insertedWhileRebuilding = new HashSet<>();
+            }
+            long newExpectedInsertions = Math.min(Integer.MAX_VALUE,
+                    Math.max(MIN_EXPECTED_INSERTIONS, GROWTH_FACTOR * this.idSource.count()));
+            BloomFilter<CharSequence> newFilter = BloomFilter.create(FUNNEL, (int) newExpectedInsertions, this.fpp);
+            AtomicLong scanned = new AtomicLong();
+            try {
+                this.idSource.scan(id -> {
+                    newFilter.put(id);
+                    scanned.incrementAndGet();
+                });
+            }
+            catch (RuntimeException e) {
+                synchronized (this) {
+                    this.insertedWhileRebuilding = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                // the scan may have read some of the ids inserted while it ran, those do not change the filter
+                long merged = 0;
+                for (String id : this.insertedWhileRebuilding) {
+                    if (newFilter.put(id)) {
+                        merged++;
+                    }
+                }
+                this.elements = scanned.get() + merged;
+                this.insertedWhileRebuilding = null;
+                this.expectedInsertions = newExpectedInsertions;
+                this.filter = newFilter;
+            }
+            logger.info("Known variants bloom filter rebuilt with {} ids in {} ms, expected fpp {}, observed fpp {}",
+                    scanned.get(), System.currentTimeMillis() - start, this.getExpectedFpp(), this.getObservedFpp());
+            this.writeSnapshot();
+        }
+        finally {
+            this.rebuilding.set(false);
+        }
+    }
+
+    private void rebuildQuietly() {
+        try {
+            this.rebuild();
+        }
+        catch (RuntimeException e) {
+            logger.error("Failed to rebuild the known variants bloom filter, keeping the current one", e);
+        }
+    }
+
+    /**
+     * Writes the current filter to the snapshot path through a temporary file, so a crash never leaves a partial
+     * snapshot
+     */
+    public void writeSnapshot() {
+        if (this.snapshot == null) {
+            return;
+        }
+        BloomFilter<CharSequence> filterCopy;
+        long elementsCopy;
+        long expectedInsertionsCopy;
+        synchronized (this) {
+            if (this.filter == null) {
+                return;
+            }
+            filterCopy = this.filter.copy();
+            elementsCopy = this.elements;
+            expectedInsertionsCopy = this.expectedInsertions;
+        }
+        Path temporary = this.snapshot.resolveSibling(this.snapshot.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(SNAPSHOT_VERSION);
+                output.writeLong(elementsCopy);
+                output.writeLong(expectedInsertionsCopy);
+                output.writeDouble(this.fpp);
+                filterCopy.writeTo(output);
+            }
+            Files.move(temporary, this.snapshot, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            logger.warn("Failed to write the known variants bloom filter snapshot {}: {}", this.snapshot,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the snapshot if it exists, was written with the same false positive probability and holds as many ids
+     * as known variants are stored
+     * @return  true if the snapshot was loaded
+     */
+    private boolean loadSnapshot() {
+        if (this.snapshot == null || !Files.exists(this.snapshot)) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(this.snapshot)))) {
+            if (input.readInt() != SNAPSHOT_VERSION) {
+                logger.info("Ignoring bloom filter snapshot {} with an old format", this.snapshot);
+                return false;
+            }
+            long snapshotElements = input.readLong();
+            long snapshotExpectedInsertions = input.readLong();
+            double snapshotFpp = input.readDouble();
+            long count = this.idSource.count();
+            if (snapshotFpp != this.fpp || snapshotElements != count) {
+                logger.info("Ignoring stale bloom filter snapshot {} with {} ids, {} known variants stored",
+                        this.snapshot, snapshotElements, count);
+                return false;
+            }
+            BloomFilter<CharSequence> snapshotFilter = BloomFilter.readFrom(input, FUNNEL);
+            synchronized (this) {
+                this.filter = snapshotFilter;
+                this.elements = snapshotElements;
+                this.expectedInsertions = snapshotExpectedInsertions;
+            }
+            logger.info("Loaded bloom filter snapshot {} with {} ids", this.snapshot, snapshotElements);
+            return true;
+        }
+        catch (IOException | RuntimeException e) {
+            logger.warn("Failed to load the bloom filter snapshot {}: {}", this.snapshot, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stops the periodic rebuilds and snapshots the filter
+     */
+    @Override
+    public void close() {
+        this.rebuilder.shutdownNow();
+        this.writeSnapshot();
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    /**
+     * @return  the probability of a false positive given the current number of ids, NaN before starting
+     */
+    public double getExpectedFpp() {
+        BloomFilter<CharSequence> currentFilter = this.filter;
+        return currentFilter != null ? currentFilter.expectedFpp() : Double.NaN;
+    }
+
+    /**
+     * @return  the observed fraction of absent known variants answered positively, NaN without absent lookups
+     */
+    public double getObservedFpp() {
+        long absent = this.falsePositives.get() + this.negatives.get();
+        return absent > 0 ? (double) this.falsePositives.get() / absent : Double.NaN;
+    }
+
+    public synchronized long getElements() {
+        return elements;
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+}
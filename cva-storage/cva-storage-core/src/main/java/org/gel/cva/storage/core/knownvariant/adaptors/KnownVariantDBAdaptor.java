@@ -1,21 +1,68 @@
 package org.gel.cva.storage.core.knownvariant.adaptors;
 
+import org.gel.cva.storage.core.exceptions.ConcurrentCvaModificationException;
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
 import org.gel.models.cva.avro.*;
 import org.gel.models.report.avro.EthnicCategory;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Created by priesgo on 07/01/17.
  */
-//TODO: extend Iterable<CuratedVariant>
-public interface KnownVariantDBAdaptor extends AutoCloseable {
+public interface KnownVariantDBAdaptor extends Iterable<KnownVariantWrapper>, AutoCloseable {
+
+    /**
+     * QueryOptions key to set the number of variants sent to or fetched from the database in every batch
+     */
+    String BATCH_SIZE = "batchSize";
+
+    /**
+     * QueryOptions key to request an iterator that resumes the scan when the database cursor times out
+     */
+    String PERSISTENT = "persistent";
+
+    /**
+     * QueryOptions key to read straight from the database, skipping in memory pre-checks such as the Bloom filter
+     * that may not know the known variants written by other processes. The write paths read with it, so they never
+     * reject a stored known variant.
+     */
+    String SKIP_FILTER = "skipFilter";
+
+    /**
+     * QueryOptions key for keyset pagination: the known variants are returned in the order of their keys starting
+     * after the given key as chromosome:position:reference:alternate, an empty key starts from the first known
+     * variant. Every page is resumed from the index, so its cost does not grow with the number of pages.
+     */
+    String AFTER = "after";
+
+    /**
+     * @param options           Query modifiers
+     * @return                  true when the known variants must be returned in the order of their keys, see AFTER
+     */
+    static boolean isKeyset(QueryOptions options) {
+        return options != null && options.containsKey(AFTER);
+    }
+
+    /**
+     * @param options           Query modifiers
+     * @return                  the key the known variants are returned after, null to start from the first
+     * @throws IllegalArgumentException     when the key is malformed
+     */
+    static KnownVariantKey getAfter(QueryOptions options) {
+        String after = options != null ? options.getString(AFTER) : null;
+        return after != null && !after.isEmpty() ? KnownVariantKey.valueOf(after) : null;
+    }
 
     /**
      * This method inserts a single KnownVariant in the database. If the variant already exists... throw error?
@@ -26,12 +73,13 @@ public interface KnownVariantDBAdaptor extends AutoCloseable {
     String insert(KnownVariantWrapper knownVariant, QueryOptions options);
 
     /**
-     * This method inserts a list of KnownVariants in the database. If the variant already exists... throw error?
+     * This method inserts a list of KnownVariants in the database in batches. The insertion is unordered, a variant
+     * that already exists or fails to be inserted does not abort the insertion of the rest of variants.
      * @param knownVariants     List of curated variants in OpenCB data model to be inserted
-     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, sort and count
-     * @return                  The list of known variant _id
+     * @param options           Query modifiers, accepted values are: batchSize
+     * @return                  The result of every insertion in the same order as the input list
      */
-    List<String> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options);
+    List<KnownVariantInsertResult> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options);
 
     /**
      * Retrieves a KnownVariant by the basic variant attributes.
@@ -44,14 +92,136 @@ public interface KnownVariantDBAdaptor extends AutoCloseable {
      * @return                  The known variant found if any
      * @throws CvaException
      */
-    KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate)
-            throws CvaException;
+    default KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate)
+            throws CvaException {
+        return find(chromosome, position, reference, alternate, null);
+    }
+
+    /**
+     * Retrieves a KnownVariant by the basic variant attributes reading only the requested fields. The fields
+     * needed to build the known variant are always read, the rest of fields not read are left empty.
+     * @param chromosome        The chromosome
+     * @param position          The position
+     * @param reference         The reference base/s
+     * @param alternate         The alternate base/s
+     * @param options           Query modifiers, accepted values are: include, exclude and skipFilter
+     * @return                  The known variant found if any
+     * @throws CvaException
+     */
+    KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate,
+                             QueryOptions options) throws CvaException;
 
     /**
-     * Updates a known variant and returns a flag indicating if the update was correct.
+     * Retrieves the KnownVariants for a list of variants, fetching them from the database in batches.
+     * Normalization is applied as in find, variants that cannot be normalized are not found.
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, accepted values are: batchSize, include and exclude
+     * @return                  The known variants in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    List<KnownVariantWrapper> findAll(List<Variant> variants, QueryOptions options);
+
+    /**
+     * Retrieves the current version of the KnownVariants for a list of variants without reading the whole
+     * documents, used to check whether cached known variants are still current.
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, accepted values are: batchSize
+     * @return                  The versions in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    List<Long> findVersions(List<Variant> variants, QueryOptions options);
+
+    /**
+     * Updates a known variant and returns a flag indicating if the update was correct. The update only succeeds if
+     * the stored known variant has the version that was read, the version is then incremented.
      * @param knownVariantWrapper       The entity to update in the known variants collection
      * @return                          Boolean indicating if the update was correct
+     * @throws ConcurrentCvaModificationException   if the known variant was modified since it was read
      * @throws CvaException
      */
     Boolean update(KnownVariantWrapper knownVariantWrapper) throws CvaException;
+
+    /**
+     * Appends a curation to a known variant with an atomic update that only writes the new curation. The append
+     * fails when the known variant was modified since it was read, the caller must then read it again and rebuild
+     * the curation.
+     * @param knownVariantWrapper       The known variant as read from the database
+     * @param curationHistoryEntry      The curation built with KnownVariantWrapper.buildCurationHistoryEntry
+     * @param updateConsistencyStatus   Recompute the consistency status of the curation from the stored evidences
+     * @return                          The updated known variant
+     * @throws ConcurrentCvaModificationException   if the known variant was modified since it was read
+     * @throws CvaException             if the known variant does not exist
+     */
+    KnownVariantWrapper addCuration(KnownVariantWrapper knownVariantWrapper,
+                                    CurationHistoryEntry curationHistoryEntry,
+                                    Boolean updateConsistencyStatus) throws CvaException;
+
+    /**
+     * Appends an evidence to a known variant with an atomic update that only writes the new evidence. The
+     * consistency status of the curations for the heritable phenotypes of the evidence is recomputed. Appends
+     * commute, so they are not conditional on the version read, but they increment it.
+     * @param knownVariantWrapper       The known variant
+     * @param evidenceEntry             The evidence built with KnownVariantWrapper.buildEvidenceEntry
+     * @return                          The updated known variant
+     * @throws CvaException             if the known variant does not exist
+     */
+    KnownVariantWrapper addEvidence(KnownVariantWrapper knownVariantWrapper, EvidenceEntry evidenceEntry)
+            throws CvaException;
+
+    /**
+     * Retrieves the known variants matching a query
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, timeout, count
+     *                          and after
+     * @return                  The known variants found
+     */
+    default QueryResult<KnownVariantWrapper> get(Query query, QueryOptions options) {
+        long start = System.currentTimeMillis();
+        List<KnownVariantWrapper> results = new ArrayList<>();
+        forEach(query, results::add, options);
+        int dbTime = (int) (System.currentTimeMillis() - start);
+        return new QueryResult<>("get", dbTime, results.size(), results.size(), "", "", results);
+    }
+
+    /**
+     * Iterates over all the known variants
+     * @return                  An iterator over all the known variants
+     */
+    @Override
+    default KnownVariantDBIterator iterator() {
+        return iterator(new Query(), new QueryOptions());
+    }
+
+    /**
+     * Iterates over the known variants matching a query without loading them all in memory
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, timeout,
+     *                          batchSize, persistent and after
+     * @return                  An iterator over the matching known variants, it must be closed
+     */
+    KnownVariantDBIterator iterator(Query query, QueryOptions options);
+
+    /**
+     * Applies an action on every known variant
+     * @param action            The action to be applied
+     */
+    @Override
+    default void forEach(Consumer<? super KnownVariantWrapper> action) {
+        forEach(new Query(), action, new QueryOptions());
+    }
+
+    /**
+     * Applies an action on every known variant matching a query
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param action            The action to be applied
+     * @param options           Query modifiers, see iterator(Query, QueryOptions)
+     */
+    default void forEach(Query query, Consumer<? super KnownVariantWrapper> action, QueryOptions options) {
+        Objects.requireNonNull(action);
+        try (KnownVariantDBIterator iterator = iterator(query, options)) {
+            while (iterator.hasNext()) {
+                action.accept(iterator.next());
+            }
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator over the known variants matching a query. It is backed by a database cursor, so it must be closed when
+ * it is not fully consumed.
+ */
+public abstract class KnownVariantDBIterator implements Iterator<KnownVariantWrapper>, AutoCloseable {
+
+    protected long timeFetching = 0;
+    protected long timeConverting = 0;
+    protected long count = 0;
+
+    /**
+     * Closes the underlying cursor, no exception is thrown as there is nothing the caller can do about it
+     */
+    @Override
+    public abstract void close();
+
+    protected void addTimeFetching(long nanos) {
+        this.timeFetching += nanos;
+    }
+
+    protected void addTimeConverting(long nanos) {
+        this.timeConverting += nanos;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    /**
+     * The time spent waiting for the database
+     * @param timeUnit  the time unit
+     * @return          time fetching documents
+     */
+    public long getTimeFetching(TimeUnit timeUnit) {
+        return timeUnit.convert(this.timeFetching, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The time spent converting documents into known variants
+     * @param timeUnit  the time unit
+     * @return          time converting documents
+     */
+    public long getTimeConverting(TimeUnit timeUnit) {
+        return timeUnit.convert(this.timeConverting, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The number of known variants returned so far
+     * @return  the number of known variants returned
+     */
+    public long getCount() {
+        return this.count;
+    }
+}
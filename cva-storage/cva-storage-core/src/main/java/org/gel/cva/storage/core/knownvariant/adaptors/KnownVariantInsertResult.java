@@ -0,0 +1,73 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+/**
+ * The outcome of inserting a single KnownVariant as part of a bulk insertion.
+ */
+public class KnownVariantInsertResult {
+
+    public enum Status {
+        INSERTED,
+        DUPLICATED,
+        FAILED
+    }
+
+    private final String id;
+    private final Status status;
+    private final String errorMessage;
+
+    /**
+     * Constructor for KnownVariantInsertResult
+     * @param id                the known variant _id
+     * @param status            the outcome of the insertion
+     * @param errorMessage      the reason of the failure, null unless the status is FAILED
+     */
+    public KnownVariantInsertResult(String id, Status status, String errorMessage) {
+        this.id = id;
+        this.status = status;
+        this.errorMessage = errorMessage;
+    }
+
+    public static KnownVariantInsertResult inserted(String id) {
+        return new KnownVariantInsertResult(id, Status.INSERTED, null);
+    }
+
+    public static KnownVariantInsertResult duplicated(String id) {
+        return new KnownVariantInsertResult(id, Status.DUPLICATED, null);
+    }
+
+    public static KnownVariantInsertResult failed(String id, String errorMessage) {
+        return new KnownVariantInsertResult(id, Status.FAILED, errorMessage);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("KnownVariantInsertResult{");
+        sb.append("id='").append(id).append('\'');
+        sb.append(", status=").append(status);
+        if (errorMessage != null) {
+            sb.append(", errorMessage='").append(errorMessage).append('\'');
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean isInserted() {
+        return status == Status.INSERTED;
+    }
+}
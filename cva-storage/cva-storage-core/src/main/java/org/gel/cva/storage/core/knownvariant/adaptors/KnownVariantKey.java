@@ -0,0 +1,114 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Identifies a known variant by the coordinates of its normalized variant. Keys are ordered by chromosome name,
+ * position, reference and alternate, so the known variants of a region are contiguous.
+ */
+public final class KnownVariantKey implements Comparable<KnownVariantKey>, Serializable {
+
+    private final String chromosome;
+    private final int position;
+    private final String reference;
+    private final String alternate;
+
+    /**
+     * Constructor for KnownVariantKey, null alleles are taken as empty
+     * @param chromosome    the normalized chromosome
+     * @param position      the position
+     * @param reference     the reference base/s
+     * @param alternate     the alternate base/s
+     */
+    public KnownVariantKey(String chromosome, int position, String reference, String alternate) {
+        this.chromosome = Objects.requireNonNull(chromosome);
+        this.position = position;
+        this.reference = reference != null ? reference : "";
+        this.alternate = alternate != null ? alternate : "";
+    }
+
+    /**
+     * @param variant   the normalized variant
+     * @return          the key of the variant
+     */
+    public static KnownVariantKey of(Variant variant) {
+        return new KnownVariantKey(variant.getChromosome(), variant.getStart(), variant.getReference(),
+                variant.getAlternate());
+    }
+
+    /**
+     * Parses a key given as chromosome:position:reference:alternate, the format of toString
+     * @param id        the key, empty alleles are allowed
+     * @return          the key
+     * @throws IllegalArgumentException     when the key is malformed
+     */
+    public static KnownVariantKey valueOf(String id) {
+        String[] fields = id != null ? id.split(":", -1) : new String[0];
+        if (fields.length != 4 || fields[0].isEmpty()) {
+            throw new IllegalArgumentException("Malformed known variant key '" + id +
+                    "', expected chromosome:position:reference:alternate");
+        }
+        return new KnownVariantKey(fields[0], Integer.parseInt(fields[1]), fields[2], fields[3]);
+    }
+
+    @Override
+    public int compareTo(KnownVariantKey other) {
+        int comparison = this.chromosome.compareTo(other.chromosome);
+        if (comparison == 0) {
+            comparison = Integer.compare(this.position, other.position);
+        }
+        if (comparison == 0) {
+            comparison = this.reference.compareTo(other.reference);
+        }
+        if (comparison == 0) {
+            comparison = this.alternate.compareTo(other.alternate);
+        }
+        return comparison;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KnownVariantKey)) {
+            return false;
+        }
+        KnownVariantKey other = (KnownVariantKey) o;
+        return this.position == other.position && this.chromosome.equals(other.chromosome) &&
+                this.reference.equals(other.reference) && this.alternate.equals(other.alternate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.chromosome, this.position, this.reference, this.alternate);
+    }
+
+    @Override
+    public String toString() {
+        return this.chromosome + ":" + this.position + ":" + this.reference + ":" + this.alternate;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public String getAlternate() {
+        return alternate;
+    }
+}
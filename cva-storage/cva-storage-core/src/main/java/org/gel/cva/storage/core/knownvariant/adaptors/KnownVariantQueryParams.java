@@ -0,0 +1,46 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+import org.opencb.commons.datastore.core.QueryParam;
+
+import static org.opencb.commons.datastore.core.QueryParam.Type.TEXT_ARRAY;
+
+/**
+ * Query parameters accepted by the KnownVariantDBAdaptor. Several values are given as a comma separated list and
+ * any of them matches, while different parameters must all match.
+ */
+public enum KnownVariantQueryParams implements QueryParam {
+
+    ID("id", TEXT_ARRAY, "List of known variant ids as chromosome:start:reference:alternate"),
+    SUBMITTER("submitter", TEXT_ARRAY, "List of submitters"),
+    CHROMOSOME("chromosome", TEXT_ARRAY, "List of chromosomes"),
+    REGION("region", TEXT_ARRAY, "List of regions as chromosome:start-end, a whole chromosome is given " +
+            "by its name alone"),
+    GENE("gene", TEXT_ARRAY, "List of genes given by HGNC symbol or Ensembl gene id, taken from the variant " +
+            "annotation"),
+    TRANSCRIPT("transcript", TEXT_ARRAY, "List of Ensembl transcript ids, taken from the variant annotation");
+
+    private final String key;
+    private final Type type;
+    private final String description;
+
+    KnownVariantQueryParams(String key, Type type, String description) {
+        this.key = key;
+        this.type = type;
+        this.description = description;
+    }
+
+    @Override
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public String description() {
+        return description;
+    }
+
+    @Override
+    public Type type() {
+        return type;
+    }
+}
@@ -0,0 +1,203 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.metrics.LatencyHistogram;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorates a KnownVariantDBAdaptor recording the latency of every call in the cva_storage_operation_seconds
+ * histogram, labelled by adaptor and operation. Calls that fail are recorded too. For iterators only the time to
+ * open the cursor is recorded, the time fetching and converting is already reported by the iterator itself.
+ */
+public class MeteredKnownVariantDBAdaptor implements KnownVariantDBAdaptor {
+
+    public static final String METRIC = "cva_storage_operation_seconds";
+
+    private final KnownVariantDBAdaptor knownVariantDBAdaptor;
+    private final LatencyHistogram insertHistogram;
+    private final LatencyHistogram insertBatchHistogram;
+    private final LatencyHistogram findHistogram;
+    private final LatencyHistogram findAllHistogram;
+    private final LatencyHistogram findVersionsHistogram;
+    private final LatencyHistogram updateHistogram;
+    private final LatencyHistogram addCurationHistogram;
+    private final LatencyHistogram addEvidenceHistogram;
+    private final LatencyHistogram getHistogram;
+    private final LatencyHistogram iteratorHistogram;
+    private final LatencyHistogram forEachHistogram;
+
+    /**
+     * Constructor for MeteredKnownVariantDBAdaptor
+     * @param knownVariantDBAdaptor     the adaptor whose calls are measured
+     * @param metricsRegistry           the registry holding the histograms
+     */
+    public MeteredKnownVariantDBAdaptor(KnownVariantDBAdaptor knownVariantDBAdaptor,
+                                        MetricsRegistry metricsRegistry) {
+        this.knownVariantDBAdaptor = knownVariantDBAdaptor;
+        String adaptor = knownVariantDBAdaptor.getClass().getSimpleName();
+        this.insertHistogram = histogram(metricsRegistry, adaptor, "insert");
+        this.insertBatchHistogram = histogram(metricsRegistry, adaptor, "insertBatch");
+        this.findHistogram = histogram(metricsRegistry, adaptor, "find");
+        this.findAllHistogram = histogram(metricsRegistry, adaptor, "findAll");
+        this.findVersionsHistogram = histogram(metricsRegistry, adaptor, "findVersions");
+        this.updateHistogram = histogram(metricsRegistry, adaptor, "update");
+        this.addCurationHistogram = histogram(metricsRegistry, adaptor, "addCuration");
+        this.addEvidenceHistogram = histogram(metricsRegistry, adaptor, "addEvidence");
+        this.getHistogram = histogram(metricsRegistry, adaptor, "get");
+        this.iteratorHistogram = histogram(metricsRegistry, adaptor, "iterator");
+        this.forEachHistogram = histogram(metricsRegistry, adaptor, "forEach");
+    }
+
+    private static LatencyHistogram histogram(MetricsRegistry metricsRegistry, String adaptor, String operation) {
+        return metricsRegistry.histogram(METRIC, "Latency of the calls to the known variants storage",
+                "adaptor", adaptor, "operation", operation);
+    }
+
+    /**
+     * @return  the adaptor whose calls are measured
+     */
+    public KnownVariantDBAdaptor getKnownVariantDBAdaptor() {
+        return this.knownVariantDBAdaptor;
+    }
+
+    @Override
+    public String insert(KnownVariantWrapper knownVariant, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.insert(knownVariant, options);
+        }
+        finally {
+            this.insertHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<KnownVariantInsertResult> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.insert(knownVariants, options);
+        }
+        finally {
+            this.insertBatchHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate,
+                                    QueryOptions options) throws CvaException {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate, options);
+        }
+        finally {
+            this.findHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<KnownVariantWrapper> findAll(List<Variant> variants, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.findAll(variants, options);
+        }
+        finally {
+            this.findAllHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Long> findVersions(List<Variant> variants, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.findVersions(variants, options);
+        }
+        finally {
+            this.findVersionsHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public Boolean update(KnownVariantWrapper knownVariantWrapper) throws CvaException {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.update(knownVariantWrapper);
+        }
+        finally {
+            this.updateHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public KnownVariantWrapper addCuration(KnownVariantWrapper knownVariantWrapper,
+                                           CurationHistoryEntry curationHistoryEntry,
+                                           Boolean updateConsistencyStatus) throws CvaException {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.addCuration(knownVariantWrapper, curationHistoryEntry,
+                    updateConsistencyStatus);
+        }
+        finally {
+            this.addCurationHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public KnownVariantWrapper addEvidence(KnownVariantWrapper knownVariantWrapper, EvidenceEntry evidenceEntry)
+            throws CvaException {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.addEvidence(knownVariantWrapper, evidenceEntry);
+        }
+        finally {
+            this.addEvidenceHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public QueryResult<KnownVariantWrapper> get(Query query, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.get(query, options);
+        }
+        finally {
+            this.getHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public KnownVariantDBIterator iterator(Query query, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            return this.knownVariantDBAdaptor.iterator(query, options);
+        }
+        finally {
+            this.iteratorHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public void forEach(Query query, Consumer<? super KnownVariantWrapper> action, QueryOptions options) {
+        long start = System.nanoTime();
+        try {
+            this.knownVariantDBAdaptor.forEach(query, action, options);
+        }
+        finally {
+            this.forEachHistogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.knownVariantDBAdaptor.close();
+    }
+}
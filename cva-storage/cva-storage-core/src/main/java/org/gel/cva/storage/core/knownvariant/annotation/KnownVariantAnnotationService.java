@@ -0,0 +1,434 @@
+package org.gel.cva.storage.core.knownvariant.annotation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.gel.cva.storage.core.config.AnnotationConfiguration;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
+import org.gel.cva.storage.core.metrics.LatencyHistogram;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantNormalizer;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+import org.opencb.opencga.storage.core.variant.annotation.annotators.CellBaseDirectVariantAnnotator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Normalizes and annotates variants for the KnownVariantWrapper. A single instance is shared by the whole process,
+ * it is thread safe and creates the CellBase annotator only the first time a variant is annotated, so building
+ * wrappers without annotation never touches CellBase.
+ *
+ * Annotation requests from concurrent callers are coalesced by a dispatcher thread into batched CellBase calls of up
+ * to batchSize variants, a request waits at most maxWaitMillis for the batch to fill up and at most timeoutMillis for
+ * its annotations. The dispatcher is started again if it dies. Annotations are cached by normalized variant and
+ * variants that could not be annotated are kept in a bounded retry queue, which the KnownVariantManager drains
+ * periodically to store their annotations.
+ */
+public class KnownVariantAnnotationService implements AutoCloseable {
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantAnnotationService.class);
+
+    private static KnownVariantAnnotationService instance;
+
+    private static final LatencyHistogram normalizationHistogram = MetricsRegistry.getInstance().histogram(
+            "cva_normalization_seconds", "Latency of the normalization of a variant");
+    private static final LatencyHistogram cellBaseHistogram = MetricsRegistry.getInstance().histogram(
+            "cva_cellbase_annotation_seconds", "Latency of the batched annotation calls to CellBase");
+
+    // VariantNormalizer keeps state while normalizing, every thread gets its own
+    private final ThreadLocal<VariantNormalizer> variantNormalizer =
+            ThreadLocal.withInitial(() -> new VariantNormalizer(true, true, true));
+    private final int batchSize;
+    private final long maxWaitMillis;
+    private final long timeoutMillis;
+    private final Cache<String, VariantAnnotation> annotationCache;
+    private final BlockingQueue<PendingAnnotation> pendingAnnotations = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Variant> retryQueue;
+    private volatile CellBaseDirectVariantAnnotator cellBaseDirectVariantAnnotator;
+    private volatile Thread dispatcher;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor for KnownVariantAnnotationService with the settings in the CVA configuration
+     */
+    public KnownVariantAnnotationService() {
+        this(loadAnnotationConfiguration());
+    }
+
+    /**
+     * Constructor for KnownVariantAnnotationService
+     * @param annotationConfiguration   the batching and caching settings
+     */
+    public KnownVariantAnnotationService(AnnotationConfiguration annotationConfiguration) {
+        this.batchSize = Math.max(1, annotationConfiguration.getBatchSize());
+        this.maxWaitMillis = Math.max(0, annotationConfiguration.getMaxWaitMillis());
+        this.timeoutMillis = Math.max(0, annotationConfiguration.getTimeoutMillis());
+        this.annotationCache = CacheBuilder.newBuilder()
+                .maximumSize(annotationConfiguration.getCacheMaxSize())
+                .expireAfterWrite(annotationConfiguration.getCacheTtlMinutes(), TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        this.retryQueue = new LinkedBlockingQueue<>(Math.max(1, annotationConfiguration.getRetryQueueCapacity()));
+    }
+
+    private static AnnotationConfiguration loadAnnotationConfiguration() {
+        AnnotationConfiguration annotationConfiguration = null;
+        try {
+            annotationConfiguration = CvaConfiguration.getInstance().getAnnotation();
+        }
+        catch (IllegalCvaConfigurationException e) {
+            logger.warn("Cannot read the annotation settings, using defaults: {}", e.getMessage());
+        }
+        return annotationConfiguration != null ? annotationConfiguration : new AnnotationConfiguration();
+    }
+
+    /**
+     * Returns the process wide annotation service, it is created on first use
+     * @return  the shared annotation service
+     */
+    public static synchronized KnownVariantAnnotationService getInstance() {
+        if (instance == null || instance.closed) {
+            instance = new KnownVariantAnnotationService();
+        }
+        return instance;
+    }
+
+    /**
+     * Closes the process wide annotation service if it was created
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Normalizes a variant. A multi-allelic variant may be normalized into several variants.
+     * @param variant   the variant to normalize
+     * @return          the normalized variants
+     */
+    public List<Variant> normalize(Variant variant) {
+        this.checkOpen();
+        long start = System.nanoTime();
+        try {
+            return this.variantNormalizer.get().apply(Collections.singletonList(variant));
+        }
+        finally {
+            normalizationHistogram.recordSince(start);
+        }
+    }
+
+    /**
+     * Annotates a list of normalized variants. Cached annotations are reused and the rest are sent to CellBase
+     * together with the requests of other threads in batches of at most batchSize variants.
+     * Variants that CellBase failed to annotate are recorded in the retry queue. Annotations not received within
+     * timeoutMillis are left null, the dispatcher still caches them or records them for retry when they complete.
+     * @param variants      the variants to annotate
+     * @return              the annotations in the same order as the variants, null if a variant was not annotated
+     * @throws VariantAnnotatorException    if interrupted while waiting for the annotations
+     */
+    public List<VariantAnnotation> annotate(List<Variant> variants) throws VariantAnnotatorException {
+        this.checkOpen();
+        List<VariantAnnotation> variantAnnotations = new ArrayList<>(variants.size());
+        List<PendingAnnotation> pending = new LinkedList<>();
+        for (Variant variant : variants) {
+            VariantAnnotation variantAnnotation = this.annotationCache.getIfPresent(getVariantKey(variant));
+            if (variantAnnotation == null) {
+                PendingAnnotation pendingAnnotation = new PendingAnnotation(variant, variantAnnotations.size());
+                pending.add(pendingAnnotation);
+                this.pendingAnnotations.add(pendingAnnotation);
+            }
+            variantAnnotations.add(variantAnnotation);
+        }
+        if (!pending.isEmpty()) {
+            this.startDispatcher();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+            int timedOut = 0;
+            try {
+                for (PendingAnnotation pendingAnnotation : pending) {
+                    try {
+                        variantAnnotations.set(pendingAnnotation.index, pendingAnnotation.future.get(
+                                Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                    }
+                    catch (TimeoutException e) {
+                        timedOut++;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new VariantAnnotatorException("Interrupted while waiting for the annotation");
+            }
+            catch (ExecutionException e) {
+                // never happens, failed annotations complete with null
+                throw new VariantAnnotatorException(e.getMessage());
+            }
+            if (timedOut > 0) {
+                logger.warn("Timed out after {} ms waiting for the annotation of {} variants", this.timeoutMillis,
+                        timedOut);
+            }
+        }
+        return variantAnnotations;
+    }
+
+    /**
+     * Annotates a single normalized variant
+     * @param variant       the variant to annotate
+     * @return              the annotation or null if CellBase did not annotate it
+     * @throws VariantAnnotatorException    if interrupted while waiting for the annotation
+     */
+    public VariantAnnotation annotate(Variant variant) throws VariantAnnotatorException {
+        return this.annotate(Collections.singletonList(variant)).get(0);
+    }
+
+    /**
+     * Takes the variants out of the retry queue, the caller is expected to annotate them again
+     * @return              the variants that could not be annotated
+     */
+    public List<Variant> drainFailedVariants() {
+        List<Variant> variants = new ArrayList<>(this.retryQueue.size());
+        this.retryQueue.drainTo(variants);
+        return variants;
+    }
+
+    /**
+     * Sends again to CellBase the variants in the retry queue, the annotations are only cached. The
+     * KnownVariantManager retries them storing the annotations in the known variants.
+     * @return              the number of variants annotated, those failing again are back in the retry queue
+     * @throws VariantAnnotatorException    if interrupted while waiting for the annotations
+     */
+    public int retryFailedAnnotations() throws VariantAnnotatorException {
+        List<Variant> variants = this.drainFailedVariants();
+        int annotated = 0;
+        for (VariantAnnotation variantAnnotation : this.annotate(variants)) {
+            if (variantAnnotation != null) {
+                annotated++;
+            }
+        }
+        return annotated;
+    }
+
+    /**
+     * Annotates a batch of variants with CellBase in a single call
+     * @param variants      the variants to annotate
+     * @return              the annotations returned by CellBase, in any order
+     * @throws VariantAnnotatorException            error annotating the variants
+     * @throws IllegalCvaConfigurationException     wrong CellBase settings
+     * @throws IOException                          error connecting to CellBase
+     */
+    protected List<VariantAnnotation> annotateBatch(List<Variant> variants)
+            throws VariantAnnotatorException, IllegalCvaConfigurationException, IOException {
+        return this.getCellBaseDirectVariantAnnotator().annotate(variants);
+    }
+
+    /**
+     * Creates the CellBase annotator on first use
+     * @return  the CellBase annotator
+     */
+    protected CellBaseDirectVariantAnnotator getCellBaseDirectVariantAnnotator()
+            throws VariantAnnotatorException, IllegalCvaConfigurationException {
+        CellBaseDirectVariantAnnotator annotator = this.cellBaseDirectVariantAnnotator;
+        if (annotator == null) {
+            synchronized (this) {
+                annotator = this.cellBaseDirectVariantAnnotator;
+                if (annotator == null) {
+                    logger.info("Creating CellBase annotator");
+                    annotator = CvaConfiguration.getCellBaseDirectVariantAnnotator();
+                    this.cellBaseDirectVariantAnnotator = annotator;
+                }
+            }
+        }
+        return annotator;
+    }
+
+    /**
+     * Builds the key of a normalized variant used in the annotation cache
+     * @param variant   the normalized variant
+     * @return          the variant key
+     */
+    private static String getVariantKey(Variant variant) {
+        return getVariantKey(variant.getChromosome(), variant.getStart(), variant.getReference(),
+                variant.getAlternate());
+    }
+
+    private static String getVariantKey(String chromosome, Integer start, String reference, String alternate) {
+        return chromosome + ":" + start + ":" + reference + ":" + alternate;
+    }
+
+    /**
+     * Starts the dispatcher when there is none or it died
+     */
+    private synchronized void startDispatcher() {
+        if ((this.dispatcher == null || !this.dispatcher.isAlive()) && !this.closed) {
+            this.dispatcher = new Thread(this::dispatch, "annotation-dispatcher");
+            this.dispatcher.setDaemon(true);
+            this.dispatcher.start();
+        }
+    }
+
+    /**
+     * Takes pending requests, waiting at most maxWaitMillis for a batch to fill up, and sends them to CellBase. An
+     * unexpected error annotating a batch leaves its variants without annotation but does not stop the dispatcher.
+     */
+    private void dispatch() {
+        List<PendingAnnotation> batch = new ArrayList<>(this.batchSize);
+        try {
+            while (!this.closed) {
+                batch.add(this.pendingAnnotations.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxWaitMillis);
+                while (batch.size() < this.batchSize) {
+                    this.pendingAnnotations.drainTo(batch, this.batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= this.batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingAnnotation pendingAnnotation = this.pendingAnnotations.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (pendingAnnotation == null) {
+                        break;
+                    }
+                    batch.add(pendingAnnotation);
+                }
+                try {
+                    this.annotatePending(batch);
+                }
+                catch (RuntimeException e) {
+                    logger.error("Unexpected error annotating a batch of " + batch.size() + " variants", e);
+                    for (PendingAnnotation pendingAnnotation : batch) {
+                        pendingAnnotation.future.complete(null);
+                    }
+                }
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            synchronized (this) {
+                // the next request starts a new dispatcher
+                if (this.dispatcher == Thread.currentThread()) {
+                    this.dispatcher = null;
+                }
+            }
+            // the requests taken are not annotated, those still queued are left to a new dispatcher
+            for (PendingAnnotation pendingAnnotation : batch) {
+                pendingAnnotation.future.complete(null);
+            }
+            if (!this.pendingAnnotations.isEmpty()) {
+                this.startDispatcher();
+            }
+        }
+    }
+
+    private void annotatePending(List<PendingAnnotation> batch) {
+        // the same variant may have been requested by several callers
+        Map<String, List<PendingAnnotation>> pendingByVariant = new LinkedHashMap<>();
+        for (PendingAnnotation pendingAnnotation : batch) {
+            pendingByVariant.computeIfAbsent(getVariantKey(pendingAnnotation.variant), k -> new LinkedList<>())
+                    .add(pendingAnnotation);
+        }
+        List<Variant> variants = new ArrayList<>(pendingByVariant.size());
+        for (List<PendingAnnotation> pending : pendingByVariant.values()) {
+            variants.add(pending.get(0).variant);
+        }
+        List<VariantAnnotation> variantAnnotations = null;
+        long start = System.nanoTime();
+        try {
+            variantAnnotations = this.annotateBatch(variants);
+        }
+        catch (Exception e) {
+            logger.warn("Error annotating a batch of {} variants: {}", variants.size(), e.getMessage());
+        }
+        finally {
+            cellBaseHistogram.recordSince(start);
+        }
+        Map<String, VariantAnnotation> annotationsByVariant = new HashMap<>();
+        if (variantAnnotations != null) {
+            if (variantAnnotations.size() == variants.size()) {
+                for (int i = 0; i < variants.size(); i++) {
+                    annotationsByVariant.put(getVariantKey(variants.get(i)), variantAnnotations.get(i));
+                }
+            }
+            else {
+                // some variants were not annotated, matches the annotations by coordinates
+                for (VariantAnnotation variantAnnotation : variantAnnotations) {
+                    annotationsByVariant.put(getVariantKey(variantAnnotation.getChromosome(),
+                            variantAnnotation.getStart(), variantAnnotation.getReference(),
+                            variantAnnotation.getAlternate()), variantAnnotation);
+                }
+            }
+        }
+        for (Map.Entry<String, List<PendingAnnotation>> entry : pendingByVariant.entrySet()) {
+            VariantAnnotation variantAnnotation = annotationsByVariant.get(entry.getKey());
+            if (variantAnnotation != null) {
+                this.annotationCache.put(entry.getKey(), variantAnnotation);
+            }
+            else if (!this.retryQueue.offer(entry.getValue().get(0).variant)) {
+                logger.warn("Retry queue is full, dropping failed annotation of {}", entry.getKey());
+            }
+            for (PendingAnnotation pendingAnnotation : entry.getValue()) {
+                pendingAnnotation.future.complete(variantAnnotation);
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("The annotation service is closed");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.dispatcher != null) {
+            this.dispatcher.interrupt();
+            this.dispatcher = null;
+        }
+        List<PendingAnnotation> pending = new LinkedList<>();
+        this.pendingAnnotations.drainTo(pending);
+        for (PendingAnnotation pendingAnnotation : pending) {
+            pendingAnnotation.future.complete(null);
+        }
+        this.cellBaseDirectVariantAnnotator = null;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public CacheStats getCacheStats() {
+        return this.annotationCache.stats();
+    }
+
+    public long getCacheSize() {
+        return this.annotationCache.size();
+    }
+
+    /**
+     * The variants that could not be annotated and are waiting to be retried
+     * @return  a snapshot of the retry queue
+     */
+    public List<Variant> getFailedVariants() {
+        return new ArrayList<>(this.retryQueue);
+    }
+
+    private static class PendingAnnotation {
+        private final Variant variant;
+        private final int index;
+        private final CompletableFuture<VariantAnnotation> future = new CompletableFuture<>();
+
+        private PendingAnnotation(Variant variant, int index) {
+            this.variant = variant;
+            this.index = index;
+        }
+    }
+}
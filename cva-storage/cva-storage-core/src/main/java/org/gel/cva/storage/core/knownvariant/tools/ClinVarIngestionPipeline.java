@@ -0,0 +1,193 @@
+package org.gel.cva.storage.core.knownvariant.tools;
+
+import org.gel.cva.storage.core.config.ClinVarConfiguration;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.pipeline.ParallelPipeline;
+import org.gel.cva.storage.core.pipeline.PipelineStageStatistics;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.VariantStudy;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads a ClinVar VCF into the known variants storage through a ParallelPipeline with the stages:
+ * reader -> normalizer -> annotator -> writer. Every stage works on batches of variants, the annotator stage hands
+ * a whole batch to the annotation service and the writer stage performs an unordered bulk insert of the batch.
+ */
+public class ClinVarIngestionPipeline {
+
+    public static final String SUBMITTER = "ClinVar-loader";
+
+    protected static Logger logger = LoggerFactory.getLogger(ClinVarIngestionPipeline.class);
+
+    private final KnownVariantDBAdaptor knownVariantDBAdaptor;
+    private final ClinVarConfiguration clinVarConfiguration;
+    private final KnownVariantAnnotationService annotationService;
+    private final AtomicLong skippedVariants = new AtomicLong();
+    private final AtomicLong insertedVariants = new AtomicLong();
+    private final AtomicLong duplicatedVariants = new AtomicLong();
+    private final AtomicLong failedVariants = new AtomicLong();
+
+    /**
+     * Constructor for ClinVarIngestionPipeline
+     * @param cvaConfiguration          the CVA configuration
+     * @param knownVariantDBAdaptor     the adaptor where the known variants are stored
+     */
+    public ClinVarIngestionPipeline(CvaConfiguration cvaConfiguration, KnownVariantDBAdaptor knownVariantDBAdaptor) {
+        this.knownVariantDBAdaptor = knownVariantDBAdaptor;
+        this.clinVarConfiguration = cvaConfiguration.getClinVar();
+        this.annotationService = KnownVariantAnnotationService.getInstance();
+    }
+
+    /**
+     * Loads a ClinVar VCF, it may be gzipped
+     * @param vcf       the path to the VCF file
+     * @return          the statistics of every stage
+     * @throws IOException              error reading the VCF or any stage failed, the ingestion is then stopped
+     * @throws InterruptedException     if interrupted while waiting for the pipeline to finish
+     */
+    public List<PipelineStageStatistics> run(Path vcf) throws IOException, InterruptedException {
+
+        String fileName = vcf.toString();
+        InputStream inputStream = new FileInputStream(vcf.toFile());
+        if (fileName.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        VariantSource source = new VariantSource(fileName, "2", "1", "myStudy",
+                VariantStudy.StudyType.FAMILY, VariantSource.Aggregation.NONE);
+        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(inputStream, source);
+        reader.open();
+        reader.pre();
+        int readBatchSize = this.clinVarConfiguration.getReadBatchSize();
+        QueryOptions insertOptions = new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, readBatchSize);
+        ParallelPipeline pipeline = new ParallelPipeline("clinvar", this.clinVarConfiguration.getQueueCapacity())
+                .addStage("normalizer", this.clinVarConfiguration.getNormalizerThreads(), this::normalize)
+                .addStage("annotator", this.clinVarConfiguration.getAnnotatorThreads(), this::annotate)
+                .addStage("writer", this.clinVarConfiguration.getWriterThreads(),
+                        (List<KnownVariantWrapper> batch) -> this.write(batch, insertOptions));
+        List<PipelineStageStatistics> statistics;
+        try {
+            statistics = pipeline.run("reader", () -> reader.read(readBatchSize));
+        }
+        catch (ExecutionException e) {
+            throw new IOException("ClinVar ingestion of " + fileName + " failed", e.getCause());
+        }
+        finally {
+            reader.post();
+            reader.close();
+        }
+        logger.info("ClinVar ingestion of {} finished: inserted={}, duplicated={}, failed={}, skipped={}",
+                fileName, insertedVariants.get(), duplicatedVariants.get(), failedVariants.get(),
+                skippedVariants.get());
+        return statistics;
+    }
+
+    /**
+     * Normalizes the variants and wraps them in KnownVariantWrapper, variants that cannot be registered
+     * (e.g.: multi-allelic) are skipped
+     * @param variants      the variants read from the VCF
+     * @return              the known variants, not annotated
+     */
+    private List<KnownVariantWrapper> normalize(List<Variant> variants) {
+        List<KnownVariantWrapper> knownVariantWrappers = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            try {
+                // TODO: add a ClinVar evidence from the CLNSIG, CLNREVSTAT and SAO attributes
+                // TODO: create an automatic curation status
+                knownVariantWrappers.add(new KnownVariantWrapper(SUBMITTER, variant, false, this.annotationService));
+            }
+            catch (Exception e) {
+                skippedVariants.incrementAndGet();
+                logger.warn("Skipping variant {}: {}", variant, e.getMessage());
+            }
+        }
+        return knownVariantWrappers;
+    }
+
+    /**
+     * Annotates the whole batch through the annotation service, which sends it to CellBase in batched calls.
+     * Variants that CellBase fails to annotate are stored without annotation and queued for retry in the service.
+     * @param knownVariantWrappers      the known variants to annotate
+     * @return                          the same known variants
+     * @throws VariantAnnotatorException    if interrupted while waiting for the annotations
+     */
+    private List<KnownVariantWrapper> annotate(List<KnownVariantWrapper> knownVariantWrappers)
+            throws VariantAnnotatorException {
+        List<Variant> variants = new ArrayList<>(knownVariantWrappers.size());
+        for (KnownVariantWrapper knownVariantWrapper : knownVariantWrappers) {
+            variants.add(knownVariantWrapper.getVariant());
+        }
+        List<VariantAnnotation> variantAnnotations = this.annotationService.annotate(variants);
+        for (int i = 0; i < knownVariantWrappers.size(); i++) {
+            knownVariantWrappers.get(i).setVariantAnnotation(variantAnnotations.get(i));
+        }
+        return knownVariantWrappers;
+    }
+
+    /**
+     * Stores the batch with an unordered bulk insert
+     * @param knownVariantWrappers      the known variants to insert
+     * @param options                   the insertion options
+     * @return                          the outcome of every insertion
+     */
+    private List<KnownVariantInsertResult> write(List<KnownVariantWrapper> knownVariantWrappers,
+                                                 QueryOptions options) {
+        if (knownVariantWrappers.isEmpty()) {
+            return null;
+        }
+        List<KnownVariantInsertResult> results = this.knownVariantDBAdaptor.insert(knownVariantWrappers, options);
+        for (KnownVariantInsertResult result : results) {
+            switch (result.getStatus()) {
+                case INSERTED:
+                    insertedVariants.incrementAndGet();
+                    break;
+                case DUPLICATED:
+                    duplicatedVariants.incrementAndGet();
+                    break;
+                default:
+                    failedVariants.incrementAndGet();
+                    logger.warn("Failed to insert {}", result);
+            }
+        }
+        return results;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public long getSkippedVariants() {
+        return skippedVariants.get();
+    }
+
+    public long getInsertedVariants() {
+        return insertedVariants.get();
+    }
+
+    public long getDuplicatedVariants() {
+        return duplicatedVariants.get();
+    }
+
+    public long getFailedVariants() {
+        return failedVariants.get();
+    }
+}
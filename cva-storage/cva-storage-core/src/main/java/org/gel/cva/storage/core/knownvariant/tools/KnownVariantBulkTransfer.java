@@ -0,0 +1,409 @@
+package org.gel.cva.storage.core.knownvariant.tools;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.gel.cva.storage.core.config.BulkTransferConfiguration;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.manager.KnownVariantManager;
+import org.gel.cva.storage.core.pipeline.ParallelPipeline;
+import org.gel.cva.storage.core.pipeline.PipelineStageStatistics;
+import org.gel.models.cva.avro.Curation;
+import org.gel.models.cva.avro.CurationClassification;
+import org.gel.models.cva.avro.CurationEntry;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports the known variants to Avro container files or Parquet files and imports them back. The export streams
+ * the known variants matching a query from the database cursor to the file, so the whole knowledge base or a
+ * subset by region, gene or curation classification can be exported without holding it in memory. The import is
+ * a ParallelPipeline with the stages: reader -> writer, where the writer stage performs an unordered bulk insert of
+ * every batch. Known variants already registered are reported as duplicated and left untouched, so an import can
+ * be safely repeated.
+ */
+public class KnownVariantBulkTransfer {
+
+    /**
+     * The file formats, both hold KnownVariant records with the Avro schema
+     */
+    public enum Format {
+        AVRO(".avro"),
+        PARQUET(".parquet");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Guesses the format from the file extension
+         * @param path      the file
+         * @return          the format
+         * @throws IllegalArgumentException     if the extension is not known
+         */
+        public static Format fromPath(Path path) {
+            String fileName = path.getFileName().toString().toLowerCase();
+            for (Format format : values()) {
+                if (fileName.endsWith(format.extension)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown format for " + path + ", expected .avro or .parquet");
+        }
+    }
+
+    public static final String CLASSIFICATION = "classification";
+    private static final String UNCOMPRESSED = "uncompressed";
+    private static final String DEFLATE = "deflate";
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantBulkTransfer.class);
+
+    private final KnownVariantDBAdaptor knownVariantDBAdaptor;
+    private final BulkTransferConfiguration bulkTransferConfiguration;
+    private final AtomicLong exportedVariants = new AtomicLong();
+    private final AtomicLong readVariants = new AtomicLong();
+    private final AtomicLong insertedVariants = new AtomicLong();
+    private final AtomicLong duplicatedVariants = new AtomicLong();
+    private final AtomicLong failedVariants = new AtomicLong();
+
+    /**
+     * Writes known variants to a file, records are written in order by a single thread
+     */
+    private interface KnownVariantFileWriter extends Closeable {
+        void write(KnownVariant knownVariant) throws IOException;
+    }
+
+    /**
+     * Reads known variants from a file, returns null once all have been read
+     */
+    private interface KnownVariantFileReader extends Closeable {
+        KnownVariant read() throws IOException;
+    }
+
+    /**
+     * Constructor for KnownVariantBulkTransfer
+     * @param cvaConfiguration          the CVA configuration
+     * @param knownVariantDBAdaptor     the adaptor where the known variants are stored
+     */
+    public KnownVariantBulkTransfer(CvaConfiguration cvaConfiguration, KnownVariantDBAdaptor knownVariantDBAdaptor) {
+        this.knownVariantDBAdaptor = knownVariantDBAdaptor;
+        this.bulkTransferConfiguration = cvaConfiguration.getBulkTransfer() != null ?
+                cvaConfiguration.getBulkTransfer() : new BulkTransferConfiguration();
+    }
+
+    /**
+     * Exports the known variants matching a query. An existing file is overwritten and a partial file is removed
+     * when the export fails.
+     * @param output            the output file
+     * @param format            the output format
+     * @param query             Query filters, see KnownVariantQueryParams, null exports all the known variants
+     * @param classifications   only the known variants with a curation with any of these classifications are
+     *                          exported, null or empty does not filter by classification
+     * @return                  the number of known variants exported
+     * @throws IOException      error writing the output
+     */
+    public long export(Path output, Format format, Query query, Collection<CurationClassification> classifications)
+            throws IOException {
+        Set<CurationClassification> classificationFilter = classifications != null && !classifications.isEmpty() ?
+                EnumSet.copyOf(classifications) : null;
+        QueryOptions options = new QueryOptions(KnownVariantDBAdaptor.PERSISTENT, true);
+        options.put(KnownVariantDBAdaptor.BATCH_SIZE, Math.max(1, this.bulkTransferConfiguration.getBatchSize()));
+        long exported = 0;
+        Files.deleteIfExists(output);
+        try (KnownVariantFileWriter writer = this.openWriter(output, format);
+             KnownVariantDBIterator iterator = this.knownVariantDBAdaptor.iterator(
+                     query != null ? query : new Query(), options)) {
+            while (iterator.hasNext()) {
+                KnownVariantWrapper knownVariantWrapper = iterator.next();
+                if (classificationFilter == null || hasClassification(knownVariantWrapper, classificationFilter)) {
+                    writer.write(knownVariantWrapper.getImpl());
+                    exported++;
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+        this.exportedVariants.addAndGet(exported);
+        logger.info("Known variants export to {} finished: exported={}", output, exported);
+        return exported;
+    }
+
+    /**
+     * Imports the known variants in a file through bulk inserts
+     * @param input             the input file
+     * @param format            the input format
+     * @return                  the statistics of every stage
+     * @throws IOException              error reading the input or writing a batch, the import is then stopped
+     * @throws InterruptedException     if interrupted while waiting for the pipeline to finish
+     */
+    public List<PipelineStageStatistics> importFrom(Path input, Format format)
+            throws IOException, InterruptedException {
+        int batchSize = Math.max(1, this.bulkTransferConfiguration.getBatchSize());
+        int queueCapacity = Math.max(1, this.bulkTransferConfiguration.getQueueCapacity());
+        int writerThreads = Math.max(1, this.bulkTransferConfiguration.getWriterThreads());
+        QueryOptions insertOptions = new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, batchSize);
+        ParallelPipeline pipeline = new ParallelPipeline("bulk-import", queueCapacity)
+                .addStage("writer", writerThreads,
+                        (List<KnownVariantWrapper> batch) -> this.write(batch, insertOptions));
+        List<PipelineStageStatistics> statistics;
+        try (KnownVariantFileReader reader = this.openReader(input, format)) {
+            statistics = pipeline.run("reader", () -> this.read(reader, batchSize));
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Known variants import of " + input + " failed", e.getCause());
+        }
+        logger.info("Known variants import of {} finished: read={}, inserted={}, duplicated={}, failed={}",
+                input, readVariants.get(), insertedVariants.get(), duplicatedVariants.get(), failedVariants.get());
+        return statistics;
+    }
+
+    /**
+     * Reads the next batch of known variants, they are stored as read
+     * @param reader        the input file
+     * @param batchSize     the maximum number of known variants in the batch
+     * @return              the batch, empty once the input is exhausted
+     * @throws IOException  error reading the input
+     */
+    private List<KnownVariantWrapper> read(KnownVariantFileReader reader, int batchSize) throws IOException {
+        List<KnownVariantWrapper> knownVariantWrappers = new ArrayList<>(batchSize);
+        KnownVariant knownVariant;
+        while (knownVariantWrappers.size() < batchSize && (knownVariant = reader.read()) != null) {
+            knownVariantWrappers.add(new KnownVariantWrapper(knownVariant));
+        }
+        readVariants.addAndGet(knownVariantWrappers.size());
+        return knownVariantWrappers;
+    }
+
+    /**
+     * Stores the batch with an unordered bulk insert
+     * @param knownVariantWrappers      the known variants to insert
+     * @param options                   the insertion options
+     * @return                          the outcome of every insertion
+     */
+    private List<KnownVariantInsertResult> write(List<KnownVariantWrapper> knownVariantWrappers,
+                                                 QueryOptions options) {
+        if (knownVariantWrappers.isEmpty()) {
+            return null;
+        }
+        List<KnownVariantInsertResult> results = this.knownVariantDBAdaptor.insert(knownVariantWrappers, options);
+        for (KnownVariantInsertResult result : results) {
+            switch (result.getStatus()) {
+                case INSERTED:
+                    insertedVariants.incrementAndGet();
+                    break;
+                case DUPLICATED:
+                    duplicatedVariants.incrementAndGet();
+                    break;
+                default:
+                    failedVariants.incrementAndGet();
+                    logger.warn("Failed to insert {}", result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Checks whether any of the current curations of a known variant has one of the classifications
+     * @param knownVariantWrapper   the known variant
+     * @param classifications       the classifications
+     * @return                      true if any curation has one of the classifications
+     */
+    private static boolean hasClassification(KnownVariantWrapper knownVariantWrapper,
+                                             Set<CurationClassification> classifications) {
+        for (CurationEntry curationEntry : knownVariantWrapper.getImpl().getCurations()) {
+            Curation curation = curationEntry.getCuration();
+            if (curation != null && classifications.contains(curation.getCurationClassification())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private KnownVariantFileWriter openWriter(Path output, Format format) throws IOException {
+        String codec = this.getCodec();
+        if (format == Format.PARQUET) {
+            ParquetWriter<KnownVariant> parquetWriter = AvroParquetWriter.<KnownVariant>builder(
+                    new org.apache.hadoop.fs.Path(output.toUri()))
+                    .withSchema(KnownVariant.getClassSchema())
+                    .withDataModel(SpecificData.get())
+                    .withCompressionCodec(DEFLATE.equals(codec) ?
+                            CompressionCodecName.GZIP : CompressionCodecName.fromConf(codec))
+                    .build();
+            return new KnownVariantFileWriter() {
+                @Override
+                public void write(KnownVariant knownVariant) throws IOException {
+                    parquetWriter.write(knownVariant);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    parquetWriter.close();
+                }
+            };
+        }
+        DataFileWriter<KnownVariant> dataFileWriter =
+                new DataFileWriter<>(new SpecificDatumWriter<>(KnownVariant.class));
+        dataFileWriter.setCodec(UNCOMPRESSED.equals(codec) ? CodecFactory.nullCodec() : CodecFactory.fromString(codec));
+        dataFileWriter.create(KnownVariant.getClassSchema(), output.toFile());
+        return new KnownVariantFileWriter() {
+            @Override
+            public void write(KnownVariant knownVariant) throws IOException {
+                dataFileWriter.append(knownVariant);
+            }
+
+            @Override
+            public void close() throws IOException {
+                dataFileWriter.close();
+            }
+        };
+    }
+
+    private KnownVariantFileReader openReader(Path input, Format format) throws IOException {
+        if (format == Format.PARQUET) {
+            ParquetReader<KnownVariant> parquetReader = AvroParquetReader.<KnownVariant>builder(
+                    new org.apache.hadoop.fs.Path(input.toUri()))
+                    .withDataModel(SpecificData.get())
+                    .build();
+            return new KnownVariantFileReader() {
+                @Override
+                public KnownVariant read() throws IOException {
+                    return parquetReader.read();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    parquetReader.close();
+                }
+            };
+        }
+        DataFileReader<KnownVariant> dataFileReader =
+                new DataFileReader<>(input.toFile(), new SpecificDatumReader<>(KnownVariant.class));
+        return new KnownVariantFileReader() {
+            @Override
+            public KnownVariant read() throws IOException {
+                return dataFileReader.hasNext() ? dataFileReader.next() : null;
+            }
+
+            @Override
+            public void close() throws IOException {
+                dataFileReader.close();
+            }
+        };
+    }
+
+    private String getCodec() {
+        String codec = this.bulkTransferConfiguration.getCodec();
+        return codec != null && !codec.isEmpty() ? codec.toLowerCase() : UNCOMPRESSED;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public long getExportedVariants() {
+        return exportedVariants.get();
+    }
+
+    public long getReadVariants() {
+        return readVariants.get();
+    }
+
+    public long getInsertedVariants() {
+        return insertedVariants.get();
+    }
+
+    public long getDuplicatedVariants() {
+        return duplicatedVariants.get();
+    }
+
+    public long getFailedVariants() {
+        return failedVariants.get();
+    }
+
+    /**
+     * Exports or imports known variants from the command line. The format is taken from the file extension and
+     * the export accepts filters as key=value, with the keys of KnownVariantQueryParams and classification, several
+     * values are comma separated.
+     * @param args      export|import, the file and the export filters
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !("export".equals(args[0]) || "import".equals(args[0]))) {
+            System.err.println("Usage: " + KnownVariantBulkTransfer.class.getName() +
+                    " export|import file.avro|file.parquet [region=...] [gene=...] [classification=...]");
+            System.exit(1);
+        }
+        Path path = Paths.get(args[1]);
+        Format format = Format.fromPath(path);
+        if ("import".equals(args[0])) {
+            try (KnownVariantManager knownVariantManager = new KnownVariantManager(CvaConfiguration.getInstance())) {
+                knownVariantManager.importKnownVariants(path, format);
+            }
+            finally {
+                KnownVariantAnnotationService.shutdown();
+                CvaConfiguration.closeMongoClient();
+            }
+            return;
+        }
+        Query query = new Query();
+        List<CurationClassification> classifications = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            String[] filter = args[i].split("=", 2);
+            if (filter.length != 2) {
+                System.err.println("Wrong filter " + args[i] + ", expected key=value");
+                System.exit(1);
+            }
+            if (CLASSIFICATION.equals(filter[0])) {
+                for (String classification : filter[1].split(",")) {
+                    classifications.add(CurationClassification.valueOf(classification));
+                }
+            }
+            else {
+                query.put(filter[0], filter[1]);
+            }
+        }
+        try (KnownVariantManager knownVariantManager = new KnownVariantManager(CvaConfiguration.getInstance())) {
+            knownVariantManager.exportKnownVariants(path, format, query, classifications);
+        }
+        finally {
+            KnownVariantAnnotationService.shutdown();
+            CvaConfiguration.closeMongoClient();
+        }
+    }
+}
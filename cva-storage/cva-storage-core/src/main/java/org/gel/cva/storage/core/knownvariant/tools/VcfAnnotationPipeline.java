@@ -0,0 +1,606 @@
+package org.gel.cva.storage.core.knownvariant.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import htsjdk.tribble.TribbleException;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.config.VcfAnnotationConfiguration;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.manager.KnownVariantManager;
+import org.gel.cva.storage.core.pipeline.ParallelPipeline;
+import org.gel.cva.storage.core.pipeline.PipelineStageStatistics;
+import org.gel.models.cva.avro.Curation;
+import org.gel.models.cva.avro.CurationEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Annotates a VCF with the known variants in CVA through a ParallelPipeline with the stages:
+ * reader -> matcher -> writer. The reader decodes batches of records, the matcher looks up every alternate allele in
+ * the knowledge base with one batched query per batch and a single writer outputs the batches in the input order,
+ * either as a VCF with CVA INFO fields or as NDJSON. The batches in flight are bounded, so memory usage does not
+ * depend on the size of the VCF. A failed lookup fails the whole annotation unless partial output is allowed in the
+ * configuration, then the records of the batch are written without annotation and counted as failed.
+ */
+public class VcfAnnotationPipeline {
+
+    /**
+     * The output formats
+     */
+    public enum OutputFormat {
+        VCF,
+        NDJSON
+    }
+
+    public static final String CVA_ID = "CVA_ID";
+    public static final String CVA_CLASSIFICATION = "CVA_CLASSIFICATION";
+    public static final String CVA_CONSISTENCY = "CVA_CONSISTENCY";
+    public static final String CVA_EVIDENCES = "CVA_EVIDENCES";
+    private static final String MISSING_VALUE = ".";
+    private static final String VALUES_SEPARATOR = "|";
+    private static final String SPANNING_DELETION = "*";
+
+    protected static Logger logger = LoggerFactory.getLogger(VcfAnnotationPipeline.class);
+
+    private final KnownVariantDBAdaptor knownVariantDBAdaptor;
+    private final VcfAnnotationConfiguration vcfAnnotationConfiguration;
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong variants = new AtomicLong();
+    private final AtomicLong knownVariants = new AtomicLong();
+    private final AtomicLong skippedRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+
+    /**
+     * A batch of VCF records and, once matched, the known variants for every alternate allele of every record
+     */
+    private static class VcfBatch extends ArrayList<VariantContext> {
+
+        private final long index;
+        private List<List<KnownVariantWrapper>> knownVariants;
+
+        private VcfBatch(long index, int capacity) {
+            super(capacity);
+            this.index = index;
+        }
+    }
+
+    /**
+     * Constructor for VcfAnnotationPipeline
+     * @param cvaConfiguration          the CVA configuration
+     * @param knownVariantDBAdaptor     the adaptor where the known variants are stored
+     */
+    public VcfAnnotationPipeline(CvaConfiguration cvaConfiguration, KnownVariantDBAdaptor knownVariantDBAdaptor) {
+        this.knownVariantDBAdaptor = knownVariantDBAdaptor;
+        this.vcfAnnotationConfiguration = cvaConfiguration.getVcfAnnotation() != null ?
+                cvaConfiguration.getVcfAnnotation() : new VcfAnnotationConfiguration();
+    }
+
+    /**
+     * Annotates a VCF file, it may be gzipped. The output is deleted when the annotation fails.
+     * @param vcf           the path to the VCF file
+     * @param output        the path to the annotated output
+     * @param format        the output format
+     * @return              the statistics of every stage
+     * @throws IOException              error reading the VCF or writing the output
+     * @throws InterruptedException     if interrupted while waiting for the pipeline to finish
+     */
+    public List<PipelineStageStatistics> run(Path vcf, Path output, OutputFormat format)
+            throws IOException, InterruptedException {
+        boolean succeeded = false;
+        try (InputStream inputStream = new FileInputStream(vcf.toFile());
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(output.toFile()))) {
+            List<PipelineStageStatistics> statistics = this.run(inputStream, outputStream, format);
+            succeeded = true;
+            return statistics;
+        }
+        finally {
+            if (!succeeded) {
+                Files.deleteIfExists(output);
+            }
+        }
+    }
+
+    /**
+     * Annotates a VCF read from a stream, it may be gzipped. The output stream is closed when finished and left open
+     * when the annotation fails, so a truncated output is not completed as if it was whole.
+     * @param inputStream   the VCF
+     * @param outputStream  where the annotated output is written
+     * @param format        the output format
+     * @return              the statistics of every stage
+     * @throws IOException              error reading the VCF, looking up the known variants or writing the output
+     * @throws InterruptedException     if interrupted while waiting for the pipeline to finish
+     */
+    public List<PipelineStageStatistics> run(InputStream inputStream, OutputStream outputStream, OutputFormat format)
+            throws IOException, InterruptedException {
+
+        LineIterator lineIterator = new LineIteratorImpl(new AsciiLineReader(openVcf(inputStream)));
+        VCFCodec codec = new VCFCodec();
+        VCFHeader header = (VCFHeader) codec.readActualHeader(lineIterator);
+        int readBatchSize = Math.max(1, this.vcfAnnotationConfiguration.getReadBatchSize());
+        int queueCapacity = Math.max(1, this.vcfAnnotationConfiguration.getQueueCapacity());
+        int matcherThreads = Math.max(1, this.vcfAnnotationConfiguration.getMatcherThreads());
+        // bounds the batches between the reader and the writer, including those waiting to be written in order
+        Semaphore batchesInFlight = new Semaphore(2 * queueCapacity + matcherThreads + 2);
+        QueryOptions findOptions = new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, readBatchSize);
+        // only the current curations are read, the evidences are just counted
+        findOptions.put(QueryOptions.INCLUDE, Arrays.asList("curations.curation", "evidences.submitter"));
+        AtomicLong batchIndex = new AtomicLong();
+        OrderedWriter writer = format == OutputFormat.NDJSON ?
+                new NdjsonWriter(outputStream, batchesInFlight) :
+                new VcfWriter(header, outputStream, batchesInFlight);
+        ParallelPipeline pipeline = new ParallelPipeline("vcf-annotation", queueCapacity)
+                .addStage("matcher", matcherThreads, (VcfBatch batch) -> this.match(batch, findOptions))
+                .addStage("writer", 1, writer::writeInOrder);
+        List<PipelineStageStatistics> statistics;
+        boolean succeeded = false;
+        try {
+            statistics = pipeline.run("reader",
+                    () -> this.read(lineIterator, codec, readBatchSize, batchIndex, batchesInFlight));
+            writer.checkComplete(batchIndex.get());
+            succeeded = true;
+        }
+        catch (ExecutionException e) {
+            throw new IOException("VCF annotation failed", e.getCause());
+        }
+        finally {
+            if (succeeded) {
+                writer.close();
+            }
+            else {
+                writer.abort();
+            }
+        }
+        logger.info("VCF annotation finished: records={}, variants={}, known={}, skipped={}, failed={}",
+                records.get(), variants.get(), knownVariants.get(), skippedRecords.get(), failedRecords.get());
+        return statistics;
+    }
+
+    /**
+     * Opens a VCF stream decompressing it when it is gzipped
+     * @param inputStream   the VCF
+     * @return              the plain text VCF
+     * @throws IOException  error reading the stream
+     */
+    private static InputStream openVcf(InputStream inputStream) throws IOException {
+        InputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        bufferedInputStream.mark(2);
+        int magic = bufferedInputStream.read() | (bufferedInputStream.read() << 8);
+        bufferedInputStream.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            return new GZIPInputStream(bufferedInputStream);
+        }
+        return bufferedInputStream;
+    }
+
+    /**
+     * Decodes the next batch of records, malformed records are skipped. Blocks while too many batches are in flight.
+     * @param lineIterator      the VCF lines after the header
+     * @param codec             the VCF codec
+     * @param readBatchSize     the number of records per batch
+     * @param batchIndex        the index of the next batch
+     * @param batchesInFlight   the permits for batches in flight
+     * @return                  the batch, null at the end of the VCF
+     * @throws InterruptedException     if interrupted while waiting for a permit
+     */
+    private VcfBatch read(LineIterator lineIterator, VCFCodec codec, int readBatchSize, AtomicLong batchIndex,
+                          Semaphore batchesInFlight) throws InterruptedException {
+        batchesInFlight.acquire();
+        VcfBatch batch = new VcfBatch(batchIndex.get(), readBatchSize);
+        while (batch.size() < readBatchSize && lineIterator.hasNext()) {
+            String line = lineIterator.next();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                VariantContext variantContext = codec.decode(line);
+                if (variantContext != null) {
+                    batch.add(variantContext);
+                }
+            }
+            catch (TribbleException e) {
+                skippedRecords.incrementAndGet();
+                logger.warn("Skipping malformed VCF record: {}", e.getMessage());
+            }
+        }
+        if (batch.isEmpty()) {
+            batchesInFlight.release();
+            return null;
+        }
+        batchIndex.incrementAndGet();
+        records.addAndGet(batch.size());
+        return batch;
+    }
+
+    /**
+     * Looks up every alternate allele of the batch in the knowledge base. The variants are sorted by position
+     * before the lookup and normalized by the adaptor the same way they were when registered. A failed lookup is
+     * rethrown to stop the pipeline, unless partial output is allowed, then the batch is left without known variants
+     * so the writer still outputs its records.
+     * @param batch         the batch of records
+     * @param findOptions   the options for the batched lookup
+     * @return              the same batch with the known variants
+     */
+    private VcfBatch match(VcfBatch batch, QueryOptions findOptions) {
+        List<Variant> alleles = new ArrayList<>();
+        for (VariantContext variantContext : batch) {
+            for (Allele allele : variantContext.getAlternateAlleles()) {
+                alleles.add(toVariant(variantContext, allele));
+            }
+        }
+        variants.addAndGet(alleles.size());
+        KnownVariantWrapper[] matches = new KnownVariantWrapper[alleles.size()];
+        try {
+            List<Integer> order = new ArrayList<>(alleles.size());
+            for (int i = 0; i < alleles.size(); i++) {
+                if (alleles.get(i) != null) {
+                    order.add(i);
+                }
+            }
+            order.sort(Comparator.comparing((Integer i) -> alleles.get(i).getChromosome())
+                    .thenComparing(i -> alleles.get(i).getStart()));
+            List<Variant> sortedVariants = new ArrayList<>(order.size());
+            for (Integer i : order) {
+                sortedVariants.add(alleles.get(i));
+            }
+            List<KnownVariantWrapper> found = this.knownVariantDBAdaptor.findAll(sortedVariants, findOptions);
+            for (int i = 0; i < order.size(); i++) {
+                matches[order.get(i)] = found.get(i);
+                if (found.get(i) != null) {
+                    knownVariants.incrementAndGet();
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            failedRecords.addAndGet(batch.size());
+            if (!this.vcfAnnotationConfiguration.isAllowPartialOutput()) {
+                throw e;
+            }
+            logger.error("Failed to look up a batch of " + batch.size() + " VCF records, writing them unannotated",
+                    e);
+        }
+        List<List<KnownVariantWrapper>> knownVariantsByRecord = new ArrayList<>(batch.size());
+        int allele = 0;
+        for (VariantContext variantContext : batch) {
+            List<KnownVariantWrapper> recordKnownVariants = new ArrayList<>(variantContext.getAlternateAlleles().size());
+            for (int i = 0; i < variantContext.getAlternateAlleles().size(); i++) {
+                recordKnownVariants.add(matches[allele++]);
+            }
+            knownVariantsByRecord.add(recordKnownVariants);
+        }
+        batch.knownVariants = knownVariantsByRecord;
+        return batch;
+    }
+
+    /**
+     * Builds the variant for an alternate allele of a record
+     * @param variantContext    the VCF record
+     * @param allele            the alternate allele
+     * @return                  the variant, null for symbolic alleles and spanning deletions
+     */
+    private static Variant toVariant(VariantContext variantContext, Allele allele) {
+        if (allele.isSymbolic() || SPANNING_DELETION.equals(allele.getDisplayString())) {
+            return null;
+        }
+        try {
+            return new Variant(variantContext.getContig(), variantContext.getStart(),
+                    variantContext.getReference().getBaseString(), allele.getBaseString());
+        }
+        catch (RuntimeException e) {
+            logger.debug("Cannot build variant for allele {} at {}:{}: {}", allele, variantContext.getContig(),
+                    variantContext.getStart(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the identifier of a known variant as chromosome:position:reference:alternate
+     * @param knownVariantWrapper   the known variant
+     * @return                      the identifier
+     */
+    private static String buildId(KnownVariantWrapper knownVariantWrapper) {
+        Variant variant = knownVariantWrapper.getVariant();
+        return variant.getChromosome() + ":" + variant.getStart() + ":" +
+                (variant.getReference().isEmpty() ? "-" : variant.getReference()) + ":" +
+                (variant.getAlternate().isEmpty() ? "-" : variant.getAlternate());
+    }
+
+    /**
+     * Collects the distinct classifications of the curations of a known variant
+     * @param knownVariantWrapper   the known variant
+     * @return                      the classifications
+     */
+    private static Set<String> getClassifications(KnownVariantWrapper knownVariantWrapper) {
+        Set<String> classifications = new LinkedHashSet<>();
+        for (CurationEntry curationEntry : knownVariantWrapper.getImpl().getCurations()) {
+            Curation curation = curationEntry.getCuration();
+            if (curation.getCurationClassification() != null) {
+                classifications.add(curation.getCurationClassification().toString());
+            }
+        }
+        return classifications;
+    }
+
+    /**
+     * Collects the distinct consistency status of the curations of a known variant
+     * @param knownVariantWrapper   the known variant
+     * @return                      the consistency status
+     */
+    private static Set<String> getConsistencyStatus(KnownVariantWrapper knownVariantWrapper) {
+        Set<String> consistencyStatus = new LinkedHashSet<>();
+        for (CurationEntry curationEntry : knownVariantWrapper.getImpl().getCurations()) {
+            Curation curation = curationEntry.getCuration();
+            if (curation.getConsistencyStatus() != null) {
+                consistencyStatus.add(curation.getConsistencyStatus().toString());
+            }
+        }
+        return consistencyStatus;
+    }
+
+    /**
+     * Writes the batches in the order they were read, batches arriving early wait until the previous ones are written
+     */
+    private abstract static class OrderedWriter implements Closeable {
+
+        private final Map<Long, VcfBatch> pendingBatches = new HashMap<>();
+        private final Semaphore batchesInFlight;
+        private long nextIndex = 0;
+
+        private OrderedWriter(Semaphore batchesInFlight) {
+            this.batchesInFlight = batchesInFlight;
+        }
+
+        /**
+         * Writes the batch and any pending batch following it. Only called from the single writer thread.
+         * @param batch     the matched batch
+         * @return          null, there is no further stage
+         * @throws IOException  error writing the output
+         */
+        private Object writeInOrder(VcfBatch batch) throws IOException {
+            this.pendingBatches.put(batch.index, batch);
+            VcfBatch nextBatch;
+            while ((nextBatch = this.pendingBatches.remove(this.nextIndex)) != null) {
+                try {
+                    this.write(nextBatch);
+                }
+                finally {
+                    this.nextIndex++;
+                    this.batchesInFlight.release();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Checks that every batch read was written
+         * @param batches   the number of batches read
+         * @throws IOException  when a batch was not written
+         */
+        private void checkComplete(long batches) throws IOException {
+            if (this.nextIndex != batches || !this.pendingBatches.isEmpty()) {
+                throw new IOException("VCF annotation incomplete, " + this.nextIndex + " of " + batches +
+                        " batches written");
+            }
+        }
+
+        /**
+         * Releases the batches waiting to be written after a failure, the output is not completed
+         */
+        private void abort() {
+            this.batchesInFlight.release(this.pendingBatches.size());
+            this.pendingBatches.clear();
+        }
+
+        protected abstract void write(VcfBatch batch) throws IOException;
+    }
+
+    /**
+     * Writes the records as VCF adding the CVA INFO fields to the records with any known alternate allele
+     */
+    private static class VcfWriter extends OrderedWriter {
+
+        private final VariantContextWriter writer;
+
+        private VcfWriter(VCFHeader header, OutputStream outputStream, Semaphore batchesInFlight) {
+            super(batchesInFlight);
+            header.addMetaDataLine(new VCFInfoHeaderLine(CVA_ID, VCFHeaderLineCount.A, VCFHeaderLineType.String,
+                    "Normalized identifier of the known variant in CVA (chromosome:position:reference:alternate)"));
+            header.addMetaDataLine(new VCFInfoHeaderLine(CVA_CLASSIFICATION, VCFHeaderLineCount.A,
+                    VCFHeaderLineType.String, "Classifications of the curations in CVA separated by '|'"));
+            header.addMetaDataLine(new VCFInfoHeaderLine(CVA_CONSISTENCY, VCFHeaderLineCount.A,
+                    VCFHeaderLineType.String, "Consistency status of the curations in CVA separated by '|'"));
+            header.addMetaDataLine(new VCFInfoHeaderLine(CVA_EVIDENCES, VCFHeaderLineCount.A,
+                    VCFHeaderLineType.Integer, "Number of evidences in CVA"));
+            this.writer = new VariantContextWriterBuilder()
+                    .setOutputStream(outputStream)
+                    .unsetOption(Options.INDEX_ON_THE_FLY)
+                    .setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
+                    .build();
+            this.writer.writeHeader(header);
+        }
+
+        @Override
+        protected void write(VcfBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                VariantContext variantContext = batch.get(i);
+                List<KnownVariantWrapper> knownVariantWrappers = batch.knownVariants.get(i);
+                if (knownVariantWrappers.stream().allMatch(k -> k == null)) {
+                    this.writer.add(variantContext);
+                    continue;
+                }
+                List<String> ids = new ArrayList<>(knownVariantWrappers.size());
+                List<String> classifications = new ArrayList<>(knownVariantWrappers.size());
+                List<String> consistencyStatus = new ArrayList<>(knownVariantWrappers.size());
+                List<Object> evidences = new ArrayList<>(knownVariantWrappers.size());
+                for (KnownVariantWrapper knownVariantWrapper : knownVariantWrappers) {
+                    if (knownVariantWrapper == null) {
+                        ids.add(MISSING_VALUE);
+                        classifications.add(MISSING_VALUE);
+                        consistencyStatus.add(MISSING_VALUE);
+                        evidences.add(MISSING_VALUE);
+                        continue;
+                    }
+                    ids.add(buildId(knownVariantWrapper));
+                    classifications.add(joinValues(getClassifications(knownVariantWrapper)));
+                    consistencyStatus.add(joinValues(getConsistencyStatus(knownVariantWrapper)));
+                    evidences.add(knownVariantWrapper.getImpl().getEvidences().size());
+                }
+                this.writer.add(new VariantContextBuilder(variantContext)
+                        .attribute(CVA_ID, ids)
+                        .attribute(CVA_CLASSIFICATION, classifications)
+                        .attribute(CVA_CONSISTENCY, consistencyStatus)
+                        .attribute(CVA_EVIDENCES, evidences)
+                        .make());
+            }
+        }
+
+        private static String joinValues(Set<String> values) {
+            return values.isEmpty() ? MISSING_VALUE : String.join(VALUES_SEPARATOR, values);
+        }
+
+        @Override
+        public void close() {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Writes one JSON object per record and line, with the known variant for every alternate allele or null
+     */
+    private static class NdjsonWriter extends OrderedWriter {
+
+        private final BufferedWriter writer;
+        private final ObjectMapper jsonObjectMapper = new ObjectMapper();
+
+        private NdjsonWriter(OutputStream outputStream, Semaphore batchesInFlight) {
+            super(batchesInFlight);
+            this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        protected void write(VcfBatch batch) throws IOException {
+            for (int i = 0; i < batch.size(); i++) {
+                VariantContext variantContext = batch.get(i);
+                List<String> alternates = new ArrayList<>(variantContext.getAlternateAlleles().size());
+                for (Allele allele : variantContext.getAlternateAlleles()) {
+                    alternates.add(allele.getDisplayString());
+                }
+                List<Map<String, Object>> knownVariants = new ArrayList<>(alternates.size());
+                for (KnownVariantWrapper knownVariantWrapper : batch.knownVariants.get(i)) {
+                    if (knownVariantWrapper == null) {
+                        knownVariants.add(null);
+                        continue;
+                    }
+                    Map<String, Object> knownVariant = new LinkedHashMap<>();
+                    knownVariant.put("id", buildId(knownVariantWrapper));
+                    knownVariant.put("classifications", getClassifications(knownVariantWrapper));
+                    knownVariant.put("consistencyStatus", getConsistencyStatus(knownVariantWrapper));
+                    knownVariant.put("curations", knownVariantWrapper.getImpl().getCurations().size());
+                    knownVariant.put("evidences", knownVariantWrapper.getImpl().getEvidences().size());
+                    knownVariants.add(knownVariant);
+                }
+                Map<String, Object> record = new LinkedHashMap<>();
+                record.put("chromosome", variantContext.getContig());
+                record.put("position", variantContext.getStart());
+                record.put("id", variantContext.getID());
+                record.put("reference", variantContext.getReference().getDisplayString());
+                record.put("alternates", alternates);
+                record.put("knownVariants", knownVariants);
+                this.writer.write(this.jsonObjectMapper.writeValueAsString(record));
+                this.writer.newLine();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.close();
+        }
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getVariants() {
+        return variants.get();
+    }
+
+    public long getKnownVariants() {
+        return knownVariants.get();
+    }
+
+    public long getSkippedRecords() {
+        return skippedRecords.get();
+    }
+
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    /**
+     * Annotates a VCF from the command line: input.vcf[.gz] output [vcf|ndjson]
+     * @param args      the input VCF, the output file and optionally the output format
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: " + VcfAnnotationPipeline.class.getName() + " input.vcf[.gz] output [vcf|ndjson]");
+            System.exit(1);
+        }
+        OutputFormat format = args.length > 2 ? OutputFormat.valueOf(args[2].toUpperCase()) : OutputFormat.VCF;
+        try (KnownVariantManager knownVariantManager = new KnownVariantManager(CvaConfiguration.getInstance())) {
+            knownVariantManager.annotateVcf(Paths.get(args[0]), Paths.get(args[1]), format);
+        }
+        finally {
+            KnownVariantAnnotationService.shutdown();
+            CvaConfiguration.closeMongoClient();
+        }
+    }
+}
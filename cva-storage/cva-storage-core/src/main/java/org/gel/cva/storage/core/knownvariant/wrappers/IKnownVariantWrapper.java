@@ -25,6 +25,18 @@ public interface IKnownVariantWrapper {
             Boolean variableExpressivity)
             throws IllegalCvaArgumentException;
 
+    CurationHistoryEntry buildCurationHistoryEntry(
+            String curator,
+            String phenotype,
+            ReportedModeOfInheritance modeOfInheritance,
+            String transcript,
+            CurationClassification curationClassification,
+            ManualCurationConfidence manualCurationConfidence,
+            ConsistencyStatus consistencyStatus,
+            Float penetrance,
+            Boolean variableExpressivity)
+            throws IllegalCvaArgumentException;
+
     void addEvidence(
             String submitter,
             String sourceName,
@@ -44,6 +56,25 @@ public interface IKnownVariantWrapper {
             String description)
             throws IllegalCvaArgumentException;
 
+    EvidenceEntry buildEvidenceEntry(
+            String submitter,
+            String sourceName,
+            SourceType sourceType,
+            String sourceVersion,
+            String sourceUrl,
+            String sourceId,
+            AlleleOrigin alleleOrigin,
+            List<HeritablePhenotype> heritablePhenotypes,
+            String transcript,
+            EvidencePathogenicity evidencePathogenicity,
+            EvidenceBenignity evidenceBenignity,
+            String pubmedId,
+            String study,
+            Integer numberOfIndividuals,
+            EthnicCategory ethnicCategory,
+            String description)
+            throws IllegalCvaArgumentException;
+
     List<CurationEntry> getCurationEntryByHeritablePhenotype(
             String phenotype,
             ReportedModeOfInheritance modeOfInheritance)
@@ -18,22 +18,20 @@ package org.gel.cva.storage.core.knownvariant.wrappers;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import org.apache.commons.lang.StringUtils;
-import org.gel.cva.storage.core.config.CvaConfiguration;
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.helpers.AvroHelper;
 import org.gel.cva.storage.core.helpers.CvaDateFormatter;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
 import org.gel.models.cva.avro.*;
 import org.gel.models.report.avro.EthnicCategory;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
 import org.opencb.biodata.models.variant.Variant;
-import org.opencb.biodata.models.variant.VariantNormalizer;
 import org.opencb.biodata.models.variant.avro.ConsequenceType;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
 import org.opencb.commons.utils.CryptoUtils;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
-import org.opencb.opencga.storage.core.variant.annotation.annotators.CellBaseDirectVariantAnnotator;
 
 import java.io.Serializable;
 import java.util.*;
@@ -50,45 +48,39 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
     private KnownVariant impl;
     private Variant variant;
     private List<String> transcripts = null;
-    private static CellBaseDirectVariantAnnotator cellBaseDirectVariantAnnotator;
-    private static VariantNormalizer variantNormalizer;
-
-    {
-        // Initializes static elements to annotate and normalize
-        KnownVariantWrapper.cellBaseDirectVariantAnnotator =
-                CvaConfiguration.getCellBaseDirectVariantAnnotator();
-        KnownVariantWrapper.variantNormalizer = new VariantNormalizer(
-                true, true, true);
-    }
+    private long version = 0;
+    private transient KnownVariantAnnotationService annotationService;
 
     /**
-     * Constructor from the avro object
+     * Constructor from the avro object, used when reading from the database. The variant is trusted to be normalized
+     * and the stored annotation is reused, so neither normalization nor annotation are performed.
      * @param avro the avro object
      */
-    //TODO: do we need this for reading the DB???
-    /*
-    public KnownVariantWrapper(KnownVariantAvro avro) {
+    public KnownVariantWrapper(KnownVariant avro) {
         Objects.requireNonNull(avro);
-        this.variant = new Variant(avro.getVariant());
         this.impl = avro;
+        this.variant = new Variant(avro.getVariant());
+        this.loadTranscripts(avro.getVariant().getAnnotation());
     }
-    */
 
     /**
      * Constructor for KnownVariantWrapper
      * @param submitter         the submitter of the variant
      * @param variant           the Variant wrapper
      * @param enableAnnotation  flag to perform annotation on the variant
+     * @param annotationService the service normalizing and annotating the variant
      */
     public KnownVariantWrapper(
             String submitter,
             Variant variant,
-            Boolean enableAnnotation)
+            Boolean enableAnnotation,
+            KnownVariantAnnotationService annotationService)
             throws VariantAnnotatorException,
             CvaException
     {
+        this.annotationService = Objects.requireNonNull(annotationService);
         // normalizes the variant before storing it
-        List<Variant> variants = KnownVariantWrapper.variantNormalizer.apply(Collections.singletonList(variant));
+        List<Variant> variants = this.getAnnotationService().normalize(variant);
         if (variants == null || variants.size() == 0) {
             throw new CvaException("Unexpected error normalizing variants.");
         }
@@ -112,6 +104,22 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
         }
     }
 
+    /**
+     * Constructor for KnownVariantWrapper using the shared annotation service
+     * @param submitter         the submitter of the variant
+     * @param variant           the Variant wrapper
+     * @param enableAnnotation  flag to perform annotation on the variant
+     */
+    public KnownVariantWrapper(
+            String submitter,
+            Variant variant,
+            Boolean enableAnnotation)
+            throws VariantAnnotatorException,
+            CvaException
+    {
+        this(submitter, variant, enableAnnotation, KnownVariantAnnotationService.getInstance());
+    }
+
     /**
      * Constructor for KnownVariantWrapper. Annotations enabled.
      * @param submitter         the submitter of the variant
@@ -184,6 +192,23 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
         return impl;
     }
 
+    /**
+     * Getter for the version of the stored known variant this wrapper was read from. Updates are conditional on
+     * this version. Zero means that the known variant was never stored or was stored without version.
+     * @return  the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Setter for the version, only storage adaptors should set it
+     * @param version   the version of the stored known variant
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Adds a curation to this KnownVariant
      * @param curator                       the curator's user name
@@ -207,6 +232,41 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
                             Boolean variableExpressivity)
             throws IllegalCvaArgumentException {
 
+        CurationHistoryEntry curationHistoryEntry = this.buildCurationHistoryEntry(curator, phenotype,
+                modeOfInheritance, transcript, curationClassification, manualCurationConfidence, consistencyStatus,
+                penetrance, variableExpressivity);
+        this.applyCurationHistoryEntry(curationHistoryEntry);
+    }
+
+    /**
+     * Builds and validates a new curation for this KnownVariant without modifying it, so it can be appended
+     * atomically in the database. The previous curation in the entry is the current curation for the same
+     * heritable phenotype and transcript, if any. When no consistency status is provided it is computed from the
+     * existing evidences.
+     * @param curator                       the curator's user name
+     * @param phenotype                     the phenotype to which the curation is associated
+     * @param modeOfInheritance             the mode of inheritance
+     * @param transcript                    the transcript to which the curation refers specifically
+     * @param curationClassification        the curation classification
+     * @param manualCurationConfidence      the manual curation confidence
+     * @param consistencyStatus             the consistency status of the curation
+     * @param penetrance                    the penetrance
+     * @param variableExpressivity          the variable expressivity
+     * @return                              the new curation history entry
+     * @throws IllegalCvaArgumentException  wrong parameters in the call
+     */
+    @Override
+    public CurationHistoryEntry buildCurationHistoryEntry(String curator,
+                                                          String phenotype,
+                                                          ReportedModeOfInheritance modeOfInheritance,
+                                                          String transcript,
+                                                          CurationClassification curationClassification,
+                                                          ManualCurationConfidence manualCurationConfidence,
+                                                          ConsistencyStatus consistencyStatus,
+                                                          Float penetrance,
+                                                          Boolean variableExpressivity)
+            throws IllegalCvaArgumentException {
+
         // Create a new Curation
         HeritablePhenotype heritablePhenotype = new HeritablePhenotype(phenotype, modeOfInheritance);
         Curation newCuration = new Curation(
@@ -222,28 +282,37 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
         );
         // Sanity checks on the curation
         newCuration = this.curationSanityChecks(newCuration, curator);
+        if (consistencyStatus == null) {
+            newCuration.setConsistencyStatus(this.computeConsistencyStatus());
+        }
         // Checks if there are previous curations for this heritablePhenotype and transcript
-        CurationEntry curationEntry = this.getCurationEntryByHeritablePhenotype(heritablePhenotype, transcript);
+        CurationEntry curationEntry = this.getCurationEntryByHeritablePhenotype(
+                newCuration.getHeritablePhenotype(), transcript);
+        return new CurationHistoryEntry(
+                CvaDateFormatter.getCurrentFormattedDate(),
+                curationEntry != null ? curationEntry.getCuration() : null,
+                newCuration,
+                curator,
+                Collections.emptyList());
+    }
+
+    /**
+     * Stores a curation history entry built by buildCurationHistoryEntry in this KnownVariant
+     * @param curationHistoryEntry      the curation history entry
+     */
+    private void applyCurationHistoryEntry(CurationHistoryEntry curationHistoryEntry) {
+
+        Curation newCuration = curationHistoryEntry.getNewCuration();
+        CurationEntry curationEntry = this.getCurationEntryByHeritablePhenotype(
+                newCuration.getHeritablePhenotype(), newCuration.getTranscript());
         if (curationEntry == null) {
             // First curation
-            CurationHistoryEntry curationHistoryEntry = new CurationHistoryEntry(
-                    CvaDateFormatter.getCurrentFormattedDate(),
-                    null,
-                    newCuration,
-                    curator,
-                    Collections.emptyList());
             List<CurationHistoryEntry> curationHistory = new LinkedList<>();
             curationHistory.add(curationHistoryEntry);
             curationEntry = new CurationEntry(newCuration, curationHistory);
         }
         else {
             // Add curation to existing
-            CurationHistoryEntry curationHistoryEntry = new CurationHistoryEntry(
-                    CvaDateFormatter.getCurrentFormattedDate(),
-                    curationEntry.getCuration(),
-                    newCuration,
-                    curator,
-                    Collections.emptyList());
             List<CurationHistoryEntry> curationHistory = curationEntry.getHistory();
             curationHistory.add(curationHistoryEntry);
             curationEntry.setHistory(curationHistory);
@@ -251,10 +320,6 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
         }
         // Store the CurationEntry
         this.setCurationEntry(curationEntry);
-        // Updates consistency status
-        if (consistencyStatus == null) {
-            this.updateConsistencyStatus(heritablePhenotype, transcript);
-        }
     }
 
     /**
@@ -297,6 +362,62 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
     )
             throws IllegalCvaArgumentException {
 
+        EvidenceEntry evidenceEntry = this.buildEvidenceEntry(submitter, sourceName, sourceType, sourceVersion,
+                sourceUrl, sourceId, alleleOrigin, heritablePhenotypes, transcript, evidencePathogenicity,
+                evidenceBenignity, pubmedId, study, numberOfIndividuals, ethnicCategory, description);
+        // Adds evidence to the list of evidences
+        List<EvidenceEntry> evidences = this.impl.getEvidences();
+        evidences.add(evidenceEntry);
+        impl.setEvidences(evidences);
+        // Update the consistency status for all affected curations
+        if (heritablePhenotypes != null) {
+            for (HeritablePhenotype heritablePhenotype : heritablePhenotypes) {
+                this.updateConsistencyStatus(heritablePhenotype, transcript);
+            }
+        }
+    }
+
+    /**
+     * Builds and validates a new evidence for this KnownVariant without modifying it, so it can be appended
+     * atomically in the database
+     * @param submitter                 the submitter of the evidence
+     * @param sourceName                the name of the evidence source
+     * @param sourceType                the type of the evidence source
+     * @param sourceVersion             the version of the evidence source
+     * @param sourceUrl                 the URL of the evidence source
+     * @param sourceId                  the ID of the evidence source
+     * @param alleleOrigin              the allele origin
+     * @param heritablePhenotypes       the list of heritable phenotypes
+     * @param transcript                the transcript to which the evidence specifically refers
+     * @param evidencePathogenicity     the pathogenicity of the evidence
+     * @param evidenceBenignity         the benignity of the evidence
+     * @param pubmedId                  the PubMed id
+     * @param study                     the study
+     * @param numberOfIndividuals       the number of individuals
+     * @param ethnicCategory            the ethnic category of assessed individuals
+     * @param description               the evidence description
+     * @return                          the new evidence entry
+     * @throws IllegalCvaArgumentException      wrong parameters in the call
+     */
+    @Override
+    public EvidenceEntry buildEvidenceEntry(String submitter,
+                                            String sourceName,
+                                            SourceType sourceType,
+                                            String sourceVersion,
+                                            String sourceUrl,
+                                            String sourceId,
+                                            AlleleOrigin alleleOrigin,
+                                            List<HeritablePhenotype> heritablePhenotypes,
+                                            String transcript,
+                                            EvidencePathogenicity evidencePathogenicity,
+                                            EvidenceBenignity evidenceBenignity,
+                                            String pubmedId,
+                                            String study,
+                                            Integer numberOfIndividuals,
+                                            EthnicCategory ethnicCategory,
+                                            String description)
+            throws IllegalCvaArgumentException {
+
         // Creates a new EvidenceEntry
         EvidenceSource evidenceSource = new EvidenceSource(
                 sourceName, sourceType, sourceVersion, sourceUrl, sourceId);
@@ -317,17 +438,7 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
                 Collections.emptyList()
         );
         // Perform sanity checks
-        evidenceEntry = this.evidenceSanityChecks(evidenceEntry);
-        // Adds evidence to the list of evidences
-        List<EvidenceEntry> evidences = this.impl.getEvidences();
-        evidences.add(evidenceEntry);
-        impl.setEvidences(evidences);
-        // Update the consistency status for all affected curations
-        if (heritablePhenotypes != null) {
-            for (HeritablePhenotype heritablePhenotype : heritablePhenotypes) {
-                this.updateConsistencyStatus(heritablePhenotype, transcript);
-            }
-        }
+        return this.evidenceSanityChecks(evidenceEntry);
     }
 
     /**
@@ -657,6 +768,22 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
         return isConflict;
     }
 
+    /**
+     * Computes the consistency status from the existing evidences, there is a conflict when at least one evidence
+     * indicates pathogenicity and another indicates benignity
+     * @return                  the consistency status
+     */
+    private ConsistencyStatus computeConsistencyStatus() {
+
+        Boolean pathogenic = false;
+        Boolean benign = false;
+        for (EvidenceEntry evidenceEntry: this.impl.getEvidences()) {
+            pathogenic = pathogenic || this.isEvidencePathogenic(evidenceEntry);
+            benign = benign || this.isEvidenceBenignity(evidenceEntry);
+        }
+        return pathogenic && benign ? ConsistencyStatus.conflict : ConsistencyStatus.consensus;
+    }
+
     /**
      * Returns true if the evidence indicates pathogenicity
      * @param evidenceEntry     the evidence
@@ -677,29 +804,45 @@ public class KnownVariantWrapper implements Serializable, IKnownVariantWrapper {
     }
 
     /**
-     * Annotates this variant with CellBase
-     * @throws VariantAnnotatorException            error in variant annotation...
-     * @throws IllegalCvaConfigurationException     wrong CVA settings
+     * Annotates this variant with CellBase through the annotation service, which batches the request with those of
+     * other threads. When CellBase fails the variant is left without annotation and queued for retry in the service.
+     * @throws VariantAnnotatorException            if interrupted while waiting for the annotation
      */
-    private void annotateVariant() throws VariantAnnotatorException, IllegalCvaConfigurationException {
+    private void annotateVariant() throws VariantAnnotatorException {
+        this.setVariantAnnotation(this.getAnnotationService().annotate(this.getVariant()));
+    }
 
-        List<VariantAnnotation> variantAnnotations = null;
-        try {
-            variantAnnotations = KnownVariantWrapper.cellBaseDirectVariantAnnotator.annotate(
-                    Collections.singletonList(this.getVariant()));
-        }
-        catch (Exception e) {
-            //TODO: manage these errors, write a file with conflicting variants???
-        }
-        VariantAnnotation variantAnnotation = null;
-        if (variantAnnotations != null && variantAnnotations.size() > 0) {
-            variantAnnotation = variantAnnotations.get(0);
+    /**
+     * Returns the annotation service given on construction or, for the known variants read from the database or
+     * deserialized, the shared annotation service
+     * @return      the annotation service
+     */
+    private KnownVariantAnnotationService getAnnotationService() {
+        if (this.annotationService == null) {
+            this.annotationService = KnownVariantAnnotationService.getInstance();
         }
+        return this.annotationService;
+    }
+
+    /**
+     * Sets an annotation computed elsewhere (e.g.: annotating a batch of variants at once) on this variant
+     * @param variantAnnotation     the variant annotation, null removes any existing annotation
+     */
+    public void setVariantAnnotation(VariantAnnotation variantAnnotation) {
         this.impl.getVariant().setAnnotation(variantAnnotation);
-        // Sets list of overlapping transcripts
+        this.loadTranscripts(variantAnnotation);
+    }
+
+    /**
+     * Sets the list of overlapping transcripts from the annotation
+     * @param variantAnnotation     the variant annotation, may be null
+     */
+    private void loadTranscripts(VariantAnnotation variantAnnotation) {
         this.transcripts = new ArrayList<>();
-        for (ConsequenceType consequenceType: variantAnnotation.getConsequenceTypes()) {
-            transcripts.add(consequenceType.getEnsemblTranscriptId());
+        if (variantAnnotation != null && variantAnnotation.getConsequenceTypes() != null) {
+            for (ConsequenceType consequenceType: variantAnnotation.getConsequenceTypes()) {
+                transcripts.add(consequenceType.getEnsemblTranscriptId());
+            }
         }
     }
 
@@ -5,12 +5,16 @@ import org.apache.commons.net.ftp.FTPFile;
 import org.gel.cva.storage.core.config.CvaConfiguration;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.tools.ClinVarIngestionPipeline;
+import org.gel.cva.storage.core.pipeline.PipelineStageStatistics;
 import org.opencb.opencga.core.auth.IllegalOpenCGACredentialsException;
 
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -71,11 +75,28 @@ public class ClinVarManager extends CvaManager {
         return success;
     }
 
-    public void importClinvar(String version) throws URISyntaxException, IOException {
+    public List<PipelineStageStatistics> importClinvar(String version)
+            throws URISyntaxException, IOException, InterruptedException {
 
         Map latest = this.getLatest();
-        boolean success = this.downloadFTPFile(latest.get("path") + "/" + latest.get("name"),
-                cvaConfiguration.getTempFolder() + "/" + latest.get("name"));
+        String destination = cvaConfiguration.getTempFolder() + "/" + latest.get("name");
+        boolean success = this.downloadFTPFile(latest.get("path") + "/" + latest.get("name"), destination);
+        if (!success) {
+            throw new IOException("Failed to download ClinVar file " + latest.get("name"));
+        }
+        return this.importClinvarFile(Paths.get(destination));
+    }
+
+    /**
+     * Loads a local ClinVar VCF through the parallel ingestion pipeline
+     * @param vcf       the ClinVar VCF, it may be gzipped
+     * @return          the statistics of every stage of the pipeline
+     * @throws IOException              error reading the VCF
+     * @throws InterruptedException     if interrupted while loading
+     */
+    public List<PipelineStageStatistics> importClinvarFile(Path vcf) throws IOException, InterruptedException {
+        ClinVarIngestionPipeline pipeline = new ClinVarIngestionPipeline(cvaConfiguration, knownVariantDBAdaptor);
+        return pipeline.run(vcf);
     }
 
     public List<String> listClinVarVersions() throws IOException {
@@ -2,12 +2,24 @@ package org.gel.cva.storage.core.manager;
 
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.tools.KnownVariantBulkTransfer;
+import org.gel.cva.storage.core.knownvariant.tools.VcfAnnotationPipeline;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.pipeline.PipelineStageStatistics;
 import org.gel.models.cva.avro.*;
 import org.gel.models.report.avro.EthnicCategory;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -48,6 +60,56 @@ public interface IKnownVariantManager {
             String reference,
             String alternate) throws CvaException;
 
+    /**
+     * Search for a variant in CVA by using the basic variant coordinates, reading only the requested fields.
+     * @param chromosome    the chromosome
+     * @param position      the position
+     * @param reference     the reference bases
+     * @param alternate     the alternate bases
+     * @param options       the query modifiers: include and exclude
+     * @return              the known variant, null if it does not exist
+     * @throws CvaException
+     */
+    KnownVariantWrapper findKnownVariant(
+            String chromosome,
+            Integer position,
+            String reference,
+            String alternate,
+            QueryOptions options) throws CvaException;
+
+    /**
+     * Search for a batch of variants in CVA by using the basic variant coordinates.
+     * @param variants      the variants to search for
+     * @return              the known variants in the same order as the input, null for those not registered
+     */
+    List<KnownVariantWrapper> findKnownVariants(List<Variant> variants);
+
+    /**
+     * Search for a batch of variants in CVA by using the basic variant coordinates, reading only the requested
+     * fields.
+     * @param variants      the variants to search for
+     * @param options       the query modifiers: include and exclude
+     * @return              the known variants in the same order as the input, null for those not registered
+     */
+    List<KnownVariantWrapper> findKnownVariants(List<Variant> variants, QueryOptions options);
+
+    /**
+     * Search for variants in CVA by region, gene, transcript, chromosome or submitter.
+     * @param query         the query filters, see KnownVariantQueryParams
+     * @param options       the query modifiers: include, exclude, limit, skip, count and after
+     * @return              the known variants found
+     */
+    QueryResult<KnownVariantWrapper> searchKnownVariants(Query query, QueryOptions options);
+
+    /**
+     * Iterates over the variants in CVA by region, gene, transcript, chromosome or submitter without loading them all
+     * in memory.
+     * @param query         the query filters, see KnownVariantQueryParams
+     * @param options       the query modifiers: include, exclude, limit, skip, after and batchSize
+     * @return              an iterator over the known variants found, it must be closed
+     */
+    KnownVariantDBIterator iterateKnownVariants(Query query, QueryOptions options);
+
     /**
      * Adds a curation to an existing variant. Returns true if the update was correct.
      * If the variant does not exist it throws an exception.
@@ -124,4 +186,63 @@ public interface IKnownVariantManager {
             EthnicCategory ethnicCategory,
             String description
     ) throws CvaException;
+
+    /**
+     * Annotates a VCF with the known variants in CVA, streaming it so memory usage does not depend on its size.
+     * @param inputStream   the VCF, it may be gzipped
+     * @param outputStream  where the annotated VCF or NDJSON is written, it is closed when finished and left open
+     *                      when the annotation fails
+     * @param format        the output format
+     * @return              the statistics of every stage of the annotation pipeline
+     * @throws IOException              error reading the VCF, looking up the known variants or writing the output
+     * @throws InterruptedException     if interrupted while annotating
+     */
+    List<PipelineStageStatistics> annotateVcf(InputStream inputStream, OutputStream outputStream,
+                                              VcfAnnotationPipeline.OutputFormat format)
+            throws IOException, InterruptedException;
+
+    /**
+     * Annotates a VCF file with the known variants in CVA.
+     * @param vcf           the VCF, it may be gzipped
+     * @param output        the annotated VCF or NDJSON, deleted when the annotation fails
+     * @param format        the output format
+     * @return              the statistics of every stage of the annotation pipeline
+     * @throws IOException              error reading the VCF, looking up the known variants or writing the output
+     * @throws InterruptedException     if interrupted while annotating
+     */
+    List<PipelineStageStatistics> annotateVcf(Path vcf, Path output, VcfAnnotationPipeline.OutputFormat format)
+            throws IOException, InterruptedException;
+
+    /**
+     * Exports the known variants matching a query to an Avro container file or a Parquet file.
+     * @param output            the output file, it is overwritten
+     * @param format            the output format
+     * @param query             the query filters, null exports all the known variants
+     * @param classifications   only known variants curated with any of these classifications are exported, null or
+     *                          empty does not filter by classification
+     * @return                  the number of known variants exported
+     * @throws IOException      error writing the output
+     */
+    long exportKnownVariants(Path output, KnownVariantBulkTransfer.Format format, Query query,
+                             List<CurationClassification> classifications) throws IOException;
+
+    /**
+     * Imports the known variants in an Avro container file or a Parquet file with bulk inserts. Known variants
+     * already registered are left untouched.
+     * @param input         the input file
+     * @param format        the input format
+     * @return              the statistics of every stage of the import pipeline
+     * @throws IOException              error reading the input
+     * @throws InterruptedException     if interrupted while importing
+     */
+    List<PipelineStageStatistics> importKnownVariants(Path input, KnownVariantBulkTransfer.Format format)
+            throws IOException, InterruptedException;
+
+    /**
+     * Annotates again the variants that CellBase failed to annotate and stores the annotations in the registered
+     * known variants that are still not annotated.
+     * @return              the number of known variants updated
+     * @throws VariantAnnotatorException    if interrupted while waiting for the annotations
+     */
+    int retryFailedAnnotations() throws VariantAnnotatorException;
 }
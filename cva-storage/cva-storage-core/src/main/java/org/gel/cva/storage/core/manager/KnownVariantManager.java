@@ -1,39 +1,108 @@
 package org.gel.cva.storage.core.manager;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.gel.cva.storage.core.config.AnnotationConfiguration;
 import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.config.KnownVariantCacheConfiguration;
+import org.gel.cva.storage.core.exceptions.ConcurrentCvaModificationException;
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.MeteredKnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.tools.KnownVariantBulkTransfer;
+import org.gel.cva.storage.core.knownvariant.tools.VcfAnnotationPipeline;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
+import org.gel.cva.storage.core.pipeline.PipelineStageStatistics;
 import org.gel.models.cva.avro.*;
 import org.gel.models.report.avro.EthnicCategory;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.core.auth.IllegalOpenCGACredentialsException;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Created by priesgo on 19/01/17.
  */
-public class KnownVariantManager extends CvaManager implements IKnownVariantManager {
+public class KnownVariantManager extends CvaManager implements IKnownVariantManager, AutoCloseable {
+
+    private static final int MAX_CURATION_ATTEMPTS = 5;
+    private static final int CACHE_POLL_BATCH_SIZE = 1000;
+    private static final int CACHE_GENERATION_STRIPES = 1024;
+    // the write paths read the stored known variant straight from the database
+    private static final QueryOptions WRITE_OPTIONS = new QueryOptions(KnownVariantDBAdaptor.SKIP_FILTER, true);
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantManager.class);
 
     private KnownVariantDBAdaptor knownVariantDBAdaptor;
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failedRetries = new AtomicLong();
+    // read-through cache of known variants by normalized variant id, null when disabled
+    private Cache<String, CachedKnownVariant> knownVariantCache = null;
+    // polls the versions of the cached known variants, null when polling is disabled
+    private ScheduledExecutorService cachePoller = null;
+    // retries the annotations that failed in the shared annotation service, null when retrying is disabled
+    private ScheduledExecutorService annotationRetrier = null;
+    private final AtomicLong cacheInvalidations = new AtomicLong();
+    // invalidations by stripe of cache keys, a read that raced an invalidation of its key must not stay cached
+    private final AtomicLongArray cacheGenerations = new AtomicLongArray(CACHE_GENERATION_STRIPES);
+
+    /**
+     * A cached known variant with the version it was read with. The avro record is copied in and out of the cache,
+     * as KnownVariantWrapper mutates it.
+     */
+    private static class CachedKnownVariant {
+
+        private final KnownVariant knownVariant;
+        private final long version;
+
+        private CachedKnownVariant(KnownVariantWrapper knownVariantWrapper) {
+            this.knownVariant = KnownVariant.newBuilder(knownVariantWrapper.getImpl()).build();
+            this.version = knownVariantWrapper.getVersion();
+        }
+
+        private KnownVariantWrapper toKnownVariantWrapper() {
+            KnownVariantWrapper knownVariantWrapper =
+                    new KnownVariantWrapper(KnownVariant.newBuilder(this.knownVariant).build());
+            knownVariantWrapper.setVersion(this.version);
+            return knownVariantWrapper;
+        }
+    }
 
     public KnownVariantManager(CvaConfiguration cvaConfiguration)
             throws IllegalCvaConfigurationException, IllegalOpenCGACredentialsException,
@@ -43,7 +112,163 @@ public class KnownVariantManager extends CvaManager implements IKnownVariantMana
         String adaptorImplClass = cvaConfiguration.getStorageEngines().get(0).getOptions().get("adaptor.knownvariants");
         Class<?> clazz = Class.forName(adaptorImplClass);
         Constructor<?> ctor = clazz.getConstructor(CvaConfiguration.class);
-        this.knownVariantDBAdaptor = (KnownVariantDBAdaptor)ctor.newInstance(new Object[] { cvaConfiguration });
+        this.knownVariantDBAdaptor = new MeteredKnownVariantDBAdaptor(
+                (KnownVariantDBAdaptor)ctor.newInstance(new Object[] { cvaConfiguration }),
+                MetricsRegistry.getInstance());
+        KnownVariantCacheConfiguration cacheConfiguration = cvaConfiguration.getKnownVariantCache() != null ?
+                cvaConfiguration.getKnownVariantCache() : new KnownVariantCacheConfiguration();
+        if (cacheConfiguration.getMaxSize() > 0) {
+            this.startKnownVariantCache(cacheConfiguration);
+        }
+        AnnotationConfiguration annotationConfiguration = cvaConfiguration.getAnnotation() != null ?
+                cvaConfiguration.getAnnotation() : new AnnotationConfiguration();
+        if (annotationConfiguration.getRetryIntervalSeconds() > 0) {
+            this.startAnnotationRetries(annotationConfiguration.getRetryIntervalSeconds());
+        }
+    }
+
+    /**
+     * Schedules the retrying of the failed annotations
+     * @param retryIntervalSeconds  the period between retries
+     */
+    private void startAnnotationRetries(long retryIntervalSeconds) {
+        this.annotationRetrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "annotation-retrier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.annotationRetrier.scheduleWithFixedDelay(() -> {
+            try {
+                int updated = this.retryFailedAnnotations();
+                if (updated > 0) {
+                    logger.info("Stored the annotation of {} known variants after retrying", updated);
+                }
+            }
+            catch (VariantAnnotatorException | RuntimeException e) {
+                logger.warn("Failed to retry the failed annotations: {}", e.getMessage());
+            }
+        }, retryIntervalSeconds, retryIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Builds the cache of known variants and schedules the polling of the cached versions
+     * @param cacheConfiguration    the cache configuration
+     */
+    private void startKnownVariantCache(KnownVariantCacheConfiguration cacheConfiguration) {
+        this.knownVariantCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheConfiguration.getMaxSize())
+                .expireAfterWrite(cacheConfiguration.getTtlMinutes(), TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        if (cacheConfiguration.getPollSeconds() > 0) {
+            this.cachePoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "known-variant-cache-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.cachePoller.scheduleWithFixedDelay(() -> {
+                try {
+                    this.pollCachedVersions();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Failed to poll the versions of the cached known variants: {}", e.getMessage());
+                }
+            }, cacheConfiguration.getPollSeconds(), cacheConfiguration.getPollSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Invalidates the cached known variants whose version in the database differs from the cached one, which
+     * happens when they were modified from other nodes
+     */
+    private void pollCachedVersions() {
+        List<Map.Entry<String, CachedKnownVariant>> entries =
+                new ArrayList<>(this.knownVariantCache.asMap().entrySet());
+        for (int start = 0; start < entries.size(); start += CACHE_POLL_BATCH_SIZE) {
+            List<Map.Entry<String, CachedKnownVariant>> batch =
+                    entries.subList(start, Math.min(start + CACHE_POLL_BATCH_SIZE, entries.size()));
+            List<Variant> variants = new ArrayList<>(batch.size());
+            for (Map.Entry<String, CachedKnownVariant> entry : batch) {
+                variants.add(new Variant(entry.getValue().knownVariant.getVariant()));
+            }
+            List<Long> versions = this.knownVariantDBAdaptor.findVersions(variants, null);
+            for (int i = 0; i < batch.size(); i++) {
+                Map.Entry<String, CachedKnownVariant> entry = batch.get(i);
+                Long version = versions.get(i);
+                // removes only the polled entry, a fresher one may have been cached meanwhile
+                if ((version == null || version != entry.getValue().version) &&
+                        this.knownVariantCache.asMap().remove(entry.getKey(), entry.getValue())) {
+                    this.cacheInvalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the cache key of a normalized variant
+     * @param variant   the normalized variant
+     * @return          the key
+     */
+    private static String getCacheKey(Variant variant) {
+        return variant.getChromosome() + ":" + variant.getStart() + ":" + variant.getReference() + ":" +
+                variant.getAlternate();
+    }
+
+    /**
+     * Builds the cache key of a variant applying the same normalization as KnownVariantWrapper
+     * @param chromosome    the chromosome
+     * @param position      the position
+     * @param reference     the reference bases
+     * @param alternate     the alternate bases
+     * @return              the key, null if the variant cannot be normalized into a single variant
+     */
+    private static String getCacheKey(String chromosome, Integer position, String reference, String alternate) {
+        try {
+            List<Variant> variants = KnownVariantAnnotationService.getInstance().normalize(
+                    new Variant(chromosome, position, reference, alternate));
+            return variants != null && variants.size() == 1 ? getCacheKey(variants.get(0)) : null;
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stripe of the generations counting the invalidations of a cache key
+     * @param cacheKey  the cache key
+     * @return          the stripe
+     */
+    private static int getCacheGenerationStripe(String cacheKey) {
+        return (cacheKey.hashCode() & Integer.MAX_VALUE) % CACHE_GENERATION_STRIPES;
+    }
+
+    /**
+     * Removes a known variant modified from this node from the cache. The generation of the key is increased before
+     * removing it, so reads of the previous version that are not cached yet discard their entry.
+     * @param knownVariantWrapper   the known variant
+     */
+    private void invalidate(KnownVariantWrapper knownVariantWrapper) {
+        if (this.knownVariantCache != null && knownVariantWrapper != null) {
+            String cacheKey = getCacheKey(knownVariantWrapper.getVariant());
+            this.cacheGenerations.incrementAndGet(getCacheGenerationStripe(cacheKey));
+            this.knownVariantCache.invalidate(cacheKey);
+            this.cacheInvalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Caches a known variant read from the database. If its key was invalidated since the read started, the read
+     * may have returned the previous version and the entry is removed again.
+     * @param cacheKey              the cache key
+     * @param generation            the generation of the key when the read started
+     * @param knownVariantWrapper   the known variant read
+     */
+    private void cache(String cacheKey, long generation, KnownVariantWrapper knownVariantWrapper) {
+        CachedKnownVariant cachedKnownVariant = new CachedKnownVariant(knownVariantWrapper);
+        this.knownVariantCache.put(cacheKey, cachedKnownVariant);
+        if (this.cacheGenerations.get(getCacheGenerationStripe(cacheKey)) != generation) {
+            this.knownVariantCache.asMap().remove(cacheKey, cachedKnownVariant);
+        }
     }
 
     /**
@@ -87,12 +312,109 @@ public class KnownVariantManager extends CvaManager implements IKnownVariantMana
             Integer position,
             String reference,
             String alternate) throws CvaException {
+        return this.findKnownVariant(chromosome, position, reference, alternate, null);
+    }
+
+    /**
+     * Retrieves a known variant from CVA reading only the requested fields. Known variants read with a projection
+     * are partial, so they are neither served from nor stored in the cache.
+     * Returns null if the variant does not exist.
+     * @param chromosome    the chromosome
+     * @param position      the position
+     * @param reference     the reference bases
+     * @param alternate     the alternate bases
+     * @param options       the query modifiers: include and exclude
+     * @return              the known variant
+     */
+    @Override
+    public KnownVariantWrapper findKnownVariant(
+            String chromosome,
+            Integer position,
+            String reference,
+            String alternate,
+            QueryOptions options) throws CvaException {
 
+        if (hasProjection(options)) {
+            return this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate, options);
+        }
+        // Search for the variant in the cache
+        String cacheKey = null;
+        long generation = 0;
+        if (this.knownVariantCache != null) {
+            cacheKey = getCacheKey(chromosome, position, reference, alternate);
+            if (cacheKey != null) {
+                // read before the cache, so an invalidation after the lookup is always seen
+                generation = this.cacheGenerations.get(getCacheGenerationStripe(cacheKey));
+                CachedKnownVariant cachedKnownVariant = this.knownVariantCache.getIfPresent(cacheKey);
+                if (cachedKnownVariant != null) {
+                    return cachedKnownVariant.toKnownVariantWrapper();
+                }
+            }
+        }
         // Search for the variant in mongoDB
         KnownVariantWrapper knownVariantWrapper = this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate);
+        if (knownVariantWrapper != null && cacheKey != null) {
+            this.cache(cacheKey, generation, knownVariantWrapper);
+        }
         return knownVariantWrapper;
     }
 
+    /**
+     * Retrieves a batch of known variants from CVA with one database round trip per batch.
+     * @param variants      the variants to search for
+     * @return              the known variants in the same order as the input, null for those not registered
+     */
+    @Override
+    public List<KnownVariantWrapper> findKnownVariants(List<Variant> variants) {
+        return this.knownVariantDBAdaptor.findAll(variants, null);
+    }
+
+    /**
+     * Retrieves a batch of known variants from CVA reading only the requested fields.
+     * @param variants      the variants to search for
+     * @param options       the query modifiers: include and exclude
+     * @return              the known variants in the same order as the input, null for those not registered
+     */
+    @Override
+    public List<KnownVariantWrapper> findKnownVariants(List<Variant> variants, QueryOptions options) {
+        return this.knownVariantDBAdaptor.findAll(variants, options);
+    }
+
+    /**
+     * @param options       the query modifiers
+     * @return              true if the options restrict the fields read through include or exclude
+     */
+    private static boolean hasProjection(QueryOptions options) {
+        if (options == null) {
+            return false;
+        }
+        List<String> include = options.getAsStringList(QueryOptions.INCLUDE);
+        List<String> exclude = options.getAsStringList(QueryOptions.EXCLUDE);
+        return (include != null && !include.isEmpty()) || (exclude != null && !exclude.isEmpty());
+    }
+
+    /**
+     * Search for variants in CVA by region, gene, transcript, chromosome or submitter.
+     * @param query         the query filters, see KnownVariantQueryParams
+     * @param options       the query modifiers: include, exclude, limit, skip and count
+     * @return              the known variants found
+     */
+    @Override
+    public QueryResult<KnownVariantWrapper> searchKnownVariants(Query query, QueryOptions options) {
+        return this.knownVariantDBAdaptor.get(query, options);
+    }
+
+    /**
+     * Iterates over the known variants matching a query without loading them all in memory.
+     * @param query         the query filters
+     * @param options       the query modifiers: include, exclude, limit, skip and batchSize
+     * @return              an iterator over the known variants found, it must be closed
+     */
+    @Override
+    public KnownVariantDBIterator iterateKnownVariants(Query query, QueryOptions options) {
+        return this.knownVariantDBAdaptor.iterator(query, options);
+    }
+
     /**
      * Adds a curation to an existing variant.
      * If the variant does not exist it throws an exception.
@@ -125,18 +447,37 @@ public class KnownVariantManager extends CvaManager implements IKnownVariantMana
             Float penetrance,
             Boolean variableExpressivity) throws CvaException {
 
-        KnownVariantWrapper knownVariantWrapper =
-                this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate);
-        if (knownVariantWrapper == null) {
-            throw new CvaException("Cannot add a curation to a non registered variant");
-        }
-        knownVariantWrapper.addCuration(curator, phenotype, modeOfInheritance, transcript,
-                curationClassification, manualCurationConfidence, consistencyStatus, penetrance, variableExpressivity);
-        Boolean isUpdateCorrect = this.knownVariantDBAdaptor.update(knownVariantWrapper);
-        if (! isUpdateCorrect) {
-            throw new CvaException("Adding a curation failed");
+        // Retries with merge: on a concurrent modification the curation is built again on the latest state
+        for (int attempt = 1; attempt <= MAX_CURATION_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                this.retries.incrementAndGet();
+            }
+            KnownVariantWrapper knownVariantWrapper =
+                    this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate, WRITE_OPTIONS);
+            if (knownVariantWrapper == null) {
+                throw new CvaException("Cannot add a curation to a non registered variant");
+            }
+            // Builds the curation against the version read and appends it atomically if still current
+            CurationHistoryEntry curationHistoryEntry = knownVariantWrapper.buildCurationHistoryEntry(curator,
+                    phenotype, modeOfInheritance, transcript, curationClassification, manualCurationConfidence,
+                    consistencyStatus, penetrance, variableExpressivity);
+            try {
+                KnownVariantWrapper updatedKnownVariantWrapper = this.knownVariantDBAdaptor.addCuration(
+                        knownVariantWrapper, curationHistoryEntry, consistencyStatus == null);
+                this.invalidate(updatedKnownVariantWrapper);
+                return updatedKnownVariantWrapper;
+            }
+            catch (ConcurrentCvaModificationException e) {
+                // modified concurrently, any cached copy is stale
+                this.invalidate(knownVariantWrapper);
+                this.conflicts.incrementAndGet();
+                logger.debug("Concurrent modification of {}:{}:{}:{} adding a curation, attempt {}",
+                        chromosome, position, reference, alternate, attempt);
+            }
         }
-        return knownVariantWrapper;
+        this.failedRetries.incrementAndGet();
+        throw new ConcurrentCvaModificationException("Adding a curation failed after " + MAX_CURATION_ATTEMPTS +
+                " attempts due to concurrent modifications");
     }
 
     /**
@@ -186,17 +527,220 @@ public class KnownVariantManager extends CvaManager implements IKnownVariantMana
     ) throws CvaException {
 
         KnownVariantWrapper knownVariantWrapper =
-                this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate);
+                this.knownVariantDBAdaptor.find(chromosome, position, reference, alternate, WRITE_OPTIONS);
         if (knownVariantWrapper == null) {
-            throw new CvaException("Cannot add a curation to a non registered variant");
+            throw new CvaException("Cannot add an evidence to a non registered variant");
         }
-        knownVariantWrapper.addEvidence(submitter, sourceName, sourceType, sourceVersion, sourceUrl, sourceId,
-                alleleOrigin, heritablePhenotypes, transcript, evidencePathogenicity, evidenceBenignity,
-                pubmedId, study, numberOfIndividuals, ethnicCategory, description);
-        Boolean isUpdateCorrect = this.knownVariantDBAdaptor.update(knownVariantWrapper);
-        if (! isUpdateCorrect) {
-            throw new CvaException("Adding an evidence failed");
+        // Evidences are only appended, so concurrent appends never conflict
+        EvidenceEntry evidenceEntry = knownVariantWrapper.buildEvidenceEntry(submitter, sourceName, sourceType,
+                sourceVersion, sourceUrl, sourceId, alleleOrigin, heritablePhenotypes, transcript,
+                evidencePathogenicity, evidenceBenignity, pubmedId, study, numberOfIndividuals, ethnicCategory,
+                description);
+        KnownVariantWrapper updatedKnownVariantWrapper =
+                this.knownVariantDBAdaptor.addEvidence(knownVariantWrapper, evidenceEntry);
+        this.invalidate(knownVariantWrapper);
+        return updatedKnownVariantWrapper;
+    }
+
+    /**
+     * Annotates a VCF with the known variants in CVA, streaming it so memory usage does not depend on its size.
+     * @param inputStream   the VCF, it may be gzipped
+     * @param outputStream  where the annotated VCF or NDJSON is written, it is closed when finished and left open
+     *                      when the annotation fails
+     * @param format        the output format
+     * @return              the statistics of every stage of the annotation pipeline
+     * @throws IOException              error reading the VCF, looking up the known variants or writing the output
+     * @throws InterruptedException     if interrupted while annotating
+     */
+    @Override
+    public List<PipelineStageStatistics> annotateVcf(InputStream inputStream, OutputStream outputStream,
+                                                     VcfAnnotationPipeline.OutputFormat format)
+            throws IOException, InterruptedException {
+        VcfAnnotationPipeline pipeline = new VcfAnnotationPipeline(cvaConfiguration, knownVariantDBAdaptor);
+        return pipeline.run(inputStream, outputStream, format);
+    }
+
+    /**
+     * Annotates a VCF file with the known variants in CVA.
+     * @param vcf           the VCF, it may be gzipped
+     * @param output        the annotated VCF or NDJSON, deleted when the annotation fails
+     * @param format        the output format
+     * @return              the statistics of every stage of the annotation pipeline
+     * @throws IOException              error reading the VCF, looking up the known variants or writing the output
+     * @throws InterruptedException     if interrupted while annotating
+     */
+    @Override
+    public List<PipelineStageStatistics> annotateVcf(Path vcf, Path output, VcfAnnotationPipeline.OutputFormat format)
+            throws IOException, InterruptedException {
+        VcfAnnotationPipeline pipeline = new VcfAnnotationPipeline(cvaConfiguration, knownVariantDBAdaptor);
+        return pipeline.run(vcf, output, format);
+    }
+
+    /**
+     * Exports the known variants matching a query to an Avro container file or a Parquet file.
+     * @param output            the output file, it is overwritten
+     * @param format            the output format
+     * @param query             the query filters, null exports all the known variants
+     * @param classifications   only known variants curated with any of these classifications are exported, null or
+     *                          empty does not filter by classification
+     * @return                  the number of known variants exported
+     * @throws IOException      error writing the output
+     */
+    @Override
+    public long exportKnownVariants(Path output, KnownVariantBulkTransfer.Format format, Query query,
+                                    List<CurationClassification> classifications) throws IOException {
+        KnownVariantBulkTransfer bulkTransfer = new KnownVariantBulkTransfer(cvaConfiguration, knownVariantDBAdaptor);
+        return bulkTransfer.export(output, format, query, classifications);
+    }
+
+    /**
+     * Imports the known variants in an Avro container file or a Parquet file with bulk inserts. Known variants
+     * already registered are left untouched.
+     * @param input         the input file
+     * @param format        the input format
+     * @return              the statistics of every stage of the import pipeline
+     * @throws IOException              error reading the input
+     * @throws InterruptedException     if interrupted while importing
+     */
+    @Override
+    public List<PipelineStageStatistics> importKnownVariants(Path input, KnownVariantBulkTransfer.Format format)
+            throws IOException, InterruptedException {
+        KnownVariantBulkTransfer bulkTransfer = new KnownVariantBulkTransfer(cvaConfiguration, knownVariantDBAdaptor);
+        return bulkTransfer.importFrom(input, format);
+    }
+
+    /**
+     * Annotates again the variants that CellBase failed to annotate and stores the annotations in the registered
+     * known variants that are still not annotated. Variants failing again are back in the retry queue of the
+     * annotation service, variants not registered are discarded.
+     * @return              the number of known variants updated
+     * @throws VariantAnnotatorException    if interrupted while waiting for the annotations
+     */
+    @Override
+    public int retryFailedAnnotations() throws VariantAnnotatorException {
+        KnownVariantAnnotationService annotationService = KnownVariantAnnotationService.getInstance();
+        List<Variant> variants = annotationService.drainFailedVariants();
+        if (variants.isEmpty()) {
+            return 0;
+        }
+        List<VariantAnnotation> variantAnnotations = annotationService.annotate(variants);
+        int updated = 0;
+        for (int i = 0; i < variants.size(); i++) {
+            if (variantAnnotations.get(i) != null && this.storeAnnotation(variants.get(i), variantAnnotations.get(i))) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Stores an annotation in a known variant without annotation, retrying on concurrent modifications
+     * @param variant               the normalized variant
+     * @param variantAnnotation     the annotation
+     * @return                      true if the known variant was updated
+     */
+    private boolean storeAnnotation(Variant variant, VariantAnnotation variantAnnotation) {
+        for (int attempt = 1; attempt <= MAX_CURATION_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                this.retries.incrementAndGet();
+            }
+            KnownVariantWrapper knownVariantWrapper = null;
+            try {
+                knownVariantWrapper = this.knownVariantDBAdaptor.find(variant.getChromosome(), variant.getStart(),
+                        variant.getReference(), variant.getAlternate(), WRITE_OPTIONS);
+                if (knownVariantWrapper == null || knownVariantWrapper.getImpl().getVariant().getAnnotation() != null) {
+                    return false;
+                }
+                knownVariantWrapper.setVariantAnnotation(variantAnnotation);
+                boolean updated = this.knownVariantDBAdaptor.update(knownVariantWrapper);
+                this.invalidate(knownVariantWrapper);
+                return updated;
+            }
+            catch (ConcurrentCvaModificationException e) {
+                this.invalidate(knownVariantWrapper);
+                this.conflicts.incrementAndGet();
+            }
+            catch (CvaException e) {
+                logger.warn("Cannot store the annotation of {}: {}", getCacheKey(variant), e.getMessage());
+                return false;
+            }
+        }
+        this.failedRetries.incrementAndGet();
+        return false;
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    /**
+     * @return  the number of updates rejected because the known variant was modified concurrently
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return  the number of updates retried after a concurrent modification
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return  the number of updates that failed after exhausting the retries
+     */
+    public long getFailedRetries() {
+        return failedRetries.get();
+    }
+
+    /**
+     * @return  the hits, misses and evictions of the known variants cache, null when the cache is disabled
+     */
+    public CacheStats getKnownVariantCacheStats() {
+        return knownVariantCache != null ? knownVariantCache.stats() : null;
+    }
+
+    /**
+     * @return  the number of known variants in the cache
+     */
+    public long getKnownVariantCacheSize() {
+        return knownVariantCache != null ? knownVariantCache.size() : 0;
+    }
+
+    /**
+     * @return  the number of cached known variants invalidated by writes from this node or found stale by polling
+     */
+    public long getCacheInvalidations() {
+        return cacheInvalidations.get();
+    }
+
+    /**
+     * Stops the background threads of this manager and closes its adaptor, releasing e.g. the Bloom filter of the
+     * MongoDB adaptor. The manager must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (this.cachePoller != null) {
+            this.cachePoller.shutdownNow();
+        }
+        if (this.annotationRetrier != null) {
+            // a running retry has already drained the failed annotations, so it is let finish storing them
+            this.annotationRetrier.shutdown();
+            try {
+                if (!this.annotationRetrier.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Annotation retry still running when closing the known variant manager");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            this.knownVariantDBAdaptor.close();
+        }
+        catch (Exception e) {
+            logger.warn("Error closing the known variants adaptor: {}", e.getMessage());
         }
-        return knownVariantWrapper;
     }
 }
@@ -0,0 +1,126 @@
+package org.gel.cva.storage.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets on a 1-2.5-5 log scale from 1 microsecond to 100 seconds. Recording a value
+ * is a bucket lookup and two increments on striped counters, so it does not allocate nor contend between threads
+ * and can be left on in production. The buckets are cumulative when read, as in the Prometheus histograms.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The upper bounds of the buckets in nanoseconds, values above the last one fall in the +Inf bucket
+     */
+    static final long[] BOUNDS;
+
+    static {
+        long[] steps = {1000L, 2500L, 5000L};
+        BOUNDS = new long[25];
+        long decade = 1;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            BOUNDS[i] = steps[i % 3] * decade;
+            if (i % 3 == 2) {
+                decade *= 10;
+            }
+        }
+    }
+
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BOUNDS.length + 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    private static int bucketOf(long nanos) {
+        int low = 0;
+        int high = BOUNDS.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (BOUNDS[middle] < nanos) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Records a latency
+     * @param nanos     the latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        this.buckets[bucketOf(nanos)].increment();
+        this.sum.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since a given instant
+     * @param startNanos    the start as returned by System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return  the number of latencies recorded per bucket, the last one is the +Inf bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[this.buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return  the number of latencies recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return  the sum of the latencies recorded in nanoseconds
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Estimates a quantile as the upper bound of the bucket it falls in
+     * @param quantile  the quantile between 0 and 1
+     * @return          the estimated latency in nanoseconds, Long.MAX_VALUE when it is above the last bound and 0
+     *                  when nothing was recorded
+     */
+    public long getQuantile(double quantile) {
+        long[] counts = this.getBucketCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
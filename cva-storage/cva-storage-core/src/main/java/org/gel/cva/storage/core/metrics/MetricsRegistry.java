@@ -0,0 +1,199 @@
+package org.gel.cva.storage.core.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Holds the latency histograms of the storage and REST operations and writes them in the Prometheus text format.
+ * Histograms are looked up by name and labels once and kept by the instrumented code, so recording does not go
+ * through the registry. Rates are derived from the _count series by the scraper. Gauges are read from their
+ * supplier when written.
+ */
+public class MetricsRegistry {
+
+    private static MetricsRegistry instance;
+
+    private final ConcurrentMap<String, Family<LatencyHistogram>> families = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Family<DoubleSupplier>> gauges = new ConcurrentSkipListMap<>();
+
+    private static class Family<T> {
+
+        private final String help;
+        // metrics by their formatted labels
+        private final ConcurrentMap<String, T> metrics = new ConcurrentHashMap<>();
+
+        private Family(String help) {
+            this.help = help;
+        }
+    }
+
+    /**
+     * Returns the process wide registry, it is created on first use
+     * @return  the shared registry
+     */
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the histogram for a name and labels, creating it on first use
+     * @param name      the metric name, it must follow the Prometheus naming and end in _seconds
+     * @param help      the description of the metric, only the first one registered for a name is kept
+     * @param labels    the label names and values alternated
+     * @return          the histogram
+     * @throws IllegalArgumentException     when the labels are not in pairs
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs: " + name);
+        }
+        Family<LatencyHistogram> family = this.families.computeIfAbsent(name, key -> new Family<>(help));
+        return family.metrics.computeIfAbsent(formatLabels(labels), key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge, replacing the one previously registered with the same name and labels
+     * @param name      the metric name, it must follow the Prometheus naming
+     * @param help      the description of the metric, only the first one registered for a name is kept
+     * @param value     supplies the current value when the metrics are written, it must be thread safe
+     * @param labels    the label names and values alternated
+     * @return          the gauge replaced, null if none was registered
+     * @throws IllegalArgumentException     when the labels are not in pairs
+     */
+    public DoubleSupplier gauge(String name, String help, DoubleSupplier value, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs: " + name);
+        }
+        return this.gauges.computeIfAbsent(name, key -> new Family<>(help)).metrics.put(formatLabels(labels), value);
+    }
+
+    /**
+     * Removes a gauge if it is still the one registered with the name and labels, a gauge that replaced it is kept
+     * @param name      the metric name
+     * @param value     the gauge registered
+     * @param labels    the label names and values alternated
+     * @return          true if the gauge was removed
+     * @throws IllegalArgumentException     when the labels are not in pairs
+     */
+    public boolean removeGauge(String name, DoubleSupplier value, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs: " + name);
+        }
+        Family<DoubleSupplier> family = this.gauges.get(name);
+        return family != null && family.metrics.remove(formatLabels(labels), value);
+    }
+
+    private static String formatLabels(String... labels) {
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (formatted.length() > 0) {
+                formatted.append(',');
+            }
+            formatted.append(labels[i]).append("=\"");
+            String value = labels[i + 1] != null ? labels[i + 1] : "";
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\':
+                        formatted.append("\\\\");
+                        break;
+                    case '"':
+                        formatted.append("\\\"");
+                        break;
+                    case '\n':
+                        formatted.append("\\n");
+                        break;
+                    default:
+                        formatted.append(c);
+                }
+            }
+            formatted.append('"');
+        }
+        return formatted.toString();
+    }
+
+    private static String formatSeconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    private static void writeHeader(Writer writer, String name, String help, String type) throws IOException {
+        writer.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, String le, String value)
+            throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || le != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (le != null) {
+                if (!labels.isEmpty()) {
+                    writer.write(',');
+                }
+                writer.write("le=\"");
+                writer.write(le);
+                writer.write('"');
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    /**
+     * Writes all the histograms and gauges in the Prometheus text exposition format, version 0.0.4
+     * @param writer    the destination, it is not closed
+     * @throws IOException  error writing
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        for (Map.Entry<String, Family<LatencyHistogram>> familyEntry : this.families.entrySet()) {
+            String name = familyEntry.getKey();
+            Family<LatencyHistogram> family = familyEntry.getValue();
+            writeHeader(writer, name, family.help, "histogram");
+            for (Map.Entry<String, LatencyHistogram> entry : family.metrics.entrySet()) {
+                String labels = entry.getKey();
+                LatencyHistogram histogram = entry.getValue();
+                long[] counts = histogram.getBucketCounts();
+                long cumulative = 0;
+                for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++) {
+                    cumulative += counts[i];
+                    writeSample(writer, name + "_bucket", labels, formatSeconds(LatencyHistogram.BOUNDS[i]),
+                            Long.toString(cumulative));
+                }
+                cumulative += counts[LatencyHistogram.BOUNDS.length];
+                writeSample(writer, name + "_bucket", labels, "+Inf", Long.toString(cumulative));
+                writeSample(writer, name + "_sum", labels, null, formatSeconds(histogram.getSum()));
+                writeSample(writer, name + "_count", labels, null, Long.toString(cumulative));
+            }
+        }
+        for (Map.Entry<String, Family<DoubleSupplier>> familyEntry : this.gauges.entrySet()) {
+            String name = familyEntry.getKey();
+            Family<DoubleSupplier> family = familyEntry.getValue();
+            writeHeader(writer, name, family.help, "gauge");
+            for (Map.Entry<String, DoubleSupplier> entry : family.metrics.entrySet()) {
+                writeSample(writer, name, entry.getKey(), null, formatValue(entry.getValue().getAsDouble()));
+            }
+        }
+        writer.flush();
+    }
+}
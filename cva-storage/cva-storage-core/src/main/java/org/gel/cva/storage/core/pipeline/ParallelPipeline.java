@@ -0,0 +1,319 @@
+package org.gel.cva.storage.core.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pipeline of stages where every stage runs on its own pool of threads and consumes the batches produced by the
+ * previous stage through a bounded queue. When a stage does not keep up the bounded queues block the upstream stages,
+ * so memory usage does not grow with the size of the input.
+ * The first exception thrown by the source or by a stage stops all the workers and is rethrown by run, so a run
+ * that returns processed the whole input.
+ */
+public class ParallelPipeline {
+
+    /**
+     * The work done by a stage on every batch. It may be called concurrently from several threads.
+     * @param <I>   the input batch type
+     * @param <O>   the output batch type, returning null drops the batch
+     */
+    @FunctionalInterface
+    public interface Task<I, O> {
+        O apply(I batch) throws Exception;
+    }
+
+    private static final Object POISON_PILL = new Object();
+    private static final long PROGRESS_LOG_PERIOD_SECONDS = 30;
+
+    protected static Logger logger = LoggerFactory.getLogger(ParallelPipeline.class);
+
+    private final String name;
+    private final int queueCapacity;
+    private final List<Stage> stages = new LinkedList<>();
+
+    /**
+     * Constructor for ParallelPipeline
+     * @param name              the pipeline name, used for logging and naming threads
+     * @param queueCapacity     the maximum number of batches waiting between two stages
+     */
+    public ParallelPipeline(String name, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Appends a stage to the pipeline. The input type of the task must match the output type of the previous stage.
+     * @param stageName         the stage name
+     * @param parallelism       the number of threads running this stage
+     * @param task              the work done on every batch
+     * @return                  this pipeline
+     */
+    public <I, O> ParallelPipeline addStage(String stageName, int parallelism, Task<I, O> task) {
+        this.stages.add(new Stage(stageName, Math.max(1, parallelism), task));
+        return this;
+    }
+
+    /**
+     * Runs the pipeline until the source is exhausted and every batch went through all stages.
+     * @param sourceName        the name of the source stage
+     * @param source            produces the input batches, a null or empty batch signals the end of the input
+     * @return                  the statistics of the source followed by those of every stage
+     * @throws InterruptedException     if the calling thread is interrupted while waiting for the pipeline
+     * @throws ExecutionException       if the source or a stage failed, the cause is the first failure
+     */
+    public List<PipelineStageStatistics> run(String sourceName, Callable<? extends Collection<?>> source)
+            throws InterruptedException, ExecutionException {
+        if (this.stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline " + this.name + " has no stages");
+        }
+        List<PipelineStageStatistics> statistics = new ArrayList<>();
+        List<BlockingQueue<Object>> queues = new ArrayList<>();
+        int threads = 1;
+        for (Stage stage : this.stages) {
+            queues.add(new ArrayBlockingQueue<>(this.queueCapacity));
+            threads += stage.parallelism;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(this.name));
+        Failure failure = new Failure(executor);
+        PipelineStageStatistics sourceStatistics = new PipelineStageStatistics(sourceName, 1);
+        statistics.add(sourceStatistics);
+        try {
+            executor.submit(new SourceWorker(source, queues.get(0), sourceStatistics, failure));
+            for (int i = 0; i < this.stages.size(); i++) {
+                Stage stage = this.stages.get(i);
+                PipelineStageStatistics stageStatistics =
+                        new PipelineStageStatistics(stage.name, stage.parallelism);
+                statistics.add(stageStatistics);
+                BlockingQueue<Object> output = i + 1 < this.stages.size() ? queues.get(i + 1) : null;
+                AtomicInteger runningWorkers = new AtomicInteger(stage.parallelism);
+                stageStatistics.start();
+                for (int j = 0; j < stage.parallelism; j++) {
+                    executor.submit(new StageWorker(stage, queues.get(i), output, runningWorkers, stageStatistics,
+                            failure));
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            // the pipeline was stopped by a failure before all the workers were started
+            if (failure.cause == null) {
+                throw e;
+            }
+        }
+        executor.shutdown();
+        ScheduledExecutorService progressLogger = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory(this.name + "-progress"));
+        progressLogger.scheduleAtFixedRate(() -> {
+            for (PipelineStageStatistics stageStatistics : statistics) {
+                logger.info("{} progress: {}", this.name, stageStatistics);
+            }
+        }, PROGRESS_LOG_PERIOD_SECONDS, PROGRESS_LOG_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            progressLogger.shutdownNow();
+        }
+        for (PipelineStageStatistics stageStatistics : statistics) {
+            logger.info("{} finished: {}", this.name, stageStatistics);
+        }
+        if (failure.cause != null) {
+            throw new ExecutionException("Pipeline " + this.name + " failed in " + failure.stageName,
+                    failure.cause);
+        }
+        return statistics;
+    }
+
+    private static long countItems(Object batch) {
+        if (batch == null) {
+            return 0;
+        }
+        return batch instanceof Collection ? ((Collection) batch).size() : 1;
+    }
+
+    /**
+     * The first failure of a run, it stops all the workers interrupting them
+     */
+    private static class Failure {
+
+        private final ExecutorService executor;
+        private volatile Throwable cause = null;
+        private volatile String stageName = null;
+
+        private Failure(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        private void record(String stageName, Throwable cause) {
+            synchronized (this) {
+                if (this.cause != null) {
+                    logger.debug("Stage {} also failed after the pipeline was stopped", stageName, cause);
+                    return;
+                }
+                this.cause = cause;
+                this.stageName = stageName;
+            }
+            logger.error("Stage " + stageName + " failed, stopping the pipeline", cause);
+            this.executor.shutdownNow();
+        }
+    }
+
+    private static class Stage {
+        private final String name;
+        private final int parallelism;
+        private final Task task;
+
+        private Stage(String name, int parallelism, Task task) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.task = task;
+        }
+    }
+
+    private static class SourceWorker implements Runnable {
+
+        private final Callable<? extends Collection<?>> source;
+        private final BlockingQueue<Object> output;
+        private final PipelineStageStatistics statistics;
+        private final Failure failure;
+
+        private SourceWorker(Callable<? extends Collection<?>> source, BlockingQueue<Object> output,
+                             PipelineStageStatistics statistics, Failure failure) {
+            this.source = source;
+            this.output = output;
+            this.statistics = statistics;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            this.statistics.start();
+            try {
+                while (true) {
+                    long start = System.nanoTime();
+                    Collection<?> batch = this.source.call();
+                    if (batch == null || batch.isEmpty()) {
+                        break;
+                    }
+                    this.statistics.addBatch(batch.size(), batch.size(), System.nanoTime() - start);
+                    this.output.put(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                this.statistics.addFailedBatch(0, 0);
+                this.failure.record(this.statistics.getName(), e);
+            } finally {
+                this.statistics.end();
+                this.putPoisonPill();
+            }
+        }
+
+        private void putPoisonPill() {
+            try {
+                this.output.put(POISON_PILL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class StageWorker implements Runnable {
+
+        private final Stage stage;
+        private final BlockingQueue<Object> input;
+        private final BlockingQueue<Object> output;
+        private final AtomicInteger runningWorkers;
+        private final PipelineStageStatistics statistics;
+        private final Failure failure;
+
+        private StageWorker(Stage stage, BlockingQueue<Object> input, BlockingQueue<Object> output,
+                            AtomicInteger runningWorkers, PipelineStageStatistics statistics, Failure failure) {
+            this.stage = stage;
+            this.input = input;
+            this.output = output;
+            this.runningWorkers = runningWorkers;
+            this.statistics = statistics;
+            this.failure = failure;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (true) {
+                    Object batch = this.input.take();
+                    if (batch == POISON_PILL) {
+                        // puts it back so the sibling workers of this stage also finish
+                        this.input.put(POISON_PILL);
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    Object result;
+                    try {
+                        result = this.stage.task.apply(batch);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        this.statistics.addFailedBatch(countItems(batch), System.nanoTime() - start);
+                        this.failure.record(this.stage.name, e);
+                        break;
+                    }
+                    this.statistics.addBatch(countItems(batch), countItems(result), System.nanoTime() - start);
+                    if (this.output != null && result != null) {
+                        this.output.put(result);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (this.runningWorkers.decrementAndGet() == 0) {
+                    this.statistics.end();
+                    if (this.output != null) {
+                        try {
+                            this.output.put(POISON_PILL);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.prefix + "-" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
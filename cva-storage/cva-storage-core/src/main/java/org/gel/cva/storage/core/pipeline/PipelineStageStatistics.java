@@ -0,0 +1,116 @@
+package org.gel.cva.storage.core.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for a single stage of a ParallelPipeline. All counters are thread safe as they are updated
+ * concurrently by every worker of the stage.
+ */
+public class PipelineStageStatistics {
+
+    private final String name;
+    private final int parallelism;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong inputItems = new AtomicLong();
+    private final AtomicLong outputItems = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    public PipelineStageStatistics(String name, int parallelism) {
+        this.name = name;
+        this.parallelism = parallelism;
+    }
+
+    void start() {
+        this.startNanos = System.nanoTime();
+    }
+
+    void end() {
+        this.endNanos = System.nanoTime();
+    }
+
+    void addBatch(long inputItems, long outputItems, long busyNanos) {
+        this.batches.incrementAndGet();
+        this.inputItems.addAndGet(inputItems);
+        this.outputItems.addAndGet(outputItems);
+        this.busyNanos.addAndGet(busyNanos);
+    }
+
+    void addFailedBatch(long inputItems, long busyNanos) {
+        this.failedBatches.incrementAndGet();
+        this.inputItems.addAndGet(inputItems);
+        this.busyNanos.addAndGet(busyNanos);
+    }
+
+    /**
+     * The wall clock time since the stage started, until it finished if it already did
+     * @return  elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    /**
+     * The number of items processed by second of wall clock time
+     * @return  items per second
+     */
+    public double getThroughput() {
+        long elapsedMillis = this.getElapsedMillis();
+        return elapsedMillis > 0 ? inputItems.get() * 1000.0 / elapsedMillis : 0;
+    }
+
+    /**
+     * The fraction of the time the workers of this stage were busy, a value close to 1 indicates that this stage is
+     * the bottleneck of the pipeline
+     * @return  utilization in the range [0, 1]
+     */
+    public double getUtilization() {
+        long elapsedMillis = this.getElapsedMillis();
+        return elapsedMillis > 0
+                ? TimeUnit.NANOSECONDS.toMillis(busyNanos.get()) / (double) (elapsedMillis * parallelism)
+                : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{parallelism=%d, batches=%d, failedBatches=%d, inputItems=%d, outputItems=%d, " +
+                        "elapsed=%dms, throughput=%.1f items/s, utilization=%.2f}",
+                name, parallelism, batches.get(), failedBatches.get(), inputItems.get(), outputItems.get(),
+                this.getElapsedMillis(), this.getThroughput(), this.getUtilization());
+    }
+
+    /////////////////////////////////////////////////////////////
+    //  Getters                                               ///
+    /////////////////////////////////////////////////////////////
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getInputItems() {
+        return inputItems.get();
+    }
+
+    public long getOutputItems() {
+        return outputItems.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+}
@@ -1,5 +1,7 @@
 package org.gel.cva.storage.core.config;
 
+import com.mongodb.MongoClient;
+import com.mongodb.ReadPreference;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaCredentialsException;
 import org.junit.Before;
@@ -7,9 +9,13 @@ import org.junit.Test;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 
 import java.io.InputStream;
+import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -65,6 +71,17 @@ public class CvaConfigurationTest {
         assertNotNull(mongoCredentials);
     }
 
+    @Test
+    public void testMongoCredentialsDefaultPort()
+            throws IllegalCvaCredentialsException, IllegalCvaConfigurationException {
+        InputStream configStream = CvaConfigurationTest.class.getResourceAsStream("/config/cva.ok.yml");
+        CvaConfiguration.load(configStream, "yaml");
+        CvaConfiguration.getDefaultStorageEngine().getDatabase().setHosts(Collections.singletonList("localhost"));
+        MongoCredentials mongoCredentials = CvaConfiguration.getMongoCredentials();
+        assertEquals("localhost", mongoCredentials.getDataStoreServerAddresses().get(0).getHost());
+        assertEquals(27017, mongoCredentials.getDataStoreServerAddresses().get(0).getPort());
+    }
+
     @Test(expected = com.mongodb.MongoSecurityException.class)
     public void testWrongMongoCredentials() throws IllegalCvaCredentialsException, IllegalCvaConfigurationException {
         InputStream configStream = CvaConfigurationTest.class.getResourceAsStream("/config/cva.wrongmongocredentials.yml");
@@ -89,4 +106,17 @@ public class CvaConfigurationTest {
         InputStream configStream = CvaConfigurationTest.class.getResourceAsStream("/config/cva.wronghost.yml");
         CvaConfiguration cvaConfiguration = CvaConfiguration.load(configStream, "yaml");
     }
+
+    @Test
+    public void testSharedMongoClient() throws IllegalCvaCredentialsException, IllegalCvaConfigurationException {
+        InputStream configStream = CvaConfigurationTest.class.getResourceAsStream("/config/cva.ok.yml");
+        CvaConfiguration.load(configStream, "yaml");
+        MongoClient mongoClient = CvaConfiguration.getMongoClient();
+        assertSame(mongoClient, CvaConfiguration.getMongoClient());
+        assertEquals(20, mongoClient.getMongoClientOptions().getConnectionsPerHost());
+        assertEquals(ReadPreference.secondaryPreferred(), mongoClient.getMongoClientOptions().getReadPreference());
+        CvaConfiguration.closeMongoClient();
+        assertNotSame(mongoClient, CvaConfiguration.getMongoClient());
+        CvaConfiguration.closeMongoClient();
+    }
 }
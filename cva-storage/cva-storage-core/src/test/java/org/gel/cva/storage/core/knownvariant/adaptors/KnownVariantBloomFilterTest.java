@@ -0,0 +1,144 @@
+package org.gel.cva.storage.core.knownvariant.adaptors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the building, updating and snapshotting of the membership filter against an in memory set of ids.
+ */
+public class KnownVariantBloomFilterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Serves the ids from a set, counting the scans
+     */
+    private static class FakeIdSource implements KnownVariantBloomFilter.IdSource {
+
+        private final Set<String> ids = new LinkedHashSet<>();
+        private final AtomicInteger scans = new AtomicInteger();
+
+        @Override
+        public long count() {
+            return ids.size();
+        }
+
+        @Override
+        public void scan(Consumer<String> consumer) {
+            scans.incrementAndGet();
+            ids.forEach(consumer);
+        }
+    }
+
+    private static FakeIdSource createIdSource(int count) {
+        FakeIdSource idSource = new FakeIdSource();
+        for (int i = 0; i < count; i++) {
+            idSource.ids.add("1_" + (1000 + i) + "_A_T");
+        }
+        return idSource;
+    }
+
+    @Test
+    public void testMembership() {
+        FakeIdSource idSource = createIdSource(1000);
+        KnownVariantBloomFilter bloomFilter = new KnownVariantBloomFilter(idSource, 0.01, null, 0);
+        // answers positively until started
+        assertTrue(bloomFilter.mightContain("2_1000_A_T"));
+        bloomFilter.start();
+        for (String id : idSource.ids) {
+            assertTrue(bloomFilter.mightContain(id));
+        }
+        int positives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (bloomFilter.mightContain("2_" + i + "_A_T")) {
+                positives++;
+            }
+        }
+        assertTrue(positives < 300);
+        // inserted ids are added
+        bloomFilter.put("3_1000_C_G");
+        assertTrue(bloomFilter.mightContain("3_1000_C_G"));
+        assertEquals(1001, bloomFilter.getElements());
+        assertTrue(bloomFilter.getExpectedFpp() < 0.01);
+        bloomFilter.reportFalsePositive();
+        assertTrue(bloomFilter.getObservedFpp() > 0);
+        bloomFilter.close();
+    }
+
+    @Test
+    public void testRebuildWithConcurrentInsertions() throws Exception {
+        String snapshot = temporaryFolder.getRoot().toPath().resolve("bloom.filter").toString();
+        FakeIdSource idSource = createIdSource(100);
+        List<String> insertedWhileScanning = new ArrayList<>();
+        AtomicReference<KnownVariantBloomFilter> bloomFilter = new AtomicReference<>();
+        KnownVariantBloomFilter.IdSource insertingIdSource = new KnownVariantBloomFilter.IdSource() {
+            @Override
+            public long count() {
+                return idSource.count();
+            }
+
+            @Override
+            public void scan(Consumer<String> consumer) {
+                // inserted after the scan started but before it reads them
+                for (String id : insertedWhileScanning) {
+                    idSource.ids.add(id);
+                    bloomFilter.get().put(id);
+                }
+                insertedWhileScanning.clear();
+                idSource.scan(consumer);
+            }
+        };
+        bloomFilter.set(new KnownVariantBloomFilter(insertingIdSource, 0.01, snapshot, 0));
+        bloomFilter.get().start();
+        assertEquals(100, bloomFilter.get().getElements());
+        insertedWhileScanning.add("3_1000_C_G");
+        bloomFilter.get().rebuild();
+        // the ids read by the scan and inserted meanwhile are counted once
+        assertTrue(bloomFilter.get().mightContain("3_1000_C_G"));
+        assertEquals(idSource.count(), bloomFilter.get().getElements());
+        bloomFilter.get().close();
+        // so the snapshot is still valid on restart
+        int scans = idSource.scans.get();
+        KnownVariantBloomFilter restartedFilter = new KnownVariantBloomFilter(idSource, 0.01, snapshot, 0);
+        restartedFilter.start();
+        assertEquals(scans, idSource.scans.get());
+        restartedFilter.close();
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        String snapshot = temporaryFolder.getRoot().toPath().resolve("bloom.filter").toString();
+        FakeIdSource idSource = createIdSource(100);
+        KnownVariantBloomFilter bloomFilter = new KnownVariantBloomFilter(idSource, 0.01, snapshot, 0);
+        bloomFilter.start();
+        assertEquals(1, idSource.scans.get());
+        idSource.ids.add("3_1000_C_G");
+        bloomFilter.put("3_1000_C_G");
+        bloomFilter.close();
+        // an up to date snapshot is loaded without scanning
+        bloomFilter = new KnownVariantBloomFilter(idSource, 0.01, snapshot, 0);
+        bloomFilter.start();
+        assertEquals(1, idSource.scans.get());
+        assertTrue(bloomFilter.mightContain("3_1000_C_G"));
+        bloomFilter.close();
+        // a stale snapshot is rebuilt
+        idSource.ids.add("4_1000_C_G");
+        bloomFilter = new KnownVariantBloomFilter(idSource, 0.01, snapshot, 0);
+        bloomFilter.start();
+        assertEquals(2, idSource.scans.get());
+        assertTrue(bloomFilter.mightContain("4_1000_C_G"));
+        bloomFilter.close();
+    }
+}
@@ -0,0 +1,173 @@
+package org.gel.cva.storage.core.knownvariant.annotation;
+
+import org.gel.cva.storage.core.config.AnnotationConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the batching, caching, retrying and timeouts of the annotation service against a fake CellBase.
+ */
+public class KnownVariantAnnotationServiceTest {
+
+    private FakeAnnotationService annotationService;
+
+    /**
+     * Annotates every variant unless told to fail, counting the calls
+     */
+    private static class FakeAnnotationService extends KnownVariantAnnotationService {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private volatile boolean fail = false;
+        private volatile Error error = null;
+        private volatile CountDownLatch blocked = null;
+
+        private FakeAnnotationService(AnnotationConfiguration annotationConfiguration) {
+            super(annotationConfiguration);
+        }
+
+        @Override
+        protected List<VariantAnnotation> annotateBatch(List<Variant> variants) throws VariantAnnotatorException {
+            calls.incrementAndGet();
+            batchSizes.add(variants.size());
+            if (error != null) {
+                throw error;
+            }
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fail) {
+                throw new VariantAnnotatorException("CellBase is down");
+            }
+            List<VariantAnnotation> variantAnnotations = new LinkedList<>();
+            for (Variant variant : variants) {
+                VariantAnnotation variantAnnotation = new VariantAnnotation();
+                variantAnnotation.setChromosome(variant.getChromosome());
+                variantAnnotation.setStart(variant.getStart());
+                variantAnnotation.setReference(variant.getReference());
+                variantAnnotation.setAlternate(variant.getAlternate());
+                variantAnnotations.add(variantAnnotation);
+            }
+            return variantAnnotations;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        AnnotationConfiguration annotationConfiguration = new AnnotationConfiguration();
+        annotationConfiguration.setBatchSize(100);
+        annotationConfiguration.setMaxWaitMillis(500);
+        annotationConfiguration.setTimeoutMillis(2000);
+        this.annotationService = new FakeAnnotationService(annotationConfiguration);
+    }
+
+    @After
+    public void tearDown() {
+        this.annotationService.close();
+    }
+
+    private static List<Variant> createVariants(int count) {
+        List<Variant> variants = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            variants.add(new Variant("1", 1000 + i, "A", "T"));
+        }
+        return variants;
+    }
+
+    @Test
+    public void testAnnotateInBatches() throws VariantAnnotatorException {
+        List<Variant> variants = createVariants(250);
+        List<VariantAnnotation> variantAnnotations = this.annotationService.annotate(variants);
+        assertEquals(variants.size(), variantAnnotations.size());
+        for (int i = 0; i < variants.size(); i++) {
+            assertEquals(variants.get(i).getStart(), variantAnnotations.get(i).getStart());
+        }
+        assertEquals(3, this.annotationService.calls.get());
+        for (Integer batchSize : this.annotationService.batchSizes) {
+            assertTrue(batchSize <= 100);
+        }
+        // a second request is served from the cache
+        this.annotationService.annotate(variants);
+        assertEquals(3, this.annotationService.calls.get());
+        assertEquals(variants.size(), this.annotationService.getCacheSize());
+        assertEquals(variants.size(), this.annotationService.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void testCoalesceConcurrentRequests() throws Exception {
+        int threads = 20;
+        List<Variant> variants = createVariants(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<VariantAnnotation>> futures = new LinkedList<>();
+        for (Variant variant : variants) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return this.annotationService.annotate(variant);
+            }));
+        }
+        start.countDown();
+        for (Future<VariantAnnotation> future : futures) {
+            assertNotNull(future.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertTrue(this.annotationService.calls.get() < threads);
+    }
+
+    @Test
+    public void testFailedAnnotationsAreRetried() throws VariantAnnotatorException {
+        List<Variant> variants = createVariants(10);
+        this.annotationService.fail = true;
+        List<VariantAnnotation> variantAnnotations = this.annotationService.annotate(variants);
+        for (VariantAnnotation variantAnnotation : variantAnnotations) {
+            assertNull(variantAnnotation);
+        }
+        assertEquals(variants.size(), this.annotationService.getFailedVariants().size());
+        this.annotationService.fail = false;
+        assertEquals(variants.size(), this.annotationService.retryFailedAnnotations());
+        assertTrue(this.annotationService.getFailedVariants().isEmpty());
+        assertEquals(variants.size(), this.annotationService.getCacheSize());
+    }
+
+    @Test
+    public void testTimeout() throws VariantAnnotatorException {
+        List<Variant> variants = createVariants(10);
+        this.annotationService.blocked = new CountDownLatch(1);
+        long start = System.nanoTime();
+        for (VariantAnnotation variantAnnotation : this.annotationService.annotate(variants)) {
+            assertNull(variantAnnotation);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10000);
+        this.annotationService.blocked.countDown();
+    }
+
+    @Test
+    public void testDispatcherRestartedAfterDying() throws VariantAnnotatorException {
+        this.annotationService.error = new AssertionError("dispatcher killed");
+        for (VariantAnnotation variantAnnotation : this.annotationService.annotate(createVariants(10))) {
+            assertNull(variantAnnotation);
+        }
+        this.annotationService.error = null;
+        List<Variant> variants = createVariants(20);
+        for (VariantAnnotation variantAnnotation : this.annotationService.annotate(variants.subList(10, 20))) {
+            assertNotNull(variantAnnotation);
+        }
+    }
+}
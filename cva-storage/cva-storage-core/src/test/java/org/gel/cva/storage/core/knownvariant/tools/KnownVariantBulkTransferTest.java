@@ -0,0 +1,235 @@
+package org.gel.cva.storage.core.knownvariant.tools;
+
+import org.gel.cva.storage.core.config.BulkTransferConfiguration;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.CurationClassification;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the export and import of known variants against an adaptor holding them in a map, the adaptors of the
+ * storage modules are tested on their own.
+ */
+public class KnownVariantBulkTransferTest {
+
+    /**
+     * Holds the known variants by normalized variant, only the operations used by the bulk transfer are supported.
+     * Region queries on a single region are supported to test the export of a subset.
+     */
+    private static class KnownVariantMapAdaptor implements KnownVariantDBAdaptor {
+
+        private final Map<String, KnownVariantWrapper> knownVariants = new LinkedHashMap<>();
+
+        private static String getKey(Variant variant) {
+            return variant.getChromosome() + ":" + variant.getStart() + ":" + variant.getReference() + ":" +
+                    variant.getAlternate();
+        }
+
+        @Override
+        public synchronized String insert(KnownVariantWrapper knownVariant, QueryOptions options) {
+            String key = getKey(knownVariant.getVariant());
+            this.knownVariants.putIfAbsent(key, knownVariant);
+            return key;
+        }
+
+        @Override
+        public synchronized List<KnownVariantInsertResult> insert(List<KnownVariantWrapper> knownVariants,
+                                                                  QueryOptions options) {
+            List<KnownVariantInsertResult> results = new ArrayList<>(knownVariants.size());
+            for (KnownVariantWrapper knownVariantWrapper : knownVariants) {
+                String key = getKey(knownVariantWrapper.getVariant());
+                results.add(this.knownVariants.putIfAbsent(key, knownVariantWrapper) == null ?
+                        KnownVariantInsertResult.inserted(key) : KnownVariantInsertResult.duplicated(key));
+            }
+            return results;
+        }
+
+        @Override
+        public synchronized KnownVariantWrapper find(String chromosome, Integer position, String reference,
+                                                     String alternate, QueryOptions options) throws CvaException {
+            try {
+                return this.knownVariants.get(getKey(new KnownVariantWrapper("submitter", chromosome, position,
+                        reference, alternate, false).getVariant()));
+            }
+            catch (Exception e) {
+                throw new CvaException(e.getMessage());
+            }
+        }
+
+        @Override
+        public List<KnownVariantWrapper> findAll(List<Variant> variants, QueryOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Long> findVersions(List<Variant> variants, QueryOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Boolean update(KnownVariantWrapper knownVariantWrapper) {
+            return this.knownVariants.replace(getKey(knownVariantWrapper.getVariant()), knownVariantWrapper) != null;
+        }
+
+        @Override
+        public KnownVariantWrapper addCuration(KnownVariantWrapper knownVariantWrapper,
+                                               CurationHistoryEntry curationHistoryEntry,
+                                               Boolean updateConsistencyStatus) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public KnownVariantWrapper addEvidence(KnownVariantWrapper knownVariantWrapper, EvidenceEntry evidenceEntry) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized KnownVariantDBIterator iterator(Query query, QueryOptions options) {
+            List<KnownVariantWrapper> found = new ArrayList<>();
+            String region = query != null ? query.getString(KnownVariantQueryParams.REGION.key()) : null;
+            for (KnownVariantWrapper knownVariantWrapper : this.knownVariants.values()) {
+                if (region == null || isInRegion(knownVariantWrapper.getVariant(), region)) {
+                    found.add(knownVariantWrapper);
+                }
+            }
+            Iterator<KnownVariantWrapper> iterator = found.iterator();
+            return new KnownVariantDBIterator() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public KnownVariantWrapper next() {
+                    this.count++;
+                    return iterator.next();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        private static boolean isInRegion(Variant variant, String region) {
+            String[] fields = region.replaceFirst("^chr", "").split("[:-]");
+            return variant.getChromosome().equals(fields[0]) &&
+                    variant.getStart() >= Integer.parseInt(fields[1]) &&
+                    variant.getStart() <= Integer.parseInt(fields[2]);
+        }
+
+        public synchronized long count() {
+            return this.knownVariants.size();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private CvaConfiguration cvaConfiguration;
+    private KnownVariantMapAdaptor knownVariantMapAdaptor;
+    String chromosome = "chr19";
+    Integer position = 44908684;
+    String reference = "T";
+    String alternate = "C";
+
+    @Before
+    public void setUp() throws Exception {
+        BulkTransferConfiguration bulkTransferConfiguration = new BulkTransferConfiguration();
+        bulkTransferConfiguration.setBatchSize(2);
+        bulkTransferConfiguration.setWriterThreads(2);
+        this.cvaConfiguration = new CvaConfiguration();
+        this.cvaConfiguration.setBulkTransfer(bulkTransferConfiguration);
+        this.knownVariantMapAdaptor = new KnownVariantMapAdaptor();
+        for (int i = 0; i < 5; i++) {
+            this.knownVariantMapAdaptor.insert(new KnownVariantWrapper("submitter", this.chromosome,
+                    this.position + i * 100, this.reference, this.alternate, false), null);
+        }
+        this.knownVariantMapAdaptor.insert(new KnownVariantWrapper("submitter", "chr1", this.position,
+                this.reference, this.alternate, false), null);
+        KnownVariantWrapper knownVariantWrapper = this.knownVariantMapAdaptor.find(this.chromosome,
+                this.position + 100, this.reference, this.alternate);
+        knownVariantWrapper.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null, null, null, null);
+        this.knownVariantMapAdaptor.update(knownVariantWrapper);
+    }
+
+    private void testRoundTrip(KnownVariantBulkTransfer.Format format) throws Exception {
+        Path output = this.temporaryFolder.getRoot().toPath().resolve("known_variants" + format.getExtension());
+        assertEquals(format, KnownVariantBulkTransfer.Format.fromPath(output));
+        KnownVariantBulkTransfer exporter =
+                new KnownVariantBulkTransfer(this.cvaConfiguration, this.knownVariantMapAdaptor);
+        assertEquals(6, exporter.export(output, format, null, null));
+        KnownVariantMapAdaptor imported = new KnownVariantMapAdaptor();
+        KnownVariantBulkTransfer importer = new KnownVariantBulkTransfer(this.cvaConfiguration, imported);
+        importer.importFrom(output, format);
+        assertEquals(6, importer.getReadVariants());
+        assertEquals(6, importer.getInsertedVariants());
+        assertEquals(6, imported.count());
+        KnownVariantWrapper knownVariantWrapper = imported.find(this.chromosome, this.position + 100,
+                this.reference, this.alternate);
+        assertEquals(1, knownVariantWrapper.getImpl().getCurations().size());
+        assertEquals(CurationClassification.pathogenic_variant,
+                knownVariantWrapper.getImpl().getCurations().get(0).getCuration().getCurationClassification());
+        // importing again does not modify the known variants
+        importer.importFrom(output, format);
+        assertEquals(6, importer.getDuplicatedVariants());
+        assertEquals(6, imported.count());
+    }
+
+    @Test
+    public void testAvroRoundTrip() throws Exception {
+        testRoundTrip(KnownVariantBulkTransfer.Format.AVRO);
+    }
+
+    @Test
+    public void testParquetRoundTrip() throws Exception {
+        testRoundTrip(KnownVariantBulkTransfer.Format.PARQUET);
+    }
+
+    @Test
+    public void testExportSubset() throws Exception {
+        Path output = this.temporaryFolder.getRoot().toPath().resolve("known_variants.avro");
+        KnownVariantBulkTransfer exporter =
+                new KnownVariantBulkTransfer(this.cvaConfiguration, this.knownVariantMapAdaptor);
+        Query query = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosome + ":" + this.position + "-" + (this.position + 200));
+        assertEquals(3, exporter.export(output, KnownVariantBulkTransfer.Format.AVRO, query, null));
+        assertEquals(1, exporter.export(output, KnownVariantBulkTransfer.Format.AVRO, query,
+                Collections.singletonList(CurationClassification.pathogenic_variant)));
+        assertEquals(0, exporter.export(output, KnownVariantBulkTransfer.Format.AVRO, null,
+                Collections.singletonList(CurationClassification.benign_variant)));
+        KnownVariantMapAdaptor imported = new KnownVariantMapAdaptor();
+        new KnownVariantBulkTransfer(this.cvaConfiguration, imported)
+                .importFrom(output, KnownVariantBulkTransfer.Format.AVRO);
+        assertEquals(0, imported.count());
+    }
+}
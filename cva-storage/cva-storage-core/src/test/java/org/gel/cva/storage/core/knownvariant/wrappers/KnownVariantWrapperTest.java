@@ -24,6 +24,9 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 
 import java.util.*;
@@ -1232,4 +1235,44 @@ public class KnownVariantWrapperTest {
         assertEquals("C", knownVariantWrapper.getVariant().getAlternate());
         assertEquals("19", knownVariantWrapper.getVariant().getChromosome());
     }
+
+    /**
+     * Test for the hydration constructor, the stored variant and annotation are reused as they are
+     */
+    @Test
+    public void testKnownVariantWrapperFromAvro() throws IllegalCvaArgumentException {
+
+        String transcript = "ENST00000252486";
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setEnsemblTranscriptId(transcript);
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        variantAnnotation.setConsequenceTypes(Collections.singletonList(consequenceType));
+        Variant variant = new Variant("19", 44908684, "T", "C");
+        variant.setAnnotation(variantAnnotation);
+        KnownVariant knownVariant = new KnownVariant(
+                "theSubmitter",
+                variant.getImpl(),
+                new LinkedList<>(),
+                new LinkedList<>(),
+                new LinkedList<>()
+        );
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper(knownVariant);
+        assertSame(knownVariant, knownVariantWrapper.getImpl());
+        assertEquals("19", knownVariantWrapper.getVariant().getChromosome());
+        assertEquals(new Integer(44908684), knownVariantWrapper.getVariant().getStart());
+        assertSame(variantAnnotation, knownVariantWrapper.getVariant().getAnnotation());
+        // the transcript in the stored annotation can be curated
+        knownVariantWrapper.addCuration(
+                "theCurator",
+                "HPO:000001",
+                ReportedModeOfInheritance.monoallelic,
+                transcript,
+                CurationClassification.pathogenic_variant,
+                ManualCurationConfidence.high_confidence,
+                ConsistencyStatus.consensus,
+                0.99f,
+                true
+        );
+        assertEquals(1, knownVariantWrapper.getImpl().getCurations().size());
+    }
 }
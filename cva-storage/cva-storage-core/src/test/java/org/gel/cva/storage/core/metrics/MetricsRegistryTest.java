@@ -0,0 +1,88 @@
+package org.gel.cva.storage.core.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    private MetricsRegistry metricsRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.metricsRegistry = new MetricsRegistry();
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = this.metricsRegistry.histogram("cva_test_seconds", "Test", "operation", "find");
+        assertSame(histogram, this.metricsRegistry.histogram("cva_test_seconds", "Test", "operation", "find"));
+        assertNotSame(histogram, this.metricsRegistry.histogram("cva_test_seconds", "Test", "operation", "get"));
+        assertEquals(0, histogram.getQuantile(0.5));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(1));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+        histogram.record(TimeUnit.SECONDS.toNanos(1000));
+        assertEquals(4, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1), histogram.getQuantile(0.25));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(5), histogram.getQuantile(0.5));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(2500), histogram.getQuantile(0.75));
+        assertEquals(Long.MAX_VALUE, histogram.getQuantile(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpairedLabels() {
+        this.metricsRegistry.histogram("cva_test_seconds", "Test", "operation");
+    }
+
+    @Test
+    public void testWritePrometheus() throws Exception {
+        LatencyHistogram histogram = this.metricsRegistry.histogram("cva_test_seconds", "Test latencies",
+                "operation", "fi\"nd");
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(2));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+        StringWriter writer = new StringWriter();
+        this.metricsRegistry.writePrometheus(writer);
+        String output = writer.toString();
+        assertTrue(output.startsWith("# HELP cva_test_seconds Test latencies\n# TYPE cva_test_seconds histogram\n"));
+        assertTrue(output.contains("cva_test_seconds_bucket{operation=\"fi\\\"nd\",le=\"1.0E-6\"} 0\n"));
+        assertTrue(output.contains("cva_test_seconds_bucket{operation=\"fi\\\"nd\",le=\"2.5E-6\"} 1\n"));
+        assertTrue(output.contains("cva_test_seconds_bucket{operation=\"fi\\\"nd\",le=\"0.5\"} 2\n"));
+        assertTrue(output.contains("cva_test_seconds_bucket{operation=\"fi\\\"nd\",le=\"+Inf\"} 2\n"));
+        assertTrue(output.contains("cva_test_seconds_sum{operation=\"fi\\\"nd\"} 0.500002\n"));
+        assertTrue(output.contains("cva_test_seconds_count{operation=\"fi\\\"nd\"} 2\n"));
+    }
+
+    @Test
+    public void testGauge() throws Exception {
+        this.metricsRegistry.gauge("cva_test_fpp", "Test gauge", () -> 0.25, "collection", "known_variants");
+        this.metricsRegistry.gauge("cva_test_nan", "Test gauge", () -> Double.NaN);
+        StringWriter writer = new StringWriter();
+        this.metricsRegistry.writePrometheus(writer);
+        String output = writer.toString();
+        assertTrue(output.contains("# TYPE cva_test_fpp gauge\ncva_test_fpp{collection=\"known_variants\"} 0.25\n"));
+        assertTrue(output.contains("cva_test_nan NaN\n"));
+    }
+
+    @Test
+    public void testRemoveGauge() throws Exception {
+        DoubleSupplier first = () -> 1;
+        DoubleSupplier second = () -> 2;
+        assertNull(this.metricsRegistry.gauge("cva_test_gauge", "Test gauge", first, "collection", "kv"));
+        assertSame(first, this.metricsRegistry.gauge("cva_test_gauge", "Test gauge", second, "collection", "kv"));
+        // the replaced gauge does not remove the one replacing it
+        assertFalse(this.metricsRegistry.removeGauge("cva_test_gauge", first, "collection", "kv"));
+        StringWriter writer = new StringWriter();
+        this.metricsRegistry.writePrometheus(writer);
+        assertTrue(writer.toString().contains("cva_test_gauge{collection=\"kv\"} 2.0\n"));
+        assertTrue(this.metricsRegistry.removeGauge("cva_test_gauge", second, "collection", "kv"));
+        writer = new StringWriter();
+        this.metricsRegistry.writePrometheus(writer);
+        assertFalse(writer.toString().contains("cva_test_gauge{"));
+    }
+}
@@ -0,0 +1,88 @@
+package org.gel.cva.storage.core.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ParallelPipelineTest {
+
+    private static List<Integer> readBatch(AtomicInteger remaining) {
+        if (remaining.getAndDecrement() <= 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(i);
+        }
+        return batch;
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        AtomicInteger remaining = new AtomicInteger(100);
+        AtomicLong written = new AtomicLong();
+        List<PipelineStageStatistics> statistics = new ParallelPipeline("test", 2)
+                .addStage("doubler", 4, (List<Integer> batch) -> {
+                    List<Integer> doubled = new ArrayList<>(batch);
+                    doubled.addAll(batch);
+                    return doubled;
+                })
+                .addStage("writer", 1, (List<Integer> batch) -> written.addAndGet(batch.size()))
+                .run("reader", () -> readBatch(remaining));
+        assertEquals(2000, written.get());
+        assertEquals(3, statistics.size());
+        assertEquals(100, statistics.get(0).getBatches());
+        assertEquals(2000, statistics.get(1).getOutputItems());
+    }
+
+    @Test
+    public void testStageFailure() throws Exception {
+        AtomicInteger remaining = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicInteger processed = new AtomicInteger();
+        ParallelPipeline pipeline = new ParallelPipeline("test", 2)
+                .addStage("failing", 2, (List<Integer> batch) -> {
+                    if (processed.incrementAndGet() == 10) {
+                        throw new IOException("broken batch");
+                    }
+                    return batch;
+                })
+                .addStage("writer", 1, (List<Integer> batch) -> batch);
+        try {
+            // the source never ends, so the run only returns if the failure stops it
+            pipeline.run("reader", () -> readBatch(remaining));
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("broken batch", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testSourceFailure() throws Exception {
+        AtomicInteger remaining = new AtomicInteger(5);
+        AtomicLong written = new AtomicLong();
+        ParallelPipeline pipeline = new ParallelPipeline("test", 2)
+                .addStage("writer", 1, (List<Integer> batch) -> written.addAndGet(batch.size()));
+        try {
+            pipeline.run("reader", () -> {
+                if (remaining.get() == 0) {
+                    throw new IOException("truncated input");
+                }
+                return readBatch(remaining);
+            });
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertEquals("truncated input", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,765 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.util.ByteBufferInputStream;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Read only KnownVariantDBAdaptor over a snapshot file written by KnownVariantMappedWriter, intended to ship a
+ * static version of the known variants to workers annotating offline. The snapshot is memory mapped: opening it
+ * only reads the block index, lookups binary search the index and compare the coordinates of the known variants
+ * in place, and only the known variants returned are decoded.
+ *
+ * The snapshot holds the known variants sorted by chromosome, position, reference and alternate, in blocks of up
+ * to a fixed number of known variants that never span two chromosomes. Every known variant is stored as its
+ * length, position, end, reference, alternate and version, followed by the Avro encoding of the known variant.
+ * The data is followed by the block index, holding the first position and offset of every block, and by the
+ * assembly and the chromosome table, holding the name and the blocks of every chromosome.
+ *
+ * Snapshots for different assemblies live side by side in the same directory, named after the assembly, see
+ * getSnapshotPath. The options of the default storage engine are mapped.directory, the directory of the snapshots,
+ * and the assembly is taken from the organism configuration.
+ */
+public class KnownVariantMappedAdaptor implements KnownVariantDBAdaptor {
+
+    static final int MAGIC = 0x43564153;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int INDEX_ENTRY_SIZE = Integer.BYTES + Long.BYTES;
+    static final int DEFAULT_BLOCK_SIZE = 64;
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantMappedAdaptor.class);
+
+    private final Path snapshot;
+    private final FileChannel channel;
+    private final String assembly;
+    private final long created;
+    private final long count;
+    private final int maxSpan;
+    // first position and offset of every block
+    private final int[] blockPositions;
+    private final long[] blockOffsets;
+    private final long dataEnd;
+    // blocks of every chromosome in the order of the file
+    private final Map<String, Chromosome> chromosomes = new LinkedHashMap<>();
+    // the data is mapped in segments of whole blocks, as a single mapping is limited to 2GB
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<Long> segmentOffsets = new ArrayList<>();
+    private final int[] blockSegments;
+    private final SpecificDatumReader<KnownVariant> datumReader = new SpecificDatumReader<>(KnownVariant.class);
+
+    /**
+     * The blocks of a chromosome
+     */
+    private static final class Chromosome {
+
+        private final String name;
+        private final int firstBlock;
+        private final int lastBlock;
+
+        private Chromosome(String name, int firstBlock, int blocks) {
+            this.name = name;
+            this.firstBlock = firstBlock;
+            this.lastBlock = firstBlock + blocks;
+        }
+    }
+
+    /**
+     * The location of a known variant in the snapshot, its coordinates are read when located
+     */
+    private static final class RecordLocation implements Comparable<RecordLocation> {
+
+        private final String chromosome;
+        private final int segment;
+        private final int offset;
+        private final long fileOffset;
+        private final int position;
+        private final int end;
+
+        private RecordLocation(String chromosome, int segment, int offset, long fileOffset, int position, int end) {
+            this.chromosome = chromosome;
+            this.segment = segment;
+            this.offset = offset;
+            this.fileOffset = fileOffset;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(RecordLocation other) {
+            return Long.compare(this.fileOffset, other.fileOffset);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RecordLocation && ((RecordLocation) o).fileOffset == this.fileOffset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.fileOffset);
+        }
+    }
+
+    /**
+     * Constructor using the configuration object, opens the snapshot for the configured assembly
+     * @param cvaConfiguration
+     * @throws IllegalCvaConfigurationException     if the snapshot is missing or cannot be read
+     */
+    public KnownVariantMappedAdaptor(CvaConfiguration cvaConfiguration) throws IllegalCvaConfigurationException {
+        this(getSnapshotPath(cvaConfiguration.getDefaultStorageEngine().getOptions().get("mapped.directory"),
+                cvaConfiguration.getOrganism().getAssembly()), cvaConfiguration.getOrganism().getAssembly());
+    }
+
+    /**
+     * Constructor for KnownVariantMappedAdaptor
+     * @param snapshot      the snapshot file
+     * @param assembly      the expected assembly, null accepts any assembly
+     * @throws IllegalCvaConfigurationException     if the snapshot is missing, cannot be read or belongs to
+     *                                              another assembly
+     */
+    public KnownVariantMappedAdaptor(Path snapshot, String assembly) throws IllegalCvaConfigurationException {
+        this.snapshot = snapshot;
+        try {
+            this.channel = FileChannel.open(snapshot, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            throw new IllegalCvaConfigurationException("Cannot open the known variants snapshot " + snapshot + ": " +
+                    e.getMessage());
+        }
+        try {
+            ByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("not a known variants snapshot");
+            }
+            if (header.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("unsupported snapshot format " + header.getInt(4));
+            }
+            this.created = header.getLong(8);
+            this.count = header.getLong(16);
+            this.maxSpan = header.getInt(24);
+            int blocks = header.getInt(28);
+            this.dataEnd = header.getLong(32);
+            long chromosomesOffset = header.getLong(40);
+            ByteBuffer index = this.channel.map(FileChannel.MapMode.READ_ONLY, this.dataEnd,
+                    (long) blocks * INDEX_ENTRY_SIZE);
+            this.blockPositions = new int[blocks];
+            this.blockOffsets = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                this.blockPositions[i] = index.getInt();
+                this.blockOffsets[i] = index.getLong();
+            }
+            ByteBuffer table = this.channel.map(FileChannel.MapMode.READ_ONLY, chromosomesOffset,
+                    this.channel.size() - chromosomesOffset);
+            this.assembly = readString(table);
+            int chromosomes = table.getInt();
+            for (int i = 0; i < chromosomes; i++) {
+                String name = readString(table);
+                this.chromosomes.put(name, new Chromosome(name, table.getInt(), table.getInt()));
+            }
+            this.blockSegments = new int[blocks];
+            this.mapSegments();
+        }
+        catch (IOException | RuntimeException e) {
+            this.closeQuietly();
+            throw new IllegalCvaConfigurationException("Cannot read the known variants snapshot " + snapshot + ": " +
+                    e.getMessage());
+        }
+        if (assembly != null && !assembly.equalsIgnoreCase(this.assembly)) {
+            this.closeQuietly();
+            throw new IllegalCvaConfigurationException("The known variants snapshot " + snapshot +
+                    " is for assembly " + this.assembly + ", expected " + assembly);
+        }
+        logger.info("Opened snapshot {} for assembly {} with {} known variants", snapshot, this.assembly, this.count);
+    }
+
+    /**
+     * @param directory     the directory of the snapshots
+     * @param assembly      the assembly
+     * @return              the path of the snapshot of an assembly
+     */
+    public static Path getSnapshotPath(String directory, String assembly) {
+        return Paths.get(directory != null ? directory : "", "known_variants." + assembly + ".snapshot");
+    }
+
+    /**
+     * Maps the data in segments of whole blocks of up to 2GB, so no known variant spans two segments
+     */
+    private void mapSegments() throws IOException {
+        int block = 0;
+        while (block < this.blockOffsets.length) {
+            long start = this.blockOffsets[block];
+            int last = block;
+            while (last + 1 < this.blockOffsets.length && this.blockEnd(last + 1) - start <= Integer.MAX_VALUE) {
+                last++;
+            }
+            long end = this.blockEnd(last);
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("block " + block + " is larger than 2GB");
+            }
+            for (int i = block; i <= last; i++) {
+                this.blockSegments[i] = this.segments.size();
+            }
+            this.segments.add(this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            this.segmentOffsets.add(start);
+            block = last + 1;
+        }
+    }
+
+    /**
+     * @return  the offset where a block ends, blocks are contiguous and followed by the index
+     */
+    private long blockEnd(int block) {
+        return block + 1 < this.blockOffsets.length ? this.blockOffsets[block + 1] : this.dataEnd;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Length of a known variant in the snapshot
+     * @param referenceLength       bytes of the reference
+     * @param alternateLength       bytes of the alternate
+     * @param avroLength            bytes of the Avro encoded known variant
+     * @return                      the length including the length field
+     */
+    static int recordLength(int referenceLength, int alternateLength, int avroLength) {
+        return 4 * Integer.BYTES + referenceLength + Integer.BYTES + alternateLength + Long.BYTES + avroLength;
+    }
+
+    /**
+     * Scans the known variants of a chromosome overlapping a range of positions. It starts at the last block
+     * starting before the range, widened by the widest known variant, and stops at the first known variant after
+     * the range.
+     */
+    private final class RecordScanner implements Iterator<RecordLocation> {
+
+        private final Chromosome chromosome;
+        private final int start;
+        private final int end;
+        private int block;
+        private ByteBuffer segment;
+        private int offset;
+        private int blockEnd;
+        private RecordLocation next;
+        private boolean done;
+
+        private RecordScanner(Chromosome chromosome, int start, int end) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            long from = (long) start - maxSpan;
+            this.block = firstBlock(chromosome, from);
+            this.done = this.block >= chromosome.lastBlock;
+            if (!this.done) {
+                this.openBlock();
+            }
+        }
+
+        private void openBlock() {
+            int segmentIndex = blockSegments[this.block];
+            long segmentOffset = segmentOffsets.get(segmentIndex);
+            this.segment = segments.get(segmentIndex);
+            this.offset = (int) (blockOffsets[this.block] - segmentOffset);
+            this.blockEnd = (int) (blockEnd(this.block) - segmentOffset);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && !this.done) {
+                if (this.offset >= this.blockEnd) {
+                    this.block++;
+                    if (this.block >= this.chromosome.lastBlock) {
+                        this.done = true;
+                        break;
+                    }
+                    this.openBlock();
+                }
+                int position = this.segment.getInt(this.offset + Integer.BYTES);
+                if (position > this.end) {
+                    this.done = true;
+                    break;
+                }
+                int variantEnd = this.segment.getInt(this.offset + 2 * Integer.BYTES);
+                if (variantEnd >= this.start) {
+                    int segmentIndex = blockSegments[this.block];
+                    this.next = new RecordLocation(this.chromosome.name, segmentIndex, this.offset,
+                            segmentOffsets.get(segmentIndex) + this.offset, position, variantEnd);
+                }
+                this.offset += Integer.BYTES + this.segment.getInt(this.offset);
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public RecordLocation next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RecordLocation location = this.next;
+            this.next = null;
+            return location;
+        }
+    }
+
+    /**
+     * @return  the last block of a chromosome starting before a position, or its first block
+     */
+    private int firstBlock(Chromosome chromosome, long position) {
+        int low = chromosome.firstBlock;
+        int high = chromosome.lastBlock - 1;
+        int found = chromosome.firstBlock;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (this.blockPositions[middle] < position) {
+                found = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Chains the scanners lazily, flatMap would read every scanner in full before a limit applies
+     * @param scanners      the scanners, created when reached
+     * @return              the locations found by the scanners, in order
+     */
+    private static Stream<RecordLocation> stream(Iterator<RecordScanner> scanners) {
+        Iterator<RecordLocation> locations = new Iterator<RecordLocation>() {
+
+            private RecordScanner current;
+
+            @Override
+            public boolean hasNext() {
+                while ((this.current == null || !this.current.hasNext()) && scanners.hasNext()) {
+                    this.current = scanners.next();
+                }
+                return this.current != null && this.current.hasNext();
+            }
+
+            @Override
+            public RecordLocation next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(locations,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Locates a known variant comparing its reference and alternate in place
+     * @param key       the key of the normalized variant
+     * @return          the location, null if not in the snapshot
+     */
+    private RecordLocation locate(KnownVariantKey key) {
+        Chromosome chromosome = this.chromosomes.get(key.getChromosome());
+        if (chromosome == null) {
+            return null;
+        }
+        byte[] reference = key.getReference().getBytes(StandardCharsets.UTF_8);
+        byte[] alternate = key.getAlternate().getBytes(StandardCharsets.UTF_8);
+        // known variants at the same position may start in the previous block
+        RecordScanner scanner = new RecordScanner(chromosome, key.getPosition(), key.getPosition());
+        while (scanner.hasNext()) {
+            RecordLocation location = scanner.next();
+            if (location.position != key.getPosition()) {
+                continue;
+            }
+            ByteBuffer segment = this.segments.get(location.segment);
+            int referenceOffset = location.offset + 3 * Integer.BYTES;
+            int alternateOffset = referenceOffset + Integer.BYTES + segment.getInt(referenceOffset);
+            if (bytesEqual(segment, referenceOffset, reference) && bytesEqual(segment, alternateOffset, alternate)) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return  true if the length prefixed bytes at an offset are equal to the given bytes
+     */
+    private static boolean bytesEqual(ByteBuffer buffer, int offset, byte[] bytes) {
+        if (buffer.getInt(offset) != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + Integer.BYTES + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  the length prefixed string at an offset
+     */
+    private static String stringAt(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + Integer.BYTES + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return  the key of a located known variant, read in place without decoding it
+     */
+    private KnownVariantKey keyOf(RecordLocation location) {
+        ByteBuffer segment = this.segments.get(location.segment);
+        int referenceOffset = location.offset + 3 * Integer.BYTES;
+        int alternateOffset = referenceOffset + Integer.BYTES + segment.getInt(referenceOffset);
+        return new KnownVariantKey(location.chromosome, location.position,
+                stringAt(segment, referenceOffset), stringAt(segment, alternateOffset));
+    }
+
+    /**
+     * @return  the offset of the version of a located known variant, the Avro encoding follows it
+     */
+    private int versionOffset(ByteBuffer segment, RecordLocation location) {
+        int referenceOffset = location.offset + 3 * Integer.BYTES;
+        int alternateOffset = referenceOffset + Integer.BYTES + segment.getInt(referenceOffset);
+        return alternateOffset + Integer.BYTES + segment.getInt(alternateOffset);
+    }
+
+    private long readVersion(RecordLocation location) {
+        ByteBuffer segment = this.segments.get(location.segment);
+        return segment.getLong(this.versionOffset(segment, location));
+    }
+
+    /**
+     * Decodes a located known variant straight from the mapped snapshot
+     * @param location  the location
+     * @param fields    the optional fields to return, the rest are left empty
+     * @return          the known variant
+     */
+    private KnownVariantWrapper decode(RecordLocation location, Set<String> fields) {
+        ByteBuffer segment = this.segments.get(location.segment);
+        int versionOffset = this.versionOffset(segment, location);
+        int avroOffset = versionOffset + Long.BYTES;
+        int recordEnd = location.offset + Integer.BYTES + segment.getInt(location.offset);
+        ByteBuffer avro = segment.duplicate();
+        avro.limit(recordEnd).position(avroOffset);
+        try {
+            KnownVariant knownVariant = this.datumReader.read(null, DecoderFactory.get().directBinaryDecoder(
+                    new ByteBufferInputStream(Collections.singletonList(avro.slice())), null));
+            KnownVariantWrapper knownVariantWrapper =
+                    new KnownVariantWrapper(KnownVariantQuery.project(knownVariant, fields));
+            knownVariantWrapper.setVersion(segment.getLong(versionOffset));
+            return knownVariantWrapper;
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Corrupted known variants snapshot " + this.snapshot + " at offset " +
+                    location.fileOffset, e);
+        }
+    }
+
+    /**
+     * Retrieves a KnownVariant by the basic variant attributes.
+     * Normalization is applied to these attributes, so searching for chr19 and 19 returns the same results.
+     * @param chromosome        The chromosome
+     * @param position          The position
+     * @param reference         The reference base/s
+     * @param alternate         The alternate base/s
+     * @param options           Query modifiers, accepted values are: include and exclude
+     * @return                  The known variant found if any, otherwise returns null
+     * @throws CvaException
+     */
+    @Override
+    public KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate,
+                                    QueryOptions options) throws CvaException {
+        RecordLocation location =
+                this.locate(KnownVariantQuery.normalizedKey(chromosome, position, reference, alternate));
+        return location != null ? this.decode(location, KnownVariantQuery.projectedFields(options)) : null;
+    }
+
+    /**
+     * Retrieves the KnownVariants for a list of variants.
+     * Normalization is applied as in find, variants that cannot be normalized are not found.
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, accepted values are: include and exclude
+     * @return                  The known variants in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    @Override
+    public List<KnownVariantWrapper> findAll(List<Variant> variants, QueryOptions options) {
+        Set<String> fields = KnownVariantQuery.projectedFields(options);
+        List<KnownVariantWrapper> results = new ArrayList<>(variants.size());
+        for (RecordLocation location : this.locateAll(variants)) {
+            results.add(location != null ? this.decode(location, fields) : null);
+        }
+        return results;
+    }
+
+    /**
+     * Retrieves the versions of the KnownVariants for a list of variants without decoding them
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, none is used
+     * @return                  The versions in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    @Override
+    public List<Long> findVersions(List<Variant> variants, QueryOptions options) {
+        List<Long> results = new ArrayList<>(variants.size());
+        for (RecordLocation location : this.locateAll(variants)) {
+            results.add(location != null ? this.readVersion(location) : null);
+        }
+        return results;
+    }
+
+    private List<RecordLocation> locateAll(List<Variant> variants) {
+        List<RecordLocation> results = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            RecordLocation location = null;
+            try {
+                location = this.locate(KnownVariantQuery.normalizedKey(variant.getChromosome(), variant.getStart(),
+                        variant.getReference(), variant.getAlternate()));
+            }
+            catch (CvaException | RuntimeException e) {
+                logger.debug("Variant {} cannot be normalized: {}", variant, e.getMessage());
+            }
+            results.add(location);
+        }
+        return results;
+    }
+
+    /**
+     * Iterates over the known variants matching a query in the order of the snapshot
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip and after
+     * @return                  An iterator over the matching known variants
+     */
+    @Override
+    public KnownVariantDBIterator iterator(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        KnownVariantQuery knownVariantQuery = new KnownVariantQuery(query);
+        Set<String> fields = knownVariantQuery.hasContentFilters() ?
+                KnownVariantQuery.OPTIONAL_FIELDS : KnownVariantQuery.projectedFields(options);
+        Stream<KnownVariantWrapper> knownVariants =
+                this.scan(knownVariantQuery, KnownVariantDBAdaptor.isKeyset(options),
+                        KnownVariantDBAdaptor.getAfter(options)).map(location -> this.decode(location, fields));
+        if (knownVariantQuery.hasContentFilters()) {
+            Set<String> projectedFields = KnownVariantQuery.projectedFields(options);
+            knownVariants = knownVariants
+                    .filter(knownVariantWrapper -> knownVariantQuery.matchesContent(knownVariantWrapper.getImpl()))
+                    .map(knownVariantWrapper -> {
+                        KnownVariantQuery.project(knownVariantWrapper.getImpl(), projectedFields);
+                        return knownVariantWrapper;
+                    });
+        }
+        int skip = options.getInt(QueryOptions.SKIP, 0);
+        int limit = options.getInt(QueryOptions.LIMIT, 0);
+        if (skip > 0) {
+            knownVariants = knownVariants.skip(skip);
+        }
+        if (limit > 0) {
+            knownVariants = knownVariants.limit(limit);
+        }
+        return new KnownVariantMemoryIterator<>(knownVariants.iterator(), Function.identity());
+    }
+
+    /**
+     * Retrieves the known variants matching a query
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, count and after,
+     *                          the total number of results does not depend on after
+     * @return                  The known variants found, the total number of results is only counted when
+     *                          requested through the count option
+     */
+    @Override
+    public QueryResult<KnownVariantWrapper> get(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        long start = System.currentTimeMillis();
+        List<KnownVariantWrapper> results = new ArrayList<>();
+        this.forEach(query, results::add, options);
+        long numTotalResults = results.size();
+        if (options.getBoolean(QueryOptions.COUNT, false)) {
+            KnownVariantQuery knownVariantQuery = new KnownVariantQuery(query);
+            Stream<RecordLocation> locations = this.scan(knownVariantQuery, false, null);
+            numTotalResults = knownVariantQuery.hasContentFilters() ?
+                    locations.filter(location -> knownVariantQuery.matchesContent(
+                            this.decode(location, KnownVariantQuery.OPTIONAL_FIELDS).getImpl())).count() :
+                    locations.count();
+        }
+        int dbTime = (int) (System.currentTimeMillis() - start);
+        return new QueryResult<>("get", dbTime, results.size(), numTotalResults, "", "", results);
+    }
+
+    /**
+     * Builds the lazy scan over the known variants matching the coordinates of a query. Ids are located, regions
+     * are read from their blocks and otherwise all known variants are scanned. The snapshot is in the order of the
+     * keys, so scans starting after a key skip the chromosomes before it and start from its position.
+     * @param query             The parsed query
+     * @param keyset            Whether the known variants requested by id are returned in the order of the snapshot
+     * @param after             The known variants are returned after this key, null starts from the first
+     * @return                  The locations of the matching known variants in the order of the snapshot
+     */
+    private Stream<RecordLocation> scan(KnownVariantQuery query, boolean keyset, KnownVariantKey after) {
+        List<KnownVariantQuery.Region> regions = query.getRegions();
+        Stream<RecordLocation> locations;
+        if (query.getIds() != null) {
+            locations = query.getIds().stream().map(this::locate).filter(Objects::nonNull);
+            if (keyset) {
+                locations = locations.distinct().sorted();
+            }
+        }
+        else if (regions != null) {
+            locations = stream(regions.stream()
+                    .filter(region -> this.chromosomes.containsKey(region.chromosome))
+                    .filter(region -> after == null || region.chromosome.compareTo(after.getChromosome()) >= 0)
+                    .map(region -> new RecordScanner(this.chromosomes.get(region.chromosome),
+                            startAfter(region.chromosome, region.start, after), region.end))
+                    .iterator());
+            if (regions.size() > 1) {
+                // overlapping regions would return the same known variants
+                locations = locations.distinct().sorted();
+            }
+        }
+        else {
+            locations = stream(this.chromosomes.values().stream()
+                    .filter(chromosome -> after == null || chromosome.name.compareTo(after.getChromosome()) >= 0)
+                    .map(chromosome -> new RecordScanner(chromosome,
+                            startAfter(chromosome.name, Integer.MIN_VALUE, after), Integer.MAX_VALUE))
+                    .iterator());
+        }
+        if (after != null) {
+            locations = locations.filter(location -> this.isAfter(location, after));
+        }
+        return locations.filter(location ->
+                query.matchesCoordinates(location.chromosome, location.position, location.end));
+    }
+
+    /**
+     * @return  true if a located known variant follows a key, its reference and alternate are only read when the
+     *          position is the same
+     */
+    private boolean isAfter(RecordLocation location, KnownVariantKey after) {
+        int comparison = location.chromosome.compareTo(after.getChromosome());
+        if (comparison == 0) {
+            comparison = Integer.compare(location.position, after.getPosition());
+        }
+        if (comparison == 0) {
+            comparison = this.keyOf(location).compareTo(after);
+        }
+        return comparison > 0;
+    }
+
+    /**
+     * @return  the start of a scan over a chromosome, moved to the position of the key it continues after
+     */
+    private static int startAfter(String chromosome, int start, KnownVariantKey after) {
+        return after != null && chromosome.equals(after.getChromosome()) ? Math.max(start, after.getPosition()) : start;
+    }
+
+    @Override
+    public String insert(KnownVariantWrapper knownVariant, QueryOptions options) {
+        throw this.readOnly();
+    }
+
+    @Override
+    public List<KnownVariantInsertResult> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options) {
+        throw this.readOnly();
+    }
+
+    @Override
+    public Boolean update(KnownVariantWrapper knownVariantWrapper) {
+        throw this.readOnly();
+    }
+
+    @Override
+    public KnownVariantWrapper addCuration(KnownVariantWrapper knownVariantWrapper,
+                                           CurationHistoryEntry curationHistoryEntry,
+                                           Boolean updateConsistencyStatus) {
+        throw this.readOnly();
+    }
+
+    @Override
+    public KnownVariantWrapper addEvidence(KnownVariantWrapper knownVariantWrapper, EvidenceEntry evidenceEntry) {
+        throw this.readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The known variants snapshot " + this.snapshot + " is read only");
+    }
+
+    /**
+     * @return  the assembly of the snapshot
+     */
+    public String getAssembly() {
+        return this.assembly;
+    }
+
+    /**
+     * @return  the time the snapshot was written, in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return this.created;
+    }
+
+    /**
+     * @return  the number of known variants in the snapshot
+     */
+    public long count() {
+        return this.count;
+    }
+
+    private void closeQuietly() {
+        try {
+            this.channel.close();
+        }
+        catch (IOException e) {
+            logger.warn("Cannot close the known variants snapshot {}: {}", this.snapshot, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the snapshot file, the mappings are released when garbage collected
+     * @throws IOException      if the snapshot cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
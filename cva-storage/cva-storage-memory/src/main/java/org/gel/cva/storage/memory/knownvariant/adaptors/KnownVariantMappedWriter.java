@@ -0,0 +1,267 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes a snapshot of known variants to be served by the KnownVariantMappedAdaptor. Known variants can be written
+ * in any order: they are appended to a temporary file and, on close, copied to the snapshot sorted by chromosome,
+ * position, reference and alternate, followed by the block index and the chromosome table. Only the keys and the
+ * offsets of the known variants are held in memory. The snapshot is written through a temporary file and moved
+ * in place, so readers never see a partial snapshot.
+ */
+public class KnownVariantMappedWriter implements AutoCloseable {
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantMappedWriter.class);
+
+    private final Path snapshot;
+    private final String assembly;
+    private final int blockSize;
+    private final Path records;
+    private final FileChannel recordsChannel;
+    private final List<RecordPointer> pointers = new ArrayList<>();
+    private final SpecificDatumWriter<KnownVariant> datumWriter = new SpecificDatumWriter<>(KnownVariant.class);
+    private final ByteArrayOutputStream avroBuffer = new ByteArrayOutputStream();
+    private BinaryEncoder encoder;
+    private long recordsSize = 0;
+    private long written = 0;
+    private boolean closed = false;
+
+    /**
+     * A known variant written to the temporary file
+     */
+    private static final class RecordPointer {
+
+        private final KnownVariantKey key;
+        private final long offset;
+        private final int length;
+        private final int span;
+
+        private RecordPointer(KnownVariantKey key, long offset, int length, int span) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.span = span;
+        }
+    }
+
+    /**
+     * Constructor for KnownVariantMappedWriter with the default block size
+     * @param snapshot      the snapshot file, see KnownVariantMappedAdaptor.getSnapshotPath
+     * @param assembly      the assembly of the known variants
+     * @throws IOException  if the temporary file cannot be created
+     */
+    public KnownVariantMappedWriter(Path snapshot, String assembly) throws IOException {
+        this(snapshot, assembly, KnownVariantMappedAdaptor.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor for KnownVariantMappedWriter
+     * @param snapshot      the snapshot file, see KnownVariantMappedAdaptor.getSnapshotPath
+     * @param assembly      the assembly of the known variants
+     * @param blockSize     the number of known variants per block of the index, lookups scan up to a block
+     * @throws IOException  if the temporary file cannot be created
+     */
+    public KnownVariantMappedWriter(Path snapshot, String assembly, int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Wrong block size " + blockSize);
+        }
+        this.snapshot = snapshot;
+        this.assembly = assembly != null ? assembly : "";
+        this.blockSize = blockSize;
+        this.records = snapshot.resolveSibling(snapshot.getFileName() + ".records.tmp");
+        this.recordsChannel = FileChannel.open(this.records, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends a known variant to the snapshot, its version is kept. A known variant with the same key as a
+     * previous one is skipped when the snapshot is sorted.
+     * @param knownVariantWrapper   the known variant, normalized
+     * @throws IOException          if the temporary file cannot be written
+     */
+    public void write(KnownVariantWrapper knownVariantWrapper) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("The snapshot " + this.snapshot + " is already written");
+        }
+        Variant variant = knownVariantWrapper.getVariant();
+        KnownVariantKey key = KnownVariantKey.of(variant);
+        int end = variant.getEnd() != null ? Math.max(key.getPosition(), variant.getEnd()) : key.getPosition();
+        byte[] reference = key.getReference().getBytes(StandardCharsets.UTF_8);
+        byte[] alternate = key.getAlternate().getBytes(StandardCharsets.UTF_8);
+        this.avroBuffer.reset();
+        this.encoder = EncoderFactory.get().binaryEncoder(this.avroBuffer, this.encoder);
+        this.datumWriter.write(knownVariantWrapper.getImpl(), this.encoder);
+        this.encoder.flush();
+        int length = KnownVariantMappedAdaptor.recordLength(reference.length, alternate.length,
+                this.avroBuffer.size());
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length - Integer.BYTES)
+                .putInt(key.getPosition())
+                .putInt(end)
+                .putInt(reference.length).put(reference)
+                .putInt(alternate.length).put(alternate)
+                .putLong(knownVariantWrapper.getVersion())
+                .put(this.avroBuffer.toByteArray());
+        record.flip();
+        long offset = this.recordsSize;
+        while (record.hasRemaining()) {
+            this.recordsSize += this.recordsChannel.write(record, this.recordsSize);
+        }
+        this.pointers.add(new RecordPointer(key, offset, length, end - key.getPosition()));
+    }
+
+    /**
+     * @return  the number of known variants in the snapshot, only known once closed
+     */
+    public long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Sorts the known variants into the snapshot and removes the temporary files
+     * @throws IOException      if the snapshot cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.pointers.sort(Comparator.comparing(pointer -> pointer.key));
+            this.writeSnapshot();
+        }
+        finally {
+            this.recordsChannel.close();
+            Files.deleteIfExists(this.records);
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path temporary = this.snapshot.resolveSibling(this.snapshot.getFileName() + ".tmp");
+        List<Integer> blockPositions = new ArrayList<>();
+        List<Long> blockOffsets = new ArrayList<>();
+        List<String> chromosomes = new ArrayList<>();
+        List<Integer> chromosomeBlocks = new ArrayList<>();
+        int maxSpan = 0;
+        long offset = KnownVariantMappedAdaptor.HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(KnownVariantMappedAdaptor.HEADER_SIZE);
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 20)) {
+            // the header is written once the offsets are known
+            output.write(new byte[KnownVariantMappedAdaptor.HEADER_SIZE]);
+            ByteBuffer record = ByteBuffer.allocate(1 << 16);
+            KnownVariantKey previous = null;
+            int inBlock = 0;
+            for (RecordPointer pointer : this.pointers) {
+                if (pointer.key.equals(previous)) {
+                    logger.warn("Known variant {} is duplicated, skipping it", pointer.key);
+                    continue;
+                }
+                if (previous == null || !previous.getChromosome().equals(pointer.key.getChromosome())) {
+                    // chromosomes start a new block
+                    chromosomes.add(pointer.key.getChromosome());
+                    chromosomeBlocks.add(blockOffsets.size());
+                    inBlock = 0;
+                }
+                else if (inBlock == this.blockSize) {
+                    inBlock = 0;
+                }
+                if (inBlock == 0) {
+                    blockPositions.add(pointer.key.getPosition());
+                    blockOffsets.add(offset);
+                }
+                if (record.capacity() < pointer.length) {
+                    record = ByteBuffer.allocate(pointer.length);
+                }
+                record.clear().limit(pointer.length);
+                while (record.hasRemaining()) {
+                    int read = this.recordsChannel.read(record, pointer.offset + record.position());
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of " + this.records);
+                    }
+                }
+                output.write(record.array(), 0, pointer.length);
+                offset += pointer.length;
+                maxSpan = Math.max(maxSpan, pointer.span);
+                previous = pointer.key;
+                inBlock++;
+                this.written++;
+            }
+            long indexOffset = offset;
+            ByteBuffer index = ByteBuffer.allocate(blockOffsets.size() * KnownVariantMappedAdaptor.INDEX_ENTRY_SIZE);
+            for (int i = 0; i < blockOffsets.size(); i++) {
+                index.putInt(blockPositions.get(i)).putLong(blockOffsets.get(i));
+            }
+            output.write(index.array());
+            long chromosomesOffset = indexOffset + index.capacity();
+            output.write(this.chromosomeTable(chromosomes, chromosomeBlocks, blockOffsets.size()));
+            header.putInt(KnownVariantMappedAdaptor.MAGIC)
+                    .putInt(KnownVariantMappedAdaptor.FORMAT_VERSION)
+                    .putLong(System.currentTimeMillis())
+                    .putLong(this.written)
+                    .putInt(maxSpan)
+                    .putInt(blockOffsets.size())
+                    .putLong(indexOffset)
+                    .putLong(chromosomesOffset);
+            header.clear();
+        }
+        this.writeHeader(temporary, header);
+        Files.move(temporary, this.snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Written snapshot {} for assembly {} with {} known variants in {} blocks",
+                this.snapshot, this.assembly, this.written, blockOffsets.size());
+    }
+
+    /**
+     * The assembly followed by the name, first block and number of blocks of every chromosome
+     */
+    private byte[] chromosomeTable(List<String> chromosomes, List<Integer> chromosomeBlocks, int blocks) {
+        byte[] assembly = this.assembly.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> names = new ArrayList<>(chromosomes.size());
+        int length = Integer.BYTES + assembly.length + Integer.BYTES;
+        for (String chromosome : chromosomes) {
+            byte[] name = chromosome.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            length += Integer.BYTES + name.length + 2 * Integer.BYTES;
+        }
+        ByteBuffer table = ByteBuffer.allocate(length);
+        table.putInt(assembly.length).put(assembly).putInt(chromosomes.size());
+        for (int i = 0; i < chromosomes.size(); i++) {
+            int firstBlock = chromosomeBlocks.get(i);
+            int lastBlock = i + 1 < chromosomes.size() ? chromosomeBlocks.get(i + 1) : blocks;
+            table.putInt(names.get(i).length).put(names.get(i)).putInt(firstBlock).putInt(lastBlock - firstBlock);
+        }
+        return table.array();
+    }
+
+    private void writeHeader(Path temporary, ByteBuffer header) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,668 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.ConcurrentCvaModificationException;
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
+import org.gel.cva.storage.core.helpers.AvroHelper;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.ConsistencyStatus;
+import org.gel.models.cva.avro.Curation;
+import org.gel.models.cva.avro.CurationEntry;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.HeritablePhenotype;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * KnownVariantDBAdaptor holding the known variants in memory, in a concurrent map sorted by chromosome, position,
+ * reference and alternate. Lookups and batch lookups are map accesses and region queries scan the range of keys of
+ * the region. Queries by gene or transcript scan all the known variants.
+ *
+ * Stored known variants are never modified: every write replaces the stored known variant with a modified copy
+ * through an atomic compare and set, so readers never lock and writes have the semantics of the MongoDB adaptor.
+ * Updates and curations are conditional on the version read, evidences are appended retrying on concurrent writes.
+ * Known variants are copied on every read, include and exclude are applied on the evidences, curations and comments.
+ *
+ * The known variants can be snapshotted to a file and restored from it. The options of the default storage engine
+ * are memory.snapshot, the file restored when the adaptor is created and written when it is closed, and
+ * memory.readOnly, which rejects writes so the adaptor serves a snapshot as a read only replica.
+ */
+public class KnownVariantMemoryAdaptor implements KnownVariantDBAdaptor {
+
+    private static final int SNAPSHOT_VERSION = 1;
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantMemoryAdaptor.class);
+
+    private final ConcurrentSkipListMap<KnownVariantKey, StoredKnownVariant> knownVariants =
+            new ConcurrentSkipListMap<>();
+    // the widest stored variant, region scans start this far before the region to find the variants spanning into it
+    private final AtomicInteger maxSpan = new AtomicInteger(0);
+    // ids are built as in the MongoDB adaptor, so both return the same ids
+    private final DocumentToVariantConverter variantConverter = new DocumentToVariantConverter(null, null);
+    private final Path snapshot;
+    private final boolean readOnly;
+
+    /**
+     * A stored known variant and its version, neither is modified once stored
+     */
+    private static final class StoredKnownVariant {
+
+        private final KnownVariantKey key;
+        private final KnownVariant knownVariant;
+        private final long version;
+        private final int end;
+
+        private StoredKnownVariant(KnownVariantKey key, KnownVariant knownVariant, long version) {
+            this.key = key;
+            this.knownVariant = knownVariant;
+            this.version = version;
+            VariantAvro variant = knownVariant.getVariant();
+            this.end = variant.getEnd() != null ? Math.max(variant.getStart(), variant.getEnd()) : variant.getStart();
+        }
+    }
+
+    /**
+     * Constructor for an empty KnownVariantMemoryAdaptor without snapshots
+     */
+    public KnownVariantMemoryAdaptor() {
+        this.snapshot = null;
+        this.readOnly = false;
+    }
+
+    /**
+     * Constructor using the configuration object, the snapshot is restored if configured and present
+     * @param cvaConfiguration
+     * @throws IllegalCvaConfigurationException     if the snapshot cannot be read
+     */
+    public KnownVariantMemoryAdaptor(CvaConfiguration cvaConfiguration) throws IllegalCvaConfigurationException {
+        this(cvaConfiguration.getDefaultStorageEngine().getOptions().get("memory.snapshot"),
+                Boolean.parseBoolean(cvaConfiguration.getDefaultStorageEngine().getOptions().get("memory.readOnly")));
+    }
+
+    /**
+     * Constructor for KnownVariantMemoryAdaptor, the snapshot is restored if present
+     * @param snapshot      the snapshot file, null or empty disables snapshots
+     * @param readOnly      rejects writes, the snapshot must exist
+     * @throws IllegalCvaConfigurationException     if the snapshot cannot be read
+     */
+    public KnownVariantMemoryAdaptor(String snapshot, boolean readOnly) throws IllegalCvaConfigurationException {
+        this.snapshot = snapshot != null && !snapshot.isEmpty() ? Paths.get(snapshot) : null;
+        this.readOnly = readOnly;
+        if (this.snapshot != null && Files.exists(this.snapshot)) {
+            try {
+                this.loadSnapshot();
+            }
+            catch (IOException | RuntimeException e) {
+                throw new IllegalCvaConfigurationException("Cannot read the known variants snapshot " +
+                        this.snapshot + ": " + e.getMessage());
+            }
+        }
+        else if (this.readOnly) {
+            throw new IllegalCvaConfigurationException("A read only in-memory adaptor requires a snapshot, " +
+                    "missing snapshot " + snapshot);
+        }
+    }
+
+    /**
+     * This method inserts a single KnownVariant. The known variant is copied, later changes to it are not stored.
+     * @param knownVariant      The known variant to be inserted
+     * @param options           Query modifiers, none is used
+     * @return                  The known variant _id
+     * @throws IllegalArgumentException     if the known variant is already registered
+     */
+    @Override
+    public String insert(KnownVariantWrapper knownVariant, QueryOptions options) {
+        this.checkWritable();
+        String id = this.buildStorageId(knownVariant.getVariant());
+        if (!this.insertIfAbsent(knownVariant)) {
+            throw new IllegalArgumentException("Known variant " + id + " is already registered");
+        }
+        return id;
+    }
+
+    /**
+     * This method inserts a list of KnownVariants. A variant that already exists or fails to be inserted does not
+     * abort the insertion of the rest of variants.
+     * @param knownVariants     List of known variants to be inserted
+     * @param options           Query modifiers, none is used as there are no batches
+     * @return                  The result of every insertion in the same order as the input list
+     */
+    @Override
+    public List<KnownVariantInsertResult> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options) {
+        this.checkWritable();
+        List<KnownVariantInsertResult> results = new ArrayList<>(knownVariants.size());
+        for (KnownVariantWrapper knownVariantWrapper : knownVariants) {
+            String id = null;
+            try {
+                id = this.buildStorageId(knownVariantWrapper.getVariant());
+                results.add(this.insertIfAbsent(knownVariantWrapper) ?
+                        KnownVariantInsertResult.inserted(id) : KnownVariantInsertResult.duplicated(id));
+            }
+            catch (RuntimeException e) {
+                results.add(KnownVariantInsertResult.failed(id, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Stores a copy of a known variant with version 1, the version of the wrapper is set when stored
+     * @param knownVariantWrapper   the known variant
+     * @return                      false if the known variant was already stored
+     */
+    private boolean insertIfAbsent(KnownVariantWrapper knownVariantWrapper) {
+        KnownVariantKey key = KnownVariantKey.of(knownVariantWrapper.getVariant());
+        StoredKnownVariant storedKnownVariant = new StoredKnownVariant(key,
+                KnownVariantQuery.deepCopy(KnownVariant.getClassSchema(), knownVariantWrapper.getImpl()), 1L);
+        if (this.knownVariants.putIfAbsent(key, storedKnownVariant) != null) {
+            return false;
+        }
+        this.updateMaxSpan(storedKnownVariant);
+        knownVariantWrapper.setVersion(1L);
+        return true;
+    }
+
+    /**
+     * Retrieves a KnownVariant by the basic variant attributes reading only the requested fields.
+     * Normalization is applied to these attributes, so searching for chr19 and 19 returns the same results.
+     * @param chromosome        The chromosome
+     * @param position          The position
+     * @param reference         The reference base/s
+     * @param alternate         The alternate base/s
+     * @param options           Query modifiers, accepted values are: include and exclude
+     * @return                  A copy of the known variant found if any, otherwise returns null
+     * @throws CvaException
+     */
+    @Override
+    public KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate,
+                                    QueryOptions options) throws CvaException {
+        StoredKnownVariant storedKnownVariant =
+                this.knownVariants.get(KnownVariantQuery.normalizedKey(chromosome, position, reference, alternate));
+        return storedKnownVariant != null ?
+                this.toKnownVariantWrapper(storedKnownVariant, KnownVariantQuery.projectedFields(options)) : null;
+    }
+
+    /**
+     * Retrieves the KnownVariants for a list of variants.
+     * Normalization is applied as in find, variants that cannot be normalized are not found.
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, accepted values are: include and exclude
+     * @return                  The known variants in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    @Override
+    public List<KnownVariantWrapper> findAll(List<Variant> variants, QueryOptions options) {
+        Set<String> fields = KnownVariantQuery.projectedFields(options);
+        List<KnownVariantWrapper> results = new ArrayList<>(variants.size());
+        for (StoredKnownVariant storedKnownVariant : this.lookup(variants)) {
+            results.add(storedKnownVariant != null ? this.toKnownVariantWrapper(storedKnownVariant, fields) : null);
+        }
+        return results;
+    }
+
+    /**
+     * Retrieves the current version of the KnownVariants for a list of variants without copying them
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, none is used
+     * @return                  The versions in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    @Override
+    public List<Long> findVersions(List<Variant> variants, QueryOptions options) {
+        List<Long> results = new ArrayList<>(variants.size());
+        for (StoredKnownVariant storedKnownVariant : this.lookup(variants)) {
+            results.add(storedKnownVariant != null ? storedKnownVariant.version : null);
+        }
+        return results;
+    }
+
+    /**
+     * @param variants      the variants to search for
+     * @return              the stored known variants in the same order as the input list, null if not registered
+     */
+    private List<StoredKnownVariant> lookup(List<Variant> variants) {
+        List<StoredKnownVariant> results = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            StoredKnownVariant storedKnownVariant = null;
+            try {
+                storedKnownVariant = this.knownVariants.get(KnownVariantQuery.normalizedKey(variant.getChromosome(),
+                        variant.getStart(), variant.getReference(), variant.getAlternate()));
+            }
+            catch (CvaException | RuntimeException e) {
+                logger.debug("Variant {} cannot be normalized: {}", variant, e.getMessage());
+            }
+            results.add(storedKnownVariant);
+        }
+        return results;
+    }
+
+    /**
+     * Updates a known variant and returns a flag indicating if the update was correct. The update only succeeds if
+     * the stored known variant has the version that was read, the version is then incremented.
+     * @param knownVariantWrapper       The known variant to store
+     * @return                          Boolean indicating if the update was correct, false if not registered
+     * @throws ConcurrentCvaModificationException   if the known variant was modified since it was read
+     * @throws CvaException
+     */
+    @Override
+    public Boolean update(KnownVariantWrapper knownVariantWrapper) throws CvaException {
+        this.checkWritable();
+        KnownVariantKey key = KnownVariantKey.of(knownVariantWrapper.getVariant());
+        long version = knownVariantWrapper.getVersion();
+        StoredKnownVariant current = this.knownVariants.get(key);
+        if (current == null) {
+            return false;
+        }
+        StoredKnownVariant updated = new StoredKnownVariant(key,
+                KnownVariantQuery.deepCopy(KnownVariant.getClassSchema(), knownVariantWrapper.getImpl()), version + 1);
+        if (current.version != version || !this.knownVariants.replace(key, current, updated)) {
+            throw this.concurrentModification(knownVariantWrapper.getVariant());
+        }
+        this.updateMaxSpan(updated);
+        knownVariantWrapper.setVersion(version + 1);
+        return true;
+    }
+
+    /**
+     * Appends a curation to a known variant. The append only succeeds if the stored known variant has the version
+     * that was read, as the curation was built on that state.
+     * @param knownVariantWrapper       The known variant as read
+     * @param curationHistoryEntry      The curation built with KnownVariantWrapper.buildCurationHistoryEntry
+     * @param updateConsistencyStatus   Recompute the consistency status of the curation from the stored evidences
+     * @return                          A copy of the updated known variant
+     * @throws ConcurrentCvaModificationException   if the known variant was modified since it was read
+     * @throws CvaException             if the known variant does not exist
+     */
+    @Override
+    public KnownVariantWrapper addCuration(KnownVariantWrapper knownVariantWrapper,
+                                           CurationHistoryEntry curationHistoryEntry,
+                                           Boolean updateConsistencyStatus) throws CvaException {
+        this.checkWritable();
+        KnownVariantKey key = KnownVariantKey.of(knownVariantWrapper.getVariant());
+        StoredKnownVariant current = this.knownVariants.get(key);
+        if (current == null) {
+            throw new CvaException("Cannot add a curation to a non registered variant");
+        }
+        if (current.version != knownVariantWrapper.getVersion()) {
+            throw this.concurrentModification(knownVariantWrapper.getVariant());
+        }
+        CurationHistoryEntry newCurationHistoryEntry =
+                KnownVariantQuery.deepCopy(CurationHistoryEntry.getClassSchema(), curationHistoryEntry);
+        Curation newCuration = newCurationHistoryEntry.getNewCuration();
+        KnownVariant knownVariant = shallowCopy(current.knownVariant);
+        List<CurationEntry> curations = knownVariant.getCurations();
+        int index = indexOfCuration(curations, newCuration.getHeritablePhenotype(), newCuration.getTranscript());
+        List<CurationHistoryEntry> curationHistory = index < 0 ?
+                new ArrayList<>() : new ArrayList<>(curations.get(index).getHistory());
+        curationHistory.add(newCurationHistoryEntry);
+        // the curation of the entry is a copy, the consistency status may be set on it
+        CurationEntry curationEntry =
+                new CurationEntry(KnownVariantQuery.deepCopy(Curation.getClassSchema(), newCuration), curationHistory);
+        if (index < 0) {
+            curations.add(curationEntry);
+        }
+        else {
+            curations.set(index, curationEntry);
+        }
+        if (updateConsistencyStatus) {
+            updateConsistencyStatus(knownVariant, newCuration.getHeritablePhenotype(), newCuration.getTranscript());
+        }
+        StoredKnownVariant updated = new StoredKnownVariant(key, knownVariant, current.version + 1);
+        if (!this.knownVariants.replace(key, current, updated)) {
+            throw this.concurrentModification(knownVariantWrapper.getVariant());
+        }
+        return this.toKnownVariantWrapper(updated, KnownVariantQuery.OPTIONAL_FIELDS);
+    }
+
+    /**
+     * Appends an evidence to a known variant and recomputes the consistency status of the curations for the
+     * heritable phenotypes of the evidence. Appends commute, a concurrent write makes the append retry.
+     * @param knownVariantWrapper       The known variant
+     * @param evidenceEntry             The evidence built with KnownVariantWrapper.buildEvidenceEntry
+     * @return                          A copy of the updated known variant
+     * @throws CvaException             if the known variant does not exist
+     */
+    @Override
+    public KnownVariantWrapper addEvidence(KnownVariantWrapper knownVariantWrapper, EvidenceEntry evidenceEntry)
+            throws CvaException {
+        this.checkWritable();
+        KnownVariantKey key = KnownVariantKey.of(knownVariantWrapper.getVariant());
+        EvidenceEntry newEvidenceEntry = KnownVariantQuery.deepCopy(EvidenceEntry.getClassSchema(), evidenceEntry);
+        while (true) {
+            StoredKnownVariant current = this.knownVariants.get(key);
+            if (current == null) {
+                throw new CvaException("Cannot add an evidence to a non registered variant");
+            }
+            KnownVariant knownVariant = shallowCopy(current.knownVariant);
+            knownVariant.getEvidences().add(newEvidenceEntry);
+            if (newEvidenceEntry.getHeritablePhenotypes() != null) {
+                for (HeritablePhenotype heritablePhenotype : newEvidenceEntry.getHeritablePhenotypes()) {
+                    updateConsistencyStatus(knownVariant, heritablePhenotype, newEvidenceEntry.getTranscript());
+                }
+            }
+            StoredKnownVariant updated = new StoredKnownVariant(key, knownVariant, current.version + 1);
+            if (this.knownVariants.replace(key, current, updated)) {
+                return this.toKnownVariantWrapper(updated, KnownVariantQuery.OPTIONAL_FIELDS);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the consistency status of the curation for a heritable phenotype and transcript as the MongoDB
+     * adaptor does: the curation is set in conflict when there are both pathogenic and benign evidences, otherwise
+     * a curation without consistency status is set in consensus.
+     * @param knownVariant          The known variant being modified, the curation entry is replaced if changed
+     * @param heritablePhenotype    The heritable phenotype
+     * @param transcript            The transcript, nullable
+     */
+    private static void updateConsistencyStatus(KnownVariant knownVariant, HeritablePhenotype heritablePhenotype,
+                                                String transcript) {
+        List<CurationEntry> curations = knownVariant.getCurations();
+        int index = indexOfCuration(curations, heritablePhenotype, transcript);
+        if (index < 0) {
+            return;
+        }
+        boolean pathogenic = false;
+        boolean benign = false;
+        for (EvidenceEntry evidenceEntry : knownVariant.getEvidences()) {
+            pathogenic |= evidenceEntry.getPathogenicity() != null;
+            benign |= evidenceEntry.getBenignity() != null;
+        }
+        CurationEntry curationEntry = curations.get(index);
+        ConsistencyStatus consistencyStatus = curationEntry.getCuration().getConsistencyStatus();
+        ConsistencyStatus newConsistencyStatus = consistencyStatus;
+        if (pathogenic && benign) {
+            newConsistencyStatus = ConsistencyStatus.conflict;
+        }
+        else if (consistencyStatus == null) {
+            newConsistencyStatus = ConsistencyStatus.consensus;
+        }
+        if (newConsistencyStatus != consistencyStatus) {
+            Curation curation = KnownVariantQuery.deepCopy(Curation.getClassSchema(), curationEntry.getCuration());
+            curation.setConsistencyStatus(newConsistencyStatus);
+            curations.set(index, new CurationEntry(curation, curationEntry.getHistory()));
+        }
+    }
+
+    /**
+     * @return  the index of the curation entry for a heritable phenotype and transcript, -1 if there is none
+     */
+    private static int indexOfCuration(List<CurationEntry> curations, HeritablePhenotype heritablePhenotype,
+                                       String transcript) {
+        for (int i = 0; i < curations.size(); i++) {
+            Curation curation = curations.get(i).getCuration();
+            if (AvroHelper.areHeritablePhenotypeEqual(curation.getHeritablePhenotype(), heritablePhenotype) &&
+                    AvroHelper.areTranscriptsEqual(curation.getTranscript(), transcript)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Iterates over the known variants matching a query in the order of their keys
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip and after
+     * @return                  An iterator over copies of the matching known variants
+     */
+    @Override
+    public KnownVariantDBIterator iterator(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        Stream<StoredKnownVariant> storedKnownVariants =
+                this.scan(new KnownVariantQuery(query), KnownVariantDBAdaptor.isKeyset(options),
+                        KnownVariantDBAdaptor.getAfter(options));
+        int skip = options.getInt(QueryOptions.SKIP, 0);
+        int limit = options.getInt(QueryOptions.LIMIT, 0);
+        if (skip > 0) {
+            storedKnownVariants = storedKnownVariants.skip(skip);
+        }
+        if (limit > 0) {
+            storedKnownVariants = storedKnownVariants.limit(limit);
+        }
+        Set<String> fields = KnownVariantQuery.projectedFields(options);
+        return new KnownVariantMemoryIterator<>(storedKnownVariants.iterator(),
+                storedKnownVariant -> this.toKnownVariantWrapper(storedKnownVariant, fields));
+    }
+
+    /**
+     * Retrieves the known variants matching a query
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, count and after,
+     *                          the total number of results does not depend on after
+     * @return                  The known variants found, the total number of results is only counted when
+     *                          requested through the count option
+     */
+    @Override
+    public QueryResult<KnownVariantWrapper> get(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        long start = System.currentTimeMillis();
+        List<KnownVariantWrapper> results = new ArrayList<>();
+        this.forEach(query, results::add, options);
+        long numTotalResults = results.size();
+        if (options.getBoolean(QueryOptions.COUNT, false)) {
+            numTotalResults = this.scan(new KnownVariantQuery(query), false, null).count();
+        }
+        int dbTime = (int) (System.currentTimeMillis() - start);
+        return new QueryResult<>("get", dbTime, results.size(), numTotalResults, "", "", results);
+    }
+
+    /**
+     * Builds the lazy scan over the stored known variants matching a query. Ids are looked up, regions are read
+     * from their range of keys and otherwise all known variants are scanned. The scans start after a key, when given.
+     * @param query             The parsed query
+     * @param keyset            Whether the known variants requested by id are returned in the order of their keys
+     * @param after             The known variants are returned after this key, null starts from the first
+     * @return                  The matching stored known variants in the order of their keys
+     */
+    private Stream<StoredKnownVariant> scan(KnownVariantQuery query, boolean keyset, KnownVariantKey after) {
+        List<KnownVariantQuery.Region> regions = query.getRegions();
+        Stream<StoredKnownVariant> storedKnownVariants;
+        if (query.getIds() != null) {
+            storedKnownVariants = query.getIds().stream().map(this.knownVariants::get).filter(Objects::nonNull);
+            if (keyset) {
+                storedKnownVariants = storedKnownVariants.distinct()
+                        .sorted((first, second) -> first.key.compareTo(second.key));
+            }
+        }
+        else if (regions != null) {
+            storedKnownVariants = regions.stream().flatMap(region -> this.scanRegion(region, after));
+            if (regions.size() > 1) {
+                // overlapping regions would return the same known variants
+                storedKnownVariants = storedKnownVariants.distinct()
+                        .sorted((first, second) -> first.key.compareTo(second.key));
+            }
+        }
+        else if (after != null) {
+            storedKnownVariants = this.knownVariants.tailMap(after, false).values().stream();
+        }
+        else {
+            storedKnownVariants = this.knownVariants.values().stream();
+        }
+        if (after != null) {
+            storedKnownVariants = storedKnownVariants.filter(
+                    storedKnownVariant -> storedKnownVariant.key.compareTo(after) > 0);
+        }
+        storedKnownVariants = storedKnownVariants.filter(storedKnownVariant -> query.matchesCoordinates(
+                storedKnownVariant.key.getChromosome(), storedKnownVariant.key.getPosition(), storedKnownVariant.end));
+        if (query.hasContentFilters()) {
+            storedKnownVariants = storedKnownVariants.filter(
+                    storedKnownVariant -> query.matchesContent(storedKnownVariant.knownVariant));
+        }
+        return storedKnownVariants;
+    }
+
+    /**
+     * Reads the range of keys that may overlap a region, from the widest stored variant before the region start
+     * to the region end, or from a key within the range
+     * @param region    the region
+     * @param after     the known variants are read after this key, null reads the whole range
+     * @return          the stored known variants in the range
+     */
+    private Stream<StoredKnownVariant> scanRegion(KnownVariantQuery.Region region, KnownVariantKey after) {
+        int from = (int) Math.max(Integer.MIN_VALUE, (long) region.start - this.maxSpan.get());
+        KnownVariantKey fromKey = new KnownVariantKey(region.chromosome, from, "", "");
+        // keys of the next chromosome name start after the chromosome followed by the lowest character
+        KnownVariantKey toKey = region.isWholeChromosome() ?
+                new KnownVariantKey(region.chromosome + '\0', Integer.MIN_VALUE, "", "") :
+                new KnownVariantKey(region.chromosome, region.end + 1, "", "");
+        if (after != null && after.compareTo(fromKey) >= 0) {
+            if (after.compareTo(toKey) >= 0) {
+                return Stream.empty();
+            }
+            return this.knownVariants.subMap(after, false, toKey, false).values().stream();
+        }
+        return this.knownVariants.subMap(fromKey, true, toKey, false).values().stream();
+    }
+
+    private String buildStorageId(Variant variant) {
+        return this.variantConverter.buildStorageId(variant);
+    }
+
+    private ConcurrentCvaModificationException concurrentModification(Variant variant) {
+        return new ConcurrentCvaModificationException("Known variant " + this.buildStorageId(variant) +
+                " was modified concurrently");
+    }
+
+    private void checkWritable() {
+        if (this.readOnly) {
+            throw new UnsupportedOperationException("The in-memory known variants are read only");
+        }
+    }
+
+    private void updateMaxSpan(StoredKnownVariant storedKnownVariant) {
+        int span = storedKnownVariant.end - storedKnownVariant.key.getPosition();
+        this.maxSpan.accumulateAndGet(span, Math::max);
+    }
+
+    /**
+     * Copies a stored known variant into a new KnownVariantWrapper, so callers can modify it
+     * @param storedKnownVariant    the stored known variant
+     * @param fields                the optional fields to copy, the rest are left empty
+     * @return                      the copy
+     */
+    private KnownVariantWrapper toKnownVariantWrapper(StoredKnownVariant storedKnownVariant, Set<String> fields) {
+        KnownVariantWrapper knownVariantWrapper =
+                new KnownVariantWrapper(KnownVariantQuery.copy(storedKnownVariant.knownVariant, fields));
+        knownVariantWrapper.setVersion(storedKnownVariant.version);
+        return knownVariantWrapper;
+    }
+
+    /**
+     * Copies the top level of a known variant, the lists are new so they can be modified but share the records
+     */
+    private static KnownVariant shallowCopy(KnownVariant knownVariant) {
+        return new KnownVariant(
+                knownVariant.getSubmitter(),
+                knownVariant.getVariant(),
+                knownVariant.getCurations() != null ? new ArrayList<>(knownVariant.getCurations()) : new ArrayList<>(),
+                knownVariant.getEvidences() != null ? new ArrayList<>(knownVariant.getEvidences()) : new ArrayList<>(),
+                knownVariant.getComments() != null ? new ArrayList<>(knownVariant.getComments()) : new ArrayList<>());
+    }
+
+    /**
+     * @return  the number of stored known variants
+     */
+    public long count() {
+        return this.knownVariants.size();
+    }
+
+    /**
+     * Writes all the known variants and their versions to the snapshot file through a temporary file, so a crash
+     * never leaves a partial snapshot. Known variants written while the snapshot is taken may or may not be included.
+     * @throws IOException      if the snapshot cannot be written
+     */
+    public void writeSnapshot() throws IOException {
+        if (this.snapshot == null) {
+            return;
+        }
+        Path temporary = this.snapshot.resolveSibling(this.snapshot.getFileName() + ".tmp");
+        SpecificDatumWriter<KnownVariant> datumWriter = new SpecificDatumWriter<>(KnownVariant.class);
+        long written = 0;
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(output, null);
+            encoder.writeInt(SNAPSHOT_VERSION);
+            for (StoredKnownVariant storedKnownVariant : this.knownVariants.values()) {
+                // every known variant is preceded by a flag, as the number of known variants may change meanwhile
+                encoder.writeBoolean(true);
+                encoder.writeLong(storedKnownVariant.version);
+                datumWriter.write(storedKnownVariant.knownVariant, encoder);
+                written++;
+            }
+            encoder.writeBoolean(false);
+            encoder.flush();
+        }
+        Files.move(temporary, this.snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Written snapshot {} with {} known variants", this.snapshot, written);
+    }
+
+    /**
+     * Restores the known variants and their versions from the snapshot file
+     * @throws IOException      if the snapshot cannot be read
+     */
+    private void loadSnapshot() throws IOException {
+        SpecificDatumReader<KnownVariant> datumReader = new SpecificDatumReader<>(KnownVariant.class);
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(this.snapshot))) {
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(input, null);
+            int snapshotVersion = decoder.readInt();
+            if (snapshotVersion != SNAPSHOT_VERSION) {
+                throw new IOException("unsupported snapshot format " + snapshotVersion);
+            }
+            while (decoder.readBoolean()) {
+                long version = decoder.readLong();
+                KnownVariant knownVariant = datumReader.read(null, decoder);
+                KnownVariantKey key = KnownVariantKey.of(new Variant(knownVariant.getVariant()));
+                StoredKnownVariant storedKnownVariant = new StoredKnownVariant(key, knownVariant, version);
+                this.knownVariants.put(key, storedKnownVariant);
+                this.updateMaxSpan(storedKnownVariant);
+            }
+        }
+        logger.info("Loaded snapshot {} with {} known variants", this.snapshot, this.knownVariants.size());
+    }
+
+    /**
+     * Writes the snapshot unless read only
+     * @throws IOException      if the snapshot cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.readOnly) {
+            this.writeSnapshot();
+        }
+    }
+}
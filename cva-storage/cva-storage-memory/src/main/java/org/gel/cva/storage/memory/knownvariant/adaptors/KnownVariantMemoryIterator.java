@@ -0,0 +1,55 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Iterator over the known variants held by the KnownVariantMemoryAdaptor. The scan is lazy and weakly consistent,
+ * known variants written while iterating may or may not be returned. Every known variant returned is a copy of the
+ * stored one, the time copying it is accounted as converting time.
+ */
+public class KnownVariantMemoryIterator<T> extends KnownVariantDBIterator {
+
+    private final Iterator<T> iterator;
+    private final Function<T, KnownVariantWrapper> converter;
+
+    /**
+     * Constructor for KnownVariantMemoryIterator
+     * @param iterator      the stored known variants, already filtered
+     * @param converter     copies a stored known variant into a KnownVariantWrapper
+     */
+    public KnownVariantMemoryIterator(Iterator<T> iterator, Function<T, KnownVariantWrapper> converter) {
+        this.iterator = iterator;
+        this.converter = converter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        long start = System.nanoTime();
+        boolean hasNext = this.iterator.hasNext();
+        this.addTimeFetching(System.nanoTime() - start);
+        return hasNext;
+    }
+
+    @Override
+    public KnownVariantWrapper next() {
+        long start = System.nanoTime();
+        T stored = this.iterator.next();
+        long fetched = System.nanoTime();
+        this.addTimeFetching(fetched - start);
+        KnownVariantWrapper knownVariantWrapper = this.converter.apply(stored);
+        this.addTimeConverting(System.nanoTime() - fetched);
+        this.count++;
+        return knownVariantWrapper;
+    }
+
+    /**
+     * There is no cursor to release
+     */
+    @Override
+    public void close() {
+    }
+}
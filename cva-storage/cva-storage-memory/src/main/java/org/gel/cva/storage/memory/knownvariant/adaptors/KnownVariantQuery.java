@@ -0,0 +1,336 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificData;
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.Comment;
+import org.gel.models.cva.avro.CurationEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A parsed query over known variants for the adaptors that evaluate queries themselves rather than in a database.
+ * Ids and regions select the keys to read, chromosomes and regions are matched on the coordinates of the variants
+ * and submitters, genes and transcripts on the decoded known variants.
+ */
+final class KnownVariantQuery {
+
+    static final String CURATIONS = "curations";
+    static final String EVIDENCES = "evidences";
+    static final String COMMENTS = "comments";
+    // fields left empty when not included, the rest are needed to build a KnownVariantWrapper
+    static final Set<String> OPTIONAL_FIELDS =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(CURATIONS, EVIDENCES, COMMENTS)));
+
+    private static final Pattern CHROMOSOME_PREFIX = Pattern.compile("^(chrom|chrm|chr|ch)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A region as chromosome:start-end, a whole chromosome spans all positions
+     */
+    static final class Region {
+
+        final String chromosome;
+        final int start;
+        final int end;
+
+        private Region(String chromosome, int start, int end) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isWholeChromosome() {
+            return this.start == Integer.MIN_VALUE && this.end == Integer.MAX_VALUE;
+        }
+
+        boolean overlaps(String chromosome, int start, int end) {
+            return this.chromosome.equals(chromosome) && start <= this.end && end >= this.start;
+        }
+    }
+
+    private final SortedSet<KnownVariantKey> ids;
+    private final List<Region> regions;
+    private final Set<String> chromosomes;
+    private final Set<String> submitters;
+    private final Set<String> genes;
+    private final Set<String> transcripts;
+
+    /**
+     * Parses a query, see KnownVariantQueryParams
+     * @param query             The query, nullable
+     * @throws IllegalArgumentException     if an id or a region is wrong
+     */
+    KnownVariantQuery(Query query) {
+        if (query == null) {
+            query = new Query();
+        }
+        this.ids = query.containsKey(KnownVariantQueryParams.ID.key()) ? new TreeSet<>() : null;
+        if (this.ids != null) {
+            for (String id : query.getAsStringList(KnownVariantQueryParams.ID.key())) {
+                this.ids.add(parseId(id));
+            }
+        }
+        this.regions = query.containsKey(KnownVariantQueryParams.REGION.key()) ? new ArrayList<>() : null;
+        if (this.regions != null) {
+            for (String region : query.getAsStringList(KnownVariantQueryParams.REGION.key())) {
+                this.regions.add(parseRegion(region));
+            }
+        }
+        this.chromosomes = query.containsKey(KnownVariantQueryParams.CHROMOSOME.key()) ?
+                query.getAsStringList(KnownVariantQueryParams.CHROMOSOME.key()).stream()
+                        .map(KnownVariantQuery::normalizeChromosome).collect(Collectors.toSet()) : null;
+        this.submitters = getAsStringSet(query, KnownVariantQueryParams.SUBMITTER);
+        this.genes = getAsStringSet(query, KnownVariantQueryParams.GENE);
+        this.transcripts = getAsStringSet(query, KnownVariantQueryParams.TRANSCRIPT);
+    }
+
+    private static Set<String> getAsStringSet(Query query, KnownVariantQueryParams param) {
+        return query.containsKey(param.key()) ? new HashSet<>(query.getAsStringList(param.key())) : null;
+    }
+
+    /**
+     * @return  the keys of the queried ids in order, null if the query has no ids
+     */
+    SortedSet<KnownVariantKey> getIds() {
+        return this.ids;
+    }
+
+    /**
+     * @return  the queried regions, null if the query has no regions
+     */
+    List<Region> getRegions() {
+        return this.regions;
+    }
+
+    /**
+     * Matches the coordinates of a variant against the chromosomes and regions
+     * @param chromosome        The normalized chromosome
+     * @param start             The start
+     * @param end               The end
+     * @return                  true if the variant is in the chromosomes and overlaps any of the regions
+     */
+    boolean matchesCoordinates(String chromosome, int start, int end) {
+        if (this.chromosomes != null && !this.chromosomes.contains(chromosome)) {
+            return false;
+        }
+        if (this.regions != null) {
+            for (Region region : this.regions) {
+                if (region.overlaps(chromosome, start, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return  true if the query filters on fields that are only known once the known variant is decoded
+     */
+    boolean hasContentFilters() {
+        return this.submitters != null || this.genes != null || this.transcripts != null;
+    }
+
+    /**
+     * Matches a known variant against the submitters, genes and transcripts
+     * @param knownVariant      The known variant
+     * @return                  true if the known variant matches
+     */
+    boolean matchesContent(KnownVariant knownVariant) {
+        if (this.submitters != null && !this.submitters.contains(knownVariant.getSubmitter())) {
+            return false;
+        }
+        if (this.genes != null && !hasAnyGene(knownVariant.getVariant(), this.genes)) {
+            return false;
+        }
+        return this.transcripts == null || hasAnyTranscript(knownVariant.getVariant(), this.transcripts);
+    }
+
+    /**
+     * @return  true if any gene name or Ensembl gene id in the variant annotation is in the genes
+     */
+    private static boolean hasAnyGene(VariantAvro variant, Set<String> genes) {
+        if (variant.getAnnotation() != null && variant.getAnnotation().getConsequenceTypes() != null) {
+            for (ConsequenceType consequenceType : variant.getAnnotation().getConsequenceTypes()) {
+                if (genes.contains(consequenceType.getGeneName()) ||
+                        genes.contains(consequenceType.getEnsemblGeneId())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return  true if any Ensembl transcript id in the variant annotation is in the transcripts
+     */
+    private static boolean hasAnyTranscript(VariantAvro variant, Set<String> transcripts) {
+        if (variant.getAnnotation() != null && variant.getAnnotation().getConsequenceTypes() != null) {
+            for (ConsequenceType consequenceType : variant.getAnnotation().getConsequenceTypes()) {
+                if (transcripts.contains(consequenceType.getEnsemblTranscriptId())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a region as chromosome:start-end, chromosome:position or chromosome
+     * @param region            The region
+     * @return                  The parsed region
+     */
+    private static Region parseRegion(String region) {
+        String[] fields = region.split(":", -1);
+        String chromosome = normalizeChromosome(fields[0]);
+        if (fields.length == 1) {
+            return new Region(chromosome, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        int start;
+        int end;
+        try {
+            String[] positions = fields[1].split("-", -1);
+            start = Integer.parseInt(positions[0]);
+            end = positions.length > 1 ? Integer.parseInt(positions[1]) : start;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong region " + region + ", expected chromosome:start-end");
+        }
+        if (fields.length > 2 || start > end || end == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Wrong region " + region + ", expected chromosome:start-end");
+        }
+        return new Region(chromosome, start, end);
+    }
+
+    /**
+     * Parses a variant id as chromosome:start:reference:alternate into the key of the normalized variant
+     * @param id                The variant id
+     * @return                  The key
+     */
+    private static KnownVariantKey parseId(String id) {
+        String[] fields = id.split(":", -1);
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Wrong variant id " + id +
+                    ", expected chromosome:start:reference:alternate");
+        }
+        try {
+            return normalizedKey(fields[0], Integer.parseInt(fields[1]), fields[2], fields[3]);
+        }
+        catch (CvaException | NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong variant id " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the chromosome prefixes in the same way as the variant normalization does, so chr19 and 19 match
+     * @param chromosome        The chromosome
+     * @return                  The normalized chromosome
+     */
+    static String normalizeChromosome(String chromosome) {
+        return CHROMOSOME_PREFIX.matcher(chromosome.trim()).replaceFirst("");
+    }
+
+    /**
+     * Builds the key of a known variant from the basic variant attributes, applying normalization
+     * @param chromosome        The chromosome
+     * @param position          The position
+     * @param reference         The reference base/s
+     * @param alternate         The alternate base/s
+     * @return                  The key
+     * @throws CvaException     if the variant cannot be normalized
+     */
+    static KnownVariantKey normalizedKey(String chromosome, Integer position, String reference, String alternate)
+            throws CvaException {
+        try {
+            return KnownVariantKey.of(new KnownVariantWrapper(
+                    "find", chromosome, position, reference, alternate, false).getVariant());
+        }
+        catch (VariantAnnotatorException ex) {
+            // this exception will be never thrown as we are not annotating
+            throw new CvaException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Resolves the optional fields to return from the include and exclude options, at the level of the top level
+     * fields: including curations.curation returns the whole curations
+     * @param options           Query modifiers, accepted values are: include and exclude
+     * @return                  The optional fields to return
+     */
+    static Set<String> projectedFields(QueryOptions options) {
+        if (options == null) {
+            return OPTIONAL_FIELDS;
+        }
+        List<String> include = options.getAsStringList(QueryOptions.INCLUDE);
+        List<String> exclude = options.getAsStringList(QueryOptions.EXCLUDE);
+        Set<String> fields = new HashSet<>(OPTIONAL_FIELDS);
+        if (include != null && !include.isEmpty()) {
+            fields.retainAll(include.stream().map(field -> field.split("\\.")[0]).collect(Collectors.toSet()));
+        }
+        else if (exclude != null && !exclude.isEmpty()) {
+            // excluding a nested field does not exclude the top level field
+            fields.removeAll(exclude);
+        }
+        return fields;
+    }
+
+    /**
+     * Copies a known variant leaving empty the optional fields not projected
+     * @param knownVariant      The known variant
+     * @param fields            The optional fields to copy
+     * @return                  The copy
+     */
+    static KnownVariant copy(KnownVariant knownVariant, Set<String> fields) {
+        return new KnownVariant(
+                knownVariant.getSubmitter(),
+                deepCopy(VariantAvro.getClassSchema(), knownVariant.getVariant()),
+                copy(knownVariant.getCurations(), CurationEntry.getClassSchema(), fields.contains(CURATIONS)),
+                copy(knownVariant.getEvidences(), EvidenceEntry.getClassSchema(), fields.contains(EVIDENCES)),
+                copy(knownVariant.getComments(), Comment.getClassSchema(), fields.contains(COMMENTS)));
+    }
+
+    /**
+     * Leaves empty the optional fields not projected of a known variant that is not shared
+     * @param knownVariant      The known variant
+     * @param fields            The optional fields to keep
+     * @return                  The same known variant
+     */
+    static KnownVariant project(KnownVariant knownVariant, Set<String> fields) {
+        if (!fields.contains(CURATIONS)) {
+            knownVariant.setCurations(new ArrayList<>());
+        }
+        if (!fields.contains(EVIDENCES)) {
+            knownVariant.setEvidences(new ArrayList<>());
+        }
+        if (!fields.contains(COMMENTS)) {
+            knownVariant.setComments(new ArrayList<>());
+        }
+        return knownVariant;
+    }
+
+    private static <T> List<T> copy(List<T> records, Schema schema, boolean copy) {
+        List<T> copies = new ArrayList<>(copy && records != null ? records.size() : 0);
+        if (copy && records != null) {
+            for (T record : records) {
+                copies.add(deepCopy(schema, record));
+            }
+        }
+        return copies;
+    }
+
+    static <T> T deepCopy(Schema schema, T value) {
+        return value != null ? SpecificData.get().deepCopy(schema, value) : null;
+    }
+}
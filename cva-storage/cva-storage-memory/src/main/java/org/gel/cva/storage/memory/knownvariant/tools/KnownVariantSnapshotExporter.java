@@ -0,0 +1,73 @@
+package org.gel.cva.storage.memory.knownvariant.tools;
+
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.memory.knownvariant.adaptors.KnownVariantMappedAdaptor;
+import org.gel.cva.storage.memory.knownvariant.adaptors.KnownVariantMappedWriter;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Exports the known variants in the configured storage to a snapshot served by the KnownVariantMappedAdaptor. The
+ * snapshot is named after the assembly, so snapshots for GRCh37 and GRCh38 can be exported to the same directory.
+ * The known variants are read through the adaptor configured in "adaptor.knownvariants", which must be in the
+ * classpath (e.g.: the classpath of cva-server).
+ */
+public class KnownVariantSnapshotExporter {
+
+    /**
+     * Writes all the known variants to a snapshot
+     * @param knownVariantDBAdaptor     the known variants to export
+     * @param snapshot                  the snapshot file
+     * @param assembly                  the assembly of the known variants
+     * @return                          the number of known variants exported
+     * @throws IOException              if the snapshot cannot be written
+     */
+    public static long export(KnownVariantDBAdaptor knownVariantDBAdaptor, Path snapshot, String assembly)
+            throws IOException {
+        QueryOptions options = new QueryOptions(KnownVariantDBAdaptor.PERSISTENT, true);
+        try (KnownVariantMappedWriter writer = new KnownVariantMappedWriter(snapshot, assembly);
+             KnownVariantDBIterator iterator = knownVariantDBAdaptor.iterator(new Query(), options)) {
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+            }
+            writer.close();
+            return writer.getWritten();
+        }
+    }
+
+    /**
+     * Exports the known variants in the configured storage to a snapshot for the configured assembly
+     * @param args      the directory of the snapshots and, optionally, the assembly overriding the configured one
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: KnownVariantSnapshotExporter <snapshots directory> [assembly]");
+            System.exit(1);
+        }
+        CvaConfiguration cvaConfiguration = CvaConfiguration.getInstance();
+        String assembly = args.length > 1 ? args[1] : cvaConfiguration.getOrganism().getAssembly();
+        Path snapshot = KnownVariantMappedAdaptor.getSnapshotPath(args[0], assembly);
+        if (snapshot.getParent() != null) {
+            Files.createDirectories(snapshot.getParent());
+        }
+        String adaptorImplClass = CvaConfiguration.getDefaultStorageEngine().getOptions().get("adaptor.knownvariants");
+        Constructor<?> ctor = Class.forName(adaptorImplClass).getConstructor(CvaConfiguration.class);
+        try (KnownVariantDBAdaptor knownVariantDBAdaptor = (KnownVariantDBAdaptor) ctor.newInstance(cvaConfiguration)) {
+            long exported = export(knownVariantDBAdaptor, snapshot, assembly);
+            System.out.println(" Exported variants = " + exported);
+            System.out.println(" Snapshot = " + snapshot);
+        }
+        finally {
+            KnownVariantAnnotationService.shutdown();
+            CvaConfiguration.closeMongoClient();
+        }
+    }
+}
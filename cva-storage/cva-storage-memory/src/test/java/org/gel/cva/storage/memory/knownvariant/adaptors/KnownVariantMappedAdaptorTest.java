@@ -0,0 +1,235 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.CurationClassification;
+import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KnownVariantMappedAdaptorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path snapshot;
+    String chromosome = "chr19";
+    String chromosomeNormalized = "19";  // OpenCB normalizes chromosome identifiers
+    Integer position = 44908684;
+    String reference = "T";
+    String alternate = "C";
+
+    @Before
+    public void setUp() throws Exception {
+        this.snapshot = KnownVariantMappedAdaptor.getSnapshotPath(
+                this.temporaryFolder.getRoot().toString(), "GRCh38");
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        // three alternates at the same position spanning two blocks, some close variants and one far away
+        for (String alternate : new String[]{"A", "C", "G"}) {
+            knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, this.position,
+                    this.reference, alternate, false));
+        }
+        for (int position : new int[]{this.position + 10, this.position + 500, this.position + 50000}) {
+            knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, position,
+                    this.reference, this.alternate, false));
+        }
+        knownVariants.add(new KnownVariantWrapper("anotherSubmitter", "chr1", this.position,
+                this.reference, this.alternate, false));
+        knownVariants.get(1).addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null, null, null, null);
+        knownVariants.get(1).setVersion(3);
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setGeneName("APOE");
+        consequenceType.setEnsemblGeneId("ENSG00000130203");
+        consequenceType.setEnsemblTranscriptId("ENST00000252486");
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        variantAnnotation.setConsequenceTypes(Collections.singletonList(consequenceType));
+        knownVariants.get(1).setVariantAnnotation(variantAnnotation);
+        // written out of order and with a duplicate, blocks of two known variants
+        Collections.reverse(knownVariants);
+        knownVariants.add(knownVariants.get(0));
+        try (KnownVariantMappedWriter writer = new KnownVariantMappedWriter(this.snapshot, "GRCh38", 2)) {
+            for (KnownVariantWrapper knownVariantWrapper : knownVariants) {
+                writer.write(knownVariantWrapper);
+            }
+            writer.close();
+            assertEquals(7, writer.getWritten());
+        }
+    }
+
+    @Test
+    public void testFind()
+            throws Exception {
+        try (KnownVariantMappedAdaptor adaptor = new KnownVariantMappedAdaptor(this.snapshot, "GRCh38")) {
+            assertEquals(7, adaptor.count());
+            assertEquals("GRCh38", adaptor.getAssembly());
+            for (String alternate : new String[]{"A", "C", "G"}) {
+                KnownVariantWrapper knownVariantWrapper =
+                        adaptor.find(this.chromosome, this.position, this.reference, alternate);
+                assertNotNull(knownVariantWrapper);
+                assertEquals(this.chromosomeNormalized, knownVariantWrapper.getVariant().getChromosome());
+                assertEquals(alternate, knownVariantWrapper.getVariant().getAlternate());
+            }
+            KnownVariantWrapper knownVariantWrapper =
+                    adaptor.find(this.chromosomeNormalized, this.position, this.reference, this.alternate);
+            assertEquals(3, knownVariantWrapper.getVersion());
+            assertEquals(1, knownVariantWrapper.getImpl().getCurations().size());
+            assertNull(adaptor.find(this.chromosome, this.position, this.reference, "T"));
+            assertNull(adaptor.find(this.chromosome, this.position + 1, this.reference, this.alternate));
+            assertNull(adaptor.find("chr2", this.position, this.reference, this.alternate));
+            // projection
+            knownVariantWrapper = adaptor.find(this.chromosome, this.position, this.reference, this.alternate,
+                    new QueryOptions(QueryOptions.EXCLUDE, Collections.singletonList("curations")));
+            assertEquals(0, knownVariantWrapper.getImpl().getCurations().size());
+            // batches
+            List<Variant> variants = Arrays.asList(
+                    new Variant(this.chromosome, this.position + 500, this.reference, this.alternate),
+                    new Variant(this.chromosome, this.position + 501, this.reference, this.alternate),
+                    new Variant("chr1", this.position, this.reference, this.alternate),
+                    new Variant(this.chromosome, this.position, this.reference, this.alternate));
+            List<KnownVariantWrapper> results = adaptor.findAll(variants, null);
+            assertEquals(this.position + 500, results.get(0).getVariant().getStart().intValue());
+            assertNull(results.get(1));
+            assertEquals("anotherSubmitter", results.get(2).getImpl().getSubmitter());
+            assertEquals(Arrays.asList(1L, null, 1L, 3L), adaptor.findVersions(variants, null));
+        }
+    }
+
+    @Test
+    public void testQueries()
+            throws Exception {
+        try (KnownVariantMappedAdaptor adaptor = new KnownVariantMappedAdaptor(this.snapshot, null)) {
+            Query query = new Query(KnownVariantQueryParams.REGION.key(),
+                    this.chromosome + ":" + this.position + "-" + (this.position + 500));
+            assertEquals(5, adaptor.get(query, null).getNumResults());
+            query = new Query(KnownVariantQueryParams.REGION.key(),
+                    this.chromosomeNormalized + ":" + (this.position + 1) + "-" + (this.position + 10));
+            assertEquals(1, adaptor.get(query, null).getNumResults());
+            query = new Query(KnownVariantQueryParams.REGION.key(), Arrays.asList(
+                    this.chromosome + ":" + this.position + "-" + (this.position + 10),
+                    this.chromosome + ":" + (this.position + 10) + "-" + (this.position + 50000)));
+            assertEquals(6, adaptor.get(query, null).getNumResults());
+            query = new Query(KnownVariantQueryParams.REGION.key(), "chr2");
+            assertEquals(0, adaptor.get(query, null).getNumResults());
+            query = new Query(KnownVariantQueryParams.CHROMOSOME.key(), "1");
+            assertEquals(1, adaptor.get(query, null).getNumResults());
+            query = new Query(KnownVariantQueryParams.ID.key(),
+                    this.chromosome + ":" + (this.position + 10) + ":" + this.reference + ":" + this.alternate);
+            assertEquals(this.position + 10, adaptor.get(query, null).first().getVariant().getStart().intValue());
+            query = new Query(KnownVariantQueryParams.GENE.key(), "APOE");
+            QueryResult<KnownVariantWrapper> queryResult = adaptor.get(query, null);
+            assertEquals(1, queryResult.getNumResults());
+            assertEquals(this.alternate, queryResult.first().getVariant().getAlternate());
+            // the whole snapshot in order, with skip, limit and count
+            QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 2);
+            options.put(QueryOptions.SKIP, 1);
+            options.put(QueryOptions.COUNT, true);
+            queryResult = adaptor.get(new Query(), options);
+            assertEquals(2, queryResult.getNumResults());
+            assertEquals(7, queryResult.getNumTotalResults());
+            assertEquals(this.chromosomeNormalized, queryResult.getResult().get(0).getVariant().getChromosome());
+            assertEquals("A", queryResult.getResult().get(0).getVariant().getAlternate());
+            try (KnownVariantDBIterator iterator = adaptor.iterator()) {
+                while (iterator.hasNext()) {
+                    iterator.next();
+                }
+                assertEquals(7, iterator.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void testKeysetPagination()
+            throws Exception {
+        try (KnownVariantMappedAdaptor adaptor = new KnownVariantMappedAdaptor(this.snapshot, "GRCh38")) {
+            // pages of two resume within the block of the previous page, between alternates at the same position
+            List<KnownVariantWrapper> results = new LinkedList<>();
+            QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 2);
+            options.put(KnownVariantDBAdaptor.AFTER, "");
+            QueryResult<KnownVariantWrapper> queryResult = adaptor.get(new Query(), options);
+            while (queryResult.getNumResults() > 0) {
+                results.addAll(queryResult.getResult());
+                KnownVariantWrapper last = queryResult.getResult().get(queryResult.getNumResults() - 1);
+                options.put(KnownVariantDBAdaptor.AFTER, KnownVariantKey.of(last.getVariant()).toString());
+                queryResult = adaptor.get(new Query(), options);
+            }
+            assertEquals(7, results.size());
+            assertEquals("1", results.get(0).getVariant().getChromosome());
+            assertEquals("C", results.get(2).getVariant().getAlternate());
+            assertEquals(this.position + 50000, results.get(6).getVariant().getStart().intValue());
+            Query query = new Query(KnownVariantQueryParams.REGION.key(),
+                    this.chromosome + ":" + this.position + "-" + (this.position + 500));
+            options = new QueryOptions(KnownVariantDBAdaptor.AFTER,
+                    this.chromosomeNormalized + ":" + this.position + ":" + this.reference + ":C");
+            queryResult = adaptor.get(query, options);
+            assertEquals(3, queryResult.getNumResults());
+            assertEquals("G", queryResult.first().getVariant().getAlternate());
+            try {
+                adaptor.get(query, new QueryOptions(KnownVariantDBAdaptor.AFTER, "19:notAPosition:T:C"));
+                fail();
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testAssemblies()
+            throws Exception {
+        Path grch37 = KnownVariantMappedAdaptor.getSnapshotPath(this.temporaryFolder.getRoot().toString(), "GRCh37");
+        try (KnownVariantMappedWriter writer = new KnownVariantMappedWriter(grch37, "GRCh37")) {
+            writer.write(new KnownVariantWrapper("submitter", this.chromosome, 45411941,
+                    this.reference, this.alternate, false));
+        }
+        try (KnownVariantMappedAdaptor adaptor = new KnownVariantMappedAdaptor(grch37, "GRCh37")) {
+            assertEquals(1, adaptor.count());
+            assertNotNull(adaptor.find(this.chromosome, 45411941, this.reference, this.alternate));
+        }
+        try {
+            new KnownVariantMappedAdaptor(grch37, "GRCh38");
+            fail();
+        }
+        catch (IllegalCvaConfigurationException e) {
+            // expected
+        }
+        try {
+            new KnownVariantMappedAdaptor(KnownVariantMappedAdaptor.getSnapshotPath(
+                    this.temporaryFolder.getRoot().toString(), "NCBI36"), "NCBI36");
+            fail();
+        }
+        catch (IllegalCvaConfigurationException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly()
+            throws Exception {
+        try (KnownVariantMappedAdaptor adaptor = new KnownVariantMappedAdaptor(this.snapshot, "GRCh38")) {
+            adaptor.insert(new KnownVariantWrapper("submitter", "chr2", this.position,
+                    this.reference, this.alternate, false), null);
+        }
+    }
+}
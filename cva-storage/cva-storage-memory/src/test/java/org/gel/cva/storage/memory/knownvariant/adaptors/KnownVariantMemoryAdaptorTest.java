@@ -0,0 +1,390 @@
+package org.gel.cva.storage.memory.knownvariant.adaptors;
+
+import org.gel.cva.storage.core.exceptions.ConcurrentCvaModificationException;
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.models.cva.avro.AlleleOrigin;
+import org.gel.models.cva.avro.ConsistencyStatus;
+import org.gel.models.cva.avro.CurationClassification;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceBenignity;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.EvidencePathogenicity;
+import org.gel.models.cva.avro.HeritablePhenotype;
+import org.gel.models.cva.avro.SourceType;
+import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KnownVariantMemoryAdaptorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private KnownVariantMemoryAdaptor knownVariantMemoryAdaptor;
+    String chromosome = "chr19";
+    String chromosomeNormalized = "19";  // OpenCB normalizes chromosome identifiers
+    Integer position = 44908684;
+    String reference = "T";
+    String alternate = "C";
+
+    @Before
+    public void setUp() throws Exception {
+        this.knownVariantMemoryAdaptor = new KnownVariantMemoryAdaptor();
+    }
+
+    @Test
+    public void testInsertAndFind()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        String id = this.knownVariantMemoryAdaptor.insert(knownVariantWrapper, null);
+        assertNotNull(id);
+        assertEquals(1, knownVariantWrapper.getVersion());
+        // Lookups are normalized
+        KnownVariantWrapper foundKnownVariantWrapper = this.knownVariantMemoryAdaptor.find(
+                this.chromosomeNormalized, this.position, this.reference, this.alternate);
+        assertNotNull(foundKnownVariantWrapper);
+        assertEquals(this.chromosomeNormalized, foundKnownVariantWrapper.getVariant().getChromosome());
+        assertEquals(1, foundKnownVariantWrapper.getVersion());
+        assertNull(this.knownVariantMemoryAdaptor.find("chr1", this.position, this.reference, this.alternate));
+        // The stored known variant is a copy, modifying the one found does not modify it
+        foundKnownVariantWrapper.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null, null, null, null);
+        assertEquals(0, this.knownVariantMemoryAdaptor.find(this.chromosome, this.position, this.reference,
+                this.alternate).getImpl().getCurations().size());
+        // Duplicates are rejected
+        try {
+            this.knownVariantMemoryAdaptor.insert(new KnownVariantWrapper("submitter", this.chromosome,
+                    this.position, this.reference, this.alternate, false), null);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        List<KnownVariantInsertResult> results = this.knownVariantMemoryAdaptor.insert(Arrays.asList(
+                new KnownVariantWrapper("submitter", this.chromosome, this.position + 1,
+                        this.reference, this.alternate, false),
+                new KnownVariantWrapper("submitter", this.chromosome, this.position,
+                        this.reference, this.alternate, false)), null);
+        assertEquals(KnownVariantInsertResult.Status.INSERTED, results.get(0).getStatus());
+        assertEquals(KnownVariantInsertResult.Status.DUPLICATED, results.get(1).getStatus());
+        assertEquals(id, results.get(1).getId());
+        assertEquals(2, this.knownVariantMemoryAdaptor.count());
+    }
+
+    @Test
+    public void testFindAll()
+            throws VariantAnnotatorException, CvaException {
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int i = 0; i < 5; i++) {
+            knownVariants.add(new KnownVariantWrapper("submitter",
+                    this.chromosome, this.position + i, this.reference, this.alternate, false));
+        }
+        this.knownVariantMemoryAdaptor.insert(knownVariants, null);
+        List<Variant> variants = Arrays.asList(
+                new Variant(this.chromosome, this.position + 4, this.reference, this.alternate),
+                new Variant(this.chromosome, this.position + 10, this.reference, this.alternate),
+                new Variant(this.chromosomeNormalized, this.position, this.reference, this.alternate)
+        );
+        List<KnownVariantWrapper> results = this.knownVariantMemoryAdaptor.findAll(variants, null);
+        assertEquals(variants.size(), results.size());
+        assertEquals(this.position + 4, results.get(0).getVariant().getStart().intValue());
+        assertNull(results.get(1));
+        assertEquals(this.position, results.get(2).getVariant().getStart());
+        assertEquals(Arrays.asList(1L, null, 1L), this.knownVariantMemoryAdaptor.findVersions(variants, null));
+    }
+
+    @Test
+    public void testQueries()
+            throws VariantAnnotatorException, CvaException {
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int position : new int[]{this.position, this.position + 10, this.position + 500, this.position + 50000}) {
+            knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, position,
+                    this.reference, this.alternate, false));
+        }
+        knownVariants.add(new KnownVariantWrapper("anotherSubmitter", "chr1", this.position,
+                this.reference, this.alternate, false));
+        // Sets a fake annotation on the first variant
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setGeneName("APOE");
+        consequenceType.setEnsemblGeneId("ENSG00000130203");
+        consequenceType.setEnsemblTranscriptId("ENST00000252486");
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        variantAnnotation.setConsequenceTypes(Collections.singletonList(consequenceType));
+        knownVariants.get(0).setVariantAnnotation(variantAnnotation);
+        this.knownVariantMemoryAdaptor.insert(knownVariants, null);
+        // Region queries accept non normalized chromosomes
+        Query query = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosome + ":" + this.position + "-" + (this.position + 500));
+        assertEquals(3, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosomeNormalized + ":" + (this.position + 1) + "-" + (this.position + 10));
+        assertEquals(1, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        // Overlapping regions do not return duplicates
+        query = new Query(KnownVariantQueryParams.REGION.key(), Arrays.asList(
+                this.chromosome + ":" + this.position + "-" + (this.position + 10),
+                this.chromosome + ":" + (this.position + 10) + "-" + (this.position + 50000)));
+        assertEquals(4, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.REGION.key(), this.chromosome);
+        assertEquals(4, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.CHROMOSOME.key(), "1");
+        assertEquals(1, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.SUBMITTER.key(), "anotherSubmitter");
+        assertEquals(1, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.ID.key(),
+                this.chromosome + ":" + (this.position + 10) + ":" + this.reference + ":" + this.alternate);
+        assertEquals(this.position + 10,
+                this.knownVariantMemoryAdaptor.get(query, null).first().getVariant().getStart().intValue());
+        // Gene and transcript queries
+        query = new Query(KnownVariantQueryParams.GENE.key(), "APOE,BRCA2");
+        QueryResult<KnownVariantWrapper> queryResult = this.knownVariantMemoryAdaptor.get(query, null);
+        assertEquals(1, queryResult.getNumResults());
+        assertEquals(this.position, queryResult.getResult().get(0).getVariant().getStart());
+        query = new Query(KnownVariantQueryParams.TRANSCRIPT.key(), "ENST00000252486");
+        assertEquals(1, this.knownVariantMemoryAdaptor.get(query, null).getNumResults());
+        // Skip, limit and count, the known variants are sorted by position
+        query = new Query(KnownVariantQueryParams.CHROMOSOME.key(), this.chromosome);
+        QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 2);
+        options.put(QueryOptions.SKIP, 1);
+        options.put(QueryOptions.COUNT, true);
+        queryResult = this.knownVariantMemoryAdaptor.get(query, options);
+        assertEquals(2, queryResult.getNumResults());
+        assertEquals(4, queryResult.getNumTotalResults());
+        assertEquals(this.position + 10, queryResult.getResult().get(0).getVariant().getStart().intValue());
+        assertEquals(this.position + 500, queryResult.getResult().get(1).getVariant().getStart().intValue());
+        try (KnownVariantDBIterator iterator = this.knownVariantMemoryAdaptor.iterator(new Query(), null)) {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+            assertEquals(5, iterator.getCount());
+        }
+        catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testKeysetPagination()
+            throws VariantAnnotatorException, CvaException {
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int position : new int[]{this.position + 500, this.position, this.position + 10, this.position + 50000}) {
+            knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, position,
+                    this.reference, this.alternate, false));
+        }
+        knownVariants.add(new KnownVariantWrapper("anotherSubmitter", "chr1", this.position,
+                this.reference, this.alternate, false));
+        this.knownVariantMemoryAdaptor.insert(knownVariants, null);
+        // every page continues after the key of the last known variant of the previous page
+        List<KnownVariantWrapper> results = new LinkedList<>();
+        QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 2);
+        options.put(KnownVariantDBAdaptor.AFTER, "");
+        QueryResult<KnownVariantWrapper> queryResult = this.knownVariantMemoryAdaptor.get(new Query(), options);
+        while (queryResult.getNumResults() > 0) {
+            results.addAll(queryResult.getResult());
+            KnownVariantWrapper last = queryResult.getResult().get(queryResult.getNumResults() - 1);
+            options.put(KnownVariantDBAdaptor.AFTER, KnownVariantKey.of(last.getVariant()).toString());
+            queryResult = this.knownVariantMemoryAdaptor.get(new Query(), options);
+        }
+        assertEquals(5, results.size());
+        assertEquals("1", results.get(0).getVariant().getChromosome());
+        assertEquals(this.position + 10, results.get(2).getVariant().getStart().intValue());
+        assertEquals(this.position + 50000, results.get(4).getVariant().getStart().intValue());
+        // regions and ids continue after the key too
+        Query query = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosome + ":" + this.position + "-" + (this.position + 500));
+        options = new QueryOptions(KnownVariantDBAdaptor.AFTER,
+                this.chromosomeNormalized + ":" + this.position + ":" + this.reference + ":" + this.alternate);
+        queryResult = this.knownVariantMemoryAdaptor.get(query, options);
+        assertEquals(2, queryResult.getNumResults());
+        assertEquals(this.position + 10, queryResult.first().getVariant().getStart().intValue());
+        query = new Query(KnownVariantQueryParams.ID.key(), Arrays.asList(
+                this.chromosome + ":" + (this.position + 500) + ":" + this.reference + ":" + this.alternate,
+                this.chromosome + ":" + this.position + ":" + this.reference + ":" + this.alternate,
+                this.chromosome + ":" + (this.position + 10) + ":" + this.reference + ":" + this.alternate));
+        queryResult = this.knownVariantMemoryAdaptor.get(query, options);
+        assertEquals(2, queryResult.getNumResults());
+        assertEquals(this.position + 10, queryResult.first().getVariant().getStart().intValue());
+    }
+
+    @Test
+    public void testProjection()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter",
+                this.chromosome, this.position, this.reference, this.alternate, false);
+        knownVariantWrapper.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null,
+                null, null, null);
+        knownVariantWrapper.addEvidence("theSubmitter", null,
+                SourceType.clinical_testing, null, null, null,
+                AlleleOrigin.germline, null, null, EvidencePathogenicity.strong,
+                null, null, null, null, null,
+                null);
+        this.knownVariantMemoryAdaptor.insert(knownVariantWrapper, null);
+        QueryOptions options = new QueryOptions(QueryOptions.INCLUDE,
+                Collections.singletonList("curations.curation"));
+        KnownVariantWrapper foundKnownVariantWrapper = this.knownVariantMemoryAdaptor.find(
+                this.chromosome, this.position, this.reference, this.alternate, options);
+        assertEquals(1, foundKnownVariantWrapper.getImpl().getCurations().size());
+        assertEquals(0, foundKnownVariantWrapper.getImpl().getEvidences().size());
+        options = new QueryOptions(QueryOptions.EXCLUDE, Collections.singletonList("evidences"));
+        foundKnownVariantWrapper = this.knownVariantMemoryAdaptor.find(
+                this.chromosome, this.position, this.reference, this.alternate, options);
+        assertEquals(1, foundKnownVariantWrapper.getImpl().getCurations().size());
+        assertEquals(0, foundKnownVariantWrapper.getImpl().getEvidences().size());
+    }
+
+    @Test
+    public void testAtomicAppends()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        this.knownVariantMemoryAdaptor.insert(knownVariantWrapper, null);
+        KnownVariantWrapper storedKnownVariantWrapper =
+                this.knownVariantMemoryAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        CurationHistoryEntry firstCuration = storedKnownVariantWrapper.buildCurationHistoryEntry("curator1",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.pathogenic_variant, null, null, null, null);
+        CurationHistoryEntry secondCuration = storedKnownVariantWrapper.buildCurationHistoryEntry("curator2",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.benign_variant, null, null, null, null);
+        KnownVariantWrapper updatedKnownVariantWrapper =
+                this.knownVariantMemoryAdaptor.addCuration(storedKnownVariantWrapper, firstCuration, true);
+        assertEquals(2, updatedKnownVariantWrapper.getVersion());
+        assertEquals(ConsistencyStatus.consensus,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        // the second curation was built on a stale version and it is rejected
+        try {
+            this.knownVariantMemoryAdaptor.addCuration(storedKnownVariantWrapper, secondCuration, true);
+            fail();
+        }
+        catch (ConcurrentCvaModificationException e) {
+            // expected
+        }
+        secondCuration = updatedKnownVariantWrapper.buildCurationHistoryEntry("curator2",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.benign_variant, null, null, null, null);
+        updatedKnownVariantWrapper =
+                this.knownVariantMemoryAdaptor.addCuration(updatedKnownVariantWrapper, secondCuration, true);
+        assertEquals(1, updatedKnownVariantWrapper.getImpl().getCurations().size());
+        assertEquals(2, updatedKnownVariantWrapper.getImpl().getCurations().get(0).getHistory().size());
+        assertEquals(CurationClassification.benign_variant,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getClassification());
+        // Evidences in both directions for the curated phenotype set the curation in conflict
+        List<HeritablePhenotype> heritablePhenotypes = Collections.singletonList(
+                new HeritablePhenotype("HPO:0000001", ReportedModeOfInheritance.monoallelic));
+        EvidenceEntry pathogenicEvidence = storedKnownVariantWrapper.buildEvidenceEntry("theSubmitter", null,
+                SourceType.literature_manual_curation, null, null, null, AlleleOrigin.germline,
+                heritablePhenotypes, null, EvidencePathogenicity.moderate, null, null, null, null, null, null);
+        EvidenceEntry benignEvidence = storedKnownVariantWrapper.buildEvidenceEntry("theSubmitter", null,
+                SourceType.clinical_testing, null, null, null, AlleleOrigin.germline,
+                heritablePhenotypes, null, null, EvidenceBenignity.strong, null, null, null, null, null);
+        // evidences can be appended from stale states
+        updatedKnownVariantWrapper =
+                this.knownVariantMemoryAdaptor.addEvidence(storedKnownVariantWrapper, pathogenicEvidence);
+        assertEquals(ConsistencyStatus.consensus,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        updatedKnownVariantWrapper =
+                this.knownVariantMemoryAdaptor.addEvidence(storedKnownVariantWrapper, benignEvidence);
+        assertEquals(2, updatedKnownVariantWrapper.getImpl().getEvidences().size());
+        assertEquals(ConsistencyStatus.conflict,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        KnownVariantWrapper notRegistered = new KnownVariantWrapper("submitter", "chr1", this.position,
+                this.reference, this.alternate, false);
+        try {
+            this.knownVariantMemoryAdaptor.addEvidence(notRegistered, pathogenicEvidence);
+            fail();
+        }
+        catch (CvaException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testVersionedUpdate()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        assertFalse(this.knownVariantMemoryAdaptor.update(knownVariantWrapper));
+        this.knownVariantMemoryAdaptor.insert(knownVariantWrapper, null);
+        KnownVariantWrapper firstRead =
+                this.knownVariantMemoryAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        KnownVariantWrapper secondRead =
+                this.knownVariantMemoryAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        firstRead.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null, null, null, null);
+        assertTrue(this.knownVariantMemoryAdaptor.update(firstRead));
+        assertEquals(2, firstRead.getVersion());
+        secondRead.addCuration("theCurator", "HPO:0000002", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.benign_variant, null, null, null, null);
+        try {
+            this.knownVariantMemoryAdaptor.update(secondRead);
+            fail();
+        }
+        catch (ConcurrentCvaModificationException e) {
+            // expected
+        }
+        KnownVariantWrapper stored =
+                this.knownVariantMemoryAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        assertEquals(2, stored.getVersion());
+        assertEquals("HPO:0000001",
+                stored.getImpl().getCurations().get(0).getCuration().getHeritablePhenotype().getPhenotype());
+    }
+
+    @Test
+    public void testSnapshot()
+            throws Exception {
+        String snapshot = this.temporaryFolder.getRoot().toPath().resolve("known_variants.snapshot").toString();
+        try (KnownVariantMemoryAdaptor writer = new KnownVariantMemoryAdaptor(snapshot, false)) {
+            for (int i = 0; i < 3; i++) {
+                KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                        this.position + i, this.reference, this.alternate, false);
+                knownVariantWrapper.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                        null, CurationClassification.pathogenic_variant, null, null, null, null);
+                writer.insert(knownVariantWrapper, null);
+            }
+            KnownVariantWrapper knownVariantWrapper =
+                    writer.find(this.chromosome, this.position, this.reference, this.alternate);
+            knownVariantWrapper.addCuration("theCurator", "HPO:0000002", ReportedModeOfInheritance.monoallelic,
+                    null, CurationClassification.benign_variant, null, null, null, null);
+            writer.update(knownVariantWrapper);
+        }
+        // The snapshot is restored as a read only replica
+        try (KnownVariantMemoryAdaptor reader = new KnownVariantMemoryAdaptor(snapshot, true)) {
+            assertEquals(3, reader.count());
+            KnownVariantWrapper knownVariantWrapper =
+                    reader.find(this.chromosome, this.position, this.reference, this.alternate);
+            assertEquals(2, knownVariantWrapper.getVersion());
+            assertEquals(2, knownVariantWrapper.getImpl().getCurations().size());
+            try {
+                reader.insert(new KnownVariantWrapper("submitter", "chr1", this.position,
+                        this.reference, this.alternate, false), null);
+                fail();
+            }
+            catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+}
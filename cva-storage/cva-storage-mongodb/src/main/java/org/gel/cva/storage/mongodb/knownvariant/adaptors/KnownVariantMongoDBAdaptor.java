@@ -17,37 +17,88 @@
 package org.gel.cva.storage.mongodb.knownvariant.adaptors;
 
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
 import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.ConcurrentCvaModificationException;
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaArgumentException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaCredentialsException;
+import org.gel.cva.storage.core.helpers.AvroHelper;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantBloomFilter;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantKey;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
+import org.gel.cva.storage.mongodb.knownvariant.codecs.AvroRecordCodec;
+import org.gel.cva.storage.mongodb.knownvariant.codecs.KnownVariantCodec;
+import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToCurationConverter;
+import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToCurationEntryConverter;
+import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToEvidenceEntryConverter;
 import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToKnownVariantConverter;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
 import org.gel.models.cva.avro.ConsistencyStatus;
+import org.gel.models.cva.avro.Curation;
 import org.gel.models.cva.avro.CurationClassification;
+import org.gel.models.cva.avro.CurationEntry;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.HeritablePhenotype;
 import org.gel.models.cva.avro.ManualCurationConfidence;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
-import org.opencb.commons.datastore.mongodb.MongoDataStore;
-import org.opencb.commons.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.commons.io.DataWriter;
 import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Pattern;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.elemMatch;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.push;
+import static com.mongodb.client.model.Updates.set;
 import static org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor.NUMBER_INSTANCES;
 
 /**
@@ -57,12 +108,69 @@ import static org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDB
  */
 public class KnownVariantMongoDBAdaptor implements KnownVariantDBAdaptor {
 
-    private boolean closeConnection;
-    private MongoDataStoreManager mongoManager;
+    private static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_ITERATOR_BATCH_SIZE = 100;
+    private static final int DEFAULT_FIND_BATCH_SIZE = 1000;
+    private static final int MAX_REGION_CHUNKS = 100;
+    private static final double DEFAULT_BLOOM_FILTER_FPP = 0.01;
+    private static final long DEFAULT_BLOOM_FILTER_REBUILD_MINUTES = 60;
+    private static final Pattern CHROMOSOME_PREFIX = Pattern.compile("^(chrom|chrm|chr|ch)", Pattern.CASE_INSENSITIVE);
+    private static final String CHROMOSOME_FIELD =
+            DocumentToKnownVariantConverter.VARIANT + "." + DocumentToVariantConverter.CHROMOSOME_FIELD;
+    private static final String START_FIELD =
+            DocumentToKnownVariantConverter.VARIANT + "." + DocumentToVariantConverter.START_FIELD;
+    private static final String END_FIELD =
+            DocumentToKnownVariantConverter.VARIANT + "." + DocumentToVariantConverter.END_FIELD;
+    private static final String CHUNK_IDS_FIELD =
+            DocumentToKnownVariantConverter.AT + "." + DocumentToKnownVariantConverter.CHUNK_IDS;
+    private static final String GENES_FIELD =
+            DocumentToKnownVariantConverter.AT + "." + DocumentToKnownVariantConverter.GENES;
+    private static final String TRANSCRIPTS_FIELD =
+            DocumentToKnownVariantConverter.AT + "." + DocumentToKnownVariantConverter.TRANSCRIPTS;
+    // fields of the curation entries, relative to the elements of the curations array
+    private static final String PHENOTYPE_FIELD = DocumentToCurationEntryConverter.CURATION + "." +
+            DocumentToCurationConverter.HERITABLE_PHENOTYPE + "." + DocumentToCurationConverter.PHENOTYPE;
+    private static final String INHERITANCE_MODE_FIELD = DocumentToCurationEntryConverter.CURATION + "." +
+            DocumentToCurationConverter.HERITABLE_PHENOTYPE + "." + DocumentToCurationConverter.INHERITANCE_MODE;
+    private static final String TRANSCRIPT_FIELD =
+            DocumentToCurationEntryConverter.CURATION + "." + DocumentToCurationConverter.TRANSCRIPT;
+    private static final String CONSISTENCY_STATUS_FIELD =
+            DocumentToCurationEntryConverter.CURATION + "." + DocumentToCurationConverter.CONSISTENCY_STATUS;
+    private static final String CURATION_POSITIONAL_FIELD =
+            DocumentToKnownVariantConverter.CURATIONS + ".$." + DocumentToCurationEntryConverter.CURATION;
+    private static final String HISTORY_POSITIONAL_FIELD =
+            DocumentToKnownVariantConverter.CURATIONS + ".$." + DocumentToCurationEntryConverter.HISTORY;
+    private static final String CONSISTENCY_STATUS_POSITIONAL_FIELD =
+            DocumentToKnownVariantConverter.CURATIONS + ".$." + CONSISTENCY_STATUS_FIELD;
+    private static final String PATHOGENIC_EVIDENCES_FIELD =
+            DocumentToKnownVariantConverter.AT + "." + DocumentToKnownVariantConverter.PATHOGENIC_EVIDENCES;
+    private static final String BENIGN_EVIDENCES_FIELD =
+            DocumentToKnownVariantConverter.AT + "." + DocumentToKnownVariantConverter.BENIGN_EVIDENCES;
+    // indexes backing the queries, created and verified when the adaptor is built. The indexed _at fields are only
+    // written with whole known variants, collections from previous versions are migrated with KnownVariantBackfill
+    private static final Map<String, Bson> INDEXES = new LinkedHashMap<>();
+    static {
+        INDEXES.put("region", Indexes.ascending(CHROMOSOME_FIELD, START_FIELD, END_FIELD));
+        INDEXES.put("chunkIds", Indexes.ascending(CHUNK_IDS_FIELD));
+        INDEXES.put("genes", Indexes.ascending(GENES_FIELD));
+        INDEXES.put("transcripts", Indexes.ascending(TRANSCRIPTS_FIELD));
+        INDEXES.put("submitter", Indexes.ascending(DocumentToKnownVariantConverter.SUBMITTER));
+    }
+    // fields always returned as they are needed to build a KnownVariantWrapper
+    private static final List<String> REQUIRED_FIELDS = Arrays.asList(
+            "_id", DocumentToKnownVariantConverter.SUBMITTER, DocumentToKnownVariantConverter.VARIANT,
+            DocumentToKnownVariantConverter.VERSION);
+
     private String collectionName;
     private MongoCollection<Document> knownVariantsCollection;
+    // the same collection decoding and encoding known variants through the KnownVariantCodec
+    private MongoCollection<KnownVariantWrapper> knownVariantsCodecCollection;
     private MongoCredentials credentials;
-    private DocumentToKnownVariantConverter knownVariantConverter = new DocumentToKnownVariantConverter();
+    private int insertBatchSize;
+    private KnownVariantBloomFilter bloomFilter = null;
+    // the gauges of the Bloom filter by metric name, removed from the shared registry on close
+    private final Map<String, DoubleSupplier> bloomFilterGauges = new LinkedHashMap<>();
+    private KnownVariantCodec knownVariantCodec;
     protected static Logger logger = LoggerFactory.getLogger(KnownVariantMongoDBAdaptor.class);
 
     /**
@@ -73,17 +181,137 @@ public class KnownVariantMongoDBAdaptor implements KnownVariantDBAdaptor {
      */
     public KnownVariantMongoDBAdaptor(CvaConfiguration cvaConfiguration)
             throws IllegalCvaConfigurationException, IllegalCvaCredentialsException {
+        // the client is shared by the whole process and owned by CvaConfiguration
+        this(cvaConfiguration, CvaConfiguration.getMongoClient());
+    }
+
+    /**
+     * Constructor using the configuration object and a given MongoClient, the client is not closed by the adaptor.
+     * This allows running the adaptor against an in-memory MongoDB, for instance in benchmarks.
+     * @param cvaConfiguration
+     * @param mongoClient       the client connected to the database holding the known variants
+     * @throws IllegalCvaConfigurationException
+     * @throws IllegalCvaCredentialsException
+     */
+    public KnownVariantMongoDBAdaptor(CvaConfiguration cvaConfiguration, MongoClient mongoClient)
+            throws IllegalCvaConfigurationException, IllegalCvaCredentialsException {
         // Gets mongo credentials
         this.credentials = CvaConfiguration.getMongoCredentials();
-        this.closeConnection = false;
-        this.mongoManager = new MongoDataStoreManager(this.credentials.getDataStoreServerAddresses());
         this.collectionName = cvaConfiguration.getDefaultStorageEngine().getOptions().get("collection.knownvariants");
+        String insertBatchSize = cvaConfiguration.getDefaultStorageEngine().getOptions().get("insert.batchSize");
+        this.insertBatchSize = insertBatchSize != null ? Integer.parseInt(insertBatchSize) : DEFAULT_INSERT_BATCH_SIZE;
         //this.knownVariantsCollection = db.getCollection(collectionName);
         NUMBER_INSTANCES.incrementAndGet();
 
-        MongoClient mongoClient = CvaConfiguration.getMongoClient();
         MongoDatabase database = mongoClient.getDatabase(credentials.getMongoDbName());
-        this.knownVariantsCollection = database.getCollection(this.collectionName);
+        // known variants and the records pushed by the atomic updates are written straight to BSON
+        String lazyDecoding = cvaConfiguration.getDefaultStorageEngine().getOptions().get("decode.lazy");
+        this.knownVariantCodec = new KnownVariantCodec(database.getCodecRegistry(),
+                lazyDecoding != null && Boolean.parseBoolean(lazyDecoding));
+        CodecRegistry codecRegistry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(
+                        this.knownVariantCodec,
+                        new AvroRecordCodec<>(CurationEntry.class),
+                        new AvroRecordCodec<>(Curation.class),
+                        new AvroRecordCodec<>(CurationHistoryEntry.class),
+                        new AvroRecordCodec<>(EvidenceEntry.class)),
+                database.getCodecRegistry());
+        this.knownVariantsCollection = database.getCollection(this.collectionName).withCodecRegistry(codecRegistry);
+        this.knownVariantsCodecCollection = this.knownVariantsCollection.withDocumentClass(KnownVariantWrapper.class);
+        String createIndexes = cvaConfiguration.getDefaultStorageEngine().getOptions().get("indexes.create");
+        if (createIndexes == null || Boolean.parseBoolean(createIndexes)) {
+            this.createIndexes();
+        }
+        this.verifyIndexes();
+        String enableBloomFilter = cvaConfiguration.getDefaultStorageEngine().getOptions().get("bloomFilter.enable");
+        if (enableBloomFilter != null && Boolean.parseBoolean(enableBloomFilter)) {
+            this.startBloomFilter(cvaConfiguration.getDefaultStorageEngine().getOptions());
+        }
+    }
+
+    /**
+     * Builds the membership filter over the stored _ids, which spares the database round trip for most lookups of
+     * variants not registered in CVA. The filter only learns the _ids inserted by this process, those written by
+     * other processes are missed until the next rebuild, so it is disabled by default and must only be enabled when
+     * this process is the single writer of the collection. The write paths read with SKIP_FILTER regardless.
+     * @param options       the storage engine options: bloomFilter.fpp, bloomFilter.snapshot and
+     *                      bloomFilter.rebuildMinutes
+     */
+    private void startBloomFilter(Map<String, String> options) {
+        String fpp = options.get("bloomFilter.fpp");
+        String rebuildMinutes = options.get("bloomFilter.rebuildMinutes");
+        this.bloomFilter = new KnownVariantBloomFilter(
+                new KnownVariantBloomFilter.IdSource() {
+                    @Override
+                    public long count() {
+                        return knownVariantsCollection.count();
+                    }
+
+                    @Override
+                    public void scan(Consumer<String> consumer) {
+                        try (MongoCursor<Document> cursor = knownVariantsCollection.find()
+                                .projection(Projections.include("_id"))
+                                .batchSize(DEFAULT_FIND_BATCH_SIZE)
+                                .iterator()) {
+                            while (cursor.hasNext()) {
+                                consumer.accept((String) cursor.next().get("_id"));
+                            }
+                        }
+                    }
+                },
+                fpp != null ? Double.parseDouble(fpp) : DEFAULT_BLOOM_FILTER_FPP,
+                options.get("bloomFilter.snapshot"),
+                rebuildMinutes != null ? Long.parseLong(rebuildMinutes) : DEFAULT_BLOOM_FILTER_REBUILD_MINUTES);
+        this.bloomFilter.start();
+        KnownVariantBloomFilter registeredFilter = this.bloomFilter;
+        this.registerBloomFilterGauge("cva_bloom_filter_expected_fpp",
+                "Estimated false positive probability of the known variants Bloom filter",
+                registeredFilter::getExpectedFpp);
+        this.registerBloomFilterGauge("cva_bloom_filter_observed_fpp",
+                "Observed fraction of absent known variants answered positively by the Bloom filter",
+                registeredFilter::getObservedFpp);
+        this.registerBloomFilterGauge("cva_bloom_filter_elements", "Number of ids in the known variants Bloom filter",
+                registeredFilter::getElements);
+    }
+
+    /**
+     * Registers a gauge of the Bloom filter labelled with the collection
+     * @param name      the metric name
+     * @param help      the description of the metric
+     * @param value     the gauge
+     */
+    private void registerBloomFilterGauge(String name, String help, DoubleSupplier value) {
+        if (MetricsRegistry.getInstance().gauge(name, help, value, "collection", this.collectionName) != null) {
+            logger.warn("Replacing the {} gauge of another adaptor over the collection {}, only the last one " +
+                    "opened is reported", name, this.collectionName);
+        }
+        this.bloomFilterGauges.put(name, value);
+    }
+
+    /**
+     * Creates the indexes backing the queries, existing indexes are left untouched
+     */
+    private void createIndexes() {
+        for (Map.Entry<String, Bson> index : INDEXES.entrySet()) {
+            this.knownVariantsCollection.createIndex(index.getValue(),
+                    new IndexOptions().name(index.getKey()).background(true));
+        }
+    }
+
+    /**
+     * Verifies that the indexes backing the queries exist, otherwise region, gene and transcript queries would
+     * scan the whole collection
+     * @throws IllegalCvaConfigurationException     if any index is missing
+     */
+    private void verifyIndexes() throws IllegalCvaConfigurationException {
+        Set<String> missingIndexes = new LinkedHashSet<>(INDEXES.keySet());
+        for (Document index : this.knownVariantsCollection.listIndexes()) {
+            missingIndexes.remove(index.getString("name"));
+        }
+        if (!missingIndexes.isEmpty()) {
+            throw new IllegalCvaConfigurationException("Missing indexes " + missingIndexes + " in collection " +
+                    this.collectionName + ", set the storage engine option indexes.create to true to create them");
+        }
     }
 
     /**
@@ -95,26 +323,102 @@ public class KnownVariantMongoDBAdaptor implements KnownVariantDBAdaptor {
     @Override
     public String insert(KnownVariantWrapper knownVariant, QueryOptions options) {
 
-        // Creates a set of converters
-
-        Document curatedVariantDocument = this.knownVariantConverter.convertToStorageType(knownVariant);
-        this.knownVariantsCollection.insertOne(curatedVariantDocument);
-        return (String) curatedVariantDocument.get("_id");
+        // the codec writes the version of the wrapper
+        long version = knownVariant.getVersion();
+        knownVariant.setVersion(1L);
+        try {
+            this.knownVariantsCodecCollection.insertOne(knownVariant);
+        }
+        catch (RuntimeException e) {
+            knownVariant.setVersion(version);
+            throw e;
+        }
+        String id = this.knownVariantCodec.buildStorageId(knownVariant.getVariant());
+        if (this.bloomFilter != null) {
+            this.bloomFilter.put(id);
+        }
+        return id;
     }
 
     /**
-     * This method inserts a list of KnownVariants in the database. If the variant already exists... throw error?
+     * This method inserts a list of KnownVariants in the database in batches. The insertion is unordered, a variant
+     * that already exists or fails to be inserted does not abort the insertion of the rest of variants.
      * @param knownVariants     List of curated variants in OpenCB data model to be inserted
-     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, sort and count
-     * @return                  The list of known variant _id
+     * @param options           Query modifiers, accepted values are: batchSize
+     * @return                  The result of every insertion in the same order as the input list
      */
     @Override
-    public List<String> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options) {
-        //TODO: implement the insertion in batches of variants
-        List<String> results = new LinkedList<>();
+    public List<KnownVariantInsertResult> insert(List<KnownVariantWrapper> knownVariants, QueryOptions options) {
+
+        int batchSize = this.insertBatchSize;
+        if (options != null) {
+            batchSize = options.getInt(BATCH_SIZE, this.insertBatchSize);
+        }
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_INSERT_BATCH_SIZE;
+        }
+        List<KnownVariantInsertResult> results = new ArrayList<>(knownVariants.size());
+        for (int start = 0; start < knownVariants.size(); start += batchSize) {
+            int end = Math.min(start + batchSize, knownVariants.size());
+            results.addAll(this.insertBatch(knownVariants.subList(start, end)));
+        }
+        return results;
+    }
+
+    /**
+     * Sends a single unordered bulk write to MongoDB and maps the write errors back to every input variant.
+     * @param knownVariants     the batch of known variants to insert
+     * @return                  the result of every insertion in the same order as the input list
+     */
+    private List<KnownVariantInsertResult> insertBatch(List<KnownVariantWrapper> knownVariants) {
+
+        List<String> ids = new ArrayList<>(knownVariants.size());
+        List<Long> versions = new ArrayList<>(knownVariants.size());
+        List<InsertOneModel<KnownVariantWrapper>> requests = new ArrayList<>(knownVariants.size());
         for (KnownVariantWrapper knownVariantWrapper : knownVariants) {
-            String id = this.insert(knownVariantWrapper, options);
-            results.add(id);
+            ids.add(this.knownVariantCodec.buildStorageId(knownVariantWrapper.getVariant()));
+            // the codec writes the version of the wrapper, it is restored if the insertion fails
+            versions.add(knownVariantWrapper.getVersion());
+            knownVariantWrapper.setVersion(1L);
+            requests.add(new InsertOneModel<>(knownVariantWrapper));
+        }
+        // Every variant not reported as a write error has been inserted
+        Map<Integer, BulkWriteError> writeErrors = new HashMap<>();
+        try {
+            this.knownVariantsCodecCollection.bulkWrite(requests, new BulkWriteOptions().ordered(false));
+        }
+        catch (MongoBulkWriteException e) {
+            for (BulkWriteError writeError : e.getWriteErrors()) {
+                writeErrors.put(writeError.getIndex(), writeError);
+            }
+            if (e.getWriteConcernError() != null) {
+                logger.warn("Write concern error in bulk insertion: {}", e.getWriteConcernError().getMessage());
+            }
+        }
+        catch (RuntimeException e) {
+            for (int i = 0; i < knownVariants.size(); i++) {
+                knownVariants.get(i).setVersion(versions.get(i));
+            }
+            throw e;
+        }
+        List<KnownVariantInsertResult> results = new ArrayList<>(knownVariants.size());
+        for (int i = 0; i < ids.size(); i++) {
+            BulkWriteError writeError = writeErrors.get(i);
+            if (writeError == null) {
+                results.add(KnownVariantInsertResult.inserted(ids.get(i)));
+                // duplicates are not recorded, the filter counts the ids it holds
+                if (this.bloomFilter != null) {
+                    this.bloomFilter.put(ids.get(i));
+                }
+            }
+            else if (writeError.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                knownVariants.get(i).setVersion(versions.get(i));
+                results.add(KnownVariantInsertResult.duplicated(ids.get(i)));
+            }
+            else {
+                knownVariants.get(i).setVersion(versions.get(i));
+                results.add(KnownVariantInsertResult.failed(ids.get(i), writeError.getMessage()));
+            }
         }
         return results;
     }
@@ -127,15 +431,162 @@ public class KnownVariantMongoDBAdaptor implements KnownVariantDBAdaptor {
      * @param position          The position
      * @param reference         The reference base/s
      * @param alternate         The alternate base/s
+     * @param options           Query modifiers, accepted values are: include, exclude and skipFilter
      * @return                  The known variant found if any, otherwise returns null
      * @throws CvaException
      */
-    public KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate)
-            throws CvaException {
+    @Override
+    public KnownVariantWrapper find(String chromosome, Integer position, String reference, String alternate,
+                                    QueryOptions options) throws CvaException {
+
+        String variantId = this.getStorageId(chromosome, position, reference, alternate);
+        boolean filtered = this.bloomFilter != null &&
+                (options == null || !options.getBoolean(SKIP_FILTER, false));
+        if (filtered && !this.bloomFilter.mightContain(variantId)) {
+            return null;
+        }
+        // Search in MongoDB
+        FindIterable<KnownVariantWrapper> findIterable = this.knownVariantsCodecCollection.find(eq("_id", variantId));
+        Bson projection = options != null ? this.createProjection(options) : null;
+        if (projection != null) {
+            findIterable.projection(projection);
+        }
+        KnownVariantWrapper foundKnownVariant = findIterable.first();
+        if (foundKnownVariant == null && filtered) {
+            this.bloomFilter.reportFalsePositive();
+        }
+        return foundKnownVariant;
+    }
+
+    /**
+     * Retrieves the KnownVariants for a list of variants with one $in query on the normalized _ids per batch.
+     * Normalization is applied as in find, variants that cannot be normalized are not found.
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, accepted values are: batchSize, include and exclude
+     * @return                  The known variants in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    @Override
+    public List<KnownVariantWrapper> findAll(List<Variant> variants, QueryOptions options) {
+
+        int batchSize = options != null ? options.getInt(BATCH_SIZE, DEFAULT_FIND_BATCH_SIZE) : DEFAULT_FIND_BATCH_SIZE;
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_FIND_BATCH_SIZE;
+        }
+        // Normalizes every variant to its _id, duplicated variants are fetched once
+        List<String> ids = new ArrayList<>(variants.size());
+        Set<String> distinctIds = new LinkedHashSet<>();
+        for (Variant variant : variants) {
+            String id = null;
+            try {
+                id = this.getStorageId(variant.getChromosome(), variant.getStart(), variant.getReference(),
+                        variant.getAlternate());
+                // only the variants that may be stored are fetched
+                if (this.bloomFilter == null || this.bloomFilter.mightContain(id)) {
+                    distinctIds.add(id);
+                }
+            }
+            catch (CvaException | RuntimeException e) {
+                logger.debug("Variant {} cannot be normalized: {}", variant, e.getMessage());
+            }
+            ids.add(id);
+        }
+        // Fetches the known variants in batches
+        Bson projection = options != null ? this.createProjection(options) : null;
+        Map<String, KnownVariantWrapper> foundKnownVariants = new HashMap<>();
+        List<String> batch = new ArrayList<>(batchSize);
+        Iterator<String> iterator = distinctIds.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            if (batch.size() == batchSize || !iterator.hasNext()) {
+                FindIterable<KnownVariantWrapper> findIterable =
+                        this.knownVariantsCodecCollection.find(in("_id", batch)).batchSize(batchSize);
+                if (projection != null) {
+                    findIterable.projection(projection);
+                }
+                for (KnownVariantWrapper knownVariantWrapper : findIterable) {
+                    // the stored variant is normalized, so it builds back its _id
+                    foundKnownVariants.put(this.knownVariantCodec.buildStorageId(knownVariantWrapper.getVariant()),
+                            knownVariantWrapper);
+                }
+                batch.clear();
+            }
+        }
+        if (this.bloomFilter != null) {
+            for (String id : distinctIds) {
+                if (!foundKnownVariants.containsKey(id)) {
+                    this.bloomFilter.reportFalsePositive();
+                }
+            }
+        }
+        // Sorts the results as the input
+        List<KnownVariantWrapper> results = new ArrayList<>(variants.size());
+        for (String id : ids) {
+            results.add(id != null ? foundKnownVariants.get(id) : null);
+        }
+        return results;
+    }
+
+    /**
+     * Retrieves the current version of the KnownVariants for a list of variants reading only _id and _version,
+     * with one $in query on the normalized _ids per batch. Documents without _version have version 0.
+     * @param variants          The variants to search for, only chromosome, start, reference and alternate are used
+     * @param options           Query modifiers, accepted values are: batchSize
+     * @return                  The versions in the same order as the input list, null for the variants that
+     *                          are not registered
+     */
+    @Override
+    public List<Long> findVersions(List<Variant> variants, QueryOptions options) {
 
-        // Creates a new variant and serializes to Bson for two reasons:
-        //  * get the variant id to search the database
-        //  * consider variant normalization in search
+        int batchSize = options != null ? options.getInt(BATCH_SIZE, DEFAULT_FIND_BATCH_SIZE) : DEFAULT_FIND_BATCH_SIZE;
+        if (batchSize <= 0) {
+            batchSize = DEFAULT_FIND_BATCH_SIZE;
+        }
+        List<String> ids = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            String id = null;
+            try {
+                id = this.getStorageId(variant.getChromosome(), variant.getStart(), variant.getReference(),
+                        variant.getAlternate());
+            }
+            catch (CvaException | RuntimeException e) {
+                logger.debug("Variant {} cannot be normalized: {}", variant, e.getMessage());
+            }
+            ids.add(id);
+        }
+        Map<String, Long> versions = new HashMap<>();
+        Bson projection = Projections.include("_id", DocumentToKnownVariantConverter.VERSION);
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            Set<String> batch = new HashSet<>(ids.subList(start, Math.min(start + batchSize, ids.size())));
+            batch.remove(null);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            for (Document document : this.knownVariantsCollection.find(in("_id", batch))
+                    .projection(projection).batchSize(batchSize)) {
+                Number version = (Number) document.get(DocumentToKnownVariantConverter.VERSION);
+                versions.put((String) document.get("_id"), version != null ? version.longValue() : 0L);
+            }
+        }
+        List<Long> results = new ArrayList<>(variants.size());
+        for (String id : ids) {
+            results.add(id != null ? versions.get(id) : null);
+        }
+        return results;
+    }
+
+    /**
+     * Builds the _id of a known variant from the basic variant attributes, applying normalization
+     * @param chromosome        The chromosome
+     * @param position          The position
+     * @param reference         The reference base/s
+     * @param alternate         The alternate base/s
+     * @return                  The known variant _id
+     * @throws CvaException     if the variant cannot be normalized
+     */
+    private String getStorageId(String chromosome, Integer position, String reference, String alternate)
+            throws CvaException {
+        // Creates a new variant to consider variant normalization in search
         KnownVariantWrapper variantToSearch = null;
         try {
             variantToSearch = new KnownVariantWrapper(
@@ -150,21 +601,15 @@ public class KnownVariantMongoDBAdaptor implements KnownVariantDBAdaptor {
         catch (VariantAnnotatorException ex) {
             // this exception will be never thrown as we are not annotating
         }
-        Document variantToSearchDoc = this.knownVariantConverter.convertToStorageType(variantToSearch);
-        String variantId = (String) variantToSearchDoc.get("_id");
-        // Search in MongoDB
-        Document foundDocument = this.knownVariantsCollection.find(eq("_id", variantId)).first();
-        KnownVariantWrapper foundKnownVariant = null;
-        if (foundDocument != null) {
-            foundKnownVariant = this.knownVariantConverter.convertToDataModelType(foundDocument);
-        }
-        return foundKnownVariant;
+        return this.knownVariantCodec.buildStorageId(variantToSearch.getVariant());
     }
 
     /**
-     * Updates a known variant and returns a flag indicating if the update was correct.
+     * Updates a known variant and returns a flag indicating if the update was correct. The update only succeeds if
+     * the stored known variant has the version that was read, the version is then incremented.
      * @param knownVariantWrapper       The entity to update in the known variants collection
      * @return                          Boolean indicating if the update was correct
+     * @throws ConcurrentCvaModificationException   if the known variant was modified since it was read
      * @throws CvaException
      */
     @Override
@@ -172,64 +617,532 @@ public class KnownVariantMongoDBAdaptor implements KnownVariantDBAdaptor {
             throws CvaException {
 
         // Updates the database
-        Document knownVariantWrapperDoc = this.knownVariantConverter.convertToStorageType(knownVariantWrapper);
-        UpdateResult updateResult = this.knownVariantsCollection.updateOne(eq("_id", (String)knownVariantWrapperDoc.get("_id")),
-                new Document("$set", knownVariantWrapperDoc));
+        long version = knownVariantWrapper.getVersion();
+        String id = this.knownVariantCodec.buildStorageId(knownVariantWrapper.getVariant());
+        // the codec writes the version of the wrapper, it is restored if the update does not match
+        knownVariantWrapper.setVersion(version + 1);
+        UpdateResult updateResult;
+        try {
+            updateResult = this.knownVariantsCollection.updateOne(
+                    and(eq("_id", id), this.versionFilter(version)),
+                    new Document("$set", knownVariantWrapper));
+        }
+        catch (RuntimeException e) {
+            knownVariantWrapper.setVersion(version);
+            throw e;
+        }
+        if (updateResult.getMatchedCount() == 0) {
+            knownVariantWrapper.setVersion(version);
+            this.checkConcurrentModification(id);
+            return false;
+        }
         return updateResult.getModifiedCount() == 1;
     }
 
+    /**
+     * Builds the filter on the version read, known variants stored before versioning have no version field
+     * @param version                   The version read
+     * @return                          The filter
+     */
+    private Bson versionFilter(long version) {
+        return version > 0 ? eq(DocumentToKnownVariantConverter.VERSION, version) :
+                exists(DocumentToKnownVariantConverter.VERSION, false);
+    }
+
+    /**
+     * Called when a conditional update did not match, tells apart a missing known variant from a concurrent
+     * modification
+     * @param id                        The known variant _id
+     * @throws ConcurrentCvaModificationException   if the known variant exists
+     */
+    private void checkConcurrentModification(String id) throws ConcurrentCvaModificationException {
+        if (this.knownVariantsCollection.count(eq("_id", id)) > 0) {
+            throw new ConcurrentCvaModificationException("Known variant " + id + " was modified concurrently");
+        }
+    }
+
+    /**
+     * Appends a curation to a known variant with an atomic update that only writes the new curation. The update
+     * only succeeds if the stored known variant has the version that was read, as the curation was built on that
+     * state.
+     * @param knownVariantWrapper       The known variant as read from the database
+     * @param curationHistoryEntry      The curation built with KnownVariantWrapper.buildCurationHistoryEntry
+     * @param updateConsistencyStatus   Recompute the consistency status of the curation from the stored evidences
+     * @return                          The updated known variant
+     * @throws ConcurrentCvaModificationException   if the known variant was modified since it was read
+     * @throws CvaException             if the known variant does not exist
+     */
     @Override
-    public void close() throws IOException {
-        if (closeConnection) {
-            mongoManager.close();
+    public KnownVariantWrapper addCuration(KnownVariantWrapper knownVariantWrapper,
+                                           CurationHistoryEntry curationHistoryEntry,
+                                           Boolean updateConsistencyStatus) throws CvaException {
+
+        String id = this.knownVariantCodec.buildStorageId(knownVariantWrapper.getVariant());
+        Curation newCuration = curationHistoryEntry.getNewCuration();
+        Bson curationMatch = this.curationMatch(newCuration.getHeritablePhenotype(), newCuration.getTranscript());
+        CurationEntry curationEntry = null;
+        for (CurationEntry ce : knownVariantWrapper.getImpl().getCurations()) {
+            if (AvroHelper.areHeritablePhenotypeEqual(ce.getCuration().getHeritablePhenotype(),
+                    newCuration.getHeritablePhenotype()) &&
+                    AvroHelper.areTranscriptsEqual(ce.getCuration().getTranscript(), newCuration.getTranscript())) {
+                curationEntry = ce;
+                break;
+            }
         }
-        NUMBER_INSTANCES.decrementAndGet();
+        Bson filter;
+        Bson update;
+        if (curationEntry == null) {
+            // First curation for this heritable phenotype and transcript
+            List<CurationHistoryEntry> curationHistory = new LinkedList<>();
+            curationHistory.add(curationHistoryEntry);
+            filter = and(eq("_id", id), this.versionFilter(knownVariantWrapper.getVersion()));
+            update = combine(
+                    push(DocumentToKnownVariantConverter.CURATIONS, new CurationEntry(newCuration, curationHistory)),
+                    inc(DocumentToKnownVariantConverter.VERSION, 1));
+        }
+        else {
+            // The curations array is matched to locate the curation being replaced by the positional operator
+            filter = and(eq("_id", id), this.versionFilter(knownVariantWrapper.getVersion()),
+                    elemMatch(DocumentToKnownVariantConverter.CURATIONS, curationMatch));
+            update = combine(
+                    set(CURATION_POSITIONAL_FIELD, newCuration),
+                    push(HISTORY_POSITIONAL_FIELD, curationHistoryEntry),
+                    inc(DocumentToKnownVariantConverter.VERSION, 1));
+        }
+        KnownVariantWrapper updatedKnownVariant = this.knownVariantsCodecCollection.findOneAndUpdate(filter, update,
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (updatedKnownVariant == null) {
+            this.checkConcurrentModification(id);
+            throw new CvaException("Cannot add a curation to a non registered variant");
+        }
+        if (updateConsistencyStatus) {
+            // evidences may have been added after the known variant was read
+            updatedKnownVariant = this.updateConsistencyStatus(id, newCuration.getHeritablePhenotype(),
+                    newCuration.getTranscript(), updatedKnownVariant);
+        }
+        return updatedKnownVariant;
     }
 
-    //TODO: implement Iterable interface
-    /*
+    /**
+     * Appends an evidence to a known variant with an atomic update that only writes the new evidence and the
+     * counts of pathogenic and benign evidences. The consistency status of the curations for the heritable
+     * phenotypes of the evidence is then recomputed by conditional updates evaluated in the database. Known variants
+     * stored before the counts were kept get them from their evidences before the append.
+     * @param knownVariantWrapper       The known variant
+     * @param evidenceEntry             The evidence built with KnownVariantWrapper.buildEvidenceEntry
+     * @return                          The updated known variant
+     * @throws CvaException             if the known variant does not exist
+     */
     @Override
-    public CuratedVariantDBIterator iterator() {
-        return iterator(new Query(), new QueryOptions());
+    public KnownVariantWrapper addEvidence(KnownVariantWrapper knownVariantWrapper, EvidenceEntry evidenceEntry)
+            throws CvaException {
+
+        String id = this.knownVariantCodec.buildStorageId(knownVariantWrapper.getVariant());
+        Bson update = combine(
+                push(DocumentToKnownVariantConverter.EVIDENCES, evidenceEntry),
+                inc(PATHOGENIC_EVIDENCES_FIELD, evidenceEntry.getPathogenicity() != null ? 1 : 0),
+                inc(BENIGN_EVIDENCES_FIELD, evidenceEntry.getBenignity() != null ? 1 : 0),
+                inc(DocumentToKnownVariantConverter.VERSION, 1));
+        // the counts are only incremented when they exist, otherwise they would miss the previous evidences
+        KnownVariantWrapper updatedKnownVariant = this.knownVariantsCodecCollection.findOneAndUpdate(
+                and(eq("_id", id), exists(PATHOGENIC_EVIDENCES_FIELD)), update,
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        if (updatedKnownVariant == null && this.backfillEvidenceCounts(id)) {
+            updatedKnownVariant = this.knownVariantsCodecCollection.findOneAndUpdate(eq("_id", id), update,
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        }
+        if (updatedKnownVariant == null) {
+            throw new CvaException("Cannot add an evidence to a non registered variant");
+        }
+        if (evidenceEntry.getHeritablePhenotypes() != null) {
+            for (HeritablePhenotype heritablePhenotype : evidenceEntry.getHeritablePhenotypes()) {
+                updatedKnownVariant = this.updateConsistencyStatus(id, heritablePhenotype,
+                        evidenceEntry.getTranscript(), updatedKnownVariant);
+            }
+        }
+        return updatedKnownVariant;
+    }
+
+    /**
+     * Recomputes in the database the consistency status of the curation for a heritable phenotype and transcript.
+     * The curation is set in conflict when there are both pathogenic and benign evidences, otherwise a curation
+     * without consistency status is set in consensus. The positional update only filters on the curations array,
+     * the evidences are checked through their counts, which are first backfilled if the known variant lacks them.
+     * @param id                        The known variant _id
+     * @param heritablePhenotype        The heritable phenotype
+     * @param transcript                The transcript, nullable
+     * @param currentKnownVariant       The latest known variant
+     * @return                          The known variant after the update
+     */
+    private KnownVariantWrapper updateConsistencyStatus(String id, HeritablePhenotype heritablePhenotype,
+                                                        String transcript, KnownVariantWrapper currentKnownVariant) {
+
+        Bson curationMatch = this.curationMatch(heritablePhenotype, transcript);
+        KnownVariantWrapper updatedKnownVariant = this.setConflict(id, curationMatch);
+        if (updatedKnownVariant == null && this.backfillEvidenceCounts(id)) {
+            updatedKnownVariant = this.setConflict(id, curationMatch);
+        }
+        if (updatedKnownVariant == null) {
+            updatedKnownVariant = this.knownVariantsCodecCollection.findOneAndUpdate(
+                    and(eq("_id", id), elemMatch(DocumentToKnownVariantConverter.CURATIONS,
+                            and(curationMatch, eq(CONSISTENCY_STATUS_FIELD, null)))),
+                    combine(set(CONSISTENCY_STATUS_POSITIONAL_FIELD, ConsistencyStatus.consensus.name()),
+                            inc(DocumentToKnownVariantConverter.VERSION, 1)),
+                    new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        }
+        return updatedKnownVariant != null ? updatedKnownVariant : currentKnownVariant;
+    }
+
+    /**
+     * Sets in conflict the matching curation when there are both pathogenic and benign evidences
+     * @param id                        The known variant _id
+     * @param curationMatch             The filter matching the curation
+     * @return                          The known variant after the update, null if not updated
+     */
+    private KnownVariantWrapper setConflict(String id, Bson curationMatch) {
+        return this.knownVariantsCodecCollection.findOneAndUpdate(
+                and(eq("_id", id), gt(PATHOGENIC_EVIDENCES_FIELD, 0), gt(BENIGN_EVIDENCES_FIELD, 0),
+                        elemMatch(DocumentToKnownVariantConverter.CURATIONS,
+                                and(curationMatch, ne(CONSISTENCY_STATUS_FIELD, ConsistencyStatus.conflict.name())))),
+                combine(set(CONSISTENCY_STATUS_POSITIONAL_FIELD, ConsistencyStatus.conflict.name()),
+                        inc(DocumentToKnownVariantConverter.VERSION, 1)),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+    }
+
+    /**
+     * Sets the counts of pathogenic and benign evidences on a known variant stored before they were kept, counting
+     * its stored evidences. The update is conditional on the version read, so it is repeated until the counts exist
+     * and no evidence appended meanwhile is missed.
+     * @param id                        The known variant _id
+     * @return                          true if the counts were missing and have been set
+     */
+    private boolean backfillEvidenceCounts(String id) {
+        while (true) {
+            Document document = this.knownVariantsCollection
+                    .find(and(eq("_id", id), exists(PATHOGENIC_EVIDENCES_FIELD, false)))
+                    .projection(Projections.include(DocumentToKnownVariantConverter.EVIDENCES,
+                            DocumentToKnownVariantConverter.VERSION))
+                    .first();
+            if (document == null) {
+                // the counts exist or the known variant is not registered
+                return false;
+            }
+            int pathogenicEvidences = 0;
+            int benignEvidences = 0;
+            List<?> evidences = (List<?>) document.get(DocumentToKnownVariantConverter.EVIDENCES);
+            if (evidences != null) {
+                for (Object evidence : evidences) {
+                    pathogenicEvidences +=
+                            ((Document) evidence).get(DocumentToEvidenceEntryConverter.PATHOGENICITY) != null ? 1 : 0;
+                    benignEvidences +=
+                            ((Document) evidence).get(DocumentToEvidenceEntryConverter.BENIGNITY) != null ? 1 : 0;
+                }
+            }
+            Object version = document.get(DocumentToKnownVariantConverter.VERSION);
+            UpdateResult updateResult = this.knownVariantsCollection.updateOne(
+                    and(eq("_id", id), this.versionFilter(version != null ? ((Number) version).longValue() : 0),
+                            exists(PATHOGENIC_EVIDENCES_FIELD, false)),
+                    combine(set(PATHOGENIC_EVIDENCES_FIELD, pathogenicEvidences),
+                            set(BENIGN_EVIDENCES_FIELD, benignEvidences)));
+            if (updateResult.getMatchedCount() > 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets the chunk ids, genes and transcripts used by region, gene and transcript queries on the known variants
+     * stored before they were kept, building them from the stored variant and its annotation. These fields are only
+     * written with whole known variants, so without them the known variants are missed by those queries. Every
+     * update is conditional on the version read and repeated if the known variant was modified meanwhile.
+     * @return                          the number of known variants updated
+     */
+    public long backfillQueryFields() {
+        Bson missing = or(exists(CHUNK_IDS_FIELD, false), exists(GENES_FIELD, false),
+                exists(TRANSCRIPTS_FIELD, false));
+        Bson projection = Projections.include(REQUIRED_FIELDS);
+        long updated = 0;
+        try (MongoCursor<Document> cursor = this.knownVariantsCollection.find(missing)
+                .projection(Projections.include("_id"))
+                .batchSize(DEFAULT_FIND_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                String id = (String) cursor.next().get("_id");
+                while (true) {
+                    KnownVariantWrapper knownVariantWrapper = this.knownVariantsCodecCollection
+                            .find(and(eq("_id", id), missing))
+                            .projection(projection)
+                            .first();
+                    if (knownVariantWrapper == null || knownVariantWrapper.getVariant() == null) {
+                        break;
+                    }
+                    Variant variant = knownVariantWrapper.getVariant();
+                    UpdateResult updateResult = this.knownVariantsCollection.updateOne(
+                            and(eq("_id", id), this.versionFilter(knownVariantWrapper.getVersion())),
+                            combine(
+                                    set(CHUNK_IDS_FIELD,
+                                            new ArrayList<>(DocumentToKnownVariantConverter.buildChunkIds(variant))),
+                                    set(GENES_FIELD,
+                                            new ArrayList<>(DocumentToKnownVariantConverter.buildGenes(variant))),
+                                    set(TRANSCRIPTS_FIELD, new ArrayList<>(
+                                            DocumentToKnownVariantConverter.buildTranscripts(variant)))));
+                    if (updateResult.getMatchedCount() > 0) {
+                        updated++;
+                        break;
+                    }
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Sets the counts of pathogenic and benign evidences on all the known variants stored before they were kept.
+     * Known variants lacking them get the counts lazily on their next evidence or curation, this migrates the
+     * whole collection at once.
+     * @return                          the number of known variants updated
+     */
+    public long backfillEvidenceCounts() {
+        long updated = 0;
+        try (MongoCursor<Document> cursor = this.knownVariantsCollection
+                .find(exists(PATHOGENIC_EVIDENCES_FIELD, false))
+                .projection(Projections.include("_id"))
+                .batchSize(DEFAULT_FIND_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                if (this.backfillEvidenceCounts((String) cursor.next().get("_id"))) {
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Builds the filter matching a curation entry by heritable phenotype and transcript, relative to the elements
+     * of the curations array
+     * @param heritablePhenotype        The heritable phenotype
+     * @param transcript                The transcript, nullable
+     * @return                          The filter
+     */
+    private Bson curationMatch(HeritablePhenotype heritablePhenotype, String transcript) {
+        return and(
+                eq(PHENOTYPE_FIELD, heritablePhenotype.getPhenotype()),
+                eq(INHERITANCE_MODE_FIELD, heritablePhenotype.getInheritanceMode() != null ?
+                        heritablePhenotype.getInheritanceMode().name() : null),
+                eq(TRANSCRIPT_FIELD, transcript));
     }
 
-    //@Override
-    public CuratedVariantDBIterator iterator(Query query, QueryOptions options) {
+    @Override
+    public void close() throws IOException {
+        // the shared MongoClient is closed through CvaConfiguration.closeMongoClient()
+        NUMBER_INSTANCES.decrementAndGet();
+        if (this.bloomFilter != null) {
+            for (Map.Entry<String, DoubleSupplier> gauge : this.bloomFilterGauges.entrySet()) {
+                MetricsRegistry.getInstance().removeGauge(gauge.getKey(), gauge.getValue(),
+                        "collection", this.collectionName);
+            }
+            this.bloomFilterGauges.clear();
+            this.bloomFilter.close();
+        }
+    }
+
+    /**
+     * @return  the membership filter over the stored _ids, null when disabled
+     */
+    public KnownVariantBloomFilter getBloomFilter() {
+        return this.bloomFilter;
+    }
+
+    /**
+     * Iterates over the known variants matching a query without loading them all in memory
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, timeout,
+     *                          batchSize, persistent and after. With after the known variants are sorted by _id,
+     *                          which follows the order of chromosome, position, reference and alternate
+     * @return                  An iterator over the matching known variants, it must be closed
+     */
+    @Override
+    public KnownVariantDBIterator iterator(Query query, QueryOptions options) {
         if (options == null) {
             options = new QueryOptions();
         }
         if (query == null) {
             query = new Query();
         }
-        Document mongoQuery = parseQuery(query);
-        Document projection = createProjection(query, options);
-        DocumentToVariantConverter converter = getDocumentToVariantConverter(query, options);
-        options.putIfAbsent(MongoDBCollection.BATCH_SIZE, 100);
+        Bson mongoQuery = this.parseQuery(query);
+        Bson projection = this.createProjection(options);
+        KnownVariantKey after = KnownVariantDBAdaptor.getAfter(options);
+        return new KnownVariantMongoDBIterator(
+                this.knownVariantsCodecCollection,
+                mongoQuery,
+                projection,
+                this.knownVariantCodec,
+                options.getInt(BATCH_SIZE, DEFAULT_ITERATOR_BATCH_SIZE),
+                options.getLong(QueryOptions.TIMEOUT, 0),
+                options.getInt(QueryOptions.SKIP, 0),
+                options.getInt(QueryOptions.LIMIT, 0),
+                options.getBoolean(PERSISTENT, false),
+                KnownVariantDBAdaptor.isKeyset(options),
+                after != null ? this.buildStorageId(after) : null);
+    }
 
-        // Short unsorted queries with timeout or limit don't need the persistent cursor.
-        if (options.containsKey(QueryOptions.TIMEOUT)
-                || options.containsKey(QueryOptions.LIMIT)
-                || !options.containsKey(QueryOptions.SORT)) {
-            FindIterable<Document> dbCursor = knownVariantsCollection.nativeQuery().find(mongoQuery, projection, options);
-            return new VariantMongoDBIterator(dbCursor, converter);
-        } else {
-            return VariantMongoDBIterator.persistentIterator(knownVariantsCollection, mongoQuery, projection, options, converter);
-        }
+    /**
+     * Builds the _id of a key, the key is taken as normalized
+     * @param key               The key
+     * @return                  The known variant _id
+     */
+    private String buildStorageId(KnownVariantKey key) {
+        return this.knownVariantCodec.buildStorageId(
+                new Variant(key.getChromosome(), key.getPosition(), key.getReference(), key.getAlternate()));
     }
 
+    /**
+     * Retrieves the known variants matching a query
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @param options           Query modifiers, accepted values are: include, exclude, limit, skip, timeout, count
+     *                          and after, the total number of results does not depend on after
+     * @return                  The known variants found, the total number of results is only counted when
+     *                          requested through the count option
+     */
     @Override
-    public void forEach(Consumer<? super CuratedVariant> action) {
-        forEach(new Query(), action, new QueryOptions());
+    public QueryResult<KnownVariantWrapper> get(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        long start = System.currentTimeMillis();
+        List<KnownVariantWrapper> results = new ArrayList<>();
+        this.forEach(query, results::add, options);
+        long numTotalResults = results.size();
+        if (options.getBoolean(QueryOptions.COUNT, false)) {
+            numTotalResults = this.knownVariantsCollection.count(this.parseQuery(query == null ? new Query() : query));
+        }
+        int dbTime = (int) (System.currentTimeMillis() - start);
+        return new QueryResult<>("get", dbTime, results.size(), numTotalResults, "", "", results);
     }
 
-    //@Override
-    public void forEach(Query query, Consumer<? super CuratedVariant> action, QueryOptions options) {
-        Objects.requireNonNull(action);
-        VariantDBIterator variantDBIterator = iterator(query, options);
-        while (variantDBIterator.hasNext()) {
-            action.accept(variantDBIterator.next());
+    /**
+     * Translates the query parameters into a MongoDB filter
+     * @param query             Query filters, see KnownVariantQueryParams
+     * @return                  The MongoDB filter
+     */
+    private Bson parseQuery(Query query) {
+        List<Bson> filters = new LinkedList<>();
+        if (query.containsKey(KnownVariantQueryParams.ID.key())) {
+            List<String> ids = new LinkedList<>();
+            for (String id : query.getAsStringList(KnownVariantQueryParams.ID.key())) {
+                String[] fields = id.split(":", -1);
+                if (fields.length != 4) {
+                    throw new IllegalArgumentException("Wrong variant id " + id +
+                            ", expected chromosome:start:reference:alternate");
+                }
+                try {
+                    ids.add(this.getStorageId(fields[0], Integer.parseInt(fields[1]), fields[2], fields[3]));
+                }
+                catch (CvaException | NumberFormatException e) {
+                    throw new IllegalArgumentException("Wrong variant id " + id + ": " + e.getMessage());
+                }
+            }
+            filters.add(in("_id", ids));
         }
+        if (query.containsKey(KnownVariantQueryParams.SUBMITTER.key())) {
+            filters.add(in(DocumentToKnownVariantConverter.SUBMITTER,
+                    query.getAsStringList(KnownVariantQueryParams.SUBMITTER.key())));
+        }
+        if (query.containsKey(KnownVariantQueryParams.CHROMOSOME.key())) {
+            List<String> chromosomes = new LinkedList<>();
+            for (String chromosome : query.getAsStringList(KnownVariantQueryParams.CHROMOSOME.key())) {
+                chromosomes.add(normalizeChromosome(chromosome));
+            }
+            filters.add(in(CHROMOSOME_FIELD, chromosomes));
+        }
+        if (query.containsKey(KnownVariantQueryParams.REGION.key())) {
+            List<Bson> regionFilters = new LinkedList<>();
+            for (String region : query.getAsStringList(KnownVariantQueryParams.REGION.key())) {
+                regionFilters.add(this.parseRegion(region));
+            }
+            filters.add(regionFilters.size() == 1 ? regionFilters.get(0) : or(regionFilters));
+        }
+        if (query.containsKey(KnownVariantQueryParams.GENE.key())) {
+            filters.add(in(GENES_FIELD, query.getAsStringList(KnownVariantQueryParams.GENE.key())));
+        }
+        if (query.containsKey(KnownVariantQueryParams.TRANSCRIPT.key())) {
+            filters.add(in(TRANSCRIPTS_FIELD, query.getAsStringList(KnownVariantQueryParams.TRANSCRIPT.key())));
+        }
+        return filters.isEmpty() ? new Document() : and(filters);
     }
-    */
 
+    /**
+     * Translates a region into a filter on the overlapping variants. The chunk ids of the region narrow the scan
+     * to the variants in those chunks, 1k chunks are used for small regions and 10k chunks for wider ones. Regions
+     * wider than MAX_REGION_CHUNKS big chunks rely on the chromosome and position index alone.
+     * @param region            The region as chromosome:start-end, chromosome:position or chromosome
+     * @return                  The MongoDB filter
+     */
+    private Bson parseRegion(String region) {
+        String[] fields = region.split(":", -1);
+        String chromosome = normalizeChromosome(fields[0]);
+        if (fields.length == 1) {
+            return eq(CHROMOSOME_FIELD, chromosome);
+        }
+        int start;
+        int end;
+        try {
+            String[] positions = fields[1].split("-", -1);
+            start = Integer.parseInt(positions[0]);
+            end = positions.length > 1 ? Integer.parseInt(positions[1]) : start;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong region " + region + ", expected chromosome:start-end");
+        }
+        if (fields.length > 2 || start > end) {
+            throw new IllegalArgumentException("Wrong region " + region + ", expected chromosome:start-end");
+        }
+        List<Bson> regionFilters = new LinkedList<>();
+        int chunkSize = (end / DocumentToKnownVariantConverter.CHUNK_SIZE_SMALL
+                - start / DocumentToKnownVariantConverter.CHUNK_SIZE_SMALL) < MAX_REGION_CHUNKS ?
+                DocumentToKnownVariantConverter.CHUNK_SIZE_SMALL : DocumentToKnownVariantConverter.CHUNK_SIZE_BIG;
+        if (end / chunkSize - start / chunkSize < MAX_REGION_CHUNKS) {
+            List<String> chunkIds = new LinkedList<>();
+            for (int chunk = start / chunkSize; chunk <= end / chunkSize; chunk++) {
+                chunkIds.add(DocumentToKnownVariantConverter.buildChunkId(chromosome, chunk * chunkSize, chunkSize));
+            }
+            regionFilters.add(in(CHUNK_IDS_FIELD, chunkIds));
+        }
+        regionFilters.add(eq(CHROMOSOME_FIELD, chromosome));
+        regionFilters.add(lte(START_FIELD, end));
+        regionFilters.add(gte(END_FIELD, start));
+        return and(regionFilters);
+    }
+
+    /**
+     * Removes the chromosome prefixes in the same way as the variant normalization does, so chr19 and 19 match
+     * @param chromosome        The chromosome
+     * @return                  The normalized chromosome
+     */
+    private static String normalizeChromosome(String chromosome) {
+        return CHROMOSOME_PREFIX.matcher(chromosome.trim()).replaceFirst("");
+    }
+
+    /**
+     * Creates the projection from the include and exclude options. The fields needed to build a known variant are
+     * always returned.
+     * @param options           Query modifiers, accepted values are: include and exclude
+     * @return                  The projection or null to return all fields
+     */
+    private Bson createProjection(QueryOptions options) {
+        List<String> include = options.getAsStringList(QueryOptions.INCLUDE);
+        List<String> exclude = options.getAsStringList(QueryOptions.EXCLUDE);
+        if (include != null && !include.isEmpty()) {
+            Set<String> fields = new LinkedHashSet<>(include);
+            fields.addAll(REQUIRED_FIELDS);
+            return Projections.include(new LinkedList<>(fields));
+        }
+        if (exclude != null && !exclude.isEmpty()) {
+            List<String> fields = new LinkedList<>(exclude);
+            fields.removeAll(REQUIRED_FIELDS);
+            return fields.isEmpty() ? null : Projections.exclude(fields);
+        }
+        return null;
+    }
 }
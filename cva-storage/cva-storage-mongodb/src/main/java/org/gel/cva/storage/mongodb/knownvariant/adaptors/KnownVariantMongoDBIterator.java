@@ -0,0 +1,181 @@
+package org.gel.cva.storage.mongodb.knownvariant.adaptors;
+
+import com.mongodb.MongoCursorNotFoundException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.conversions.Bson;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.mongodb.knownvariant.codecs.KnownVariantCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Sorts.ascending;
+
+/**
+ * Iterator over a MongoDB cursor of known variants. The persistent iterator scans the collection sorted by _id and,
+ * when the server discards the cursor (e.g.: it timed out while the client was processing a batch), opens a new one
+ * starting after the last _id returned, so long scans are not aborted. The sorted iterator also scans by _id and may
+ * start after a given _id, which resumes a keyset paginated scan from the _id index.
+ */
+public class KnownVariantMongoDBIterator extends KnownVariantDBIterator {
+
+    private static final int MAX_RESUMES_WITHOUT_PROGRESS = 5;
+
+    protected static Logger logger = LoggerFactory.getLogger(KnownVariantMongoDBIterator.class);
+
+    private final MongoCollection<KnownVariantWrapper> collection;
+    private final Bson filter;
+    private final Bson projection;
+    private final KnownVariantCodec codec;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final int skip;
+    private final int limit;
+    private final boolean persistent;
+    private final boolean sorted;
+    private final Object startAfterId;
+    private MongoCursor<KnownVariantWrapper> cursor;
+    private Object lastId = null;
+    private int resumesWithoutProgress = 0;
+
+    /**
+     * Constructor for KnownVariantMongoDBIterator
+     * @param collection        the known variants collection decoding through the codec
+     * @param filter            the query filter
+     * @param projection        the fields to be returned, null returns all
+     * @param codec             the codec of the collection, builds the _id of the known variants
+     * @param batchSize         the number of documents fetched on every round trip, 0 leaves the server default
+     * @param timeoutMillis     the maximum time the server may spend on the query, 0 means no limit
+     * @param skip              the number of documents to skip
+     * @param limit             the maximum number of documents to return, 0 means no limit
+     * @param persistent        resume the scan when the cursor is lost
+     */
+    public KnownVariantMongoDBIterator(MongoCollection<KnownVariantWrapper> collection, Bson filter, Bson projection,
+                                       KnownVariantCodec codec, int batchSize,
+                                       long timeoutMillis, int skip, int limit, boolean persistent) {
+        this(collection, filter, projection, codec, batchSize, timeoutMillis, skip, limit, persistent, false, null);
+    }
+
+    /**
+     * Constructor for KnownVariantMongoDBIterator
+     * @param collection        the known variants collection decoding through the codec
+     * @param filter            the query filter
+     * @param projection        the fields to be returned, null returns all
+     * @param codec             the codec of the collection, builds the _id of the known variants
+     * @param batchSize         the number of documents fetched on every round trip, 0 leaves the server default
+     * @param timeoutMillis     the maximum time the server may spend on the query, 0 means no limit
+     * @param skip              the number of documents to skip
+     * @param limit             the maximum number of documents to return, 0 means no limit
+     * @param persistent        resume the scan when the cursor is lost
+     * @param sorted            return the known variants sorted by _id
+     * @param startAfterId      the known variants are returned after this _id, null starts from the first
+     */
+    public KnownVariantMongoDBIterator(MongoCollection<KnownVariantWrapper> collection, Bson filter, Bson projection,
+                                       KnownVariantCodec codec, int batchSize,
+                                       long timeoutMillis, int skip, int limit, boolean persistent,
+                                       boolean sorted, Object startAfterId) {
+        this.collection = collection;
+        this.filter = filter;
+        this.projection = projection;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+        this.skip = skip;
+        this.limit = limit;
+        this.persistent = persistent;
+        this.sorted = sorted || startAfterId != null;
+        this.startAfterId = startAfterId;
+        this.cursor = this.openCursor();
+    }
+
+    private MongoCursor<KnownVariantWrapper> openCursor() {
+        Bson cursorFilter = this.filter;
+        Object afterId = this.lastId != null ? this.lastId : this.startAfterId;
+        if (afterId != null) {
+            cursorFilter = and(this.filter, gt("_id", afterId));
+        }
+        FindIterable<KnownVariantWrapper> findIterable = this.collection.find(cursorFilter);
+        if (this.projection != null) {
+            findIterable.projection(this.projection);
+        }
+        if (this.batchSize > 0) {
+            findIterable.batchSize(this.batchSize);
+        }
+        if (this.timeoutMillis > 0) {
+            findIterable.maxTime(this.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (this.persistent || this.sorted) {
+            findIterable.sort(ascending("_id"));
+        }
+        if (this.skip > 0 && this.lastId == null) {
+            findIterable.skip(this.skip);
+        }
+        if (this.limit > 0) {
+            findIterable.limit((int) (this.limit - this.count));
+        }
+        return findIterable.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.limit > 0 && this.count >= this.limit) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                try {
+                    return this.cursor.hasNext();
+                }
+                catch (MongoCursorNotFoundException e) {
+                    if (!this.persistent || ++this.resumesWithoutProgress > MAX_RESUMES_WITHOUT_PROGRESS) {
+                        throw e;
+                    }
+                    logger.warn("Cursor lost after {} known variants, resuming after _id {}", this.count, this.lastId);
+                    this.closeCursor();
+                    this.cursor = this.openCursor();
+                }
+            }
+        }
+        finally {
+            this.addTimeFetching(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public KnownVariantWrapper next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        // documents are decoded by the codec as the cursor returns them
+        long start = System.nanoTime();
+        KnownVariantWrapper knownVariantWrapper = this.cursor.next();
+        this.addTimeConverting(System.nanoTime() - start);
+        // the stored variant is normalized, so it builds back its _id
+        this.lastId = this.codec.buildStorageId(knownVariantWrapper.getVariant());
+        this.resumesWithoutProgress = 0;
+        this.count++;
+        return knownVariantWrapper;
+    }
+
+    @Override
+    public void close() {
+        this.closeCursor();
+    }
+
+    private void closeCursor() {
+        try {
+            this.cursor.close();
+        }
+        catch (RuntimeException e) {
+            logger.debug("Error closing cursor: {}", e.getMessage());
+        }
+    }
+}
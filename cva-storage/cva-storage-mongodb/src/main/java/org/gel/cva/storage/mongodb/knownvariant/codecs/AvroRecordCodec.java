@@ -0,0 +1,250 @@
+package org.gel.cva.storage.mongodb.knownvariant.codecs;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
+import org.bson.BsonBinary;
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec between an Avro specific record and BSON driven by the Avro schema, values are read and written straight
+ * from the BsonReader and BsonWriter. The layout is the one produced by the GenericDocumentComplexConverter: fields
+ * are named after the Avro fields, null values are written, enums are stored by name and floats as doubles.
+ * Unknown fields are skipped and missing fields are left null.
+ */
+public class AvroRecordCodec<T extends SpecificRecord> implements Codec<T> {
+
+    private final Class<T> clazz;
+    private final Schema schema;
+
+    /**
+     * Constructor for AvroRecordCodec
+     * @param clazz     the Avro specific record class
+     */
+    public AvroRecordCodec(Class<T> clazz) {
+        this.clazz = clazz;
+        this.schema = SpecificData.get().getSchema(clazz);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        writeRecord(writer, value, this.schema);
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        return this.clazz.cast(readRecord(reader, this.schema));
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return this.clazz;
+    }
+
+    private static void writeRecord(BsonWriter writer, IndexedRecord record, Schema schema) {
+        writer.writeStartDocument();
+        for (Schema.Field field : schema.getFields()) {
+            writer.writeName(field.name());
+            writeValue(writer, record.get(field.pos()), field.schema());
+        }
+        writer.writeEndDocument();
+    }
+
+    private static void writeValue(BsonWriter writer, Object value, Schema schema) {
+        if (value == null) {
+            writer.writeNull();
+            return;
+        }
+        switch (schema.getType()) {
+            case UNION:
+                writeValue(writer, value, schema.getTypes().get(SpecificData.get().resolveUnion(schema, value)));
+                break;
+            case RECORD:
+                writeRecord(writer, (IndexedRecord) value, schema);
+                break;
+            case ARRAY:
+                writer.writeStartArray();
+                for (Object element : (Collection<?>) value) {
+                    writeValue(writer, element, schema.getElementType());
+                }
+                writer.writeEndArray();
+                break;
+            case MAP:
+                writer.writeStartDocument();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    writer.writeName(entry.getKey().toString());
+                    writeValue(writer, entry.getValue(), schema.getValueType());
+                }
+                writer.writeEndDocument();
+                break;
+            case STRING:
+            case ENUM:
+                writer.writeString(value.toString());
+                break;
+            case INT:
+                writer.writeInt32(((Number) value).intValue());
+                break;
+            case LONG:
+                writer.writeInt64(((Number) value).longValue());
+                break;
+            case FLOAT:
+                // keeps the decimal representation of the float, 0.9 is not stored as 0.8999999761581421
+                writer.writeDouble(Double.parseDouble(value.toString()));
+                break;
+            case DOUBLE:
+                writer.writeDouble(((Number) value).doubleValue());
+                break;
+            case BOOLEAN:
+                writer.writeBoolean((Boolean) value);
+                break;
+            case BYTES:
+                ByteBuffer byteBuffer = ((ByteBuffer) value).duplicate();
+                byte[] bytes = new byte[byteBuffer.remaining()];
+                byteBuffer.get(bytes);
+                writer.writeBinaryData(new BsonBinary(bytes));
+                break;
+            case FIXED:
+                writer.writeBinaryData(new BsonBinary(((GenericFixed) value).bytes()));
+                break;
+            default:
+                writer.writeNull();
+        }
+    }
+
+    private static Object readRecord(BsonReader reader, Schema schema) {
+        IndexedRecord record = (IndexedRecord) SpecificData.get().newRecord(null, schema);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Schema.Field field = schema.getField(reader.readName());
+            if (field == null) {
+                reader.skipValue();
+            }
+            else {
+                record.put(field.pos(), readValue(reader, field.schema()));
+            }
+        }
+        reader.readEndDocument();
+        return record;
+    }
+
+    private static Object readValue(BsonReader reader, Schema schema) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        switch (schema.getType()) {
+            case UNION:
+                return readValue(reader, resolveUnion(schema, reader.getCurrentBsonType()));
+            case RECORD:
+                return readRecord(reader, schema);
+            case ARRAY:
+                List<Object> list = new ArrayList<>();
+                reader.readStartArray();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    list.add(readValue(reader, schema.getElementType()));
+                }
+                reader.readEndArray();
+                return list;
+            case MAP:
+                Map<String, Object> map = new HashMap<>();
+                reader.readStartDocument();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    String key = reader.readName();
+                    map.put(key, readValue(reader, schema.getValueType()));
+                }
+                reader.readEndDocument();
+                return map;
+            case STRING:
+                return reader.readString();
+            case ENUM:
+                return SpecificData.get().createEnum(reader.readString(), schema);
+            case INT:
+                return readNumber(reader).intValue();
+            case LONG:
+                return readNumber(reader).longValue();
+            case FLOAT:
+                return readNumber(reader).floatValue();
+            case DOUBLE:
+                return readNumber(reader).doubleValue();
+            case BOOLEAN:
+                return reader.readBoolean();
+            case BYTES:
+                return ByteBuffer.wrap(reader.readBinaryData().getData());
+            case FIXED:
+                return SpecificData.get().createFixed(null, reader.readBinaryData().getData(), schema);
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * Reads a number stored with any numeric type, as the JSON round trip of the former converters stored longs
+     * that fit in an int as int32
+     */
+    private static Number readNumber(BsonReader reader) {
+        BsonType bsonType = reader.getCurrentBsonType();
+        switch (bsonType) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            case DOUBLE:
+                return reader.readDouble();
+            default:
+                throw new BsonInvalidOperationException("Expected a number but found " + bsonType);
+        }
+    }
+
+    /**
+     * Chooses the first non null branch of a union that can hold a BSON value
+     */
+    private static Schema resolveUnion(Schema union, BsonType bsonType) {
+        for (Schema branch : union.getTypes()) {
+            if (isCompatible(branch.getType(), bsonType)) {
+                return branch;
+            }
+        }
+        throw new BsonInvalidOperationException("No branch of " + union + " can hold a " + bsonType);
+    }
+
+    private static boolean isCompatible(Schema.Type type, BsonType bsonType) {
+        switch (type) {
+            case RECORD:
+            case MAP:
+                return bsonType == BsonType.DOCUMENT;
+            case ARRAY:
+                return bsonType == BsonType.ARRAY;
+            case STRING:
+            case ENUM:
+                return bsonType == BsonType.STRING;
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return bsonType == BsonType.INT32 || bsonType == BsonType.INT64 || bsonType == BsonType.DOUBLE;
+            case BOOLEAN:
+                return bsonType == BsonType.BOOLEAN;
+            case BYTES:
+            case FIXED:
+                return bsonType == BsonType.BINARY;
+            default:
+                return false;
+        }
+    }
+}
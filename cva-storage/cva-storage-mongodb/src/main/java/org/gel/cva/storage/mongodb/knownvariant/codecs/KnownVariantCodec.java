@@ -0,0 +1,268 @@
+package org.gel.cva.storage.mongodb.knownvariant.codecs;
+
+import com.mongodb.MongoClient;
+import org.apache.avro.specific.SpecificRecord;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.core.metrics.LatencyHistogram;
+import org.gel.cva.storage.core.metrics.MetricsRegistry;
+import org.gel.models.cva.avro.Comment;
+import org.gel.models.cva.avro.CurationEntry;
+import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.KnownVariant;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToKnownVariantConverter.*;
+
+/**
+ * Codec between {@link KnownVariantWrapper} and the documents in the known variants collection, producing the same
+ * layout as the {@link org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToKnownVariantConverter}.
+ * Evidences, curations and comments are read and written straight from the BsonReader and BsonWriter through
+ * {@link AvroRecordCodec}s, without intermediate documents nor JSON. The variant layout belongs to the OpenCGA
+ * variant converter, so the variant subdocument is still converted through a Document. The codec is typed on the
+ * wrapper as it carries the _version managed by the adaptor.
+ * The lazy codec keeps the raw document and decodes evidences, curations and comments on their first access, so
+ * callers reading only some of them do not pay for the rest.
+ * The latency of every encode and decode is recorded in the cva_bson_codec_seconds histogram, for the lazy codec
+ * the decoding of the arrays on their first access is not included.
+ */
+public class KnownVariantCodec implements Codec<KnownVariantWrapper> {
+
+    private static final LatencyHistogram encodeHistogram = MetricsRegistry.getInstance().histogram(
+            "cva_bson_codec_seconds", "Latency of the BSON encoding and decoding of a known variant",
+            "operation", "encode");
+    private static final LatencyHistogram decodeHistogram = MetricsRegistry.getInstance().histogram(
+            "cva_bson_codec_seconds", "Latency of the BSON encoding and decoding of a known variant",
+            "operation", "decode");
+
+    private final Codec<Document> documentCodec;
+    private final DocumentToVariantConverter variantConverter;
+    private final AvroRecordCodec<EvidenceEntry> evidenceEntryCodec;
+    private final AvroRecordCodec<CurationEntry> curationEntryCodec;
+    private final AvroRecordCodec<Comment> commentCodec;
+    private final RawBsonDocumentCodec rawDocumentCodec = new RawBsonDocumentCodec();
+    private final boolean lazy;
+
+    /**
+     * Constructor for KnownVariantCodec using the default codecs of the MongoDB driver for the variant subdocument
+     */
+    public KnownVariantCodec() {
+        this(MongoClient.getDefaultCodecRegistry(), false);
+    }
+
+    /**
+     * Constructor for KnownVariantCodec
+     * @param codecRegistry     the registry providing the codec for the variant subdocument
+     * @param lazy              decode evidences, curations and comments on their first access
+     */
+    public KnownVariantCodec(CodecRegistry codecRegistry, boolean lazy) {
+        this.lazy = lazy;
+        this.documentCodec = codecRegistry.get(Document.class);
+        this.variantConverter = new DocumentToVariantConverter(null, null);
+        this.evidenceEntryCodec = new AvroRecordCodec<>(EvidenceEntry.class);
+        this.curationEntryCodec = new AvroRecordCodec<>(CurationEntry.class);
+        this.commentCodec = new AvroRecordCodec<>(Comment.class);
+    }
+
+    /**
+     * Builds the _id of the known variant for a normalized variant
+     * @param variant   the normalized variant
+     * @return          the known variant _id
+     */
+    public String buildStorageId(Variant variant) {
+        return this.variantConverter.buildStorageId(variant);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, KnownVariantWrapper knownVariantWrapper, EncoderContext encoderContext) {
+        long start = System.nanoTime();
+        try {
+            this.encodeKnownVariant(writer, knownVariantWrapper, encoderContext);
+        }
+        finally {
+            encodeHistogram.recordSince(start);
+        }
+    }
+
+    private void encodeKnownVariant(BsonWriter writer, KnownVariantWrapper knownVariantWrapper,
+                                    EncoderContext encoderContext) {
+        KnownVariant knownVariant = knownVariantWrapper.getImpl();
+        Variant variant = knownVariantWrapper.getVariant();
+        writer.writeStartDocument();
+        // The known variant inherits the _id from the variant
+        if (variant != null) {
+            writer.writeString("_id", this.buildStorageId(variant));
+        }
+        writer.writeName(SUBMITTER);
+        if (knownVariant.getSubmitter() != null) {
+            writer.writeString(knownVariant.getSubmitter().toString());
+        }
+        else {
+            writer.writeNull();
+        }
+        writer.writeName(VARIANT);
+        this.documentCodec.encode(writer,
+                variant != null ? this.variantConverter.convertToStorageType(variant) : new Document(),
+                encoderContext);
+        if (variant != null) {
+            writer.writeStartDocument(AT);
+            writeStrings(writer, CHUNK_IDS, buildChunkIds(variant));
+            writeStrings(writer, GENES, buildGenes(variant));
+            writeStrings(writer, TRANSCRIPTS, buildTranscripts(variant));
+            writer.writeInt32(PATHOGENIC_EVIDENCES, countPathogenicEvidences(knownVariant.getEvidences()));
+            writer.writeInt32(BENIGN_EVIDENCES, countBenignEvidences(knownVariant.getEvidences()));
+            writer.writeEndDocument();
+        }
+        writeRecords(writer, EVIDENCES, knownVariant.getEvidences(), this.evidenceEntryCodec, encoderContext);
+        writeRecords(writer, CURATIONS, knownVariant.getCurations(), this.curationEntryCodec, encoderContext);
+        writeRecords(writer, COMMENTS, knownVariant.getComments(), this.commentCodec, encoderContext);
+        writer.writeInt64(VERSION, knownVariantWrapper.getVersion());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public KnownVariantWrapper decode(BsonReader reader, DecoderContext decoderContext) {
+        long start = System.nanoTime();
+        try {
+            if (!this.lazy) {
+                return this.decode(reader, decoderContext, null);
+            }
+            // copies the document bytes, the arrays are skipped and decoded from the copy when accessed
+            RawBsonDocument rawDocument = this.rawDocumentCodec.decode(reader, decoderContext);
+            BsonBinaryReader rawReader = new BsonBinaryReader(rawDocument.getByteBuffer().asNIO());
+            try {
+                return this.decode(rawReader, decoderContext, rawDocument);
+            }
+            finally {
+                rawReader.close();
+            }
+        }
+        finally {
+            decodeHistogram.recordSince(start);
+        }
+    }
+
+    /**
+     * Decodes a known variant
+     * @param reader            the reader positioned at the start of the document
+     * @param decoderContext    the decoder context
+     * @param rawDocument       the raw document being read to decode the arrays lazily, null to decode them now
+     * @return                  the known variant
+     */
+    private KnownVariantWrapper decode(BsonReader reader, DecoderContext decoderContext,
+                                       RawBsonDocument rawDocument) {
+        String submitter = null;
+        Document variantDocument = null;
+        List<EvidenceEntry> evidences = new ArrayList<>();
+        List<CurationEntry> curations = new ArrayList<>();
+        List<Comment> comments = new ArrayList<>();
+        long version = 0;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch (name) {
+                case SUBMITTER:
+                    submitter = reader.readString();
+                    break;
+                case VARIANT:
+                    variantDocument = this.documentCodec.decode(reader, decoderContext);
+                    break;
+                case EVIDENCES:
+                    if (rawDocument != null) {
+                        reader.skipValue();
+                        evidences = new LazyBsonList<>(rawDocument, EVIDENCES, this.evidenceEntryCodec);
+                    }
+                    else {
+                        readRecords(reader, evidences, this.evidenceEntryCodec, decoderContext);
+                    }
+                    break;
+                case CURATIONS:
+                    if (rawDocument != null) {
+                        reader.skipValue();
+                        curations = new LazyBsonList<>(rawDocument, CURATIONS, this.curationEntryCodec);
+                    }
+                    else {
+                        readRecords(reader, curations, this.curationEntryCodec, decoderContext);
+                    }
+                    break;
+                case COMMENTS:
+                    if (rawDocument != null) {
+                        reader.skipValue();
+                        comments = new LazyBsonList<>(rawDocument, COMMENTS, this.commentCodec);
+                    }
+                    else {
+                        readRecords(reader, comments, this.commentCodec, decoderContext);
+                    }
+                    break;
+                case VERSION:
+                    version = reader.getCurrentBsonType() == BsonType.INT32 ? reader.readInt32() : reader.readInt64();
+                    break;
+                default:
+                    // _id and the internal fields are not read back into the data model
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        // Converts Variant, it was normalized and annotated before being stored
+        Variant variant = this.variantConverter.convertToDataModelType(variantDocument);
+        // Hydrates the known variant without normalizing nor annotating it again
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper(
+                new KnownVariant(submitter, variant.getImpl(), curations, evidences, comments));
+        knownVariantWrapper.setVersion(version);
+        return knownVariantWrapper;
+    }
+
+    @Override
+    public Class<KnownVariantWrapper> getEncoderClass() {
+        return KnownVariantWrapper.class;
+    }
+
+    private static void writeStrings(BsonWriter writer, String name, Collection<String> values) {
+        writer.writeStartArray(name);
+        for (String value : values) {
+            writer.writeString(value);
+        }
+        writer.writeEndArray();
+    }
+
+    private static <T extends SpecificRecord> void writeRecords(BsonWriter writer, String name, List<T> records,
+                                                                AvroRecordCodec<T> codec,
+                                                                EncoderContext encoderContext) {
+        writer.writeStartArray(name);
+        if (records != null) {
+            for (T record : records) {
+                codec.encode(writer, record, encoderContext);
+            }
+        }
+        writer.writeEndArray();
+    }
+
+    private static <T extends SpecificRecord> void readRecords(BsonReader reader, List<T> records,
+                                                               AvroRecordCodec<T> codec,
+                                                               DecoderContext decoderContext) {
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            records.add(codec.decode(reader, decoderContext));
+        }
+        reader.readEndArray();
+    }
+}
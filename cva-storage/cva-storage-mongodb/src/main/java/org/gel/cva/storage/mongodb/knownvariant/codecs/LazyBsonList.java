@@ -0,0 +1,124 @@
+package org.gel.cva.storage.mongodb.knownvariant.codecs;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * List over an array field of a raw BSON document, the elements are decoded the first time the list is accessed.
+ * Once decoded the list behaves as an ArrayList and the raw document is released. Serializes as an ArrayList.
+ */
+public class LazyBsonList<T> extends AbstractList<T> implements Serializable {
+
+    private transient RawBsonDocument document;
+    private transient Codec<T> codec;
+    private final String field;
+    private volatile List<T> elements = null;
+
+    /**
+     * Constructor for LazyBsonList
+     * @param document  the raw document holding the array
+     * @param field     the name of the array field, a missing field decodes as an empty list
+     * @param codec     the codec of the elements
+     */
+    public LazyBsonList(RawBsonDocument document, String field, Codec<T> codec) {
+        this.document = document;
+        this.field = field;
+        this.codec = codec;
+    }
+
+    /**
+     * @return  true if the elements have been decoded
+     */
+    public boolean isDecoded() {
+        return this.elements != null;
+    }
+
+    private List<T> elements() {
+        List<T> decoded = this.elements;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = this.elements;
+                if (decoded == null) {
+                    decoded = this.decode();
+                    this.elements = decoded;
+                    this.document = null;
+                    this.codec = null;
+                }
+            }
+        }
+        return decoded;
+    }
+
+    private List<T> decode() {
+        List<T> decoded = new ArrayList<>();
+        BsonBinaryReader reader = new BsonBinaryReader(this.document.getByteBuffer().asNIO());
+        try {
+            DecoderContext decoderContext = DecoderContext.builder().build();
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (!reader.readName().equals(this.field) || reader.getCurrentBsonType() != BsonType.ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.readStartArray();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    if (reader.getCurrentBsonType() == BsonType.NULL) {
+                        reader.readNull();
+                        decoded.add(null);
+                    }
+                    else {
+                        decoded.add(this.codec.decode(reader, decoderContext));
+                    }
+                }
+                break;
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return decoded;
+    }
+
+    @Override
+    public T get(int index) {
+        return this.elements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return this.elements().size();
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return this.elements().set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        this.elements().add(index, element);
+    }
+
+    @Override
+    public T remove(int index) {
+        return this.elements().remove(index);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this.elements().iterator();
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<>(this.elements());
+    }
+}
@@ -27,6 +27,8 @@ import org.opencb.commons.datastore.mongodb.GenericDocumentComplexConverter;
  */
 public class DocumentToCurationEntryConverter extends GenericDocumentComplexConverter<CurationEntry> {
 
+    public static final String CURATION = "curation";
+    public static final String HISTORY = "history";
     public static final String DATE = "date";
     public static final String PREVIOUS_SCORE = "previousScore";
     public static final String NEW_SCORE = "newScore";
@@ -43,6 +43,8 @@ public class DocumentToEvidenceEntryConverter extends GenericDocumentComplexConv
     public static final String NUMBER_INDIVIDUALS = "numberIndividuals";
     public static final String ETHNICITY = "ethnicity";
     public static final String DESCRIPTION = "description";
+    public static final String PATHOGENICITY = "pathogenicity";
+    public static final String BENIGNITY = "benignity";
     public static final String COMMENTS = "comments";
 
     /**
@@ -17,15 +17,14 @@
 package org.gel.cva.storage.mongodb.knownvariant.converters;
 
 import org.bson.Document;
-import org.gel.cva.storage.core.exceptions.CvaException;
-import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
 import org.gel.models.cva.avro.Comment;
 import org.gel.models.cva.avro.CurationEntry;
 import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.models.cva.avro.KnownVariant;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
 import org.opencb.commons.datastore.core.ComplexTypeConverter;
-import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
 
 import java.util.*;
@@ -40,6 +39,17 @@ public class DocumentToKnownVariantConverter implements ComplexTypeConverter<Kno
     public static final String CURATIONS = "curations";
     public static final String EVIDENCES = "evidences";
     public static final String COMMENTS = "comments";
+    // version of the document, incremented by every update and managed by the adaptor
+    public static final String VERSION = "_version";
+    // internal fields used for query optimization, they are not read back into the data model
+    public static final String AT = "_at";
+    public static final String CHUNK_IDS = "chunkIds";
+    public static final String GENES = "genes";
+    public static final String TRANSCRIPTS = "transcripts";
+    public static final String PATHOGENIC_EVIDENCES = "pathogenicEvidences";
+    public static final String BENIGN_EVIDENCES = "benignEvidences";
+    public static final int CHUNK_SIZE_SMALL = 1000;
+    public static final int CHUNK_SIZE_BIG = 10000;
 
     private final DocumentToVariantConverter variantConverter;
     private final DocumentToEvidenceEntryConverter evidenceEntryConverter;
@@ -65,21 +75,8 @@ public class DocumentToKnownVariantConverter implements ComplexTypeConverter<Kno
         List<Document> curationsDocs = object.get(CURATIONS, List.class);
         List<Document> evidencesDocs = object.get(EVIDENCES, List.class);
         List<Document> commentsDocs = object.get(COMMENTS, List.class);
-        // Converts Variant
+        // Converts Variant, it was normalized and annotated before being stored
         Variant variant = variantConverter.convertToDataModelType(variantDocument);
-        // Creates the known variant
-        KnownVariantWrapper curatedVariant = null;
-        try {
-            curatedVariant = new KnownVariantWrapper(
-                    submitter,
-                    variant);
-        }
-        catch (VariantAnnotatorException e) {
-            //TODO: add this exception to the signature and raise appropriately
-        }
-        catch (CvaException e) {
-            //TODO: add this exception to the signature and raise appropriately
-        }
         // Converts list of evidences
         List<EvidenceEntry> evidences = new LinkedList<>();
         if (evidencesDocs != null) {
@@ -87,7 +84,6 @@ public class DocumentToKnownVariantConverter implements ComplexTypeConverter<Kno
                 evidences.add(this.evidenceEntryConverter.convertToDataModelType(evidencesDoc));
             }
         }
-        curatedVariant.getImpl().setEvidences(evidences);
         // Converts curation history
         List<CurationEntry> curations = new LinkedList<>();
         if (curationsDocs != null) {
@@ -95,7 +91,6 @@ public class DocumentToKnownVariantConverter implements ComplexTypeConverter<Kno
                 curations.add(this.curationEntryConverter.convertToDataModelType(curationDoc));
             }
         }
-        curatedVariant.getImpl().setCurations(curations);
         // Converts comments
         List<Comment> comments = new LinkedList<>();
         if (commentsDocs != null) {
@@ -103,10 +98,135 @@ public class DocumentToKnownVariantConverter implements ComplexTypeConverter<Kno
                 comments.add(this.commentConverter.convertToDataModelType(commentsDoc));
             }
         }
-        curatedVariant.getImpl().setComments(comments);
+        // Hydrates the known variant without normalizing nor annotating it again
+        KnownVariantWrapper curatedVariant = new KnownVariantWrapper(
+                new KnownVariant(submitter, variant.getImpl(), curations, evidences, comments));
+        Object version = object.get(VERSION);
+        if (version instanceof Number) {
+            curatedVariant.setVersion(((Number) version).longValue());
+        }
         return curatedVariant;
     }
 
+    /**
+     * Builds the _id of the known variant for a normalized variant
+     * @param variant   the normalized variant
+     * @return          the known variant _id
+     */
+    public String buildStorageId(Variant variant) {
+        return this.variantConverter.buildStorageId(variant);
+    }
+
+    /**
+     * Builds the chunk id of a position, chunks are named chromosome_chunk_size (e.g.: 19_44908_1k)
+     * @param chromosome    the normalized chromosome
+     * @param position      the position
+     * @param chunkSize     the chunk size, CHUNK_SIZE_SMALL or CHUNK_SIZE_BIG
+     * @return              the chunk id
+     */
+    public static String buildChunkId(String chromosome, int position, int chunkSize) {
+        return chromosome + "_" + position / chunkSize + "_" + chunkSize / 1000 + "k";
+    }
+
+    /**
+     * Builds the ids of every chunk overlapped by the variant, so a query on the chunks of a region finds the
+     * variants spanning into it
+     * @param variant   the normalized variant
+     * @return          the 1k and 10k chunk ids
+     */
+    public static Set<String> buildChunkIds(Variant variant) {
+        Set<String> chunkIds = new LinkedHashSet<>();
+        int start = variant.getStart();
+        int end = Math.max(variant.getStart(), variant.getEnd());
+        for (int chunkSize : new int[]{CHUNK_SIZE_SMALL, CHUNK_SIZE_BIG}) {
+            for (int chunk = start / chunkSize; chunk <= end / chunkSize; chunk++) {
+                chunkIds.add(buildChunkId(variant.getChromosome(), chunk * chunkSize, chunkSize));
+            }
+        }
+        return chunkIds;
+    }
+
+    /**
+     * Collects the gene names and Ensembl gene ids in the consequence types of the variant annotation
+     * @param variant   the annotated variant
+     * @return          the genes, empty if the variant is not annotated
+     */
+    public static Set<String> buildGenes(Variant variant) {
+        Set<String> genes = new LinkedHashSet<>();
+        if (variant.getAnnotation() != null && variant.getAnnotation().getConsequenceTypes() != null) {
+            for (ConsequenceType consequenceType : variant.getAnnotation().getConsequenceTypes()) {
+                if (consequenceType.getGeneName() != null && !consequenceType.getGeneName().isEmpty()) {
+                    genes.add(consequenceType.getGeneName());
+                }
+                if (consequenceType.getEnsemblGeneId() != null && !consequenceType.getEnsemblGeneId().isEmpty()) {
+                    genes.add(consequenceType.getEnsemblGeneId());
+                }
+            }
+        }
+        return genes;
+    }
+
+    /**
+     * Collects the Ensembl transcript ids in the consequence types of the variant annotation
+     * @param variant   the annotated variant
+     * @return          the transcripts, empty if the variant is not annotated
+     */
+    public static Set<String> buildTranscripts(Variant variant) {
+        Set<String> transcripts = new LinkedHashSet<>();
+        if (variant.getAnnotation() != null && variant.getAnnotation().getConsequenceTypes() != null) {
+            for (ConsequenceType consequenceType : variant.getAnnotation().getConsequenceTypes()) {
+                if (consequenceType.getEnsemblTranscriptId() != null
+                        && !consequenceType.getEnsemblTranscriptId().isEmpty()) {
+                    transcripts.add(consequenceType.getEnsemblTranscriptId());
+                }
+            }
+        }
+        return transcripts;
+    }
+
+    /**
+     * @param evidences the evidences of the known variant, may be null
+     * @return          the number of evidences with a pathogenicity
+     */
+    public static int countPathogenicEvidences(List<EvidenceEntry> evidences) {
+        int pathogenicEvidences = 0;
+        if (evidences != null) {
+            for (EvidenceEntry evidenceEntry : evidences) {
+                pathogenicEvidences += evidenceEntry.getPathogenicity() != null ? 1 : 0;
+            }
+        }
+        return pathogenicEvidences;
+    }
+
+    /**
+     * @param evidences the evidences of the known variant, may be null
+     * @return          the number of evidences with a benignity
+     */
+    public static int countBenignEvidences(List<EvidenceEntry> evidences) {
+        int benignEvidences = 0;
+        if (evidences != null) {
+            for (EvidenceEntry evidenceEntry : evidences) {
+                benignEvidences += evidenceEntry.getBenignity() != null ? 1 : 0;
+            }
+        }
+        return benignEvidences;
+    }
+
+    /**
+     * Builds the internal fields used by region, gene and transcript queries. The counts of pathogenic and benign
+     * evidences let the consistency status be recomputed within an atomic update.
+     * @param variant   the normalized variant
+     * @param evidences the evidences of the known variant, may be null
+     * @return          the document with the internal fields
+     */
+    private Document buildAt(Variant variant, List<EvidenceEntry> evidences) {
+        return new Document(CHUNK_IDS, new LinkedList<>(buildChunkIds(variant)))
+                .append(GENES, new LinkedList<>(buildGenes(variant)))
+                .append(TRANSCRIPTS, new LinkedList<>(buildTranscripts(variant)))
+                .append(PATHOGENIC_EVIDENCES, countPathogenicEvidences(evidences))
+                .append(BENIGN_EVIDENCES, countBenignEvidences(evidences));
+    }
+
     @Override
     public Document convertToStorageType(KnownVariantWrapper curatedVariant) {
 
@@ -121,9 +241,12 @@ public class DocumentToKnownVariantConverter implements ComplexTypeConverter<Kno
         }
 
         // The curated variant inherits the _id from the variant
-        Document mongoCuratedVariant = new Document("_id", this.variantConverter.buildStorageId(variant))
+        Document mongoCuratedVariant = new Document("_id", this.buildStorageId(variant))
                 .append(SUBMITTER, curatedVariant.getImpl().getSubmitter())
                 .append(VARIANT, mongoVariant);
+        if (variant != null) {
+            mongoCuratedVariant.append(AT, this.buildAt(variant, curatedVariant.getImpl().getEvidences()));
+        }
         // Converts list of evidences
         List<Document> evidences = new LinkedList<>();
         if (curatedVariant.getImpl().getEvidences() != null) {
@@ -1,37 +1,20 @@
 package org.gel.cva.storage.mongodb.knownvariant.tools;
 
-import com.mongodb.MongoWriteException;
 import org.gel.cva.storage.core.config.CvaConfiguration;
 import org.gel.cva.storage.core.exceptions.CvaException;
-import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
-import org.gel.cva.storage.core.exceptions.IllegalCvaCredentialsException;
-import org.gel.models.cva.avro.AlleleOrigin;
-import org.gel.models.cva.avro.EvidenceEntry;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.core.knownvariant.tools.ClinVarIngestionPipeline;
 import org.gel.cva.storage.mongodb.knownvariant.adaptors.KnownVariantMongoDBAdaptor;
-import org.gel.models.cva.avro.EvidenceSource;
-import org.gel.models.cva.avro.SourceType;
-import org.opencb.biodata.models.variant.Variant;
-import org.opencb.biodata.models.variant.VariantSource;
-import org.opencb.biodata.models.variant.VariantStudy;
-import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
-import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
-import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+import org.gel.models.cva.avro.AlleleOrigin;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Created by priesgo on 08/01/17.
  */
 public class ClinVarLoader {
 
-    private static final String submitter = "ClinVar-loader";
-
     public static String getCurationClassificationFromClinicalsignificance(String clinicalSignificance) {
         String curationClassification = null;
         // 0 - Uncertain significance,
@@ -114,69 +97,32 @@ public class ClinVarLoader {
     }
 
 
-    public static void main(String [] args) throws FileNotFoundException,
+    /**
+     * Loads a ClinVar VCF into the known variants collection through the parallel ingestion pipeline
+     * @param args      the path to the ClinVar VCF, it may be gzipped
+     */
+    public static void main(String [] args) throws IOException,
             CvaException,
-            UnknownHostException,
-            VariantAnnotatorException
+            InterruptedException
     {
-
+        if (args.length < 1) {
+            System.err.println("Usage: ClinVarLoader <clinvar.vcf[.gz]>");
+            System.exit(1);
+        }
         // Creates db adaptor
         CvaConfiguration cvaConfiguration = CvaConfiguration.getInstance();
-        KnownVariantMongoDBAdaptor knownVariantMongoDBAdaptor = new KnownVariantMongoDBAdaptor(cvaConfiguration);
-
-        // Reads ClinVar input VCF
-        InputStream inputStream = new FileInputStream("/home/priesgo/data/clinvar/clinvar_20170104.vcf");
-        VariantSource source = new VariantSource("/home/priesgo/data/clinvar/clinvar_20170104.vcf", "2", "1", "myStudy", VariantStudy.StudyType.FAMILY, VariantSource.Aggregation.NONE);
-        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(inputStream, source);
-        reader.open();
-        reader.pre();
-
-        List<Variant> read;
-        int i = 0;
-        Integer duplicatedVariants = 0;
-        do {
-            read = reader.read();
-            for (Variant variant : read) {
-                i++;
-                System.out.println(" Processing variant = " + variant.getId());
-                Map annotations = variant.getStudies().get(0).getFiles().get(0).getAttributes();
-                String clinicalSignificance = (String) annotations.get("CLNSIG");
-                String clinicalRevisionStatus = (String) annotations.get("CLNREVSTAT");
-                String sao = (String) annotations.get("SAO");
-                String dbsnpId = (String) annotations.get("RS");
-                // Creates a ClinVar adhoc evidence
-                EvidenceEntry evidenceEntry = new EvidenceEntry();
-                EvidenceSource evidenceSource = new EvidenceSource();
-                evidenceSource.setType(SourceType.database);
-                evidenceSource.setName("ClinVar");
-                evidenceSource.setVersion("20170104");
-                String clinVarUrl = String.format(
-                        "https://www.ncbi.nlm.nih.gov/clinvar?term=%1$s[External allele ID]", dbsnpId);
-                evidenceSource.setUrl(clinVarUrl);
-                evidenceEntry.setSource(evidenceSource);
-                evidenceEntry.setAlleleOrigin(getAlleleOriginFromSAO(sao));
-                evidenceEntry.setSubmitter(ClinVarLoader.submitter);
-                List<EvidenceEntry> evidences = new ArrayList<EvidenceEntry>();
-                evidences.add(evidenceEntry);
-                // Creates a curated variant
-                KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper(
-                        ClinVarLoader.submitter,
-                        variant
-                        );
-                // TODO: add created evidences to KnownVariant
-                // TODO: create an automatic curation status
-
-                // Inserts in Mongo
-                try {
-                    knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
-                }
-                catch (MongoWriteException e) {
-                    duplicatedVariants ++;
-                }
-            }
-        } while (!read.isEmpty());
-
-        System.out.println(" Found duplicated variants = " + duplicatedVariants.toString());
-        reader.close();
+        try (KnownVariantMongoDBAdaptor knownVariantMongoDBAdaptor = new KnownVariantMongoDBAdaptor(cvaConfiguration)) {
+            ClinVarIngestionPipeline pipeline = new ClinVarIngestionPipeline(
+                    cvaConfiguration, knownVariantMongoDBAdaptor);
+            pipeline.run(Paths.get(args[0]));
+            System.out.println(" Inserted variants = " + pipeline.getInsertedVariants());
+            System.out.println(" Found duplicated variants = " + pipeline.getDuplicatedVariants());
+            System.out.println(" Failed variants = " + pipeline.getFailedVariants());
+            System.out.println(" Skipped variants = " + pipeline.getSkippedVariants());
+        }
+        finally {
+            KnownVariantAnnotationService.shutdown();
+            CvaConfiguration.closeMongoClient();
+        }
     }
 }
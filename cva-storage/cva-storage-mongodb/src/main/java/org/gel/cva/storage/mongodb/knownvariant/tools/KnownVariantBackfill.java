@@ -0,0 +1,43 @@
+package org.gel.cva.storage.mongodb.knownvariant.tools;
+
+import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.knownvariant.annotation.KnownVariantAnnotationService;
+import org.gel.cva.storage.mongodb.knownvariant.adaptors.KnownVariantMongoDBAdaptor;
+
+import java.io.IOException;
+
+/**
+ * Migrates a known variants collection written by a previous version of CVA, setting the internal fields that the
+ * current version keeps up to date on every write, and creates the indexes on them:
+ * - the chunk ids, genes and transcripts used by region, gene and transcript queries, known variants lacking them
+ *   are never returned by those queries
+ * - the counts of pathogenic and benign evidences used to recompute the consistency status of the curations
+ *
+ * It can be run on a live collection, the updates are conditional on the version of every known variant. Running it
+ * again only touches the known variants still lacking the fields.
+ */
+public class KnownVariantBackfill {
+
+    /**
+     * Backfills the known variants collection in the configured database
+     * @param args      no arguments
+     */
+    public static void main(String [] args) throws IOException,
+            CvaException
+    {
+        CvaConfiguration cvaConfiguration = CvaConfiguration.getInstance();
+        // the adaptor creates the missing indexes when built
+        CvaConfiguration.getDefaultStorageEngine().getOptions().put("indexes.create", "true");
+        try (KnownVariantMongoDBAdaptor knownVariantMongoDBAdaptor = new KnownVariantMongoDBAdaptor(cvaConfiguration)) {
+            long queryFields = knownVariantMongoDBAdaptor.backfillQueryFields();
+            System.out.println(" Known variants with query fields set = " + queryFields);
+            long evidenceCounts = knownVariantMongoDBAdaptor.backfillEvidenceCounts();
+            System.out.println(" Known variants with evidence counts set = " + evidenceCounts);
+        }
+        finally {
+            KnownVariantAnnotationService.shutdown();
+            CvaConfiguration.closeMongoClient();
+        }
+    }
+}
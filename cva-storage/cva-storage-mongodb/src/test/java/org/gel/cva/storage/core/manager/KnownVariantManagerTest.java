@@ -3,6 +3,7 @@ package org.gel.cva.storage.core.manager;
 import org.gel.cva.storage.core.config.CvaConfiguration;
 import org.gel.cva.storage.core.exceptions.CvaException;
 import org.gel.cva.storage.core.exceptions.IllegalCvaConfigurationException;
+import org.gel.cva.storage.core.knownvariant.tools.VcfAnnotationPipeline;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
 import org.gel.models.cva.avro.*;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
@@ -15,13 +16,18 @@ import org.opencb.opencga.core.auth.IllegalOpenCGACredentialsException;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by priesgo on 31/01/17.
@@ -66,6 +72,7 @@ public class KnownVariantManagerTest {
 
     @After
     public void tearDown() {
+        this.knownVariantManager.close();
         // Drops the testing database
         String collection = this.cvaConfiguration.getStorageEngines().get(0).getOptions().get("collection.knownvariants");
         db.dropCollection(collection);
@@ -296,4 +303,65 @@ public class KnownVariantManagerTest {
         assertEquals(ConsistencyStatus.conflict,
                 knownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
     }
+
+    @Test
+    public void testKnownVariantCache() throws VariantAnnotatorException, CvaException {
+
+        this.knownVariantManager.createKnownVariant(submitter, chromosome, position, reference, alternate);
+        // the first read misses and the following ones hit, also with a not normalized chromosome
+        assertNotNull(this.knownVariantManager.findKnownVariant(chromosome, position, reference, alternate));
+        KnownVariantWrapper cachedKnownVariantWrapper = this.knownVariantManager.findKnownVariant(
+                chromosomeNormalized, position, reference, alternate);
+        assertEquals(1, this.knownVariantManager.getKnownVariantCacheStats().missCount());
+        assertEquals(1, this.knownVariantManager.getKnownVariantCacheStats().hitCount());
+        assertEquals(1L, cachedKnownVariantWrapper.getVersion());
+        // modifying a cached copy does not modify the cache
+        cachedKnownVariantWrapper.getImpl().setSubmitter("anotherSubmitter");
+        assertEquals(submitter, this.knownVariantManager.findKnownVariant(
+                chromosome, position, reference, alternate).getImpl().getSubmitter());
+        // a write invalidates the cached known variant
+        List<HeritablePhenotype> heritablePhenotypeList = new LinkedList<>();
+        heritablePhenotypeList.add(heritablePhenotype);
+        this.knownVariantManager.addEvidence(chromosome, position, reference, alternate, submitter, null,
+                SourceType.clinical_testing, null, null, null, AlleleOrigin.germline, heritablePhenotypeList, null,
+                EvidencePathogenicity.strong, null, null, null, null, null, null);
+        assertEquals(0, this.knownVariantManager.getKnownVariantCacheSize());
+        KnownVariantWrapper knownVariantWrapper = this.knownVariantManager.findKnownVariant(
+                chromosome, position, reference, alternate);
+        assertEquals(1, knownVariantWrapper.getImpl().getEvidences().size());
+        assertEquals(2L, knownVariantWrapper.getVersion());
+    }
+
+    @Test
+    public void testAnnotateVcf() throws Exception {
+
+        this.knownVariantManager.createKnownVariant(submitter, chromosome, position, reference, alternate);
+        String vcf = "##fileformat=VCFv4.1\n" +
+                "##contig=<ID=19>\n" +
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n" +
+                "19\t" + position + "\trs1\tT\tC,G\t.\tPASS\t.\n" +
+                "19\t" + (position + 10) + "\t.\tA\tG\t.\tPASS\t.\n";
+        // VCF output annotates only the known alleles
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        this.knownVariantManager.annotateVcf(new ByteArrayInputStream(vcf.getBytes(StandardCharsets.UTF_8)),
+                output, VcfAnnotationPipeline.OutputFormat.VCF);
+        List<String> records = new LinkedList<>();
+        for (String line : output.toString("UTF-8").split("\n")) {
+            if (!line.startsWith("#")) {
+                records.add(line);
+            }
+        }
+        assertEquals(2, records.size());
+        assertTrue(records.get(0).contains(VcfAnnotationPipeline.CVA_ID + "=" + chromosomeNormalized + ":" +
+                position + ":" + reference + ":" + alternate + ",."));
+        assertFalse(records.get(1).contains(VcfAnnotationPipeline.CVA_ID));
+        // NDJSON output has one line per record
+        output = new ByteArrayOutputStream();
+        this.knownVariantManager.annotateVcf(new ByteArrayInputStream(vcf.getBytes(StandardCharsets.UTF_8)),
+                output, VcfAnnotationPipeline.OutputFormat.NDJSON);
+        String[] lines = output.toString("UTF-8").split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"knownVariants\":[{"));
+        assertTrue(lines[1].contains("\"knownVariants\":[null]"));
+    }
 }
@@ -1,23 +1,44 @@
 package org.gel.cva.storage.mongodb.knownvariant.adaptors;
 
+import org.bson.Document;
 import org.gel.cva.storage.core.config.CvaConfiguration;
+import org.gel.cva.storage.core.exceptions.ConcurrentCvaModificationException;
 import org.gel.cva.storage.core.exceptions.CvaException;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBAdaptor;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantDBIterator;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantInsertResult;
+import org.gel.cva.storage.core.knownvariant.adaptors.KnownVariantQueryParams;
 import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToKnownVariantConverter;
 import org.gel.models.cva.avro.AlleleOrigin;
+import org.gel.models.cva.avro.ConsistencyStatus;
 import org.gel.models.cva.avro.CurationClassification;
+import org.gel.models.cva.avro.CurationHistoryEntry;
+import org.gel.models.cva.avro.EvidenceBenignity;
+import org.gel.models.cva.avro.EvidenceEntry;
 import org.gel.models.cva.avro.EvidencePathogenicity;
+import org.gel.models.cva.avro.HeritablePhenotype;
 import org.gel.models.cva.avro.SourceType;
 import org.gel.models.report.avro.ReportedModeOfInheritance;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.commons.datastore.mongodb.MongoDataStore;
 import org.opencb.commons.datastore.mongodb.MongoDataStoreManager;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -131,4 +152,396 @@ public class KnownVariantMongoDBAdapterTest {
                 this.knownVariantMongoDBAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
         assertEquals(2, updatedKnownVariantWrapper.getImpl().getEvidences().size());
     }
+
+    @Test
+    public void testBulkInsert()
+            throws VariantAnnotatorException, CvaException {
+        // Five variants where the last one duplicates the first one
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int i = 0; i < 4; i++) {
+            knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, this.position + i,
+                    this.reference, this.alternate, false));
+        }
+        knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, this.position,
+                this.reference, this.alternate, false));
+        // Uses a batch size that splits the variants in several batches
+        QueryOptions options = new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, 2);
+        List<KnownVariantInsertResult> results = this.knownVariantMongoDBAdaptor.insert(knownVariants, options);
+        assertEquals(5, results.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(KnownVariantInsertResult.Status.INSERTED, results.get(i).getStatus());
+            assertNotNull(this.knownVariantMongoDBAdaptor.find(this.chromosome, this.position + i,
+                    this.reference, this.alternate));
+        }
+        assertEquals(KnownVariantInsertResult.Status.DUPLICATED, results.get(4).getStatus());
+        assertEquals(results.get(0).getId(), results.get(4).getId());
+        // Inserting again the same variants reports all of them as duplicated
+        results = this.knownVariantMongoDBAdaptor.insert(knownVariants, null);
+        for (KnownVariantInsertResult result : results) {
+            assertEquals(KnownVariantInsertResult.Status.DUPLICATED, result.getStatus());
+        }
+    }
+
+    @Test
+    public void testIterator()
+            throws VariantAnnotatorException, CvaException {
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int i = 0; i < 5; i++) {
+            knownVariants.add(new KnownVariantWrapper(i % 2 == 0 ? "submitter" : "anotherSubmitter",
+                    this.chromosome, this.position + i, this.reference, this.alternate, false));
+        }
+        this.knownVariantMongoDBAdaptor.insert(knownVariants, null);
+        // Iterates the whole collection in batches smaller than the collection
+        QueryOptions options = new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, 2);
+        int count = 0;
+        try (KnownVariantDBIterator iterator = this.knownVariantMongoDBAdaptor.iterator(new Query(), options)) {
+            while (iterator.hasNext()) {
+                KnownVariantWrapper knownVariantWrapper = iterator.next();
+                assertEquals(this.chromosomeNormalized, knownVariantWrapper.getVariant().getChromosome());
+                count++;
+            }
+            assertEquals(5, iterator.getCount());
+        }
+        assertEquals(5, count);
+        // Persistent iteration returns the variants sorted by id
+        options.put(KnownVariantDBAdaptor.PERSISTENT, true);
+        List<Integer> positions = new LinkedList<>();
+        this.knownVariantMongoDBAdaptor.forEach(new Query(),
+                knownVariantWrapper -> positions.add(knownVariantWrapper.getVariant().getStart()), options);
+        assertEquals(5, positions.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(this.position + i, positions.get(i).intValue());
+        }
+        // Filters by submitter and limits the results
+        Query query = new Query(KnownVariantQueryParams.SUBMITTER.key(), "submitter");
+        List<KnownVariantWrapper> results = new LinkedList<>();
+        this.knownVariantMongoDBAdaptor.forEach(query, results::add, new QueryOptions(QueryOptions.LIMIT, 2));
+        assertEquals(2, results.size());
+        for (KnownVariantWrapper knownVariantWrapper : results) {
+            assertEquals("submitter", knownVariantWrapper.getImpl().getSubmitter());
+        }
+        // Filters by id
+        query = new Query(KnownVariantQueryParams.ID.key(),
+                this.chromosome + ":" + (this.position + 1) + ":" + this.reference + ":" + this.alternate);
+        results.clear();
+        this.knownVariantMongoDBAdaptor.forEach(query, results::add, null);
+        assertEquals(1, results.size());
+        assertEquals(this.position + 1, results.get(0).getVariant().getStart().intValue());
+    }
+
+    @Test
+    public void testFindAll()
+            throws VariantAnnotatorException, CvaException {
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int i = 0; i < 5; i++) {
+            knownVariants.add(new KnownVariantWrapper("submitter",
+                    this.chromosome, this.position + i, this.reference, this.alternate, false));
+        }
+        this.knownVariantMongoDBAdaptor.insert(knownVariants, null);
+        // Registered, missing and duplicated variants in batches smaller than the input
+        List<Variant> variants = Arrays.asList(
+                new Variant(this.chromosome, this.position + 4, this.reference, this.alternate),
+                new Variant(this.chromosome, this.position + 10, this.reference, this.alternate),
+                new Variant(this.chromosomeNormalized, this.position, this.reference, this.alternate),
+                new Variant(this.chromosome, this.position + 2, this.reference, this.alternate),
+                new Variant(this.chromosome, this.position + 4, this.reference, this.alternate)
+        );
+        List<KnownVariantWrapper> results = this.knownVariantMongoDBAdaptor.findAll(variants,
+                new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, 2));
+        assertEquals(variants.size(), results.size());
+        assertEquals(this.position + 4, results.get(0).getVariant().getStart().intValue());
+        assertNull(results.get(1));
+        assertEquals(this.position, results.get(2).getVariant().getStart());
+        assertEquals(this.position + 2, results.get(3).getVariant().getStart().intValue());
+        assertEquals(this.position + 4, results.get(4).getVariant().getStart().intValue());
+        // Default batch size
+        results = this.knownVariantMongoDBAdaptor.findAll(variants, null);
+        assertEquals(variants.size(), results.size());
+        assertNull(results.get(1));
+        assertNotNull(results.get(2));
+        // Versions only
+        List<Long> versions = this.knownVariantMongoDBAdaptor.findVersions(variants,
+                new QueryOptions(KnownVariantDBAdaptor.BATCH_SIZE, 2));
+        assertEquals(Arrays.asList(1L, null, 1L, 1L, 1L), versions);
+    }
+
+    @Test
+    public void testProjection()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter",
+                this.chromosome, this.position, this.reference, this.alternate, false);
+        knownVariantWrapper.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null,
+                null, null, null);
+        knownVariantWrapper.addEvidence("theSubmitter", null,
+                SourceType.clinical_testing, null, null, null,
+                AlleleOrigin.germline, null, null, EvidencePathogenicity.strong,
+                null, null, null, null, null,
+                null);
+        this.knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
+        // Only the current curations
+        QueryOptions options = new QueryOptions(QueryOptions.INCLUDE,
+                Collections.singletonList("curations.curation"));
+        KnownVariantWrapper foundKnownVariantWrapper = this.knownVariantMongoDBAdaptor.find(
+                this.chromosome, this.position, this.reference, this.alternate, options);
+        assertEquals(this.chromosomeNormalized, foundKnownVariantWrapper.getVariant().getChromosome());
+        assertEquals(1L, foundKnownVariantWrapper.getVersion());
+        assertEquals(1, foundKnownVariantWrapper.getImpl().getCurations().size());
+        assertEquals(CurationClassification.pathogenic_variant,
+                foundKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getClassification());
+        assertNull(foundKnownVariantWrapper.getImpl().getCurations().get(0).getHistory());
+        assertEquals(0, foundKnownVariantWrapper.getImpl().getEvidences().size());
+        // Everything but the evidences in a batch
+        options = new QueryOptions(QueryOptions.EXCLUDE, Collections.singletonList("evidences"));
+        List<KnownVariantWrapper> foundKnownVariantWrappers = this.knownVariantMongoDBAdaptor.findAll(
+                Collections.singletonList(new Variant(this.chromosome, this.position, this.reference, this.alternate)),
+                options);
+        assertEquals(1, foundKnownVariantWrappers.get(0).getImpl().getCurations().get(0).getHistory().size());
+        assertEquals(0, foundKnownVariantWrappers.get(0).getImpl().getEvidences().size());
+        // The required fields cannot be excluded
+        options = new QueryOptions(QueryOptions.EXCLUDE, Collections.singletonList("variant"));
+        foundKnownVariantWrapper = this.knownVariantMongoDBAdaptor.find(
+                this.chromosome, this.position, this.reference, this.alternate, options);
+        assertEquals(this.position, foundKnownVariantWrapper.getVariant().getStart());
+        assertEquals(1, foundKnownVariantWrapper.getImpl().getEvidences().size());
+    }
+
+    @Test
+    public void testRegionAndGeneQueries()
+            throws VariantAnnotatorException, CvaException {
+        // Three variants close to each other and one far away in another chunk
+        List<KnownVariantWrapper> knownVariants = new LinkedList<>();
+        for (int position : new int[]{this.position, this.position + 10, this.position + 500, this.position + 50000}) {
+            knownVariants.add(new KnownVariantWrapper("submitter", this.chromosome, position,
+                    this.reference, this.alternate, false));
+        }
+        // Sets a fake annotation on the first variant
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setGeneName("APOE");
+        consequenceType.setEnsemblGeneId("ENSG00000130203");
+        consequenceType.setEnsemblTranscriptId("ENST00000252486");
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        variantAnnotation.setConsequenceTypes(Collections.singletonList(consequenceType));
+        knownVariants.get(0).setVariantAnnotation(variantAnnotation);
+        this.knownVariantMongoDBAdaptor.insert(knownVariants, null);
+        // Region queries accept non normalized chromosomes
+        Query query = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosome + ":" + this.position + "-" + (this.position + 500));
+        assertEquals(3, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosomeNormalized + ":" + (this.position + 1) + "-" + (this.position + 10));
+        assertEquals(1, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        // Several regions, one of them wide enough to use the big chunks
+        query = new Query(KnownVariantQueryParams.REGION.key(), Arrays.asList(
+                this.chromosome + ":" + this.position + "-" + this.position,
+                this.chromosome + ":" + (this.position + 40000) + "-" + (this.position + 300000)));
+        assertEquals(2, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.REGION.key(), "chr1:1-100000000");
+        assertEquals(0, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.CHROMOSOME.key(), this.chromosome);
+        assertEquals(4, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        // Gene and transcript queries
+        query = new Query(KnownVariantQueryParams.GENE.key(), "APOE,BRCA2");
+        QueryResult<KnownVariantWrapper> queryResult = this.knownVariantMongoDBAdaptor.get(query, null);
+        assertEquals(1, queryResult.getNumResults());
+        assertEquals(this.position, queryResult.getResult().get(0).getVariant().getStart());
+        query = new Query(KnownVariantQueryParams.GENE.key(), "ENSG00000130203");
+        assertEquals(1, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        query = new Query(KnownVariantQueryParams.TRANSCRIPT.key(), "ENST00000252486");
+        assertEquals(1, this.knownVariantMongoDBAdaptor.get(query, null).getNumResults());
+        // Limit and count
+        query = new Query(KnownVariantQueryParams.CHROMOSOME.key(), this.chromosomeNormalized);
+        QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 2);
+        options.put(QueryOptions.COUNT, true);
+        queryResult = this.knownVariantMongoDBAdaptor.get(query, options);
+        assertEquals(2, queryResult.getNumResults());
+        assertEquals(4, queryResult.getNumTotalResults());
+    }
+
+    @Test
+    public void testAtomicAppends()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        this.knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
+        KnownVariantWrapper storedKnownVariantWrapper =
+                this.knownVariantMongoDBAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        // Two curators read the same state and curate the same phenotype
+        CurationHistoryEntry firstCuration = storedKnownVariantWrapper.buildCurationHistoryEntry("curator1",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.pathogenic_variant, null, null, null, null);
+        CurationHistoryEntry secondCuration = storedKnownVariantWrapper.buildCurationHistoryEntry("curator2",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.benign_variant, null, null, null, null);
+        // building the curations does not modify the known variant
+        assertEquals(0, storedKnownVariantWrapper.getImpl().getCurations().size());
+        KnownVariantWrapper updatedKnownVariantWrapper =
+                this.knownVariantMongoDBAdaptor.addCuration(storedKnownVariantWrapper, firstCuration, true);
+        assertNotNull(updatedKnownVariantWrapper);
+        assertEquals(ConsistencyStatus.consensus,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        // the second curation was built on a stale version and it is rejected
+        try {
+            this.knownVariantMongoDBAdaptor.addCuration(storedKnownVariantWrapper, secondCuration, true);
+            fail();
+        }
+        catch (ConcurrentCvaModificationException e) {
+            // expected
+        }
+        // built again on the current state it is stored in the history
+        secondCuration = updatedKnownVariantWrapper.buildCurationHistoryEntry("curator2",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.benign_variant, null, null, null, null);
+        updatedKnownVariantWrapper =
+                this.knownVariantMongoDBAdaptor.addCuration(updatedKnownVariantWrapper, secondCuration, true);
+        assertNotNull(updatedKnownVariantWrapper);
+        assertEquals(1, updatedKnownVariantWrapper.getImpl().getCurations().size());
+        assertEquals(2, updatedKnownVariantWrapper.getImpl().getCurations().get(0).getHistory().size());
+        assertEquals(CurationClassification.benign_variant,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getClassification());
+        // Evidences in both directions for the curated phenotype set the curation in conflict
+        List<HeritablePhenotype> heritablePhenotypes = Collections.singletonList(
+                new HeritablePhenotype("HPO:0000001", ReportedModeOfInheritance.monoallelic));
+        EvidenceEntry pathogenicEvidence = storedKnownVariantWrapper.buildEvidenceEntry("theSubmitter", null,
+                SourceType.literature_manual_curation, null, null, null, AlleleOrigin.germline,
+                heritablePhenotypes, null, EvidencePathogenicity.moderate, null, null, null, null, null, null);
+        EvidenceEntry benignEvidence = storedKnownVariantWrapper.buildEvidenceEntry("theSubmitter", null,
+                SourceType.clinical_testing, null, null, null, AlleleOrigin.germline,
+                heritablePhenotypes, null, null, EvidenceBenignity.strong, null, null, null, null, null);
+        // evidences can be appended from stale states
+        updatedKnownVariantWrapper =
+                this.knownVariantMongoDBAdaptor.addEvidence(storedKnownVariantWrapper, pathogenicEvidence);
+        assertEquals(1, updatedKnownVariantWrapper.getImpl().getEvidences().size());
+        assertEquals(ConsistencyStatus.consensus,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        updatedKnownVariantWrapper =
+                this.knownVariantMongoDBAdaptor.addEvidence(storedKnownVariantWrapper, benignEvidence);
+        assertEquals(2, updatedKnownVariantWrapper.getImpl().getEvidences().size());
+        assertEquals(ConsistencyStatus.conflict,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        // Appending to a non registered variant fails
+        KnownVariantWrapper notRegistered = new KnownVariantWrapper("submitter", "chr1", this.position,
+                this.reference, this.alternate, false);
+        try {
+            this.knownVariantMongoDBAdaptor.addEvidence(notRegistered, pathogenicEvidence);
+            fail();
+        }
+        catch (CvaException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testVersionedUpdate()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        this.knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
+        assertEquals(1, knownVariantWrapper.getVersion());
+        // Two clients read the same version
+        KnownVariantWrapper firstRead =
+                this.knownVariantMongoDBAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        KnownVariantWrapper secondRead =
+                this.knownVariantMongoDBAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        assertEquals(1, firstRead.getVersion());
+        firstRead.addCuration("theCurator", "HPO:0000001", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.pathogenic_variant, null, null, null, null);
+        assertTrue(this.knownVariantMongoDBAdaptor.update(firstRead));
+        assertEquals(2, firstRead.getVersion());
+        // The second update is based on a stale version and does not overwrite the first one
+        secondRead.addCuration("theCurator", "HPO:0000002", ReportedModeOfInheritance.monoallelic,
+                null, CurationClassification.benign_variant, null, null, null, null);
+        try {
+            this.knownVariantMongoDBAdaptor.update(secondRead);
+            fail();
+        }
+        catch (ConcurrentCvaModificationException e) {
+            // expected
+        }
+        KnownVariantWrapper stored =
+                this.knownVariantMongoDBAdaptor.find(this.chromosome, this.position, this.reference, this.alternate);
+        assertEquals(2, stored.getVersion());
+        assertEquals(1, stored.getImpl().getCurations().size());
+        assertEquals("HPO:0000001",
+                stored.getImpl().getCurations().get(0).getCuration().getHeritablePhenotype().getPhenotype());
+        // Appends increment the version
+        EvidenceEntry evidenceEntry = stored.buildEvidenceEntry("theSubmitter", null,
+                SourceType.literature_manual_curation, null, null, null, AlleleOrigin.germline,
+                null, null, EvidencePathogenicity.moderate, null, null, null, null, null, null);
+        assertEquals(3, this.knownVariantMongoDBAdaptor.addEvidence(stored, evidenceEntry).getVersion());
+    }
+
+    @Test
+    public void testEvidenceCountsBackfill()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        this.knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
+        List<HeritablePhenotype> heritablePhenotypes = Collections.singletonList(
+                new HeritablePhenotype("HPO:0000001", ReportedModeOfInheritance.monoallelic));
+        CurationHistoryEntry curation = knownVariantWrapper.buildCurationHistoryEntry("curator",
+                "HPO:0000001", ReportedModeOfInheritance.monoallelic, null,
+                CurationClassification.pathogenic_variant, null, null, null, null);
+        this.knownVariantMongoDBAdaptor.addCuration(knownVariantWrapper, curation, true);
+        EvidenceEntry pathogenicEvidence = knownVariantWrapper.buildEvidenceEntry("theSubmitter", null,
+                SourceType.literature_manual_curation, null, null, null, AlleleOrigin.germline,
+                heritablePhenotypes, null, EvidencePathogenicity.moderate, null, null, null, null, null, null);
+        this.knownVariantMongoDBAdaptor.addEvidence(knownVariantWrapper, pathogenicEvidence);
+        // the counts are removed as in known variants stored by previous versions
+        String collection = this.cvaConfiguration.getStorageEngines().get(0).getOptions().get("collection.knownvariants");
+        CvaConfiguration.getMongoClient().getDatabase(CvaConfiguration.getMongoCredentials().getMongoDbName())
+                .getCollection(collection).updateMany(new Document(), new Document("$unset",
+                        new Document(DocumentToKnownVariantConverter.AT + "." +
+                                DocumentToKnownVariantConverter.PATHOGENIC_EVIDENCES, "")
+                                .append(DocumentToKnownVariantConverter.AT + "." +
+                                        DocumentToKnownVariantConverter.BENIGN_EVIDENCES, "")));
+        // the benign evidence sees the previous pathogenic evidence
+        EvidenceEntry benignEvidence = knownVariantWrapper.buildEvidenceEntry("theSubmitter", null,
+                SourceType.clinical_testing, null, null, null, AlleleOrigin.germline,
+                heritablePhenotypes, null, null, EvidenceBenignity.strong, null, null, null, null, null);
+        KnownVariantWrapper updatedKnownVariantWrapper =
+                this.knownVariantMongoDBAdaptor.addEvidence(knownVariantWrapper, benignEvidence);
+        assertEquals(2, updatedKnownVariantWrapper.getImpl().getEvidences().size());
+        assertEquals(ConsistencyStatus.conflict,
+                updatedKnownVariantWrapper.getImpl().getCurations().get(0).getCuration().getConsistencyStatus());
+        assertEquals(0, this.knownVariantMongoDBAdaptor.backfillEvidenceCounts());
+    }
+
+    @Test
+    public void testQueryFieldsBackfill()
+            throws VariantAnnotatorException, CvaException {
+        KnownVariantWrapper knownVariantWrapper = new KnownVariantWrapper("submitter", this.chromosome,
+                this.position, this.reference, this.alternate, false);
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setGeneName("APOE");
+        consequenceType.setEnsemblTranscriptId("ENST00000252486");
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        variantAnnotation.setConsequenceTypes(Collections.singletonList(consequenceType));
+        knownVariantWrapper.setVariantAnnotation(variantAnnotation);
+        this.knownVariantMongoDBAdaptor.insert(knownVariantWrapper, null);
+        // the query fields are removed as in known variants stored by previous versions
+        String collection = this.cvaConfiguration.getStorageEngines().get(0).getOptions().get("collection.knownvariants");
+        CvaConfiguration.getMongoClient().getDatabase(CvaConfiguration.getMongoCredentials().getMongoDbName())
+                .getCollection(collection).updateMany(new Document(), new Document("$unset",
+                        new Document(DocumentToKnownVariantConverter.AT + "." +
+                                DocumentToKnownVariantConverter.CHUNK_IDS, "")
+                                .append(DocumentToKnownVariantConverter.AT + "." +
+                                        DocumentToKnownVariantConverter.GENES, "")
+                                .append(DocumentToKnownVariantConverter.AT + "." +
+                                        DocumentToKnownVariantConverter.TRANSCRIPTS, "")));
+        Query regionQuery = new Query(KnownVariantQueryParams.REGION.key(),
+                this.chromosome + ":" + this.position + "-" + this.position);
+        Query geneQuery = new Query(KnownVariantQueryParams.GENE.key(), "APOE");
+        Query transcriptQuery = new Query(KnownVariantQueryParams.TRANSCRIPT.key(), "ENST00000252486");
+        assertEquals(0, this.knownVariantMongoDBAdaptor.get(regionQuery, null).getNumResults());
+        assertEquals(0, this.knownVariantMongoDBAdaptor.get(geneQuery, null).getNumResults());
+        assertEquals(1, this.knownVariantMongoDBAdaptor.backfillQueryFields());
+        assertEquals(1, this.knownVariantMongoDBAdaptor.get(regionQuery, null).getNumResults());
+        assertEquals(1, this.knownVariantMongoDBAdaptor.get(geneQuery, null).getNumResults());
+        assertEquals(1, this.knownVariantMongoDBAdaptor.get(transcriptQuery, null).getNumResults());
+        // the version is not changed and a second run finds nothing to do
+        assertEquals(1, this.knownVariantMongoDBAdaptor.find(
+                this.chromosome, this.position, this.reference, this.alternate).getVersion());
+        assertEquals(0, this.knownVariantMongoDBAdaptor.backfillQueryFields());
+    }
 }
@@ -0,0 +1,171 @@
+package org.gel.cva.storage.mongodb.knownvariant.codecs;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.gel.cva.storage.core.helpers.CvaDateFormatter;
+import org.gel.cva.storage.core.knownvariant.wrappers.KnownVariantWrapper;
+import org.gel.cva.storage.mongodb.knownvariant.converters.DocumentToKnownVariantConverter;
+import org.gel.models.cva.avro.*;
+import org.gel.models.report.avro.ReportedModeOfInheritance;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the codec writes the layout of the DocumentToKnownVariantConverter, so documents written by either
+ * of them are read by the other.
+ */
+public class KnownVariantCodecTest {
+
+    private KnownVariantCodec knownVariantCodec;
+    private DocumentToKnownVariantConverter knownVariantConverter;
+    private KnownVariantWrapper knownVariantWrapper;
+
+    @Before
+    public void setup() {
+        this.knownVariantCodec = new KnownVariantCodec();
+        this.knownVariantConverter = new DocumentToKnownVariantConverter();
+        HeritablePhenotype heritablePhenotype = new HeritablePhenotype(
+                "HPO:000001", ReportedModeOfInheritance.biallelic);
+        List<Comment> comments = new LinkedList<>();
+        Comment comment = new Comment();
+        comment.setDate(CvaDateFormatter.getCurrentFormattedDate());
+        comment.setAuthor("author_comment1");
+        comment.setText("a very interesting comment");
+        comments.add(comment);
+        List<EvidenceEntry> evidences = new LinkedList<>();
+        EvidenceEntry evidenceEntry = new EvidenceEntry();
+        evidenceEntry.setDate(CvaDateFormatter.getCurrentFormattedDate());
+        evidenceEntry.setSubmitter("Mr.Test");
+        EvidenceSource evidenceSource = new EvidenceSource();
+        evidenceSource.setName("RiskDB");
+        evidenceSource.setType(SourceType.other);
+        evidenceEntry.setSource(evidenceSource);
+        evidenceEntry.setAlleleOrigin(AlleleOrigin.unknown);
+        List<HeritablePhenotype> heritablePhenotypes = new LinkedList<>();
+        heritablePhenotypes.add(heritablePhenotype);
+        evidenceEntry.setHeritablePhenotypes(heritablePhenotypes);
+        evidenceEntry.setNumberIndividuals(4);
+        evidenceEntry.setComments(comments);
+        evidences.add(evidenceEntry);
+        List<CurationEntry> curations = new LinkedList<>();
+        Curation curation = new Curation();
+        curation.setClassification(CurationClassification.uncertain_significance);
+        curation.setManualCurationConfidence(ManualCurationConfidence.high_confidence);
+        curation.setPenetrance(0.9f);
+        curation.setVariableExpressivity(true);
+        curation.setHeritablePhenotype(heritablePhenotype);
+        List<CurationHistoryEntry> history = new LinkedList<>();
+        for (int i = 0; i < 3; i++) {
+            CurationHistoryEntry curationHistoryEntry = new CurationHistoryEntry();
+            curationHistoryEntry.setCurator("curator" + i);
+            curationHistoryEntry.setNewCuration(curation);
+            curationHistoryEntry.setDate(CvaDateFormatter.getCurrentFormattedDate());
+            history.add(curationHistoryEntry);
+        }
+        curations.add(new CurationEntry(curation, history));
+        this.knownVariantWrapper = new KnownVariantWrapper(new KnownVariant("Mr.Test",
+                new Variant("19", 44908684, "T", "C").getImpl(), curations, evidences, comments));
+        this.knownVariantWrapper.setVersion(3L);
+    }
+
+    private BsonDocument encode(KnownVariantWrapper knownVariantWrapper) {
+        BsonDocument bsonDocument = new BsonDocument();
+        this.knownVariantCodec.encode(new BsonDocumentWriter(bsonDocument), knownVariantWrapper,
+                EncoderContext.builder().build());
+        return bsonDocument;
+    }
+
+    private KnownVariantWrapper decode(BsonDocument bsonDocument) {
+        return this.knownVariantCodec.decode(new BsonDocumentReader(bsonDocument), DecoderContext.builder().build());
+    }
+
+    private void assertKnownVariantEquals(KnownVariantWrapper expected, KnownVariantWrapper actual) {
+        assertEquals(expected.getVariant().getChromosome(), actual.getVariant().getChromosome());
+        assertEquals(expected.getVariant().getStart(), actual.getVariant().getStart());
+        assertEquals(expected.getVariant().getReference(), actual.getVariant().getReference());
+        assertEquals(expected.getVariant().getAlternate(), actual.getVariant().getAlternate());
+        assertEquals(expected.getImpl().getSubmitter(), actual.getImpl().getSubmitter());
+        assertEquals(expected.getImpl().getEvidences(), actual.getImpl().getEvidences());
+        assertEquals(expected.getImpl().getCurations(), actual.getImpl().getCurations());
+        assertEquals(expected.getImpl().getComments(), actual.getImpl().getComments());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        BsonDocument bsonDocument = this.encode(this.knownVariantWrapper);
+        assertEquals(this.knownVariantCodec.buildStorageId(this.knownVariantWrapper.getVariant()),
+                bsonDocument.getString("_id").getValue());
+        assertEquals(3L, bsonDocument.getInt64(DocumentToKnownVariantConverter.VERSION).getValue());
+        assertEquals(0.9, bsonDocument.getArray(DocumentToKnownVariantConverter.CURATIONS).get(0).asDocument()
+                .getDocument("curation").getDouble("penetrance").getValue(), 0);
+        KnownVariantWrapper decoded = this.decode(bsonDocument);
+        this.assertKnownVariantEquals(this.knownVariantWrapper, decoded);
+        assertEquals(3L, decoded.getVersion());
+    }
+
+    @Test
+    public void testConverterCompatibility() {
+        // a document written by the converter is read by the codec
+        Document document = this.knownVariantConverter.convertToStorageType(this.knownVariantWrapper);
+        KnownVariantWrapper decoded = this.decode(
+                document.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry()));
+        this.assertKnownVariantEquals(this.knownVariantWrapper, decoded);
+        assertEquals(0L, decoded.getVersion());
+        // a document written by the codec is read by the converter
+        BsonDocument bsonDocument = this.encode(this.knownVariantWrapper);
+        Document codecDocument = MongoClient.getDefaultCodecRegistry().get(Document.class).decode(
+                new BsonDocumentReader(bsonDocument), DecoderContext.builder().build());
+        this.assertKnownVariantEquals(this.knownVariantWrapper,
+                this.knownVariantConverter.convertToDataModelType(codecDocument));
+        // both write the same internal fields
+        assertEquals(document.get(DocumentToKnownVariantConverter.AT),
+                codecDocument.get(DocumentToKnownVariantConverter.AT));
+    }
+
+    @Test
+    public void testLazyDecoding() {
+        KnownVariantCodec lazyKnownVariantCodec = new KnownVariantCodec(MongoClient.getDefaultCodecRegistry(), true);
+        KnownVariantWrapper decoded = lazyKnownVariantCodec.decode(
+                new BsonDocumentReader(this.encode(this.knownVariantWrapper)), DecoderContext.builder().build());
+        assertEquals(3L, decoded.getVersion());
+        assertEquals(this.knownVariantWrapper.getVariant().getStart(), decoded.getVariant().getStart());
+        LazyBsonList<CurationEntry> curations = (LazyBsonList<CurationEntry>) decoded.getImpl().getCurations();
+        LazyBsonList<EvidenceEntry> evidences = (LazyBsonList<EvidenceEntry>) decoded.getImpl().getEvidences();
+        assertFalse(curations.isDecoded());
+        assertFalse(evidences.isDecoded());
+        // only the accessed arrays are decoded
+        assertEquals(this.knownVariantWrapper.getImpl().getCurations(), curations);
+        assertTrue(curations.isDecoded());
+        assertFalse(evidences.isDecoded());
+        this.assertKnownVariantEquals(this.knownVariantWrapper, decoded);
+        // decoded lists can be modified
+        curations.add(new CurationEntry(curations.get(0).getCuration(), new LinkedList<>()));
+        assertEquals(2, decoded.getImpl().getCurations().size());
+    }
+
+    @Test
+    public void testMissingFields() {
+        BsonDocument bsonDocument = this.encode(this.knownVariantWrapper);
+        bsonDocument.remove(DocumentToKnownVariantConverter.EVIDENCES);
+        bsonDocument.remove(DocumentToKnownVariantConverter.VERSION);
+        bsonDocument.getArray(DocumentToKnownVariantConverter.COMMENTS).get(0).asDocument().remove("author");
+        KnownVariantWrapper decoded = this.decode(bsonDocument);
+        assertEquals(0, decoded.getImpl().getEvidences().size());
+        assertEquals(0L, decoded.getVersion());
+        assertNull(decoded.getImpl().getComments().get(0).getAuthor());
+    }
+}